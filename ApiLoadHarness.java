@@ -0,0 +1,311 @@
+package src;
+import javax.swing.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ApiLoadHarness puts the local HTTP API (NoteApi) under many concurrent clients
+ * and checks that it keeps the UI responsive. It serves a synthetic vault whose
+ * search index is restored without reading the notes, as after a normal startup,
+ * and wires writes through the EDT like NoteApp does. Clients send a random mix
+ * of searches, list pages, single-note reads and writes while a probe posts a
+ * task to the EDT every few milliseconds and records how long it waited to run.
+ *
+ * It reports p50/p99 latency per request kind, EDT probe latency, peak thread
+ * count and how many note bodies were read (only GET /notes/{title} should read
+ * one). It needs no display:
+ *   java -cp <classes> src.ApiLoadHarness --notes 20000 --clients 200 --requests 20000
+ * Exits with status 1 if --max-p99 is given and the EDT probe's p99 exceeds it.
+ */
+public class ApiLoadHarness {
+    private static final String[] WORDS = {
+        "alpha", "budget", "meeting", "draft", "idea", "travel", "recipe", "review", "sprint", "garden",
+        "invoice", "lecture", "kernel", "poem", "release", "summary", "todo", "backup", "design", "journal"
+    };
+    private static final String[] KINDS = {"search", "list", "get", "put"};
+    // Relative frequency of each request kind
+    private static final int[] WEIGHTS = {50, 20, 20, 10};
+    private static final int VARIANTS = 1000;      // Words are WORDS with a number, for a realistic vocabulary
+    private static final int PROBE_INTERVAL_MS = 5;
+
+    private final NoteStore store = new NoteStore();
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final SortedNoteIndex sortedNotes = new SortedNoteIndex();
+    private final TagIndex tagIndex = new TagIndex();
+    private final AtomicInteger bodiesRead = new AtomicInteger();
+    // Indexes saved notes off the EDT, like NoteApp's index worker
+    private final ExecutorService indexWorker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "note-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile boolean stopped;   // Tells the EDT probe to finish
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int noteCount = Integer.parseInt(options.getOrDefault("notes", "20000"));
+        int clients = Integer.parseInt(options.getOrDefault("clients", "200"));
+        int requests = Integer.parseInt(options.getOrDefault("requests", "20000"));
+        int port = Integer.parseInt(options.getOrDefault("port", "7879"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        long maxP99 = Long.parseLong(options.getOrDefault("max-p99", "0"));
+
+        ApiLoadHarness harness = new ApiLoadHarness();
+        long start = System.nanoTime();
+        harness.generate(noteCount, seed);
+        System.out.printf("Indexed %d synthetic notes (%d ms)%n", noteCount, (System.nanoTime() - start) / 1_000_000);
+        System.exit(harness.run(port, clients, requests, seed, maxP99) ? 0 : 1);
+    }
+
+    /**
+     * Create notes whose bodies are only produced when read, and index them from
+     * their words the way a SegmentIndex restore does, without reading them
+     */
+    private void generate(int count, long seed) {
+        Random random = new Random(seed);
+        long now = System.currentTimeMillis();
+        List<Note> notes = new ArrayList<>(count);
+        Map<Note, SearchIndex.Entry> entries = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            String title = String.format("Note %06d %s", i, WORDS[random.nextInt(WORDS.length)]);
+            String content = body(random);
+            long modified = now - random.nextInt(365 * 24 * 3600) * 1000L;
+            Note note = new Note(title, () -> {
+                bodiesRead.incrementAndGet();
+                return content;
+            }, modified, modified);
+            List<String> words = new ArrayList<>();
+            int[] offsets = SearchIndex.tokenize(content, words);
+            int[] terms = searchIndex.intern(words.toArray(new String[0]));
+            entries.put(note, new SearchIndex.Entry(null, modified, terms, offsets));
+            notes.add(note);
+        }
+        store.addAll(notes);
+        sortedNotes.updateAll(notes);
+        notes.forEach(tagIndex::update);
+        searchIndex.restore(entries);
+        searchIndex.markReady();
+    }
+
+    private static String body(Random random) {
+        int words = 20 + random.nextInt(200);
+        StringBuilder content = new StringBuilder(words * 8);
+        for (int w = 0; w < words; w++) {
+            content.append(word(random));
+            content.append(w % 12 == 11 ? '\n' : ' ');
+        }
+        return content.toString();
+    }
+
+    private static String word(Random random) {
+        return WORDS[random.nextInt(WORDS.length)] + random.nextInt(VARIANTS);
+    }
+
+    private boolean run(int port, int clients, int requests, long seed, long maxP99) throws Exception {
+        NoteApi api = new NoteApi(store, new NoteApi.Mutations() {
+            public Note put(String title, String content) throws IOException {
+                return onEdt(() -> {
+                    Note note = store.find(title);
+                    if (note == null) {
+                        note = new Note(title, content);
+                        store.add(note);
+                    } else {
+                        note.setContent(content);
+                    }
+                    sortedNotes.update(note);
+                    tagIndex.update(note);
+                    Note saved = note;
+                    indexWorker.execute(() -> searchIndex.update(saved));
+                    return note;
+                });
+            }
+            public boolean delete(String title) throws IOException {
+                return onEdt(() -> {
+                    Note note = store.find(title);
+                    if (note == null) return false;
+                    store.remove(note);
+                    sortedNotes.remove(note);
+                    tagIndex.remove(note);
+                    indexWorker.execute(() -> searchIndex.remove(note));
+                    return true;
+                });
+            }
+        }, query -> {
+            NoteQuery parsed = NoteQuery.parse(query);
+            return parsed == null ? tagIndex.allNotes() : parsed.run(store, searchIndex, sortedNotes, tagIndex.allNotes());
+        }, port);
+        api.start();
+
+        Map<String, List<Long>> latencies = new ConcurrentHashMap<>();
+        for (String kind : KINDS) latencies.put(kind, Collections.synchronizedList(new ArrayList<>()));
+        List<Long> probes = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger errors = new AtomicInteger();
+        AtomicInteger next = new AtomicInteger();
+
+        Thread probe = new Thread(() -> {
+            while (!stopped) {
+                long posted = System.nanoTime();
+                CountDownLatch ran = new CountDownLatch(1);
+                SwingUtilities.invokeLater(() -> {
+                    probes.add(System.nanoTime() - posted);
+                    ran.countDown();
+                });
+                try {
+                    ran.await();
+                    Thread.sleep(PROBE_INTERVAL_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "edt-probe");
+        probe.start();
+
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            Random random = new Random(seed + c);
+            Thread client = new Thread(() -> {
+                while (next.getAndIncrement() < requests) {
+                    String kind = pick(random);
+                    long sent = System.nanoTime();
+                    try {
+                        int status = request(port, kind, random);
+                        if (status >= 300) errors.incrementAndGet();
+                    } catch (IOException e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies.get(kind).add(System.nanoTime() - sent);
+                }
+            }, "client-" + c);
+            client.start();
+            threads.add(client);
+        }
+        for (Thread client : threads) client.join();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        stopped = true;
+        probe.join();
+        api.stop();
+
+        System.out.printf(Locale.ROOT, "%d requests from %d clients in %.1f s (%.0f/s), %d failed%n",
+            requests, clients, seconds, requests / seconds, errors.get());
+        System.out.printf("%-8s %8s %10s %10s %10s%n", "request", "count", "p50 ms", "p99 ms", "max ms");
+        for (String kind : KINDS) {
+            List<Long> samples = latencies.get(kind);
+            if (samples.isEmpty()) continue;
+            System.out.printf(Locale.ROOT, "%-8s %8d %10.2f %10.2f %10.2f%n", kind, samples.size(),
+                Percentiles.percentile(samples, 50) / 1e6, Percentiles.percentile(samples, 99) / 1e6,
+                Collections.max(samples) / 1e6);
+        }
+        long probeP99 = Percentiles.percentile(probes, 99);
+        System.out.printf(Locale.ROOT, "EDT probe: %d samples, p50 %.2f ms, p99 %.2f ms, max %.2f ms%n", probes.size(),
+            Percentiles.percentile(probes, 50) / 1e6, probeP99 / 1e6, Collections.max(probes) / 1e6);
+        System.out.printf("Peak threads: %d%n", ManagementFactory.getThreadMXBean().getPeakThreadCount());
+        System.out.printf("Note bodies read: %d (GET requests: %d)%n", bodiesRead.get(), latencies.get("get").size());
+        if (maxP99 > 0 && probeP99 / 1_000_000 > maxP99) {
+            System.out.printf("FAIL: EDT probe p99 above %d ms%n", maxP99);
+            return false;
+        }
+        return true;
+    }
+
+    private static String pick(Random random) {
+        int total = Arrays.stream(WEIGHTS).sum();
+        int roll = random.nextInt(total);
+        for (int i = 0; i < KINDS.length; i++) {
+            roll -= WEIGHTS[i];
+            if (roll < 0) return KINDS[i];
+        }
+        return KINDS[0];
+    }
+
+    /**
+     * Send one request of a kind and read the whole response
+     * @return The HTTP status
+     */
+    private int request(int port, String kind, Random random) throws IOException {
+        String path;
+        String method = "GET";
+        switch (kind) {
+            case "search":
+                // A word (matching a few hundred notes as a prefix), or two words
+                String query = random.nextBoolean() ? word(random) : word(random) + " " + word(random);
+                path = "/search?q=" + URLEncoder.encode(query, "UTF-8");
+                break;
+            case "list":
+                path = "/notes?offset=" + random.nextInt(Math.max(1, store.size())) + "&limit=100";
+                break;
+            case "get":
+                path = "/notes/" + encodePath(randomTitle(random));
+                break;
+            default:
+                method = "PUT";
+                path = "/notes/" + encodePath(random.nextBoolean() ? randomTitle(random) : "Api note " + random.nextInt(1000));
+        }
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        if (method.equals("PUT")) {
+            connection.setDoOutput(true);
+            try (OutputStream out = connection.getOutputStream()) {
+                out.write(body(random).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        if (in != null) {
+            try (InputStream body = in) {
+                ByteArrayOutputStream sink = new ByteArrayOutputStream();
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = body.read(buffer)) != -1) sink.write(buffer, 0, read);
+            }
+        }
+        return status;
+    }
+
+    private String randomTitle(Random random) {
+        List<Note> notes = store.notes();
+        return notes.get(random.nextInt(notes.size())).getTitle();
+    }
+
+    private static String encodePath(String title) throws IOException {
+        return URLEncoder.encode(title, "UTF-8").replace("+", "%20");
+    }
+
+    private static <T> T onEdt(java.util.concurrent.Callable<T> task) throws IOException {
+        java.util.concurrent.FutureTask<T> future = new java.util.concurrent.FutureTask<>(task);
+        SwingUtilities.invokeLater(future);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for the EDT");
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.err.println("Usage: ApiLoadHarness [--notes N] [--clients N] [--requests N] [--port N] [--seed N] [--max-p99 ms]");
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,359 @@
+package src;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * AttachmentStore keeps files attached to notes in a directory next to the notes
+ * directory ("notes-attachments" for "notes"). A file is split into chunks of
+ * 1 MB stored under the SHA-256 of their bytes, so a file attached twice, or
+ * files sharing chunks, take the space once. Each attachment is a small manifest
+ * named after the SHA-256 of the whole file, listing its chunks:
+ *
+ * <pre>
+ *   notes-attachments/chunks/3f/3fa2...   chunk bytes
+ *   notes-attachments/blobs/9c/9c41....properties   name, size, chunks
+ * </pre>
+ *
+ * Files are written while they are read, one chunk buffer at a time, and read
+ * back by memory mapping the chunk files, so attachment size is not limited by
+ * the heap. Notes refer to attachments with a Markdown link whose target is
+ * "attachment:" and the attachment id, e.g. [diagram.png](attachment:9c41...).
+ * Chunks and manifests are written atomically and never modified. Unreferenced
+ * attachments are kept.
+ */
+class AttachmentStore {
+    static final int CHUNK_BYTES = 1 << 20;
+    private static final String SCHEME = "attachment:";
+    // [name](attachment:id) or ![name](attachment:id)
+    private static final Pattern REFERENCE = Pattern.compile("\\[([^\\]\\n]*)\\]\\(" + SCHEME + "([0-9a-f]{64})\\)");
+    private static final List<String> IMAGE_EXTENSIONS = Arrays.asList("png", "jpg", "jpeg", "gif", "bmp");
+
+    /**
+     * A stored file: its id, original name, size and chunks in order
+     */
+    static final class Attachment {
+        final String id;
+        final String name;
+        final long size;
+        final List<String> chunks;
+
+        Attachment(String id, String name, long size, List<String> chunks) {
+            this.id = id;
+            this.name = name;
+            this.size = size;
+            this.chunks = chunks;
+        }
+
+        /**
+         * @return The Markdown link to put into a note; images use the image syntax
+         */
+        String reference() {
+            String label = name.replace('[', '(').replace(']', ')');
+            return (isImage(name) ? "!" : "") + "[" + label + "](" + SCHEME + id + ")";
+        }
+    }
+
+    /**
+     * An attachment link found in a note's text
+     */
+    static final class Reference {
+        final String name;
+        final String id;
+
+        Reference(String name, String id) {
+            this.name = name;
+            this.id = id;
+        }
+    }
+
+    private final File root;
+
+    /**
+     * @param root The attachments directory; created when the first file is added
+     */
+    AttachmentStore(File root) {
+        this.root = root;
+    }
+
+    /**
+     * @param notesDir The notes directory
+     * @return The store kept next to it
+     */
+    static AttachmentStore forNotes(File notesDir) {
+        File absolute = notesDir.getAbsoluteFile();
+        return new AttachmentStore(new File(absolute.getParentFile(), absolute.getName() + "-attachments"));
+    }
+
+    /**
+     * Store a file, reading it as a stream
+     * @param file The file to attach
+     * @return The stored attachment
+     */
+    Attachment add(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return add(in, file.getName());
+        }
+    }
+
+    /**
+     * Store the bytes of a stream, holding at most one chunk in memory
+     * @param in The data; read to the end but not closed
+     * @param name The file name to remember
+     * @return The stored attachment
+     */
+    Attachment add(InputStream in, String name) throws IOException {
+        MessageDigest whole = sha256();
+        MessageDigest part = sha256();
+        byte[] buffer = new byte[CHUNK_BYTES];
+        List<String> chunks = new ArrayList<>();
+        long size = 0;
+        int filled;
+        while ((filled = readChunk(in, buffer)) > 0) {
+            whole.update(buffer, 0, filled);
+            part.update(buffer, 0, filled);
+            String hash = hex(part.digest());
+            File chunk = chunkFile(hash);
+            if (!chunk.exists()) {
+                writeAtomically(chunk, ByteBuffer.wrap(buffer, 0, filled));
+            }
+            chunks.add(hash);
+            size += filled;
+            if (filled < buffer.length) break;
+        }
+        String id = hex(whole.digest());
+        File manifest = manifestFile(id);
+        if (manifest.exists()) {
+            Attachment existing = get(id);
+            if (existing != null) return existing; // Same bytes attached before
+        }
+        Properties properties = new Properties();
+        properties.setProperty("name", name);
+        properties.setProperty("size", Long.toString(size));
+        properties.setProperty("chunks", String.join(",", chunks));
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        try (Writer writer = new OutputStreamWriter(encoded, StandardCharsets.UTF_8)) {
+            properties.store(writer, "NoteApp attachment");
+        }
+        writeAtomically(manifest, ByteBuffer.wrap(encoded.toByteArray()));
+        return new Attachment(id, name, size, Collections.unmodifiableList(chunks));
+    }
+
+    /**
+     * Look up a stored attachment
+     * @param id The attachment id from a note's link
+     * @return The attachment, or null if it is not in the store
+     */
+    Attachment get(String id) throws IOException {
+        File manifest = manifestFile(id);
+        if (!manifest.exists()) return null;
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(manifest), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        String chunkList = properties.getProperty("chunks", "");
+        List<String> chunks = chunkList.isEmpty()
+            ? Collections.emptyList() : Arrays.asList(chunkList.split(","));
+        return new Attachment(id, properties.getProperty("name", id),
+            Long.parseLong(properties.getProperty("size", "0")), Collections.unmodifiableList(chunks));
+    }
+
+    /**
+     * Read an attachment. Chunks are memory mapped one at a time as the stream reaches them.
+     * @param attachment The attachment
+     * @return Its bytes; close when done
+     */
+    InputStream open(Attachment attachment) {
+        return new ChunkInputStream(attachment.chunks);
+    }
+
+    /**
+     * Copy an attachment to a file, chunk by chunk
+     */
+    void copyTo(Attachment attachment, File target) throws IOException {
+        try (FileChannel out = FileChannel.open(target.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (String hash : attachment.chunks) {
+                ByteBuffer chunk = map(hash);
+                while (chunk.hasRemaining()) {
+                    out.write(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if the file name has an image extension ImageIO reads
+     */
+    static boolean isImage(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot >= 0 && IMAGE_EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Find the attachment links in a note's text
+     * @return The links in order of appearance, each id once
+     */
+    static List<Reference> references(String content) {
+        if (content.indexOf(SCHEME) < 0) return Collections.emptyList();
+        List<Reference> references = new ArrayList<>();
+        List<String> seen = new ArrayList<>();
+        Matcher matcher = REFERENCE.matcher(content);
+        while (matcher.find()) {
+            if (!seen.contains(matcher.group(2))) {
+                seen.add(matcher.group(2));
+                references.add(new Reference(matcher.group(1), matcher.group(2)));
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Map a chunk file read-only. The mapping stays valid after the channel is closed.
+     */
+    private MappedByteBuffer map(String hash) throws IOException {
+        try (FileChannel channel = FileChannel.open(chunkFile(hash).toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Stream over the chunks of an attachment, mapping each when reached
+     */
+    private final class ChunkInputStream extends InputStream {
+        private final List<String> chunks;
+        private int next;
+        private ByteBuffer current = ByteBuffer.allocate(0);
+
+        ChunkInputStream(List<String> chunks) {
+            this.chunks = chunks;
+        }
+
+        private boolean advance() throws IOException {
+            while (!current.hasRemaining()) {
+                if (next == chunks.size()) return false;
+                current = map(chunks.get(next++));
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            return advance() ? current.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!advance()) return -1;
+            int count = Math.min(len, current.remaining());
+            current.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && advance()) {
+                int step = (int) Math.min(n - skipped, current.remaining());
+                current.position(current.position() + step);
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() {
+            return current.remaining();
+        }
+    }
+
+    private File chunkFile(String hash) {
+        return new File(new File(new File(root, "chunks"), hash.substring(0, 2)), hash);
+    }
+
+    private File manifestFile(String id) {
+        return new File(new File(new File(root, "blobs"), id.substring(0, 2)), id + ".properties");
+    }
+
+    /**
+     * Fill the buffer from the stream unless it ends first
+     * @return Number of bytes read, 0 at the end of the stream
+     */
+    private static int readChunk(InputStream in, byte[] buffer) throws IOException {
+        int filled = 0;
+        int read;
+        while (filled < buffer.length && (read = in.read(buffer, filled, buffer.length - filled)) > 0) {
+            filled += read;
+        }
+        return filled;
+    }
+
+    /**
+     * Write a file under a temporary name and move it into place, so a chunk or
+     * manifest is either complete or absent
+     */
+    private static void writeAtomically(File file, ByteBuffer data) throws IOException {
+        File dir = file.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        Path temp = Files.createTempFile(dir.toPath(), ".chunk", ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                while (data.hasRemaining()) {
+                    out.write(data);
+                }
+                out.force(true);
+            }
+            try {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); // Every JRE has SHA-256
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder out = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            out.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,174 @@
+package src;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+/**
+ * AutoSaver persists the note being edited without waiting for the Save button.
+ * Edits to the title, category, tags and body mark the editor dirty; a write
+ * happens once typing pauses, or at the latest after a maximum delay, and is
+ * skipped entirely when the content hash matches what was last written.
+ */
+class AutoSaver implements DocumentListener {
+    // Write once the user has stopped typing for this long
+    static final int IDLE_DELAY_MS = 1500;
+    // Never leave an edit unsaved for longer than this while typing continues
+    static final int MAX_DELAY_MS = 10000;
+    // Minimum spacing between two writes, bounds writes per minute
+    static final int MIN_WRITE_INTERVAL_MS = 3000;
+
+    /**
+     * The editor being autosaved
+     */
+    interface Target {
+        String currentTitle();
+        String currentContent();
+        String currentMetadata();
+        /**
+         * Write the editor contents to disk
+         * @return false if the note could not be written (e.g. it has no title yet)
+         */
+        boolean persist();
+    }
+
+    private final Target target;
+    private final Timer idleTimer;
+    private final Timer maxDelayTimer;
+    private boolean dirty;
+    private long generation;       // Incremented on every edit
+    private long savedGeneration;  // Generation covered by the last successful write
+    private long savedHash;        // Content hash of the last written state
+    private long lastWriteTime;
+    private int suppressDepth;     // > 0 while the editor is being filled programmatically
+
+    /**
+     * Create an autosaver for the given editor
+     * @param target The editor whose contents are saved
+     */
+    AutoSaver(Target target) {
+        this.target = target;
+        idleTimer = new Timer(IDLE_DELAY_MS, e -> flushIfDue());
+        idleTimer.setRepeats(false);
+        maxDelayTimer = new Timer(MAX_DELAY_MS, e -> flushIfDue());
+        maxDelayTimer.setRepeats(false);
+    }
+
+    public void insertUpdate(DocumentEvent e) { edited(); }
+    public void removeUpdate(DocumentEvent e) { edited(); }
+    public void changedUpdate(DocumentEvent e) { }
+
+    /**
+     * Record an edit and (re)schedule the pending write. Called by the document
+     * listeners, and directly for edits that are not document changes.
+     */
+    void edited() {
+        if (suppressDepth > 0) return;
+        generation++;
+        dirty = true;
+        // Also after a failed write, which leaves the editor dirty with no deadline running
+        if (!maxDelayTimer.isRunning()) maxDelayTimer.restart();
+        idleTimer.restart();
+    }
+
+    /**
+     * Run a programmatic change of the editor (loading a note, clearing it)
+     * without it counting as a user edit, then take the result as the clean state
+     * @param change The change to apply
+     */
+    void loadWithoutSaving(Runnable change) {
+        suppressDepth++;
+        try {
+            change.run();
+        } finally {
+            suppressDepth--;
+        }
+        markSaved();
+    }
+
+    /**
+     * Mark the current editor contents as persisted (after a manual save or a load)
+     */
+    void markSaved() {
+        idleTimer.stop();
+        maxDelayTimer.stop();
+        dirty = false;
+        savedGeneration = generation;
+        savedHash = currentHash();
+    }
+
+    /**
+     * @return true if there are edits that have not been written yet
+     */
+    boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Timer callback: write now unless a write happened too recently,
+     * in which case wait for the remainder of the minimum interval
+     */
+    private void flushIfDue() {
+        long sinceLastWrite = System.currentTimeMillis() - lastWriteTime;
+        if (sinceLastWrite < MIN_WRITE_INTERVAL_MS) {
+            int remaining = (int) (MIN_WRITE_INTERVAL_MS - sinceLastWrite);
+            idleTimer.setInitialDelay(remaining);
+            idleTimer.restart();
+            idleTimer.setInitialDelay(IDLE_DELAY_MS);
+            // The deadline too: continued typing keeps restarting the idle timer
+            maxDelayTimer.setInitialDelay(remaining);
+            maxDelayTimer.restart();
+            maxDelayTimer.setInitialDelay(MAX_DELAY_MS);
+            return;
+        }
+        flush();
+    }
+
+    /**
+     * Write pending edits immediately (used before switching notes and on exit)
+     */
+    void flush() {
+        idleTimer.stop();
+        maxDelayTimer.stop();
+        if (!dirty) return;
+        long hash = currentHash();
+        if (hash == savedHash) {
+            // Edits cancelled each other out, nothing to write
+            dirty = false;
+            savedGeneration = generation;
+            return;
+        }
+        long flushedGeneration = generation;
+        if (target.persist()) {
+            lastWriteTime = System.currentTimeMillis();
+            savedHash = hash;
+            savedGeneration = flushedGeneration;
+            dirty = generation != savedGeneration;
+        }
+    }
+
+    private long currentHash() {
+        return hash(target.currentTitle(), target.currentMetadata(), target.currentContent());
+    }
+
+    /**
+     * 64-bit FNV-1a hash of title, metadata and content, cheap enough to run on every flush
+     */
+    static long hash(String title, String metadata, String content) {
+        long h = 0xcbf29ce484222325L;
+        h = mix(h, title);
+        h = (h ^ 0xFFFF) * 0x100000001b3L; // Separator so "ab"+"c" differs from "a"+"bc"
+        h = mix(h, metadata);
+        h = (h ^ 0xFFFF) * 0x100000001b3L;
+        return mix(h, content);
+    }
+
+    /**
+     * Fold every character of a string into the running hash
+     */
+    private static long mix(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+}
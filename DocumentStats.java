@@ -0,0 +1,148 @@
+package src;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Segment;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * DocumentStats keeps word, line and character counts of a document up to date
+ * from its change events, without rescanning the text. Characters and lines are
+ * read from the document (its length and its line elements); words are cached
+ * per line element, so an edit only recounts the line it touched, plus any lines
+ * the event reports as added. Words are runs of non-whitespace characters and
+ * never span a line break.
+ */
+class DocumentStats implements DocumentListener {
+    // Average silent reading speed used for the reading time estimate
+    static final int WORDS_PER_MINUTE = 230;
+
+    private final Document document;
+    private final Runnable onChange;
+    private final Map<Element, Integer> lineWords = new HashMap<>(); // Elements compare by identity
+    private final Segment segment = new Segment();
+    private long words;
+
+    /**
+     * Start counting a document
+     * @param document The document, modified only on the EDT
+     * @param onChange Run after each change, on the EDT
+     */
+    DocumentStats(Document document, Runnable onChange) {
+        this.document = document;
+        this.onChange = onChange;
+        Element root = document.getDefaultRootElement();
+        for (int i = 0; i < root.getElementCount(); i++) {
+            addLine(root.getElement(i));
+        }
+        document.addDocumentListener(this);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        update(e);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        update(e);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // Attribute changes do not change the counts
+    }
+
+    private void update(DocumentEvent e) {
+        Element root = document.getDefaultRootElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        if (change == null) {
+            // The edit stayed within one line
+            Element line = root.getElement(root.getElementIndex(e.getOffset()));
+            Integer old = lineWords.remove(line);
+            if (old != null) words -= old;
+            addLine(line);
+        } else {
+            for (Element line : change.getChildrenRemoved()) {
+                Integer old = lineWords.remove(line);
+                if (old != null) words -= old;
+            }
+            for (Element line : change.getChildrenAdded()) {
+                addLine(line);
+            }
+        }
+        onChange.run();
+    }
+
+    private void addLine(Element line) {
+        int start = line.getStartOffset();
+        int end = Math.min(line.getEndOffset(), document.getLength());
+        int count = 0;
+        if (end > start) {
+            try {
+                document.getText(start, end - start, segment); // Points into the document, no copy
+                count = countWords(segment);
+            } catch (BadLocationException e) {
+                e.printStackTrace();
+            }
+        }
+        lineWords.put(line, count);
+        words += count;
+    }
+
+    /**
+     * @return Number of words
+     */
+    long getWords() {
+        return words;
+    }
+
+    /**
+     * @return Number of lines (an empty document has one)
+     */
+    int getLines() {
+        return document.getDefaultRootElement().getElementCount();
+    }
+
+    /**
+     * @return Number of characters
+     */
+    int getCharacters() {
+        return document.getLength();
+    }
+
+    /**
+     * @return Estimated reading time in minutes, rounded up
+     */
+    static long readingMinutes(long words) {
+        return (words + WORDS_PER_MINUTE - 1) / WORDS_PER_MINUTE;
+    }
+
+    /**
+     * Count the runs of non-whitespace characters
+     */
+    static int countWords(CharSequence text) {
+        int count = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            boolean wordChar = !Character.isWhitespace(text.charAt(i));
+            if (wordChar && !inWord) count++;
+            inWord = wordChar;
+        }
+        return count;
+    }
+
+    /**
+     * Count lines the way a text document does: line breaks plus one
+     */
+    static int countLines(CharSequence text) {
+        int count = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') count++;
+        }
+        return count;
+    }
+}
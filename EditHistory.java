@@ -0,0 +1,286 @@
+package src;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DocumentFilter;
+import javax.swing.text.JTextComponent;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * EditHistory gives the editor undo and redo. It records each change as a small
+ * operation (offset, removed text, inserted text) taken from a document filter,
+ * never as a copy of the note, and merges consecutive typing or deleting into one
+ * operation. Every note keeps its own history while the user switches between
+ * notes; all histories together are limited to a byte budget, and when it is
+ * exceeded the least recently edited notes lose their history first.
+ */
+class EditHistory {
+    // Memory allowed for all histories together
+    static final long MAX_BYTES = 8L * 1024 * 1024;
+    // Typing pauses longer than this start a new undo step
+    private static final long MERGE_WINDOW_MS = 1000;
+    // Rough per-operation overhead (object headers, fields, deque slot)
+    private static final int EDIT_OVERHEAD = 64;
+
+    /**
+     * One change: at offset, removed was replaced by inserted (either may be empty)
+     */
+    private static final class Edit {
+        final int offset;
+        String removed;
+        String inserted;
+        long time;
+
+        Edit(int offset, String removed, String inserted, long time) {
+            this.offset = offset;
+            this.removed = removed;
+            this.inserted = inserted;
+            this.time = time;
+        }
+
+        long bytes() {
+            return EDIT_OVERHEAD + 2L * (removed.length() + inserted.length());
+        }
+    }
+
+    /**
+     * Undo and redo stacks of one note
+     */
+    private static final class History {
+        final Deque<Edit> undo = new ArrayDeque<>();
+        final Deque<Edit> redo = new ArrayDeque<>();
+        long bytes;
+        int contentHash;    // Hash of the text when the note was left, to detect outside changes
+        int contentLength;
+    }
+
+    private final JTextComponent editor;
+    // Histories of notes not being edited, least recently used first
+    private final LinkedHashMap<Integer, History> histories = new LinkedHashMap<>(16, 0.75f, true);
+    private History current = new History();
+    private Integer currentKey;  // Note id of the current history, null for an unsaved note
+    private long totalBytes;
+    private int suspendDepth;    // > 0 while changes are not user edits
+
+    /**
+     * Start recording the edits made in a text component
+     * @param editor The editor; its document must be an AbstractDocument
+     */
+    EditHistory(JTextComponent editor) {
+        this.editor = editor;
+        ((AbstractDocument) editor.getDocument()).setDocumentFilter(new DocumentFilter() {
+            @Override
+            public void insertString(FilterBypass fb, int offset, String text, AttributeSet attrs)
+                    throws BadLocationException {
+                fb.insertString(offset, text, attrs);
+                record(offset, "", text);
+            }
+
+            @Override
+            public void remove(FilterBypass fb, int offset, int length) throws BadLocationException {
+                String removed = suspendDepth > 0 ? "" : fb.getDocument().getText(offset, length);
+                fb.remove(offset, length);
+                record(offset, removed, "");
+            }
+
+            @Override
+            public void replace(FilterBypass fb, int offset, int length, String text, AttributeSet attrs)
+                    throws BadLocationException {
+                String removed = suspendDepth > 0 ? "" : fb.getDocument().getText(offset, length);
+                fb.replace(offset, length, text, attrs);
+                record(offset, removed, text == null ? "" : text);
+            }
+        });
+    }
+
+    /**
+     * Record a user edit, merging it into the previous operation when it continues it
+     */
+    private void record(int offset, String removed, String inserted) {
+        if (suspendDepth > 0 || removed.isEmpty() && inserted.isEmpty()) return;
+        long now = System.currentTimeMillis();
+        clearRedo();
+        Edit last = current.undo.peekLast();
+        if (last != null && now - last.time < MERGE_WINDOW_MS) {
+            long before = last.bytes();
+            if (removed.isEmpty() && last.removed.isEmpty() && !inserted.contains("\n")
+                    && offset == last.offset + last.inserted.length()) {
+                last.inserted += inserted;   // Typing on
+            } else if (inserted.isEmpty() && last.inserted.isEmpty() && offset + removed.length() == last.offset) {
+                last = mergeBackspace(last, removed);
+            } else if (inserted.isEmpty() && last.inserted.isEmpty() && offset == last.offset) {
+                last.removed += removed;     // Forward delete
+            } else {
+                last = null;
+            }
+            if (last != null) {
+                last.time = now;
+                adjust(current, last.bytes() - before);
+                return;
+            }
+        }
+        Edit edit = new Edit(offset, removed, inserted, now);
+        current.undo.addLast(edit);
+        adjust(current, edit.bytes());
+    }
+
+    /**
+     * Backspacing moves the start of the operation left, so it is replaced by one starting earlier
+     */
+    private Edit mergeBackspace(Edit last, String removed) {
+        Edit merged = new Edit(last.offset - removed.length(), removed + last.removed, "", last.time);
+        current.undo.pollLast();
+        current.undo.addLast(merged);
+        return merged;
+    }
+
+    /**
+     * Undo the last edit of the current note
+     * @return false if there was nothing to undo
+     */
+    boolean undo() {
+        Edit edit = current.undo.pollLast();
+        if (edit == null) return false;
+        apply(edit.offset, edit.inserted.length(), edit.removed);
+        current.redo.addLast(edit);
+        return true;
+    }
+
+    /**
+     * Redo the last undone edit of the current note
+     * @return false if there was nothing to redo
+     */
+    boolean redo() {
+        Edit edit = current.redo.pollLast();
+        if (edit == null) return false;
+        apply(edit.offset, edit.removed.length(), edit.inserted);
+        edit.time = 0; // Never merge new typing into a redone step
+        current.undo.addLast(edit);
+        return true;
+    }
+
+    boolean canUndo() {
+        return !current.undo.isEmpty();
+    }
+
+    boolean canRedo() {
+        return !current.redo.isEmpty();
+    }
+
+    private void apply(int offset, int length, String text) {
+        suspendDepth++;
+        try {
+            ((AbstractDocument) editor.getDocument()).replace(offset, length, text, null);
+            editor.setCaretPosition(offset + text.length());
+        } catch (BadLocationException e) {
+            // The history no longer matches the text, it cannot be used
+            discard(current);
+        } finally {
+            suspendDepth--;
+        }
+    }
+
+    /**
+     * Run a programmatic change of the editor (loading a note) without recording it
+     */
+    void withoutRecording(Runnable change) {
+        suspendDepth++;
+        try {
+            change.run();
+        } finally {
+            suspendDepth--;
+        }
+    }
+
+    /**
+     * Switch to the history of another note. Call before the editor shows the
+     * note's text; the history is dropped if the note changed outside the editor.
+     * @param note The note about to be edited, or null for a new note
+     */
+    void switchTo(Note note) {
+        if (currentKey != null) {
+            String text = editor.getText();
+            current.contentHash = text.hashCode();
+            current.contentLength = text.length();
+            if (!current.undo.isEmpty() || !current.redo.isEmpty()) {
+                histories.put(currentKey, current);
+            }
+        } else {
+            discard(current); // An unsaved note's history has no note to return to
+        }
+        History next = note == null ? null : histories.remove(note.getId());
+        if (next != null) {
+            String content = note.getContent();
+            if (content.length() != next.contentLength || content.hashCode() != next.contentHash) {
+                discard(next);
+                next = null;
+            }
+        }
+        current = next != null ? next : new History();
+        currentKey = note == null ? null : note.getId();
+        trim();
+    }
+
+    /**
+     * Attach the current history to a note that was just created from the editor
+     */
+    void bind(Note note) {
+        currentKey = note.getId();
+    }
+
+    /**
+     * Forget the history of a deleted note
+     */
+    void forget(Note note) {
+        History history = histories.remove(note.getId());
+        if (history != null) discard(history);
+    }
+
+    /**
+     * @return Memory used by all histories, in bytes (approximate)
+     */
+    long getTotalBytes() {
+        return totalBytes;
+    }
+
+    private void clearRedo() {
+        for (Edit edit : current.redo) {
+            adjust(current, -edit.bytes());
+        }
+        current.redo.clear();
+    }
+
+    private void discard(History history) {
+        totalBytes -= history.bytes;
+        history.bytes = 0;
+        history.undo.clear();
+        history.redo.clear();
+    }
+
+    private void adjust(History history, long delta) {
+        history.bytes += delta;
+        totalBytes += delta;
+        if (delta > 0) trim();
+    }
+
+    /**
+     * Enforce the byte budget: evict the least recently used notes' histories,
+     * then the oldest steps of the current one
+     */
+    private void trim() {
+        Iterator<History> lru = histories.values().iterator();
+        while (totalBytes > MAX_BYTES && lru.hasNext()) {
+            discard(lru.next());
+            lru.remove();
+        }
+        while (totalBytes > MAX_BYTES && current.undo.size() > 1) {
+            adjust(current, -current.undo.pollFirst().bytes());
+        }
+        while (totalBytes > MAX_BYTES && !current.redo.isEmpty()) {
+            adjust(current, -current.redo.pollFirst().bytes());
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package src;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+/**
+ * JournalBenchmark measures a sustained burst of note saves written three ways:
+ *
+ * - rewrite: each save truncates the note file and writes it again in place, as
+ *   saves did before the journal. Nothing is synced, so this is neither durable
+ *   nor safe against a crash in the middle of a write.
+ * - rewrite-sync: each save replaces the note file atomically and syncs it
+ *   (NoteFile.write), the crash-safe way to save without a journal.
+ * - journal: each save is appended to a NoteJournal without waiting, as the app
+ *   does; records queued while the writer thread syncs share the next fsync.
+ *
+ * A save counts as durable once its write returns, or once its journal record is
+ * synced; all saves are issued at once, so journal records wait in its queue. The
+ * caller column is how long the saving thread itself was held up, which for the
+ * journal is only the append. The journal rewrites the note files later, at a
+ * checkpoint; closing the journal runs one, and its time is reported separately.
+ *
+ * Each mode runs in a fresh vault of --notes notes in a temporary directory,
+ * saving --saves times round-robin over them from --threads threads.
+ *
+ *   java -cp <classes> src.JournalBenchmark --notes 100 --saves 5000 --size 2000 --threads 1
+ */
+public class JournalBenchmark {
+    private static final long DATE = 1_600_000_000_000L;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int notes = Integer.parseInt(options.getOrDefault("notes", "100"));
+        int saves = Integer.parseInt(options.getOrDefault("saves", "5000"));
+        int size = Integer.parseInt(options.getOrDefault("size", "2000"));
+        int threads = Integer.parseInt(options.getOrDefault("threads", "1"));
+        if (threads < 1 || notes < threads) usage();
+        File parent = new File(options.getOrDefault("dir", System.getProperty("java.io.tmpdir")));
+        List<String> modes = Arrays.asList(options.getOrDefault("modes", "rewrite,rewrite-sync,journal").split(","));
+        System.out.printf("%,d saves of %,d-char notes over %,d notes, %d thread(s)%n", saves, size, notes, threads);
+        System.out.printf("%-13s %10s %9s %11s %11s %11s %11s%n", "mode", "total", "saves/s",
+            "durable p50", "durable p99", "caller p99", "checkpoint");
+        for (String mode : modes) {
+            Path root = Files.createTempDirectory(parent.toPath(), "journal-bench");
+            try {
+                VaultLayout layout = new VaultLayout(root.toFile());
+                for (int i = 0; i < notes; i++) {
+                    NoteFile.write(layout.fileFor(title(i)), null, title(i), body(size, i, 0), DATE, DATE, null);
+                }
+                run(mode.trim(), layout, notes, saves, size, threads);
+            } finally {
+                deleteVault(root);
+            }
+        }
+    }
+
+    private static void run(String mode, VaultLayout layout, int notes, int saves, int size, int threads) throws Exception {
+        long[] latencies = new long[saves];
+        long[] callers = new long[saves];
+        NoteJournal journal = mode.equals("journal") ? new NoteJournal(layout) : null;
+        List<CompletableFuture<Void>> durable = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> workers = new ArrayList<>();
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            int first = t;
+            Thread worker = new Thread(() -> {
+                try {
+                    // Each thread saves its own notes, so no two threads write one file
+                    int own = notes / threads;
+                    for (int s = first; s < saves; s += threads) {
+                        int index = first + threads * (s / threads % own);
+                        String title = title(index);
+                        String content = body(size, index, s + 1);
+                        long modified = DATE + s + 1;
+                        long begin = System.nanoTime();
+                        int save = s;
+                        switch (mode) {
+                            case "rewrite":
+                                try (PrintWriter writer = new PrintWriter(new FileWriter(layout.fileFor(title)))) {
+                                    writer.write(content);
+                                }
+                                latencies[save] = System.nanoTime() - begin;
+                                break;
+                            case "rewrite-sync":
+                                NoteFile.write(layout.fileFor(title), null, title, content, DATE, modified, null);
+                                latencies[save] = System.nanoTime() - begin;
+                                break;
+                            case "journal":
+                                durable.add(journal.append(NoteJournal.Op.UPDATE, modified, title, null, content, null)
+                                    .whenComplete((ok, error) -> latencies[save] = System.nanoTime() - begin));
+                                break;
+                            default:
+                                usage();
+                        }
+                        callers[save] = System.nanoTime() - begin;
+                    }
+                } catch (IOException | RuntimeException e) {
+                    errors.add(e);
+                }
+            }, "saver-" + t);
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) worker.join();
+        CompletableFuture.allOf(durable.toArray(new CompletableFuture<?>[0])).join();
+        long total = System.nanoTime() - start;
+        long checkpoint = 0;
+        if (journal != null) {
+            long begin = System.nanoTime();
+            journal.close();
+            checkpoint = System.nanoTime() - begin;
+        }
+        if (!errors.isEmpty()) throw new IllegalStateException("Save failed in " + mode, errors.get(0));
+        List<Long> durableTimes = new ArrayList<>(saves);
+        List<Long> callerTimes = new ArrayList<>(saves);
+        for (int i = 0; i < saves; i++) {
+            durableTimes.add(latencies[i]);
+            callerTimes.add(callers[i]);
+        }
+        System.out.printf("%-13s %7.0f ms %9.0f %8.3f ms %8.3f ms %8.3f ms %s%n", mode, total / 1e6, saves / (total / 1e9),
+            Percentiles.percentile(durableTimes, 50) / 1e6, Percentiles.percentile(durableTimes, 99) / 1e6,
+            Percentiles.percentile(callerTimes, 99) / 1e6,
+            journal == null ? String.format("%11s", "-") : String.format("%8.0f ms", checkpoint / 1e6));
+    }
+
+    private static String title(int index) {
+        return "Note " + index;
+    }
+
+    /**
+     * A body of the given length that differs from one save to the next
+     */
+    private static String body(int size, int index, int version) {
+        StringBuilder body = new StringBuilder(size);
+        body.append("Note ").append(index).append(" version ").append(version).append('\n');
+        while (body.length() < size) body.append("lorem ipsum dolor sit amet ");
+        body.setLength(size);
+        return body.toString();
+    }
+
+    private static void deleteVault(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) usage();
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: JournalBenchmark [--notes N] [--saves N] [--size chars] [--threads N]"
+            + " [--modes rewrite,rewrite-sync,journal] [--dir parent]");
+        System.exit(2);
+    }
+}
@@ -0,0 +1,125 @@
+package src;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Stream;
+
+/**
+ * LayoutBenchmark measures how long listing a vault and opening a note take in
+ * the flat and the sharded layout, for vaults of several sizes. For each size it
+ * generates a flat vault in a temporary directory, measures it, migrates it to the
+ * sharded layout with VaultLayout.migrate, measures again and deletes it.
+ *
+ * Listing is VaultLayout.listNoteFiles, the walk loadNotes starts with; the best
+ * and median of a few runs are reported. Opening a note is what reading a body
+ * costs once the app runs: locating the note's file among both layouts, then
+ * reading its header and body. It is timed for random titles and reported as
+ * p50/p99.
+ *
+ * With --cold true the page cache is dropped before every listing and before the
+ * opens (Linux, as root), so the figures include reading directories from disk;
+ * otherwise they are warm-cache figures.
+ *
+ *   java -cp <classes> src.LayoutBenchmark --notes 10000,100000,1000000 --opens 2000 --cold true
+ */
+public class LayoutBenchmark {
+    private static final int LIST_RUNS = 3;
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = parseOptions(args);
+        int opens = Integer.parseInt(options.getOrDefault("opens", "2000"));
+        boolean cold = Boolean.parseBoolean(options.getOrDefault("cold", "false"));
+        File parent = new File(options.getOrDefault("dir", System.getProperty("java.io.tmpdir")));
+        long seed = Long.parseLong(options.getOrDefault("seed", "1"));
+        System.out.printf("%-9s %-8s %10s %10s %9s %9s%n", "notes", "layout", "list best", "list med", "open p50", "open p99");
+        for (String size : options.getOrDefault("notes", "10000,100000").split(",")) {
+            int count = Integer.parseInt(size.trim());
+            Path root = Files.createTempDirectory(parent.toPath(), "layout-bench");
+            try {
+                long start = System.nanoTime();
+                generate(root.toFile(), count, new Random(seed));
+                System.err.printf("Generated %,d notes in %.1f s%n", count, (System.nanoTime() - start) / 1e9);
+                VaultLayout layout = new VaultLayout(root.toFile());
+                measure(layout, count, opens, cold, new Random(seed));
+                start = System.nanoTime();
+                int moved = layout.migrate(VaultLayout.Mode.SHARDED);
+                System.err.printf("Migrated %,d notes to the sharded layout in %.1f s%n", moved, (System.nanoTime() - start) / 1e9);
+                measure(layout, count, opens, cold, new Random(seed));
+            } finally {
+                deleteVault(root);
+            }
+        }
+    }
+
+    /**
+     * Write a flat vault of small notes; files are not synced, only their contents matter
+     */
+    private static void generate(File root, int count, Random random) throws IOException {
+        for (int i = 0; i < count; i++) {
+            String content = "Note " + i + " body " + random.nextInt(1_000_000) + "\n";
+            long date = 1_600_000_000_000L + i;
+            byte[] data = NoteFile.encode(date, date, "", content.getBytes(StandardCharsets.UTF_8));
+            Files.write(new File(root, "Note " + i + VaultLayout.NOTE_EXTENSION).toPath(), data);
+        }
+    }
+
+    private static void measure(VaultLayout layout, int count, int opens, boolean cold, Random random) throws IOException {
+        List<Long> listings = new ArrayList<>();
+        for (int run = 0; run < LIST_RUNS; run++) {
+            if (cold) dropCaches();
+            long start = System.nanoTime();
+            int listed = layout.listNoteFiles().size();
+            listings.add(System.nanoTime() - start);
+            if (listed != count) throw new IllegalStateException("Listed " + listed + " of " + count + " notes");
+        }
+        if (cold) dropCaches();
+        List<Long> openings = new ArrayList<>();
+        for (int i = 0; i < opens; i++) {
+            String title = "Note " + random.nextInt(count);
+            long start = System.nanoTime();
+            File file = layout.locate(title);
+            if (file == null) throw new IllegalStateException("No file for " + title);
+            NoteFile.readContent(file, null, title);
+            openings.add(System.nanoTime() - start);
+        }
+        System.out.printf("%-9s %-8s %8.1f ms %8.1f ms %6.3f ms %6.3f ms%n", String.format("%,d", count),
+            layout.getMode().name().toLowerCase(), Collections.min(listings) / 1e6, Percentiles.percentile(listings, 50) / 1e6,
+            Percentiles.percentile(openings, 50) / 1e6, Percentiles.percentile(openings, 99) / 1e6);
+    }
+
+    /**
+     * Drop the page, dentry and inode caches so the next read comes from disk
+     */
+    private static void dropCaches() throws IOException {
+        try {
+            new ProcessBuilder("sync").inheritIO().start().waitFor();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try (FileWriter out = new FileWriter("/proc/sys/vm/drop_caches")) {
+            out.write("3");
+        }
+    }
+
+    private static void deleteVault(Path root) throws IOException {
+        try (Stream<Path> paths = Files.walk(root)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.err.println("Usage: LayoutBenchmark [--notes N,N,...] [--opens N] [--cold true] [--dir parent] [--seed N]");
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,286 @@
+package src;
+import javax.swing.JEditorPane;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTMLDocument;
+import java.awt.Color;
+import java.awt.Font;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * MarkdownPreview shows the note being edited rendered as Markdown. The EDT keeps
+ * track of the lines edited since the last render. After each pause in typing a
+ * background thread splits the note into blocks again from the last block starting
+ * before those lines, only until a block lines up with one shown before, and
+ * renders the blocks that differ. The resulting patch is applied to the HTML
+ * document in a single EDT task, so the preview never shows a half-updated state
+ * and the EDT never parses Markdown.
+ */
+class MarkdownPreview extends JEditorPane implements DocumentListener {
+    private static final long serialVersionUID = 1L;
+    // Wait this long after the last keystroke before re-rendering
+    private static final int DEBOUNCE_MS = 150;
+    private static final String ROOT_ID = "md-root";
+
+    /**
+     * A change to the preview: replace blocks [start, start + removed) with the given blocks
+     */
+    private static final class Patch {
+        final int start;
+        final int removed;
+        final List<String> html;
+
+        Patch(int start, int removed, List<String> html) {
+            this.start = start;
+            this.removed = removed;
+            this.html = html;
+        }
+    }
+
+    private final Document source;
+    private final Timer debounce;
+    private final ExecutorService renderer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "markdown-preview");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Owned by the render thread: the blocks shown and the line count they were split from
+    private List<MarkdownRenderer.Block> renderedBlocks = Collections.emptyList();
+    private int renderedLines = 1;
+    private int shownBlocks;  // Blocks in the HTML document, each a child div of the root, EDT only
+    private boolean enabled = true;
+    // EDT only: the text edited since the last render, in current offsets; dirtyStart < 0 if none
+    private int dirtyStart = -1;
+    private int dirtyEnd;
+
+    /**
+     * Create a preview of a text document
+     * @param source The Markdown being edited
+     */
+    MarkdownPreview(Document source) {
+        this.source = source;
+        setEditable(false);
+        setContentType("text/html");
+        putClientProperty(JEditorPane.HONOR_DISPLAY_PROPERTIES, Boolean.TRUE);
+        setText("<html><body><div id=\"" + ROOT_ID + "\"></div></body></html>");
+        debounce = new Timer(DEBOUNCE_MS, e -> render());
+        debounce.setRepeats(false);
+        dirtyStart = 0;
+        dirtyEnd = source.getLength();
+        source.addDocumentListener(this);
+    }
+
+    public void insertUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (dirtyStart < 0) {
+            dirtyStart = offset;
+            dirtyEnd = offset + length;
+        } else {
+            dirtyStart = Math.min(dirtyStart, offset);
+            dirtyEnd = Math.max(dirtyEnd >= offset ? dirtyEnd + length : dirtyEnd, offset + length);
+        }
+        changed();
+    }
+
+    public void removeUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int length = e.getLength();
+        if (dirtyStart < 0) {
+            dirtyStart = offset;
+            dirtyEnd = offset;
+        } else {
+            dirtyStart = Math.min(dirtyStart, offset);
+            dirtyEnd = Math.max(dirtyEnd >= offset + length ? dirtyEnd - length : Math.min(dirtyEnd, offset), offset);
+        }
+        changed();
+    }
+
+    public void changedUpdate(DocumentEvent e) { }
+
+    private void changed() {
+        if (enabled) debounce.restart();
+    }
+
+    /**
+     * Turn live rendering on or off; turning it on brings the preview up to date
+     */
+    void setPreviewEnabled(boolean enabled) {
+        this.enabled = enabled;
+        if (enabled) {
+            render();
+        } else {
+            debounce.stop();
+        }
+    }
+
+    /**
+     * Pick up the colors and font of the active theme. The HTML view copies them
+     * into its style sheet, so they are set as plain colors rather than ThemeColors.
+     */
+    void themeChanged(Color text, Font font) {
+        Theme.Role role = ThemeColor.roleOf(text);
+        setForeground(role == null ? text : Theme.active().get(role));
+        setFont(font);
+    }
+
+    /**
+     * Snapshot the note and the edited lines on the EDT and hand them to the render thread
+     */
+    private void render() {
+        if (dirtyStart < 0) return;
+        String text;
+        try {
+            text = source.getText(0, source.getLength());
+        } catch (BadLocationException e) {
+            return;
+        }
+        Element lines = source.getDefaultRootElement();
+        int start = Math.min(dirtyStart, text.length());
+        int firstLine = lines.getElementIndex(start);
+        int lastLine = lines.getElementIndex(Math.min(dirtyEnd, text.length()));
+        int lineCount = lines.getElementCount();
+        dirtyStart = -1;
+        renderer.execute(() -> {
+            Patch patch = diff(text, start, firstLine, lastLine, lineCount);
+            if (patch != null) SwingUtilities.invokeLater(() -> apply(patch));
+        });
+    }
+
+    /**
+     * Render thread: split the note again around the edited lines and render only
+     * the blocks that differ from the previous render. Lines before the edit are
+     * unchanged, and so are lines after it, moved by the change in line count.
+     * @param start Offset of the first edited character
+     * @param firstLine First edited line
+     * @param lastLine Last edited line
+     * @param lineCount Lines in the text
+     * @return The patch to apply, or null if nothing changed
+     */
+    private Patch diff(String text, int start, int firstLine, int lastLine, int lineCount) {
+        List<MarkdownRenderer.Block> previous = renderedBlocks;
+        int lineDelta = lineCount - renderedLines;
+        // Split from the last block starting before the edited lines, which were all left alone
+        int from = firstBlockAt(previous, firstLine) - 1;
+        int fromLine = 0;
+        int fromOffset = 0;
+        if (from >= 0) {
+            fromLine = previous.get(from).line;
+            fromOffset = lineOffset(text, start, firstLine, fromLine);
+        } else {
+            from = 0;
+        }
+        // Stop at the first block after the edited lines that starts where a block started before
+        int[] resume = {previous.size()};
+        List<MarkdownRenderer.Block> split = MarkdownRenderer.splitBlocks(text, fromOffset, fromLine, line -> {
+            if (line <= lastLine) return false;
+            int old = firstBlockAt(previous, line - lineDelta);
+            if (old == previous.size() || previous.get(old).line != line - lineDelta) return false;
+            resume[0] = old;
+            return true;
+        });
+        int to = resume[0];
+        List<MarkdownRenderer.Block> blocks = new ArrayList<>(previous.size() - (to - from) + split.size());
+        blocks.addAll(previous.subList(0, from));
+        blocks.addAll(split);
+        for (int i = to; i < previous.size(); i++) {
+            blocks.add(previous.get(i).shifted(lineDelta));
+        }
+        renderedBlocks = blocks;
+        renderedLines = lineCount;
+
+        // Within the split range, keep the leading and trailing blocks that came out the same
+        int limit = Math.min(split.size(), to - from);
+        int prefix = 0;
+        while (prefix < limit && split.get(prefix).source.equals(previous.get(from + prefix).source)) prefix++;
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && split.get(split.size() - 1 - suffix).source.equals(previous.get(to - 1 - suffix).source)) {
+            suffix++;
+        }
+        int removed = to - from - prefix - suffix;
+        int added = split.size() - prefix - suffix;
+        if (removed == 0 && added == 0) return null;
+        List<String> html = new ArrayList<>(added);
+        for (int i = prefix; i < prefix + added; i++) {
+            html.add(MarkdownRenderer.renderBlock(split.get(i).source));
+        }
+        return new Patch(from + prefix, removed, html);
+    }
+
+    /**
+     * @return Index of the first block starting on or after a line
+     */
+    private static int firstBlockAt(List<MarkdownRenderer.Block> blocks, int line) {
+        int low = 0;
+        int high = blocks.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blocks.get(middle).line < line) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Find where an earlier line starts by walking back from a known offset
+     * @param offset An offset on line atLine
+     * @param line The line to find, at most atLine
+     */
+    private static int lineOffset(String text, int offset, int atLine, int line) {
+        int position = offset;
+        for (int i = atLine; i >= line; i--) {
+            position = text.lastIndexOf('\n', position - 1);
+            if (position < 0) return 0;
+        }
+        return position + 1;
+    }
+
+    /**
+     * EDT: apply a patch to the HTML document. Patches are applied in the order
+     * they were computed, each one relative to the previous. Blocks are looked up
+     * by their index under the root, since finding an element by id walks the
+     * whole document.
+     */
+    private void apply(Patch patch) {
+        HTMLDocument document = (HTMLDocument) getDocument();
+        Element root = document.getElement(ROOT_ID);
+        StringBuilder html = new StringBuilder();
+        for (String block : patch.html) {
+            html.append("<div>").append(block).append("</div>");
+        }
+        try {
+            if (patch.removed == shownBlocks) {
+                // Everything changed (e.g. another note was opened): replace the content wholesale
+                document.setInnerHTML(root, patch.html.isEmpty() ? "<p></p>" : html.toString());
+            } else {
+                for (int i = 0; i < patch.removed; i++) {
+                    document.removeElement(root.getElement(patch.start));
+                }
+                if (patch.html.isEmpty()) {
+                    // Pure deletion
+                } else if (patch.start > 0) {
+                    document.insertAfterEnd(root.getElement(patch.start - 1), html.toString());
+                } else {
+                    document.insertBeforeStart(root.getElement(0), html.toString());
+                }
+            }
+            shownBlocks += patch.html.size() - patch.removed;
+        } catch (BadLocationException | IOException e) {
+            System.err.println("Markdown preview update failed: " + e);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package src;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * MarkdownRenderer turns Markdown into HTML one block at a time. A note is first
+ * split into blocks (paragraphs, headings, lists, quotes, fenced code, rules);
+ * each block renders independently of the others, which is what allows the
+ * preview to re-render only the blocks an edit touched.
+ */
+final class MarkdownRenderer {
+    private static final Pattern HEADING = Pattern.compile("^(#{1,6})\\s+(.*?)\\s*#*\\s*$");
+    private static final Pattern RULE = Pattern.compile("^\\s{0,3}([-*_])(\\s*\\1){2,}\\s*$");
+    private static final Pattern BULLET = Pattern.compile("^\\s{0,3}[-*+]\\s+(.*)$");
+    private static final Pattern ORDERED = Pattern.compile("^\\s{0,3}\\d{1,9}[.)]\\s+(.*)$");
+    private static final Pattern QUOTE = Pattern.compile("^\\s{0,3}>\\s?(.*)$");
+    private static final Pattern FENCE = Pattern.compile("^\\s{0,3}(```|~~~).*$");
+    private static final Pattern BOLD = Pattern.compile("(\\*\\*|__)(?=\\S)(.+?)(?<=\\S)\\1");
+    private static final Pattern ITALIC = Pattern.compile("(\\*|_)(?=\\S)(.+?)(?<=\\S)\\1");
+    private static final Pattern STRIKE = Pattern.compile("~~(?=\\S)(.+?)(?<=\\S)~~");
+    private static final Pattern LINK = Pattern.compile("\\[([^\\]]+)\\]\\(([^)\\s]+)\\)");
+
+    private MarkdownRenderer() {
+    }
+
+    /**
+     * A block's Markdown source and the line it starts on
+     */
+    static final class Block {
+        final String source;
+        final int line;
+
+        Block(String source, int line) {
+            this.source = source;
+            this.line = line;
+        }
+
+        /**
+         * @return The same block, lines further down
+         */
+        Block shifted(int lines) {
+            return lines == 0 ? this : new Block(source, line + lines);
+        }
+    }
+
+    /**
+     * Split a note into the source text of its blocks. Blank lines separate blocks
+     * and are not part of any block.
+     * @param text The Markdown source
+     * @return The blocks in document order
+     */
+    static List<String> splitBlocks(String text) {
+        List<String> sources = new ArrayList<>();
+        for (Block block : splitBlocks(text, 0, 0, line -> false)) {
+            sources.add(block.source);
+        }
+        return sources;
+    }
+
+    /**
+     * Split part of a note into blocks, from a line where a block starts up to the
+     * end, or up to a block the caller already has. How a block ends depends only on
+     * its own lines and the line after it, so starting at any block start gives the
+     * same blocks as splitting the whole note.
+     * @param from Offset of the line to start at: 0, or the first line of a block
+     * @param line Index of that line
+     * @param stop Given the line of each block about to be added; true ends the split before it
+     * @return The blocks in document order
+     */
+    static List<Block> splitBlocks(String text, int from, int line, IntPredicate stop) {
+        Lines lines = new Lines(text, from);
+        List<Block> blocks = new ArrayList<>();
+        int i = 0;
+        while (lines.has(i)) {
+            if (lines.get(i).trim().isEmpty()) {
+                i++;
+                continue;
+            }
+            int start = i;
+            if (stop.test(line + start)) break;
+            String first = lines.get(i);
+            if (FENCE.matcher(first).matches()) {
+                String fence = first.trim().substring(0, 3);
+                i++;
+                while (lines.has(i) && !lines.get(i).trim().startsWith(fence)) i++;
+                if (lines.has(i)) i++;
+            } else if (HEADING.matcher(first).matches() || RULE.matcher(first).matches()) {
+                i++;
+            } else if (isListItem(first)) {
+                i++;
+                while (lines.has(i) && !lines.get(i).trim().isEmpty()
+                        && (isListItem(lines.get(i)) || Character.isWhitespace(lines.get(i).charAt(0)))) {
+                    i++;
+                }
+            } else if (QUOTE.matcher(first).matches()) {
+                i++;
+                while (lines.has(i) && QUOTE.matcher(lines.get(i)).matches()) i++;
+            } else {
+                i++;
+                while (lines.has(i) && !lines.get(i).trim().isEmpty() && !startsBlock(lines.get(i))) i++;
+            }
+            blocks.add(new Block(lines.join(start, i), line + start));
+        }
+        return blocks;
+    }
+
+    /**
+     * The lines of a text from some offset on, split as they are asked for
+     */
+    private static final class Lines {
+        private final String text;
+        private final List<String> lines = new ArrayList<>();
+        private int next;  // Offset of the first line not split yet, -1 after the last
+
+        Lines(String text, int from) {
+            this.text = text;
+            this.next = from;
+        }
+
+        boolean has(int index) {
+            while (lines.size() <= index && next >= 0) {
+                int end = text.indexOf('\n', next);
+                lines.add(text.substring(next, end < 0 ? text.length() : end));
+                next = end < 0 ? -1 : end + 1;
+            }
+            return index < lines.size();
+        }
+
+        String get(int index) {
+            has(index);
+            return lines.get(index);
+        }
+
+        String join(int from, int to) {
+            StringBuilder joined = new StringBuilder();
+            for (int i = from; i < to; i++) {
+                if (i > from) joined.append('\n');
+                joined.append(lines.get(i));
+            }
+            return joined.toString();
+        }
+    }
+
+    /**
+     * Render one block to HTML
+     * @param block The block's Markdown source, as produced by splitBlocks
+     * @return The HTML of the block
+     */
+    static String renderBlock(String block) {
+        String[] lines = block.split("\n", -1);
+        String first = lines[0];
+        Matcher matcher;
+        if (FENCE.matcher(first).matches()) {
+            int end = lines.length > 1 && lines[lines.length - 1].trim().startsWith(first.trim().substring(0, 3))
+                ? lines.length - 1 : lines.length;
+            return "<pre><code>" + escape(join(lines, 1, end)) + "</code></pre>";
+        }
+        if ((matcher = HEADING.matcher(first)).matches()) {
+            int level = matcher.group(1).length();
+            return "<h" + level + ">" + inline(matcher.group(2)) + "</h" + level + ">";
+        }
+        if (RULE.matcher(first).matches()) {
+            return "<hr>";
+        }
+        if (isListItem(first)) {
+            boolean ordered = ORDERED.matcher(first).matches();
+            StringBuilder html = new StringBuilder(ordered ? "<ol>" : "<ul>");
+            StringBuilder item = null;
+            for (String line : lines) {
+                Matcher bullet = ordered ? ORDERED.matcher(line) : BULLET.matcher(line);
+                if (bullet.matches()) {
+                    if (item != null) html.append("<li>").append(inline(item.toString())).append("</li>");
+                    item = new StringBuilder(bullet.group(1));
+                } else if (item != null) {
+                    item.append(' ').append(line.trim());
+                }
+            }
+            if (item != null) html.append("<li>").append(inline(item.toString())).append("</li>");
+            return html.append(ordered ? "</ol>" : "</ul>").toString();
+        }
+        if (QUOTE.matcher(first).matches()) {
+            StringBuilder quote = new StringBuilder();
+            for (String line : lines) {
+                Matcher quoted = QUOTE.matcher(line);
+                quote.append(quoted.matches() ? quoted.group(1) : line).append(' ');
+            }
+            return "<blockquote>" + inline(quote.toString().trim()) + "</blockquote>";
+        }
+        return "<p>" + inline(block.replace('\n', ' ')) + "</p>";
+    }
+
+    /**
+     * Render inline markup: `code`, **bold**, *italic*, ~~strike~~ and [links](url)
+     */
+    static String inline(String text) {
+        StringBuilder html = new StringBuilder();
+        String[] parts = text.split("`", -1);
+        for (int i = 0; i < parts.length; i++) {
+            boolean code = i % 2 == 1 && i < parts.length - 1;
+            if (code) {
+                html.append("<code>").append(escape(parts[i])).append("</code>");
+            } else {
+                if (i % 2 == 1) html.append('`'); // Unmatched backtick
+                String span = escape(parts[i]);
+                // Emphasis applies around links and in their text, never to their targets
+                Matcher link = LINK.matcher(span);
+                int end = 0;
+                while (link.find()) {
+                    html.append(emphasis(span.substring(end, link.start())));
+                    html.append("<a href=\"").append(link.group(2)).append("\">").append(emphasis(link.group(1))).append("</a>");
+                    end = link.end();
+                }
+                html.append(emphasis(span.substring(end)));
+            }
+        }
+        return html.toString();
+    }
+
+    /**
+     * Render **bold**, *italic* and ~~strike~~ in escaped text
+     */
+    private static String emphasis(String text) {
+        text = BOLD.matcher(text).replaceAll("<b>$2</b>");
+        text = ITALIC.matcher(text).replaceAll("<i>$2</i>");
+        return STRIKE.matcher(text).replaceAll("<s>$1</s>");
+    }
+
+    /**
+     * Escape text for inclusion in HTML
+     */
+    static String escape(String text) {
+        StringBuilder out = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '<': out.append("&lt;"); break;
+                case '>': out.append("&gt;"); break;
+                case '&': out.append("&amp;"); break;
+                case '"': out.append("&quot;"); break;
+                default: out.append(c);
+            }
+        }
+        return out.toString();
+    }
+
+    private static boolean isListItem(String line) {
+        return BULLET.matcher(line).matches() && !RULE.matcher(line).matches() || ORDERED.matcher(line).matches();
+    }
+
+    private static boolean startsBlock(String line) {
+        return FENCE.matcher(line).matches() || HEADING.matcher(line).matches()
+            || RULE.matcher(line).matches() || isListItem(line) || QUOTE.matcher(line).matches();
+    }
+
+    private static String join(String[] lines, int from, int to) {
+        StringBuilder joined = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            if (i > from) joined.append('\n');
+            joined.append(lines[i]);
+        }
+        return joined.toString();
+    }
+}
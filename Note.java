@@ -1,18 +1,44 @@
 package src;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
 /**
  * Note class represents a single note in the application.
  * Each note has a title, content, and timestamps for creation and modification.
+ * Fields are volatile so background threads always see the latest edit made on the EDT.
  */
 public class Note {
+    // Source of session-unique note ids
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    // Identifies the note in in-memory indexes for the lifetime of the application
+    private final int id = NEXT_ID.incrementAndGet();
+
     // The title of the note
-    private String title;
+    private volatile String title;
     
     // The content/body of the note
-    private String content;
+    private volatile String content;
+
+    // Produces the content on first access for notes loaded lazily, null once loaded
+    private volatile Supplier<String> contentLoader;
+
+    // The note's file failed its checksum, so the text read from it may be damaged; guarded by this
+    private boolean contentDamaged;
+
+    // The content was set in this session and no longer comes from the file; guarded by this
+    private boolean contentEdited;
+
+    // Category (one of NoteApp's categories) or null, and free-form tags
+    private volatile String category;
+    private volatile Set<String> tags = Collections.emptySet();
 
     // Timestamps for creation and modification
-    private long creationDate;
-    private long lastModifiedDate;
+    private volatile long creationDate;
+    private volatile long lastModifiedDate;
 
     /**
      * Constructor to create a new note with specified title and content
@@ -40,6 +66,28 @@ public class Note {
         this.lastModifiedDate = lastModifiedDate;
     }
 
+    /**
+     * Constructor for a note whose content is only read when first needed
+     * @param title The title of the note
+     * @param contentLoader Produces the content/body of the note on first access
+     * @param creationDate The creation timestamp
+     * @param lastModifiedDate The last modified timestamp
+     */
+    public Note(String title, Supplier<String> contentLoader, long creationDate, long lastModifiedDate) {
+        this.title = title;
+        this.contentLoader = contentLoader;
+        this.creationDate = creationDate;
+        this.lastModifiedDate = lastModifiedDate;
+    }
+
+    /**
+     * Gets the in-memory id of the note (not persisted, unique per application run)
+     * @return The note's id
+     */
+    public int getId() {
+        return id;
+    }
+
     /**
      * Gets the title of the note
      * @return The note's title
@@ -62,18 +110,131 @@ public class Note {
      * @return The note's content
      */
     public String getContent() {
+        if (contentLoader != null) {
+            synchronized (this) {
+                Supplier<String> loader = contentLoader;
+                if (loader != null) {
+                    content = loader.get();
+                    contentLoader = null;
+                }
+            }
+        }
         return content;
     }
 
+    /**
+     * Gets the content without keeping it in memory if it is not loaded yet, for
+     * background passes over every note that should not pull the vault into memory
+     * @return The note's content
+     */
+    public String readContent() {
+        Supplier<String> loader;
+        synchronized (this) {
+            loader = contentLoader;
+            if (loader == null) return content;
+        }
+        return loader.get();
+    }
+
+    /**
+     * @return true if the content is in memory, false if it is read from the note's file on first access
+     */
+    public boolean isContentLoaded() {
+        return contentLoader == null;
+    }
+
     /**
      * Sets the content of the note
      * @param content The new content for the note
      */
-    public void setContent(String content) {
+    public synchronized void setContent(String content) {
+        // Content first: a reader that sees no loader must see the new content
         this.content = content;
+        this.contentLoader = null;
+        this.contentDamaged = false;
+        this.contentEdited = true;
         this.lastModifiedDate = System.currentTimeMillis();
     }
 
+    /**
+     * Record that the note's file is damaged, so its text may be too. Ignored once
+     * the content has been set, as it then no longer comes from the file.
+     */
+    public synchronized void markContentDamaged() {
+        if (!contentEdited) contentDamaged = true;
+    }
+
+    /**
+     * @return true if the note's text comes from a file that failed its checksum
+     */
+    public synchronized boolean isContentDamaged() {
+        return contentDamaged;
+    }
+
+    /**
+     * Gets the category of the note
+     * @return The category, or null if the note has none
+     */
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * Sets the category of the note
+     * @param category The category, or null for none
+     */
+    public void setCategory(String category) {
+        this.category = category;
+    }
+
+    /**
+     * Gets the tags of the note
+     * @return An unmodifiable set of tags, in the order they were entered
+     */
+    public Set<String> getTags() {
+        return tags;
+    }
+
+    /**
+     * Sets the tags of the note
+     * @param tags The new tags
+     */
+    public void setTags(Set<String> tags) {
+        this.tags = tags.isEmpty() ? Collections.<String>emptySet()
+            : Collections.unmodifiableSet(new LinkedHashSet<>(tags));
+    }
+
+    /**
+     * Gets the category and tags in their stored form, "category|tag1,tag2"
+     * @return The encoded metadata, empty if the note has neither
+     */
+    public String getMetadata() {
+        if (category == null && tags.isEmpty()) return "";
+        return (category == null ? "" : category) + "|" + String.join(",", tags);
+    }
+
+    /**
+     * Sets category and tags from their stored form (see getMetadata)
+     * @param metadata The encoded metadata, empty or null for none
+     */
+    public void setMetadata(String metadata) {
+        if (metadata == null || metadata.isEmpty()) {
+            category = null;
+            tags = Collections.emptySet();
+            return;
+        }
+        int separator = metadata.indexOf('|');
+        String categoryPart = separator < 0 ? metadata : metadata.substring(0, separator);
+        category = categoryPart.isEmpty() ? null : categoryPart;
+        Set<String> parsed = new LinkedHashSet<>();
+        if (separator >= 0) {
+            for (String tag : metadata.substring(separator + 1).split(",")) {
+                if (!tag.trim().isEmpty()) parsed.add(tag.trim());
+            }
+        }
+        setTags(parsed);
+    }
+
     /**
      * Gets the creation date of the note
      * @return The timestamp when the note was created
@@ -0,0 +1,353 @@
+package src;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * NoteApi is an optional HTTP/JSON server on the loopback interface that lets
+ * scripts read and write the same in-memory notes the UI shows. Reads work on a
+ * NoteStore snapshot and never touch the EDT; searches run on the application's
+ * indexes without reading note bodies; writes are handed to the application so
+ * they go through the journal and indexes like an edit in the UI.
+ *
+ * Endpoints (titles are percent-encoded path segments, and must name a file inside
+ * the vault; see VaultLayout.checkTitle):
+ *   GET    /notes                list notes without content, ?offset=&limit= to page
+ *   GET    /notes/{title}        one note with content
+ *   GET    /search?q=query       notes matching a query, in the sidebar search syntax
+ *   PUT    /notes/{title}        create or replace a note, request body is the content
+ *   DELETE /notes/{title}        delete a note
+ * List and search responses are streamed, so large result sets are never built in memory.
+ */
+class NoteApi {
+    static final int DEFAULT_PORT = 7878;
+
+    /**
+     * Mutations the server delegates to the application
+     */
+    interface Mutations {
+        /**
+         * Create a note or replace the content of an existing one
+         * @return The stored note
+         */
+        Note put(String title, String content) throws IOException;
+
+        /**
+         * @return false if there was no note with that title
+         */
+        boolean delete(String title) throws IOException;
+    }
+
+    /**
+     * Runs searches on the application's indexes
+     */
+    interface Search {
+        /**
+         * @param query A query in the syntax of NoteQuery
+         * @return Ids of the matching notes
+         * @throws IllegalArgumentException if the query is malformed
+         * @throws IllegalStateException if the indexes are not built yet
+         */
+        TagBitmap run(String query);
+    }
+
+    private final NoteStore store;
+    private final Mutations mutations;
+    private final Search search;
+    private final int port;
+    private HttpServer server;
+    private ExecutorService executor;
+
+    /**
+     * Create a server; it does not listen until started
+     * @param store The notes served
+     * @param mutations Applies writes
+     * @param search Runs searches
+     * @param port The loopback port to listen on
+     */
+    NoteApi(NoteStore store, Mutations mutations, Search search, int port) {
+        this.store = store;
+        this.mutations = mutations;
+        this.search = search;
+        this.port = port;
+    }
+
+    /**
+     * Start listening on 127.0.0.1
+     */
+    synchronized void start() throws IOException {
+        if (server != null) return;
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 256);
+        executor = newExecutor();
+        server.setExecutor(executor);
+        server.createContext("/notes", this::handle);
+        server.createContext("/search", this::handle);
+        server.start();
+    }
+
+    /**
+     * Stop listening, letting requests in flight finish for up to a second
+     */
+    synchronized void stop() {
+        if (server == null) return;
+        server.stop(1);
+        executor.shutdown();
+        server = null;
+    }
+
+    /**
+     * @return true if the server is listening
+     */
+    synchronized boolean isRunning() {
+        return server != null;
+    }
+
+    /**
+     * @return The port the server listens on
+     */
+    int getPort() {
+        return port;
+    }
+
+    /**
+     * One virtual thread per request where the runtime has them (Java 21+),
+     * otherwise a fixed pool of daemon threads; requests beyond the pool wait in
+     * its queue instead of each starting a platform thread
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+            return Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "note-api");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!isLoopbackHost(exchange.getRequestHeaders().getFirst("Host"))) {
+                // Refuse requests a web page could make through a rebound DNS name
+                sendText(exchange, 403, "Forbidden");
+                return;
+            }
+            URI uri = exchange.getRequestURI();
+            String path = uri.getRawPath();
+            Map<String, String> query = parseQuery(uri.getRawQuery());
+            String method = exchange.getRequestMethod();
+            if (path.equals("/search")) {
+                if (!method.equals("GET")) {
+                    sendText(exchange, 405, "Method not allowed");
+                } else {
+                    search(exchange, query.getOrDefault("q", ""));
+                }
+            } else if (path.equals("/notes") || path.equals("/notes/")) {
+                if (!method.equals("GET")) {
+                    sendText(exchange, 405, "Method not allowed");
+                } else {
+                    list(exchange, parseInt(query.get("offset"), 0), parseInt(query.get("limit"), Integer.MAX_VALUE));
+                }
+            } else if (path.startsWith("/notes/")) {
+                // Percent-decoded only: a "+" in a path is a plus, not a space
+                String title = uri.getPath().substring("/notes/".length());
+                if (store.find(title) == null) {
+                    VaultLayout.checkTitle(title); // Notes in the store were listed from the vault, or checked here
+                }
+                switch (method) {
+                    case "GET": get(exchange, title); break;
+                    case "PUT": put(exchange, title); break;
+                    case "DELETE": delete(exchange, title); break;
+                    default: sendText(exchange, 405, "Method not allowed");
+                }
+            } else {
+                sendText(exchange, 404, "Not found");
+            }
+        } catch (IllegalArgumentException e) {
+            sendText(exchange, 400, e.getMessage());
+        } catch (IllegalStateException e) {
+            sendText(exchange, 503, e.getMessage());
+        } catch (IOException e) {
+            sendText(exchange, 500, e.getMessage());
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void list(HttpExchange exchange, int offset, int limit) throws IOException {
+        List<Note> notes = store.notes();
+        try (Writer out = startStream(exchange)) {
+            out.write('[');
+            int end = (int) Math.min(notes.size(), (long) offset + limit);
+            for (int i = Math.max(0, offset); i < end; i++) {
+                if (i > offset) out.write(',');
+                writeNote(out, notes.get(i), false);
+            }
+            out.write(']');
+        }
+    }
+
+    private void search(HttpExchange exchange, String query) throws IOException {
+        TagBitmap matches = search.run(query);  // Before any output, so a bad query can still get a 400
+        try (Writer out = startStream(exchange)) {
+            out.write('[');
+            boolean first = true;
+            for (Note note : store) {
+                if (matches.contains(note.getId())) {
+                    if (!first) out.write(',');
+                    writeNote(out, note, false);
+                    first = false;
+                }
+            }
+            out.write(']');
+        }
+    }
+
+    private void get(HttpExchange exchange, String title) throws IOException {
+        Note note = store.find(title);
+        if (note == null) {
+            sendText(exchange, 404, "No note titled " + title);
+            return;
+        }
+        StringWriter json = new StringWriter();
+        writeNote(json, note, true);
+        send(exchange, 200, "application/json", json.toString());
+    }
+
+    private void put(HttpExchange exchange, String title) throws IOException {
+        String content = readBody(exchange.getRequestBody());
+        boolean existed = store.find(title) != null;
+        Note note = mutations.put(title, content);
+        StringWriter json = new StringWriter();
+        writeNote(json, note, false);
+        send(exchange, existed ? 200 : 201, "application/json", json.toString());
+    }
+
+    private void delete(HttpExchange exchange, String title) throws IOException {
+        if (mutations.delete(title)) {
+            exchange.sendResponseHeaders(204, -1);
+        } else {
+            sendText(exchange, 404, "No note titled " + title);
+        }
+    }
+
+    /**
+     * Send headers for a chunked JSON response and return a writer for the body
+     */
+    private static Writer startStream(HttpExchange exchange) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(200, 0);
+        return new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8), 1 << 14);
+    }
+
+    private static void writeNote(Writer out, Note note, boolean withContent) throws IOException {
+        out.write("{\"title\":");
+        writeString(out, note.getTitle());
+        out.write(",\"created\":" + note.getCreationDate());
+        out.write(",\"modified\":" + note.getLastModifiedDate());
+        out.write(",\"category\":");
+        if (note.getCategory() == null) {
+            out.write("null");
+        } else {
+            writeString(out, note.getCategory());
+        }
+        out.write(",\"tags\":[");
+        boolean first = true;
+        for (String tag : note.getTags()) {
+            if (!first) out.write(',');
+            writeString(out, tag);
+            first = false;
+        }
+        out.write(']');
+        if (withContent) {
+            out.write(",\"content\":");
+            writeString(out, note.getContent());
+        }
+        out.write('}');
+    }
+
+    /**
+     * Write a JSON string literal
+     */
+    static void writeString(Writer out, String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': out.write("\\\""); break;
+                case '\\': out.write("\\\\"); break;
+                case '\n': out.write("\\n"); break;
+                case '\r': out.write("\\r"); break;
+                case '\t': out.write("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String message) throws IOException {
+        send(exchange, status, "text/plain", message == null ? "" : message);
+    }
+
+    private static void send(HttpExchange exchange, int status, String type, String body) throws IOException {
+        byte[] data = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", type + "; charset=utf-8");
+        exchange.sendResponseHeaders(status, data.length);
+        exchange.getResponseBody().write(data);
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            body.write(buffer, 0, read);
+        }
+        return new String(body.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static boolean isLoopbackHost(String host) {
+        if (host == null) return true; // HTTP/1.0 clients
+        String name = host.startsWith("[") ? host.substring(0, host.indexOf(']') + 1)
+            : host.contains(":") ? host.substring(0, host.indexOf(':')) : host;
+        return name.equals("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+    }
+
+    private static Map<String, String> parseQuery(String query) throws UnsupportedEncodingException {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null) return parameters;
+        for (String pair : query.split("&")) {
+            int equals = pair.indexOf('=');
+            String key = equals < 0 ? pair : pair.substring(0, equals);
+            String value = equals < 0 ? "" : pair.substring(equals + 1);
+            parameters.put(URLDecoder.decode(key, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+        return parameters;
+    }
+
+    private static int parseInt(String value, int fallback) {
+        if (value == null) return fallback;
+        try {
+            return Math.max(0, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Not a number: " + value);
+        }
+    }
+}
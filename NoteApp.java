@@ -6,7 +6,14 @@ import java.awt.*;
 import java.awt.event.*;
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 import javax.swing.plaf.basic.BasicTextFieldUI;
 
@@ -18,26 +25,37 @@ import javax.swing.plaf.basic.BasicTextFieldUI;
 public class NoteApp extends JFrame {
     // --- GUI Components and State ---
     private JTextArea noteArea;        // Main text area for note content
-    private JList<String> noteList;    // List showing all note titles
-    private DefaultListModel<String> listModel;  // Model for the note list
-    private List<Note> notes;          // List to store Note objects in memory
+    private MarkdownPreview markdownPreview;  // Live Markdown rendering of noteArea
+    private EditHistory editHistory;          // Undo and redo of noteArea edits, per note
+    private SearchHighlighter searchHighlighter;  // Marks sidebar search hits in noteArea
+    private JSplitPane editorSplit;    // Holds noteArea and the preview side by side
+    private JList<Note> noteList;      // List showing all note titles
+    private NoteListModel listModel;   // Model for the note list
+    private final NoteStore notes = new NoteStore();  // All notes, safe to read from any thread
     private JTextField titleField;     // Text field for note title
     private JTextField searchField;    // Text field for searching notes (legacy)
     private JLabel dateLabel;          // Label to show note dates
     private JLabel statusLabel;        // Label to show application status
-    private JComboBox<String> categoryComboBox;  // Combo box for selecting note category (not used in minimal UI)
+    private JComboBox<String> categoryComboBox;  // Sidebar filter by category ("All" shows every note)
+    private JComboBox<String> noteCategoryBox;   // Category of the note being edited
+    private JTextField tagsField;      // Comma separated tags of the note being edited
+    private PlaceholderTextField tagFilterField;  // Sidebar tag filter, e.g. "Work AND Tasks NOT Ideas"
     private JButton boldButton, italicButton, underlineButton;  // Formatting buttons (not shown in minimal UI)
-    private JColorChooser colorChooser;  // Color chooser for text formatting
+    private JColorChooser colorChooser;  // Color chooser for text formatting (not built until needed)
+    private JFileChooser fileChooser;    // Import/export chooser, created on first use
     private JPanel toolbarPanel;        // Panel for toolbar buttons
-    private static final String NOTES_DIR = "notes";  // Directory to store note files
+    // Directory to store note files; -Dnoteapp.dir points the app at another vault (soak runs, tests)
+    private static final String NOTES_DIR = System.getProperty("noteapp.dir", "notes");
     private static final String[] CATEGORIES = {"All", "Work", "Personal", "Ideas", "Tasks", "Other"};
     
     // --- Modern color scheme and fonts ---
-    private static Color BACKGROUND_COLOR = new Color(250, 250, 250);
-    private static Color ACCENT_COLOR = new Color(41, 128, 185);
-    private static Color TEXT_COLOR = new Color(44, 62, 80);
-    private static Color BORDER_COLOR = new Color(236, 240, 241);
-    private static Color HOVER_COLOR = new Color(236, 240, 241);
+    // Colors resolve against the active Theme when painted, so they never need reassigning
+    private static final Color BACKGROUND_COLOR = ThemeColor.of(Theme.Role.BACKGROUND);
+    private static final Color SURFACE_COLOR = ThemeColor.of(Theme.Role.SURFACE);
+    private static final Color ACCENT_COLOR = ThemeColor.of(Theme.Role.ACCENT);
+    private static final Color TEXT_COLOR = ThemeColor.of(Theme.Role.TEXT);
+    private static final Color BORDER_COLOR = ThemeColor.of(Theme.Role.BORDER);
+    private static final Color HOVER_COLOR = ThemeColor.of(Theme.Role.HOVER);
     private static final Font MAIN_FONT = new Font("Segoe UI", Font.PLAIN, 14);
     private static final Font HEADER_FONT = new Font("Segoe UI", Font.BOLD, 16);
     private static final Font BUTTON_FONT = new Font("Segoe UI", Font.PLAIN, 13);
@@ -48,18 +66,461 @@ public class NoteApp extends JFrame {
 
     // --- Sidebar search and dark mode state ---
     private PlaceholderTextField sidebarSearchField;
-    private List<Note> filteredNotes = new ArrayList<>();
+    private volatile List<Note> filteredNotes = Collections.emptyList();  // Notes shown in the sidebar, in display order; replaced, never modified
+    private final SortedNoteIndex sortedNotes = new SortedNoteIndex();
+    private SortedNoteIndex.SortMode sortMode = SortedNoteIndex.SortMode.MODIFIED;
+    private final TagIndex tagIndex = new TagIndex();
+    private final SimilarityIndex similarity = new SimilarityIndex();  // MinHash buckets behind the related notes
+    private final VaultStats vaultStats = new VaultStats();            // Word, line and character totals
+    private final SearchIndex searchIndex = new SearchIndex();         // Words of every note with their positions
+    private volatile SegmentIndex storedIndex;                         // The search index on disk, null in an encrypted vault
+    private NoteQuery lastQuery;                                       // Last sidebar search run, for Explain Search
+    // Maintains the similarity index and vault statistics off the EDT, in the order notes change
+    private final ExecutorService indexWorker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "note-indexer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private JPanel relatedPanel;        // Links to notes similar to the one in the editor
+    private JPanel attachmentPanel;     // Files linked from the note in the editor, images as thumbnails
+    private final AttachmentStore attachments = AttachmentStore.forNotes(new File(NOTES_DIR));
+    private final ThumbnailCache thumbnails = new ThumbnailCache(attachments, 16L << 20);
+    private JFileChooser attachChooser;   // Chooser for files to attach, created on first use
+    private DocumentStats documentStats;  // Counts of the note in the editor, kept up to date per edit
+    private JLabel statsLabel;          // Note and vault statistics in the status bar
+    private static final String NO_CATEGORY = "None";
     private boolean darkMode = false;
 
+    // --- Editing state ---
+    private Note currentNote;           // Note loaded in the editor, null for an unsaved new note
+    private AutoSaver autoSaver;        // Writes edits in the background after typing pauses
+    private volatile NoteJournal journal;  // Write-ahead log all note mutations go through, opened in the background
+    private boolean notesLoaded;        // Saving is held back until the vault has been read
+    private boolean loadFailed;         // The vault could not be read, so nothing is ever written over it
+    private volatile VaultCipher cipher;  // Key of an encrypted vault for this session, null for plaintext
+    private boolean painted;            // The window has been painted at least once
+    private VaultLayout layout = new VaultLayout(new File(NOTES_DIR));  // Flat or sharded note file placement
+    private final VaultScrubber scrubber = new VaultScrubber(layout, damage ->
+        SwingUtilities.invokeLater(() -> repairDamagedNote(damage)));  // Checks note files against their checksums
+    private boolean snapshotStale;      // Notes changed since the last snapshot was written
+    private boolean exiting;            // exitApplication has started shutting down
+    private boolean migrating;          // A layout migration is running
+    private static final int SNAPSHOT_INTERVAL_MS = 5 * 60 * 1000;
+    private NoteApi api;                // Local HTTP API, started from Settings or with -Dnoteapp.api=true
+
     /**
-     * Constructor initializes the application and sets up the UI
+     * Constructor builds the window. The look and feel must already be installed
+     * (see main); the menu bar and the notes are added once the window is showing.
      */
     public NoteApp() {
-        notes = new ArrayList<>();
         setupUI(); // Build the main UI
-        loadNotes();  // Load existing notes from the notes directory
-        setupKeyboardShortcuts(); // Register global shortcuts
-        setupModernLookAndFeel(); // Apply modern look and feel
+        setupAutoSave(); // Persist edits without waiting for Save
+        setupSnapshots(); // Periodically snapshot notes for fast startup
+        setupApi(); // Serve notes to local scripts if enabled
+        StartupTimer.mark("window built");
+    }
+
+    /**
+     * Second startup stage, run once the window is visible: install the menu bar
+     * and load the notes in the background
+     */
+    private void finishStartup() {
+        SwingUtilities.invokeLater(() -> {
+            setJMenuBar(createMenuBar());
+            getRootPane().revalidate();
+            StartupTimer.mark("menu bar installed");
+        });
+        loadVault();
+    }
+
+    /**
+     * Unlock the vault if it is encrypted, then recover the journal and read the
+     * notes in the background. Asks again if the password turns out to be wrong.
+     */
+    private void loadVault() {
+        char[] password = null;
+        if (VaultCipher.isEnabled(layout.getRoot())) {
+            password = askPassword();
+            if (password == null) {
+                System.exit(0);
+            }
+        }
+        final char[] vaultPassword = password;
+        statusLabel.setText("Loading notes...");
+        new SwingWorker<Void, Void>() {
+            protected Void doInBackground() throws Exception {
+                if (vaultPassword != null) {
+                    try {
+                        // Derived once per session, then reused for every note
+                        cipher = VaultCipher.unlock(layout.getRoot(), vaultPassword);
+                    } finally {
+                        Arrays.fill(vaultPassword, '\0');
+                    }
+                    StartupTimer.mark("vault unlocked");
+                }
+                openJournal(); // Recover edits from a previous crash before reading note files
+                StartupTimer.mark("journal recovered");
+                loadNotes(); // Load existing notes from the notes directory
+                return null;
+            }
+            protected void done() {
+                try {
+                    get();
+                    statusLabel.setText("Loaded " + notes.size() + (cipher != null ? " encrypted notes" : " notes"));
+                } catch (Exception e) {
+                    if (e.getCause() instanceof java.security.GeneralSecurityException) {
+                        JOptionPane.showMessageDialog(NoteApp.this, "Wrong password.");
+                        loadVault();
+                        return;
+                    }
+                    e.printStackTrace();
+                    // Saving now could replace notes that were never read: stay read-only
+                    loadFailed = true;
+                    statusLabel.setText("Error loading notes, saving is disabled: " + e.getMessage());
+                    JOptionPane.showMessageDialog(NoteApp.this, "The notes could not be loaded:\n" + e.getMessage()
+                        + "\n\nSaving is disabled so nothing is overwritten. Restart NoteApp once the problem is fixed.",
+                        "Error Loading Notes", JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                notesLoaded = true;
+                updateNoteList();
+                indexInBackground();
+                scrubber.start();
+                StartupTimer.mark("interactive, " + notes.size() + " notes loaded");
+                // Edits typed while loading were held back, write them now
+                if (autoSaver.isDirty()) autoSaver.flush();
+                if (Boolean.getBoolean("noteapp.api")) setApiEnabled(true);
+            }
+        }.execute();
+    }
+
+    /**
+     * Ask for the password of an encrypted vault
+     * @return The password, or null if the user cancelled
+     */
+    private char[] askPassword() {
+        JPasswordField passwordField = new JPasswordField(20);
+        int choice = JOptionPane.showConfirmDialog(this, new Object[] {"This vault is encrypted. Password:", passwordField},
+            "Unlock Notes", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE);
+        return choice == JOptionPane.OK_OPTION ? passwordField.getPassword() : null;
+    }
+
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            StartupTimer.mark("first paint");
+        }
+    }
+
+    /**
+     * Create the local HTTP API. Writes are run on the EDT so they go through
+     * the same path as edits made in the UI; searches run on the request thread
+     * against the thread-safe indexes, like the sidebar search but without the
+     * tag and category filters.
+     */
+    private void setupApi() {
+        api = new NoteApi(notes, new NoteApi.Mutations() {
+            public Note put(String title, String content) throws IOException {
+                return onEdt(() -> putNote(title, content));
+            }
+            public boolean delete(String title) throws IOException {
+                return onEdt(() -> {
+                    checkWritable();
+                    Note note = notes.find(title);
+                    if (note == null) return false;
+                    removeNote(note);
+                    return true;
+                });
+            }
+        }, this::searchForApi, Integer.getInteger("noteapp.api.port", NoteApi.DEFAULT_PORT));
+    }
+
+    /**
+     * Run a search from the local API
+     * @return Ids of the matching notes, all notes for a blank query
+     */
+    private TagBitmap searchForApi(String text) {
+        if (!searchIndex.isReady()) throw new IllegalStateException("The search index is still being built");
+        NoteEvents.Search event = new NoteEvents.Search();
+        event.start();
+        NoteQuery query = NoteQuery.parse(text);
+        TagBitmap matches = query == null ? tagIndex.allNotes()
+            : query.run(notes, searchIndex, sortedNotes, tagIndex.allNotes());
+        event.source = "api";
+        event.queryLength = text.length();
+        event.results = matches.cardinality();
+        event.finish();
+        return matches;
+    }
+
+    /**
+     * Start or stop the local HTTP API
+     */
+    private void setApiEnabled(boolean enabled) {
+        if (enabled == api.isRunning()) return;
+        if (!enabled) {
+            api.stop();
+            statusLabel.setText("Local API stopped");
+            return;
+        }
+        if (!notesLoaded) {
+            statusLabel.setText(loadFailed ? "The local API is not available, the notes could not be loaded"
+                : "The local API can be started once the notes have loaded");
+            return;
+        }
+        try {
+            api.start();
+            statusLabel.setText("Local API listening on http://127.0.0.1:" + api.getPort());
+        } catch (IOException e) {
+            statusLabel.setText("Could not start local API: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Run a task on the EDT and wait for its result (for callers on other threads)
+     */
+    private <T> T onEdt(java.util.concurrent.Callable<T> task) throws IOException {
+        java.util.concurrent.FutureTask<T> future = new java.util.concurrent.FutureTask<>(task);
+        SwingUtilities.invokeLater(future);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted waiting for the UI");
+        } catch (java.util.concurrent.ExecutionException e) {
+            // Unchecked ones pass through, so NoteApi can answer 400 or 503 for them
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException(e.getCause());
+        }
+    }
+
+    /**
+     * Refuse an API write until the vault has loaded: loading would replace it, and
+     * a vault that failed to load stays read-only
+     * @throws IllegalStateException if the notes are not loaded
+     */
+    private void checkWritable() {
+        if (loadFailed) throw new IllegalStateException("The notes could not be loaded, the vault is read-only");
+        if (!notesLoaded) throw new IllegalStateException("The notes are still loading");
+    }
+
+    /**
+     * Create a note or replace its content on behalf of the API. A note open in
+     * the editor has its pending edits written first and is then reloaded.
+     * @return The stored note
+     */
+    private Note putNote(String title, String content) {
+        checkWritable();
+        NoteEvents.Save event = new NoteEvents.Save();
+        event.start();
+        Note note = notes.find(title);
+        if (note == null) {
+            note = new Note(title, content);
+            notes.add(note);
+            recordMutation(NoteJournal.Op.CREATE, title, null, content, note.getMetadata());
+        } else {
+            if (note == currentNote) autoSaver.flush();
+            note.setContent(content);
+            recordMutation(NoteJournal.Op.UPDATE, title, null, content, note.getMetadata());
+            if (note == currentNote) showInEditor(note);
+        }
+        sortedNotes.update(note);
+        tagIndex.update(note);
+        indexInBackground(note);
+        snapshotStale = true;
+        updateNoteList();
+        event.title = title;
+        event.kind = "api";
+        event.contentLength = content.length();
+        event.finish();
+        return note;
+    }
+
+    /**
+     * Write a snapshot in the background every few minutes while notes keep changing
+     */
+    private void setupSnapshots() {
+        Timer snapshotTimer = new Timer(SNAPSHOT_INTERVAL_MS, e -> {
+            if (!snapshotStale) return;
+            snapshotStale = false;
+            List<Note> copy = notes.notes();
+            Thread writer = new Thread(() -> writeSnapshot(copy), "note-snapshot");
+            writer.setDaemon(true);
+            writer.start();
+        });
+        snapshotTimer.start();
+    }
+
+    /**
+     * Write a snapshot of the given notes, logging failures (a missing snapshot only slows startup)
+     */
+    private void writeSnapshot(List<Note> snapshotNotes) {
+        if (cipher != null) return; // The snapshot stores bodies in plaintext
+        try {
+            NoteSnapshot.write(layout, snapshotNotes);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Hook the autosaver up to the title and content fields and flush it on exit
+     */
+    private void setupAutoSave() {
+        autoSaver = new AutoSaver(new AutoSaver.Target() {
+            public String currentTitle() { return titleField.getText().trim(); }
+            public String currentContent() { return noteArea.getText(); }
+            public String currentMetadata() { return editorMetadata(); }
+            public boolean persist() { return persistCurrentNote(); }
+        });
+        titleField.getDocument().addDocumentListener(autoSaver);
+        noteArea.getDocument().addDocumentListener(autoSaver);
+        tagsField.getDocument().addDocumentListener(autoSaver);
+        noteCategoryBox.addActionListener(e -> autoSaver.edited());
+        autoSaver.markSaved();
+
+        setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
+        addWindowListener(new WindowAdapter() {
+            public void windowClosing(WindowEvent e) { exitApplication(); }
+        });
+    }
+
+    /**
+     * Open the write-ahead journal, replaying whatever a crash left behind.
+     * Without a journal, mutations fall back to writing note files directly.
+     */
+    private void openJournal() {
+        try {
+            journal = new NoteJournal(layout, cipher);
+        } catch (IOException e) {
+            e.printStackTrace();
+            SwingUtilities.invokeLater(() -> statusLabel.setText("Journal unavailable, saving directly: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Record a note mutation in the journal, or apply it to the note files directly
+     * if the journal could not be opened
+     */
+    private void recordMutation(NoteJournal.Op op, String title, String newTitle, String content, String metadata) {
+        if (journal != null) {
+            // Date the record like the note, so the file and the stored search index agree after a restart
+            Note note = notes.find(op == NoteJournal.Op.RENAME ? newTitle : title);
+            long timestamp = note == null ? System.currentTimeMillis() : note.getLastModifiedDate();
+            journal.append(op, timestamp, title, newTitle, content, metadata).whenComplete((ok, error) -> {
+                if (error != null) {
+                    SwingUtilities.invokeLater(() -> statusLabel.setText("Error saving note: " + error.getMessage()));
+                }
+            });
+            return;
+        }
+        try {
+            synchronized (layout) { // Not while a layout migration moves the note's file
+                if (op == NoteJournal.Op.DELETE || op == NoteJournal.Op.RENAME) {
+                    for (File file : layout.candidateFiles(title)) {
+                        file.delete();
+                    }
+                }
+                if (op != NoteJournal.Op.DELETE) {
+                    String target = op == NoteJournal.Op.RENAME ? newTitle : title;
+                    File noteFile = layout.fileFor(target);
+                    noteFile.getParentFile().mkdirs();
+                    Note note = notes.find(target);
+                    long now = System.currentTimeMillis();
+                    NoteFile.write(noteFile, cipher, target, content, note == null ? now : note.getCreationDate(),
+                        note == null ? now : note.getLastModifiedDate(), metadata);
+                }
+            }
+            Map<String, String> allMetadata = new HashMap<>();
+            for (Note note : notes) {
+                if (!note.getMetadata().isEmpty()) allMetadata.put(note.getTitle(), note.getMetadata());
+            }
+            NoteJournal.writeMetadata(layout.getRoot(), allMetadata);
+        } catch (IOException e) {
+            e.printStackTrace();
+            statusLabel.setText("Error saving note: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write any pending edits and hide the window, then checkpoint the journal, store
+     * the search index and write a snapshot on a shutdown thread and exit. Further
+     * calls while shutting down are ignored.
+     */
+    private void exitApplication() {
+        if (exiting) return;
+        exiting = true;
+        scrubber.close();
+        autoSaver.flush();
+        boolean snapshot = notesLoaded;
+        setVisible(false);
+        // Not a daemon, so the JVM cannot exit before the notes are written
+        Thread shutdown = new Thread(() -> {
+            api.stop(); // Lets API writes in flight reach the journal before it closes
+            if (journal != null) {
+                journal.close();
+            }
+            if (storedIndex != null) {
+                storedIndex.close();
+            }
+            if (snapshot) {
+                writeSnapshot(notes.notes());
+            }
+            System.exit(0);
+        }, "note-shutdown");
+        shutdown.setDaemon(false);
+        shutdown.start();
+    }
+
+    /**
+     * Replace the editor contents without the change counting as an unsaved edit.
+     * Pending edits of the previous note are written first.
+     * @param note The note to show, or null to clear the editor for a new note
+     */
+    private void showInEditor(Note note) {
+        Runnable load = () -> {
+            editHistory.switchTo(note);
+            currentNote = note;
+            titleField.setText(note == null ? "" : note.getTitle());
+            editHistory.withoutRecording(() -> noteArea.setText(note == null ? "" : note.getContent()));
+            String category = note == null ? null : note.getCategory();
+            noteCategoryBox.setSelectedItem(category == null ? NO_CATEGORY : category);
+            tagsField.setText(note == null ? "" : String.join(", ", note.getTags()));
+        };
+        if (autoSaver == null) {
+            load.run();
+            return;
+        }
+        autoSaver.flush();
+        autoSaver.loadWithoutSaving(load);
+        showRelatedNotes();
+        showAttachments();
+        showSearchHits();
+        if (note != null && note.isContentDamaged()) {
+            statusLabel.setText("Warning: \"" + note.getTitle() + "\" is damaged on disk and its text may be incomplete."
+                + " Saving an edit writes it again.");
+            noteList.repaint(); // Reading it may have found the damage
+        }
+    }
+
+    /**
+     * Gets the category and tags entered in the editor in their stored form
+     */
+    private String editorMetadata() {
+        Note scratch = new Note("", "");
+        applyEditorMetadata(scratch);
+        return scratch.getMetadata();
+    }
+
+    /**
+     * Copy the category and tags entered in the editor into a note
+     */
+    private void applyEditorMetadata(Note note) {
+        String category = (String) noteCategoryBox.getSelectedItem();
+        note.setCategory(category == null || category.equals(NO_CATEGORY) ? null : category);
+        note.setTags(TagIndex.parseTagList(tagsField.getText()));
     }
 
     /**
@@ -87,7 +548,7 @@ public class NoteApp extends JFrame {
         // getRootPane().registerKeyboardAction(e -> zoomOut(), ctrlMinus, JComponent.WHEN_IN_FOCUSED_WINDOW);
 
         // Keep only for search and escape
-        getRootPane().registerKeyboardAction(e -> searchField.requestFocus(), ctrlF, JComponent.WHEN_IN_FOCUSED_WINDOW);
+        getRootPane().registerKeyboardAction(e -> sidebarSearchField.requestFocus(), ctrlF, JComponent.WHEN_IN_FOCUSED_WINDOW);
         getRootPane().registerKeyboardAction(e -> clearSearch(), escape, JComponent.WHEN_IN_FOCUSED_WINDOW);
     }
 
@@ -96,14 +557,15 @@ public class NoteApp extends JFrame {
      */
     private void clearSearch() {
         searchField.setText("");
+        sidebarSearchField.setText("");
         updateNoteList();
         noteArea.requestFocus();
     }
 
     /**
-     * Apply a modern look and feel to the UI
+     * Apply a modern look and feel; called before any component is created
      */
-    private void setupModernLookAndFeel() {
+    private static void setupModernLookAndFeel() {
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
             
@@ -113,30 +575,10 @@ public class NoteApp extends JFrame {
             UIManager.put("ProgressBar.arc", CORNER_RADIUS);
             UIManager.put("TextComponent.arc", CORNER_RADIUS);
             
-            // Modern colors
-            UIManager.put("Button.background", Color.WHITE);
-            UIManager.put("Button.foreground", TEXT_COLOR);
-            UIManager.put("Button.select", HOVER_COLOR);
-            
-            UIManager.put("ComboBox.background", Color.WHITE);
-            UIManager.put("ComboBox.foreground", TEXT_COLOR);
-            UIManager.put("ComboBox.selectionBackground", ACCENT_COLOR);
+            // Modern colors, following the active theme
+            Theme.installDefaults();
             UIManager.put("ComboBox.selectionForeground", Color.WHITE);
-            
-            UIManager.put("List.background", Color.WHITE);
-            UIManager.put("List.foreground", TEXT_COLOR);
-            UIManager.put("List.selectionBackground", ACCENT_COLOR);
             UIManager.put("List.selectionForeground", Color.WHITE);
-            
-            UIManager.put("TextField.background", Color.WHITE);
-            UIManager.put("TextField.foreground", TEXT_COLOR);
-            UIManager.put("TextField.caretForeground", ACCENT_COLOR);
-            
-            UIManager.put("TextArea.background", Color.WHITE);
-            UIManager.put("TextArea.foreground", TEXT_COLOR);
-            UIManager.put("TextArea.caretForeground", ACCENT_COLOR);
-            
-            SwingUtilities.updateComponentTreeUI(this);
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -149,7 +591,7 @@ public class NoteApp extends JFrame {
         JTextField field = new JTextField();
         field.setFont(MAIN_FONT);
         field.setForeground(TEXT_COLOR);
-        field.setBackground(Color.WHITE);
+        field.setBackground(SURFACE_COLOR);
         field.setBorder(BorderFactory.createCompoundBorder(
             BorderFactory.createLineBorder(BORDER_COLOR, 1),
             BorderFactory.createEmptyBorder(8, 12, 8, 12)
@@ -165,7 +607,7 @@ public class NoteApp extends JFrame {
         JTextArea area = new JTextArea();
         area.setFont(MAIN_FONT);
         area.setForeground(TEXT_COLOR);
-        area.setBackground(Color.WHITE);
+        area.setBackground(SURFACE_COLOR);
         area.setLineWrap(true);
         area.setWrapStyleWord(true);
         area.setBorder(BorderFactory.createEmptyBorder(12, 12, 12, 12));
@@ -179,7 +621,7 @@ public class NoteApp extends JFrame {
         JButton button = new JButton(text);
         button.setFont(MAIN_FONT);
         button.setForeground(TEXT_COLOR);
-        button.setBackground(Color.WHITE);
+        button.setBackground(SURFACE_COLOR);
         button.setFocusPainted(false);
         button.setBorderPainted(false);
         button.setContentAreaFilled(false);
@@ -195,7 +637,7 @@ public class NoteApp extends JFrame {
                 button.setBackground(HOVER_COLOR);
             }
             public void mouseExited(MouseEvent e) {
-                button.setBackground(Color.WHITE);
+                button.setBackground(SURFACE_COLOR);
             }
         });
         
@@ -245,12 +687,57 @@ public class NoteApp extends JFrame {
         darkModeCheck.setForeground(TEXT_COLOR);
         settingsPanel.add(darkModeCheck);
         settingsPanel.add(Box.createVerticalStrut(10));
+        JCheckBox shardedCheck = new JCheckBox("Sharded note folders (for very large vaults)");
+        shardedCheck.setFont(UNIFIED_FONT);
+        shardedCheck.setSelected(layout.getMode() == VaultLayout.Mode.SHARDED);
+        // Only a vault that loaded is migrated, one migration at a time
+        shardedCheck.setEnabled(notesLoaded && !migrating);
+        if (!shardedCheck.isEnabled()) {
+            shardedCheck.setToolTipText(migrating ? "A migration is running" : "Available once the notes have loaded");
+        }
+        shardedCheck.setBackground(BACKGROUND_COLOR);
+        shardedCheck.setForeground(TEXT_COLOR);
+        settingsPanel.add(shardedCheck);
+        settingsPanel.add(Box.createVerticalStrut(10));
+        JCheckBox apiCheck = new JCheckBox("Local HTTP API on 127.0.0.1:" + api.getPort());
+        apiCheck.setFont(UNIFIED_FONT);
+        apiCheck.setSelected(api.isRunning());
+        apiCheck.setEnabled(notesLoaded || api.isRunning()); // Started only once the vault has loaded
+        apiCheck.setBackground(BACKGROUND_COLOR);
+        apiCheck.setForeground(TEXT_COLOR);
+        settingsPanel.add(apiCheck);
+        settingsPanel.add(Box.createVerticalStrut(10));
+        JCheckBox scrubCheck = new JCheckBox("Check note files for damage in the background");
+        scrubCheck.setFont(UNIFIED_FONT);
+        scrubCheck.setSelected(scrubber.isEnabled());
+        scrubCheck.setBackground(BACKGROUND_COLOR);
+        scrubCheck.setForeground(TEXT_COLOR);
+        settingsPanel.add(scrubCheck);
+        JPanel ratePanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 0));
+        ratePanel.setBackground(BACKGROUND_COLOR);
+        ratePanel.setAlignmentX(Component.LEFT_ALIGNMENT);
+        JLabel rateLabel = new JLabel("Read at most");
+        JLabel rateUnit = new JLabel("KB/s while checking");
+        JSpinner rateSpinner = new JSpinner(new SpinnerNumberModel(
+            (int) Math.min(1 << 20, scrubber.getBytesPerSecond() / 1024), 16, 1 << 20, 64));
+        for (JComponent component : new JComponent[] {rateLabel, rateSpinner, rateUnit}) {
+            component.setFont(UNIFIED_FONT);
+            component.setForeground(TEXT_COLOR);
+            ratePanel.add(component);
+        }
+        settingsPanel.add(ratePanel);
+        settingsPanel.add(Box.createVerticalStrut(10));
 
         JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT));
         buttonPanel.setBackground(BACKGROUND_COLOR);
         JButton applyButton = createUnifiedButton("Apply", e -> {
-            darkMode = darkModeCheck.isSelected();
-            applyTheme();
+            setDarkMode(darkModeCheck.isSelected());
+            VaultLayout.Mode mode = shardedCheck.isSelected() ? VaultLayout.Mode.SHARDED : VaultLayout.Mode.FLAT;
+            if (shardedCheck.isEnabled() && mode != layout.getMode()) {
+                migrateLayout(mode);
+            }
+            setApiEnabled(apiCheck.isSelected());
+            scrubber.configure(scrubCheck.isSelected(), ((Number) rateSpinner.getValue()).longValue() * 1024);
             settingsDialog.dispose();
         });
         JButton cancelButton = createUnifiedButton("Cancel", e -> settingsDialog.dispose());
@@ -265,76 +752,83 @@ public class NoteApp extends JFrame {
     }
 
     /**
-     * Apply the current theme (dark or light) to all components
+     * Move the vault to another file layout in the background; notes stay usable meanwhile,
+     * as bodies not read yet are looked up in the layout when read (see NoteFile.read).
+     * Afterwards every such note is checked to still have a file.
+     * @param mode The layout to migrate to
+     */
+    private void migrateLayout(VaultLayout.Mode mode) {
+        if (!notesLoaded || migrating) return;
+        migrating = true;
+        statusLabel.setText("Migrating notes to " + mode.name().toLowerCase() + " layout...");
+        new SwingWorker<int[], Void>() {
+            protected int[] doInBackground() throws Exception {
+                int moved = layout.migrate(mode);
+                int missing = 0;
+                for (Note note : notes) {
+                    if (!note.isContentLoaded() && layout.locate(note.getTitle()) == null) {
+                        System.err.println("No file for \"" + note.getTitle() + "\" after the layout migration");
+                        missing++;
+                    }
+                }
+                return new int[] {moved, missing};
+            }
+            protected void done() {
+                migrating = false;
+                try {
+                    int[] result = get();
+                    statusLabel.setText("Moved " + result[0] + " notes to the " + mode.name().toLowerCase() + " layout"
+                        + (result[1] == 0 ? "" : ", " + result[1] + " notes have no file any more"));
+                } catch (Exception e) {
+                    statusLabel.setText("Layout migration failed: " + e.getMessage());
+                }
+                updateNoteList();
+            }
+        }.execute();
+    }
+
+    /**
+     * Switch between the light and dark theme
+     */
+    void setDarkMode(boolean enabled) {
+        darkMode = enabled;
+        applyTheme();
+    }
+
+    /**
+     * @return true if the dark theme is selected
+     */
+    boolean isDarkMode() {
+        return darkMode;
+    }
+
+    /**
+     * Apply the current theme (dark or light). Components are styled with theme
+     * colors, so this only switches the active palette and repaints.
      */
     private void applyTheme() {
-        if (darkMode) {
-            BACKGROUND_COLOR = new Color(34, 34, 34);
-            TEXT_COLOR = new Color(220, 220, 220);
-            BORDER_COLOR = new Color(60, 60, 60);
-            ACCENT_COLOR = new Color(41, 128, 185);
-            HOVER_COLOR = new Color(44, 62, 80);
-        } else {
-            BACKGROUND_COLOR = new Color(250, 250, 250);
-            TEXT_COLOR = new Color(44, 62, 80);
-            BORDER_COLOR = new Color(236, 240, 241);
-            ACCENT_COLOR = new Color(41, 128, 185);
-            HOVER_COLOR = new Color(236, 240, 241);
-        }
-        SwingUtilities.updateComponentTreeUI(this);
-        getContentPane().setBackground(BACKGROUND_COLOR);
-        updateComponentColors(this.getContentPane());
+        Theme theme = darkMode ? Theme.DARK : Theme.LIGHT;
+        if (theme == Theme.active()) return;
+        NoteEvents.ThemeSwitch event = new NoteEvents.ThemeSwitch();
+        event.start();
+        long start = System.nanoTime();
+        Theme.activate(theme);
+        markdownPreview.themeChanged(TEXT_COLOR, UNIFIED_FONT);
+        Theme.repaintWindows(); // Paints before returning, so the time includes the repaint
+        event.theme = theme.getName();
+        event.finish();
+        statusLabel.setText(String.format("%s theme applied in %.1f ms", theme.getName(), (System.nanoTime() - start) / 1e6));
     }
 
     /**
-     * Recursively update all component colors for dark/light mode
+     * Show or hide the Markdown preview next to the editor. A hidden preview
+     * stops rendering and catches up when shown again.
      */
-    private void updateComponentColors(Component comp) {
-        if (comp instanceof JPanel || comp instanceof JScrollPane) {
-            comp.setBackground(BACKGROUND_COLOR);
-        }
-        if (comp instanceof JLabel) {
-            comp.setForeground(TEXT_COLOR);
-        }
-        if (comp instanceof JTextField || comp instanceof PlaceholderTextField) {
-            comp.setBackground(BACKGROUND_COLOR);
-            comp.setForeground(TEXT_COLOR);
-            ((JTextField) comp).setCaretColor(TEXT_COLOR);
-            comp.setFont(UNIFIED_FONT);
-            if (comp instanceof PlaceholderTextField) comp.repaint();
-        }
-        if (comp instanceof JTextArea || comp instanceof PlaceholderTextArea) {
-            comp.setBackground(BACKGROUND_COLOR);
-            comp.setForeground(TEXT_COLOR);
-            ((JTextArea) comp).setCaretColor(TEXT_COLOR);
-            comp.setFont(UNIFIED_FONT);
-            if (comp instanceof PlaceholderTextArea) comp.repaint();
-        }
-        if (comp instanceof JList) {
-            comp.setBackground(BACKGROUND_COLOR);
-            comp.setForeground(TEXT_COLOR);
-            comp.setFont(UNIFIED_FONT);
-        }
-        if (comp instanceof JButton) {
-            comp.setBackground(BACKGROUND_COLOR);
-            comp.setForeground(TEXT_COLOR);
-            comp.setFont(UNIFIED_FONT);
-        }
-        if (comp instanceof JComboBox) {
-            comp.setBackground(BACKGROUND_COLOR);
-            comp.setForeground(TEXT_COLOR);
-            comp.setFont(UNIFIED_FONT);
-        }
-        if (comp instanceof JMenuBar || comp instanceof JMenu || comp instanceof JMenuItem) {
-            comp.setBackground(BACKGROUND_COLOR);
-            comp.setForeground(TEXT_COLOR);
-            comp.setFont(UNIFIED_FONT);
-        }
-        if (comp instanceof Container) {
-            for (Component child : ((Container) comp).getComponents()) {
-                updateComponentColors(child);
-            }
-        }
+    private void setPreviewVisible(boolean visible) {
+        editorSplit.getRightComponent().setVisible(visible);
+        markdownPreview.setPreviewEnabled(visible);
+        if (visible) editorSplit.setDividerLocation(0.5);
+        editorSplit.revalidate();
     }
 
     /**
@@ -350,8 +844,6 @@ public class NoteApp extends JFrame {
         initializeComponents();
         setupKeyboardShortcuts();
 
-        setJMenuBar(createMenuBar());
-
         JPanel mainPanel = new JPanel(new GridBagLayout());
         mainPanel.setBackground(BACKGROUND_COLOR);
         GridBagConstraints gbc = new GridBagConstraints();
@@ -376,9 +868,12 @@ public class NoteApp extends JFrame {
         searchLabel.setForeground(TEXT_COLOR);
         searchLabel.setAlignmentX(LEFT_ALIGNMENT);
         sidebarSearchField = new PlaceholderTextField("Search notes...");
+        sidebarSearchField.setName("sidebarSearch"); // Component names let SoakHarness find its targets
         sidebarSearchField.setFont(UNIFIED_FONT);
+        sidebarSearchField.setToolTipText("<html>words, \"phrases\", title:x, body:x, created:2024-05-01,<br>"
+            + "modified:&gt;=2024-01-01, created:2024-01-01..2024-03-31, AND, OR, NOT, ( )</html>");
         sidebarSearchField.setPreferredSize(new Dimension(140, 28));
-        sidebarSearchField.setBackground(Color.WHITE);
+        sidebarSearchField.setBackground(SURFACE_COLOR);
         sidebarSearchField.setForeground(TEXT_COLOR);
         sidebarSearchField.setBorder(BorderFactory.createCompoundBorder(
             BorderFactory.createLineBorder(BORDER_COLOR, 1),
@@ -388,6 +883,23 @@ public class NoteApp extends JFrame {
         searchPanel.add(searchLabel);
         searchPanel.add(Box.createVerticalStrut(2));
         searchPanel.add(sidebarSearchField);
+        searchPanel.add(Box.createVerticalStrut(4));
+        categoryComboBox.setMaximumSize(new Dimension(Integer.MAX_VALUE, 28));
+        categoryComboBox.setAlignmentX(LEFT_ALIGNMENT);
+        categoryComboBox.addActionListener(e -> updateNoteList());
+        searchPanel.add(categoryComboBox);
+        searchPanel.add(Box.createVerticalStrut(4));
+        tagFilterField = new PlaceholderTextField("Tags: Work AND Tasks NOT Ideas");
+        tagFilterField.setFont(UNIFIED_FONT);
+        tagFilterField.setPreferredSize(new Dimension(140, 28));
+        tagFilterField.setBackground(SURFACE_COLOR);
+        tagFilterField.setForeground(TEXT_COLOR);
+        tagFilterField.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(BORDER_COLOR, 1),
+            BorderFactory.createEmptyBorder(6, 10, 6, 10)
+        ));
+        tagFilterField.setAlignmentX(LEFT_ALIGNMENT);
+        searchPanel.add(tagFilterField);
         // Notes label + list
         JPanel notesListPanel = new JPanel();
         notesListPanel.setLayout(new BoxLayout(notesListPanel, BoxLayout.Y_AXIS));
@@ -396,32 +908,38 @@ public class NoteApp extends JFrame {
         notesLabel.setFont(UNIFIED_FONT.deriveFont(Font.BOLD, 13f));
         notesLabel.setForeground(TEXT_COLOR);
         notesLabel.setAlignmentX(LEFT_ALIGNMENT);
+        String[] sortLabels = new String[SortedNoteIndex.SortMode.values().length];
+        for (SortedNoteIndex.SortMode mode : SortedNoteIndex.SortMode.values()) {
+            sortLabels[mode.ordinal()] = mode.getLabel();
+        }
+        JComboBox<String> sortComboBox = new JComboBox<>(sortLabels);
+        sortComboBox.setFont(UNIFIED_FONT);
+        sortComboBox.setBackground(SURFACE_COLOR);
+        sortComboBox.setForeground(TEXT_COLOR);
+        sortComboBox.setSelectedIndex(sortMode.ordinal());
+        sortComboBox.setMaximumSize(new Dimension(Integer.MAX_VALUE, 28));
+        sortComboBox.setAlignmentX(LEFT_ALIGNMENT);
+        sortComboBox.addActionListener(e -> {
+            sortMode = SortedNoteIndex.SortMode.values()[sortComboBox.getSelectedIndex()];
+            updateNoteList();
+        });
         noteList.setFont(UNIFIED_FONT);
-        noteList.setBackground(Color.WHITE);
+        noteList.setBackground(SURFACE_COLOR);
         noteList.setForeground(TEXT_COLOR);
         noteList.setFixedCellWidth(140);
-        noteList.setCellRenderer(new DefaultListCellRenderer() {
-            @Override
-            public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
-                JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
-                String title = value.toString();
-                int maxLen = 16;
-                if (title.length() > maxLen) {
-                    label.setText(title.substring(0, maxLen - 3) + "...");
-                    label.setToolTipText(title);
-                } else {
-                    label.setText(title);
-                    label.setToolTipText(null);
-                }
-                label.setFont(UNIFIED_FONT);
-                return label;
-            }
-        });
+        noteList.setName("noteList");
+        // Rows render from cached strings at a fixed height, so JList never measures cells
+        NoteListCellRenderer renderer = new NoteListCellRenderer(UNIFIED_FONT, SURFACE_COLOR, TEXT_COLOR, ACCENT_COLOR);
+        noteList.setCellRenderer(renderer);
+        noteList.setFixedCellHeight(renderer.getRowHeight());
+        ToolTipManager.sharedInstance().registerComponent(noteList);
         JScrollPane listScrollPane = createModernScrollPane(noteList);
         listScrollPane.setPreferredSize(new Dimension(150, 0));
         listScrollPane.setAlignmentX(LEFT_ALIGNMENT);
         notesListPanel.add(notesLabel);
         notesListPanel.add(Box.createVerticalStrut(2));
+        notesListPanel.add(sortComboBox);
+        notesListPanel.add(Box.createVerticalStrut(4));
         notesListPanel.add(listScrollPane);
         // Add to sidebar
         sidebarPanel.add(searchPanel, BorderLayout.NORTH);
@@ -445,7 +963,7 @@ public class NoteApp extends JFrame {
         titleField = new PlaceholderTextField("Enter note title...");
         titleField.setFont(UNIFIED_FONT);
         titleField.setPreferredSize(new Dimension(200, 28));
-        titleField.setBackground(Color.WHITE);
+        titleField.setBackground(SURFACE_COLOR);
         titleField.setForeground(TEXT_COLOR);
         titleField.setBorder(BorderFactory.createCompoundBorder(
             BorderFactory.createLineBorder(BORDER_COLOR, 1),
@@ -455,6 +973,28 @@ public class NoteApp extends JFrame {
         titlePanel.add(titleLabel);
         titlePanel.add(Box.createVerticalStrut(2));
         titlePanel.add(titleField);
+        titlePanel.add(Box.createVerticalStrut(4));
+        JPanel tagsPanel = new JPanel(new BorderLayout(PADDING, 0));
+        tagsPanel.setBackground(BACKGROUND_COLOR);
+        tagsPanel.setAlignmentX(LEFT_ALIGNMENT);
+        String[] noteCategories = CATEGORIES.clone();
+        noteCategories[0] = NO_CATEGORY; // "All" is a filter, not a category a note can have
+        noteCategoryBox = new JComboBox<>(noteCategories);
+        noteCategoryBox.setFont(UNIFIED_FONT);
+        noteCategoryBox.setBackground(SURFACE_COLOR);
+        noteCategoryBox.setForeground(TEXT_COLOR);
+        tagsField = new PlaceholderTextField("Tags, comma separated...");
+        tagsField.setFont(UNIFIED_FONT);
+        tagsField.setPreferredSize(new Dimension(200, 28));
+        tagsField.setBackground(SURFACE_COLOR);
+        tagsField.setForeground(TEXT_COLOR);
+        tagsField.setBorder(BorderFactory.createCompoundBorder(
+            BorderFactory.createLineBorder(BORDER_COLOR, 1),
+            BorderFactory.createEmptyBorder(6, 10, 6, 10)
+        ));
+        tagsPanel.add(noteCategoryBox, BorderLayout.WEST);
+        tagsPanel.add(tagsField, BorderLayout.CENTER);
+        titlePanel.add(tagsPanel);
         mainPanel.add(titlePanel, gbc);
 
         // 1,1: Buttons row (Save, Edit, Delete, New Note)
@@ -488,18 +1028,41 @@ public class NoteApp extends JFrame {
         noteLabel.setForeground(TEXT_COLOR);
         noteLabel.setAlignmentX(LEFT_ALIGNMENT);
         noteArea = new PlaceholderTextArea("Write your note here...");
+        noteArea.setName("noteArea");
         noteArea.setFont(UNIFIED_FONT);
-        noteArea.setBackground(Color.WHITE);
+        noteArea.setBackground(SURFACE_COLOR);
         noteArea.setForeground(TEXT_COLOR);
         noteArea.setBorder(BorderFactory.createCompoundBorder(
             BorderFactory.createLineBorder(BORDER_COLOR, 1),
             BorderFactory.createEmptyBorder(10, 10, 10, 10)
         ));
+        editHistory = new EditHistory(noteArea);
+        searchHighlighter = new SearchHighlighter(noteArea);
         JScrollPane noteScrollPane = createModernScrollPane(noteArea);
         noteScrollPane.setAlignmentX(LEFT_ALIGNMENT);
+        markdownPreview = new MarkdownPreview(noteArea.getDocument());
+        markdownPreview.setBackground(SURFACE_COLOR);
+        markdownPreview.themeChanged(TEXT_COLOR, UNIFIED_FONT);
+        markdownPreview.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        editorSplit = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT, noteScrollPane,
+            createModernScrollPane(markdownPreview));
+        editorSplit.setResizeWeight(0.5);
+        editorSplit.setBorder(null);
+        editorSplit.setBackground(BACKGROUND_COLOR);
+        editorSplit.setAlignmentX(LEFT_ALIGNMENT);
         notePanel.add(noteLabel);
         notePanel.add(Box.createVerticalStrut(2));
-        notePanel.add(noteScrollPane);
+        notePanel.add(editorSplit);
+        relatedPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        relatedPanel.setBackground(BACKGROUND_COLOR);
+        relatedPanel.setAlignmentX(LEFT_ALIGNMENT);
+        relatedPanel.setVisible(false);
+        notePanel.add(relatedPanel);
+        attachmentPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 6, 2));
+        attachmentPanel.setBackground(BACKGROUND_COLOR);
+        attachmentPanel.setAlignmentX(LEFT_ALIGNMENT);
+        attachmentPanel.setVisible(false);
+        notePanel.add(attachmentPanel);
         mainPanel.add(notePanel, gbc);
 
         // 1,3: JLabel (status/welcome message)
@@ -512,9 +1075,15 @@ public class NoteApp extends JFrame {
         statusLabel = new JLabel("Welcome to Note App!");
         statusLabel.setFont(UNIFIED_FONT.deriveFont(Font.ITALIC));
         statusLabel.setForeground(ACCENT_COLOR);
-        JPanel statusPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        statsLabel = new JLabel();
+        statsLabel.setFont(UNIFIED_FONT.deriveFont(12f));
+        statsLabel.setForeground(TEXT_COLOR);
+        documentStats = new DocumentStats(noteArea.getDocument(), this::showStats);
+        JPanel statusPanel = new JPanel(new BorderLayout(10, 0));
+        statusPanel.setBorder(BorderFactory.createEmptyBorder(5, 5, 5, 5));
         statusPanel.setBackground(BACKGROUND_COLOR);
-        statusPanel.add(statusLabel);
+        statusPanel.add(statusLabel, BorderLayout.WEST);
+        statusPanel.add(statsLabel, BorderLayout.EAST);
         mainPanel.add(statusPanel, gbc);
 
         add(mainPanel);
@@ -522,11 +1091,13 @@ public class NoteApp extends JFrame {
         setMinimumSize(new Dimension(800, 600));
 
         // Add search functionality
-        sidebarSearchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+        javax.swing.event.DocumentListener filterListener = new javax.swing.event.DocumentListener() {
             public void insertUpdate(javax.swing.event.DocumentEvent e) { filterSidebarNotes(); }
             public void removeUpdate(javax.swing.event.DocumentEvent e) { filterSidebarNotes(); }
             public void changedUpdate(javax.swing.event.DocumentEvent e) { filterSidebarNotes(); }
-        });
+        };
+        sidebarSearchField.getDocument().addDocumentListener(filterListener);
+        tagFilterField.getDocument().addDocumentListener(filterListener);
     }
 
     /**
@@ -538,8 +1109,15 @@ public class NoteApp extends JFrame {
         searchField = createModernTextField();
         dateLabel = new JLabel();
         statusLabel = new JLabel("Ready");
-        listModel = new DefaultListModel<>();
-        noteList = new JList<>(listModel);
+        listModel = new NoteListModel();
+        noteList = new JList<Note>(listModel) {
+            @Override
+            public String getToolTipText(MouseEvent event) {
+                // Full title of the row under the mouse, without the renderer setting tooltips per paint
+                int index = locationToIndex(event.getPoint());
+                return index < 0 ? null : getModel().getElementAt(index).getTitle();
+            }
+        };
         categoryComboBox = createModernComboBox(CATEGORIES);
         
         // Initialize formatting buttons
@@ -585,7 +1163,7 @@ public class NoteApp extends JFrame {
     private JScrollPane createModernScrollPane(Component view) {
         JScrollPane scrollPane = new JScrollPane(view);
         scrollPane.setBorder(BorderFactory.createLineBorder(BORDER_COLOR, 1));
-        scrollPane.getViewport().setBackground(Color.WHITE);
+        scrollPane.getViewport().setBackground(SURFACE_COLOR);
         return scrollPane;
     }
 
@@ -595,7 +1173,7 @@ public class NoteApp extends JFrame {
     private JComboBox<String> createModernComboBox(String[] items) {
         JComboBox<String> comboBox = new JComboBox<>(items);
         comboBox.setFont(MAIN_FONT);
-        comboBox.setBackground(Color.WHITE);
+        comboBox.setBackground(SURFACE_COLOR);
         comboBox.setForeground(TEXT_COLOR);
         comboBox.setBorder(BorderFactory.createCompoundBorder(
             BorderFactory.createLineBorder(BORDER_COLOR, 1),
@@ -612,7 +1190,7 @@ public class NoteApp extends JFrame {
         JButton button = new JButton(text + " " + icon);
         button.setFont(MAIN_FONT);
         button.setForeground(TEXT_COLOR);
-        button.setBackground(Color.WHITE);
+        button.setBackground(SURFACE_COLOR);
         button.setFocusPainted(false);
         button.setBorderPainted(false);
         button.setContentAreaFilled(false);
@@ -628,7 +1206,7 @@ public class NoteApp extends JFrame {
                 button.setBackground(HOVER_COLOR);
             }
             public void mouseExited(MouseEvent e) {
-                button.setBackground(Color.WHITE);
+                button.setBackground(SURFACE_COLOR);
             }
         });
         
@@ -729,18 +1307,35 @@ public class NoteApp extends JFrame {
         deleteItem.setFont(UNIFIED_FONT);
         deleteItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK));
         deleteItem.addActionListener(e -> deleteNote());
+        JMenuItem attachItem = new JMenuItem("Attach File...");
+        attachItem.setFont(UNIFIED_FONT);
+        attachItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_A, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK));
+        attachItem.addActionListener(e -> attachFile());
         JMenuItem exitItem = new JMenuItem("Exit");
         exitItem.setFont(UNIFIED_FONT);
         exitItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Q, InputEvent.CTRL_DOWN_MASK));
-        exitItem.addActionListener(e -> System.exit(0));
+        exitItem.addActionListener(e -> exitApplication());
         fileMenu.add(newNoteItem);
         fileMenu.add(saveItem);
         fileMenu.add(deleteItem);
+        fileMenu.add(attachItem);
         fileMenu.addSeparator();
         fileMenu.add(exitItem);
 
         JMenu editMenu = new JMenu("Edit");
         editMenu.setFont(UNIFIED_FONT);
+        JMenuItem undoItem = new JMenuItem("Undo");
+        undoItem.setFont(UNIFIED_FONT);
+        undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+        undoItem.addActionListener(e -> {
+            if (!editHistory.undo()) statusLabel.setText("Nothing to undo");
+        });
+        JMenuItem redoItem = new JMenuItem("Redo");
+        redoItem.setFont(UNIFIED_FONT);
+        redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+        redoItem.addActionListener(e -> {
+            if (!editHistory.redo()) statusLabel.setText("Nothing to redo");
+        });
         JMenuItem cutItem = new JMenuItem("Cut");
         cutItem.setFont(UNIFIED_FONT);
         cutItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_X, InputEvent.CTRL_DOWN_MASK));
@@ -757,9 +1352,23 @@ public class NoteApp extends JFrame {
         editNoteItem.setFont(UNIFIED_FONT);
         editNoteItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_E, InputEvent.CTRL_DOWN_MASK));
         editNoteItem.addActionListener(e -> editNote());
+        editMenu.add(undoItem);
+        editMenu.add(redoItem);
+        editMenu.addSeparator();
         editMenu.add(cutItem);
         editMenu.add(copyItem);
         editMenu.add(pasteItem);
+        JMenuItem nextMatchItem = new JMenuItem("Next Match");
+        nextMatchItem.setFont(UNIFIED_FONT);
+        nextMatchItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, 0));
+        nextMatchItem.addActionListener(e -> jumpToMatch(true));
+        JMenuItem previousMatchItem = new JMenuItem("Previous Match");
+        previousMatchItem.setFont(UNIFIED_FONT);
+        previousMatchItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_F3, InputEvent.SHIFT_DOWN_MASK));
+        previousMatchItem.addActionListener(e -> jumpToMatch(false));
+        editMenu.addSeparator();
+        editMenu.add(nextMatchItem);
+        editMenu.add(previousMatchItem);
         editMenu.addSeparator();
         editMenu.add(editNoteItem);
 
@@ -776,9 +1385,27 @@ public class NoteApp extends JFrame {
         JMenuItem resetZoomItem = new JMenuItem("Reset Zoom");
         resetZoomItem.setFont(UNIFIED_FONT);
         resetZoomItem.addActionListener(e -> resetZoom());
+        JCheckBoxMenuItem previewItem = new JCheckBoxMenuItem("Markdown Preview", true);
+        previewItem.setFont(UNIFIED_FONT);
+        previewItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_M, InputEvent.CTRL_DOWN_MASK));
+        previewItem.addActionListener(e -> setPreviewVisible(previewItem.isSelected()));
         viewMenu.add(zoomInItem);
         viewMenu.add(zoomOutItem);
         viewMenu.add(resetZoomItem);
+        viewMenu.addSeparator();
+        viewMenu.add(previewItem);
+        JMenuItem duplicatesItem = new JMenuItem("Duplicate Notes...");
+        duplicatesItem.setFont(UNIFIED_FONT);
+        duplicatesItem.addActionListener(e -> showDuplicates());
+        viewMenu.add(duplicatesItem);
+        JMenuItem explainItem = new JMenuItem("Explain Search...");
+        explainItem.setFont(UNIFIED_FONT);
+        explainItem.addActionListener(e -> explainSearch());
+        viewMenu.add(explainItem);
+        JMenuItem integrityItem = new JMenuItem("Integrity Report...");
+        integrityItem.setFont(UNIFIED_FONT);
+        integrityItem.addActionListener(e -> showIntegrityReport());
+        viewMenu.add(integrityItem);
 
         JMenu settingsMenu = new JMenu("Settings");
         settingsMenu.setFont(UNIFIED_FONT);
@@ -837,20 +1464,42 @@ public class NoteApp extends JFrame {
      * Search notes based on the search field text
      */
     private void searchNotes() {
-        String searchText = searchField.getText().toLowerCase();
-        if (searchText.isEmpty()) {
+        NoteQuery query;
+        try {
+            query = NoteQuery.parse(searchField.getText());
+        } catch (IllegalArgumentException e) {
+            statusLabel.setText(e.getMessage());
+            return;
+        }
+        if (query == null) {
             updateNoteList();
             return;
         }
 
-        List<Note> filteredNotes = notes.stream()
-            .filter(note -> note.getTitle().toLowerCase().contains(searchText) ||
-                          note.getContent().toLowerCase().contains(searchText))
-            .collect(Collectors.toList());
+        NoteEvents.Search event = new NoteEvents.Search();
+        event.start();
+        TagBitmap matches = query.run(notes, searchIndex, sortedNotes, tagIndex.allNotes());
+        filteredNotes = Collections.unmodifiableList(sortedNotes.view(sortMode).stream()
+            .filter(note -> matches.contains(note.getId()))
+            .collect(Collectors.toList()));
+
+        listModel.setNotes(filteredNotes);
+        reportUnsearched(query);
+        event.source = "search field";
+        event.queryLength = searchField.getText().length();
+        event.results = filteredNotes.size();
+        event.finish();
+    }
 
-        listModel.clear();
-        for (Note note : filteredNotes) {
-            listModel.addElement(note.getTitle());
+    /**
+     * Tell the user when a search could not look at the text of every note yet,
+     * because the search index is still being built; it runs again once it is
+     */
+    private void reportUnsearched(NoteQuery query) {
+        int unsearched = query.unsearchedNotes();
+        if (unsearched > 0) {
+            statusLabel.setText(String.format(
+                "Text of %,d notes not searched yet, results update once the search index is built", unsearched));
         }
     }
 
@@ -858,8 +1507,7 @@ public class NoteApp extends JFrame {
      * Creates a new empty note by clearing the title and content fields
      */
     private void newNote() {
-        titleField.setText("");
-        noteArea.setText("");
+        showInEditor(null);
         noteList.clearSelection();
     }
 
@@ -869,51 +1517,440 @@ public class NoteApp extends JFrame {
      */
     private void saveNote() {
         String title = titleField.getText().trim();
-        String content = noteArea.getText();
         
         if (title.isEmpty()) {
             JOptionPane.showMessageDialog(this, "Please enter a title for the note.");
             return;
         }
+        String problem = titleProblem(title);
+        if (problem != null) {
+            JOptionPane.showMessageDialog(this, problem + ". Please choose another title.");
+            return;
+        }
 
-        Note note = new Note(title, content);
-        int selectedIndex = noteList.getSelectedIndex();
-        
-        // Update existing note or add new one
-        if (selectedIndex != -1) {
-            notes.set(selectedIndex, note);
-        } else {
+        if (persistCurrentNote()) {
+            autoSaver.markSaved();
+        }
+    }
+
+    /**
+     * Writes the editor contents into the current note and its file.
+     * Shared by the Save action and the autosaver.
+     * @return false if there is no title to save the note under, or another note has it
+     */
+    private boolean persistCurrentNote() {
+        String title = titleField.getText().trim();
+        String content = noteArea.getText();
+        if (title.isEmpty()) {
+            return false;
+        }
+        if (!notesLoaded) {
+            if (loadFailed) {
+                statusLabel.setText("Not saved: the notes could not be loaded");
+            } else {
+                // The journal may still be replaying; the edit is written once loading finishes
+                statusLabel.setText("Still loading notes, " + title + " will be saved shortly");
+            }
+            return false;
+        }
+        String problem = titleProblem(title);
+        if (problem != null) {
+            // Often a title still being typed passing through an existing one; wait for the next edit
+            statusLabel.setText("Not saved: " + problem);
+            return false;
+        }
+
+        // Update the note being edited or add a new one
+        NoteEvents.Save event = new NoteEvents.Save();
+        event.start();
+        Note note = currentNote;
+        boolean listChanged = true;
+        event.kind = note == null ? "create" : note.getTitle().equals(title) ? "update" : "rename";
+        if (note == null) {
+            note = new Note(title, content);
+            applyEditorMetadata(note);
             notes.add(note);
+            currentNote = note;
+            editHistory.bind(note);
+            recordMutation(NoteJournal.Op.CREATE, title, null, content, note.getMetadata());
+        } else if (!note.getTitle().equals(title)) {
+            String oldTitle = note.getTitle();
+            notes.rename(note, title);
+            note.setContent(content);
+            applyEditorMetadata(note);
+            recordMutation(NoteJournal.Op.RENAME, oldTitle, title, content, note.getMetadata());
+        } else {
+            note.setContent(content);
+            boolean tagsChanged = !note.getMetadata().equals(editorMetadata());
+            applyEditorMetadata(note);
+            recordMutation(NoteJournal.Op.UPDATE, title, null, content, note.getMetadata());
+            // Only the edited note's position can change, refresh if it is not already in place
+            listChanged = tagsChanged || sortMode == SortedNoteIndex.SortMode.MODIFIED
+                && (filteredNotes.isEmpty() || filteredNotes.get(0) != note);
         }
+        sortedNotes.update(note);
+        tagIndex.update(note);
+        indexInBackground(note);
+        snapshotStale = true;
 
-        saveToFile(note);
-        updateNoteList();
+        if (listChanged) {
+            updateNoteList();
+        }
+        statusLabel.setText("Saved " + title);
+        event.title = title;
+        event.contentLength = content.length();
+        event.finish();
+        return true;
+    }
+
+    /**
+     * Check whether the note in the editor can be saved under a title
+     * @return Why it cannot, or null if it can
+     */
+    private String titleProblem(String title) {
+        Note existing = notes.find(title);
+        if (existing != null && existing != currentNote) {
+            return "A note titled \"" + title + "\" already exists";
+        }
+        if (currentNote == null || !currentNote.getTitle().equals(title)) {
+            try {
+                VaultLayout.checkTitle(title); // A new file name; existing notes keep theirs
+            } catch (IllegalArgumentException e) {
+                return e.getMessage();
+            }
+        }
+        return null;
     }
 
     /**
      * Deletes the currently selected note from both memory and file system
      */
     private void deleteNote() {
+        if (!notesLoaded) {
+            statusLabel.setText(loadFailed ? "Not deleted: the notes could not be loaded" : "Still loading notes");
+            return;
+        }
         int selectedIndex = noteList.getSelectedIndex();
         if (selectedIndex != -1) {
-            Note note = notes.get(selectedIndex);
-            File noteFile = new File(NOTES_DIR, note.getTitle() + ".txt");
-            noteFile.delete();
-            notes.remove(selectedIndex);
-            updateNoteList();
+            removeNote(filteredNotes.get(selectedIndex));
             newNote();
         }
     }
 
+    /**
+     * Delete a note from memory, the indexes and disk
+     * @param note The note to delete
+     */
+    private void removeNote(Note note) {
+        NoteEvents.Delete event = new NoteEvents.Delete();
+        event.start();
+        recordMutation(NoteJournal.Op.DELETE, note.getTitle(), null, null, null);
+        notes.remove(note);
+        sortedNotes.remove(note);
+        tagIndex.remove(note);
+        indexWorker.execute(() -> {
+            similarity.remove(note);
+            vaultStats.remove(note);
+            searchIndex.remove(note);
+            if (storedIndex != null) storedIndex.remove(note);
+            SwingUtilities.invokeLater(this::showStats);
+        });
+        snapshotStale = true;
+        if (note == currentNote) {
+            // Drop the deleted note's pending edits instead of writing them back
+            autoSaver.markSaved();
+            showInEditor(null);
+        }
+        editHistory.forget(note);
+        updateNoteList();
+        event.title = note.getTitle();
+        event.finish();
+    }
+
+    /**
+     * Build the indexes and vault statistics of all notes off the EDT, loaded from
+     * disk where possible so only changed notes are read.
+     */
+    private void indexInBackground() {
+        if (cipher == null) {
+            storedIndex = new SegmentIndex(layout.getRoot(), searchIndex, similarity, vaultStats);
+        } else {
+            SegmentIndex.delete(layout.getRoot()); // Words of encrypted notes must not be stored in plaintext
+        }
+        SegmentIndex stored = storedIndex;
+        indexWorker.execute(() -> {
+            List<Note> all = notes.notes();
+            int read = all.size();
+            if (stored != null) {
+                read = stored.restore(all, this::indexContent);
+            } else {
+                searchIndex.clear();
+                similarity.clear();
+                vaultStats.clear();
+                try {
+                    all.parallelStream().forEach(this::indexContent);
+                } finally {
+                    searchIndex.markReady();
+                }
+            }
+            StartupTimer.mark("indexes ready, " + read + " of " + all.size() + " notes read");
+            SwingUtilities.invokeLater(() -> {
+                // Now with note bodies
+                if (isSidebarFiltered()) {
+                    filterSidebarNotes();
+                } else if (!searchField.getText().trim().isEmpty()) {
+                    searchNotes();
+                }
+                showRelatedNotes();
+                showStats();
+            });
+        });
+    }
+
+    /**
+     * Read a note's body without keeping it in the note, and index its words and
+     * signature and count it. Safe to call from several threads.
+     * @return false if the note could not be read; it is reported and left out
+     */
+    private boolean indexContent(Note note) {
+        long modified = note.getLastModifiedDate(); // Before reading, so a save in between shows as a change next time
+        String content;
+        try {
+            content = note.readContent();
+        } catch (RuntimeException e) {
+            System.err.println("Cannot index " + note.getTitle() + ": " + e.getMessage());
+            return false;
+        }
+        searchIndex.update(note, content, modified);
+        similarity.update(note, content);
+        vaultStats.update(note, content);
+        return true;
+    }
+
+    /**
+     * Update a saved note's signature and statistics in the background, then refresh
+     * the related notes. The note in the editor reuses the editor's counts.
+     */
+    private void indexInBackground(Note note) {
+        boolean inEditor = note == currentNote;
+        long words = documentStats.getWords();
+        long lines = documentStats.getLines();
+        long characters = documentStats.getCharacters();
+        indexWorker.execute(() -> {
+            similarity.update(note);
+            searchIndex.update(note);
+            if (inEditor) {
+                vaultStats.update(note, words, lines, characters);
+            } else {
+                vaultStats.update(note);
+            }
+            if (storedIndex != null) storedIndex.update(note); // Last, it stores what the indexes hold
+            SwingUtilities.invokeLater(() -> {
+                showRelatedNotes();
+                showStats();
+                if (!sidebarSearchField.getText().trim().isEmpty()) filterSidebarNotes();
+            });
+        });
+    }
+
+    /**
+     * Show the counts of the note being edited and the vault totals in the status bar
+     */
+    private void showStats() {
+        long words = documentStats.getWords();
+        statsLabel.setText(String.format("%,d words  %,d lines  %,d characters  %d min read   |   Vault: %,d notes, %,d words",
+            words, documentStats.getLines(), documentStats.getCharacters(), DocumentStats.readingMinutes(words),
+            vaultStats.getNotes(), vaultStats.getWords()));
+    }
+
+    /**
+     * Show links to the notes most similar to the one in the editor.
+     * Only the notes sharing an LSH bucket with it are compared.
+     */
+    private void showRelatedNotes() {
+        relatedPanel.removeAll();
+        List<SimilarityIndex.Match> related = currentNote == null
+            ? Collections.emptyList() : similarity.related(currentNote, 5, 0.3);
+        if (!related.isEmpty()) {
+            JLabel label = new JLabel("Related:");
+            label.setFont(UNIFIED_FONT.deriveFont(Font.BOLD, 12f));
+            label.setForeground(TEXT_COLOR);
+            relatedPanel.add(label);
+        }
+        for (SimilarityIndex.Match match : related) {
+            JButton link = new JButton(String.format("%s (%d%%)", match.second.getTitle(), Math.round(match.similarity * 100)));
+            link.setFont(UNIFIED_FONT.deriveFont(12f));
+            link.setForeground(ACCENT_COLOR);
+            link.setBorderPainted(false);
+            link.setContentAreaFilled(false);
+            link.setFocusPainted(false);
+            link.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+            link.addActionListener(e -> openNote(match.second));
+            relatedPanel.add(link);
+        }
+        relatedPanel.setVisible(!related.isEmpty());
+        relatedPanel.revalidate();
+        relatedPanel.repaint();
+    }
+
+    /**
+     * Copy a file into the attachment store in the background and link it at the caret
+     */
+    private void attachFile() {
+        if (cipher != null) {
+            // Attachments are stored unencrypted, which would leak the files of an encrypted vault
+            JOptionPane.showMessageDialog(this, "Attachments are not available in encrypted vaults.");
+            return;
+        }
+        JFileChooser chooser = attachChooser();
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        File file = chooser.getSelectedFile();
+        statusLabel.setText("Attaching " + file.getName() + "...");
+        new SwingWorker<AttachmentStore.Attachment, Void>() {
+            protected AttachmentStore.Attachment doInBackground() throws Exception {
+                return attachments.add(file);
+            }
+            protected void done() {
+                AttachmentStore.Attachment attachment;
+                try {
+                    attachment = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    statusLabel.setText("Error attaching " + file.getName() + ": " + e.getMessage());
+                    return;
+                }
+                noteArea.replaceSelection(attachment.reference());
+                showAttachments();
+                statusLabel.setText(String.format("Attached %s (%,d KB)", attachment.name, (attachment.size + 1023) / 1024));
+            }
+        }.execute();
+    }
+
+    /**
+     * Show the files linked from the note in the editor. Only the links in the text
+     * are read here; thumbnails of images are made in the background and shown when ready.
+     */
+    private void showAttachments() {
+        attachmentPanel.removeAll();
+        List<AttachmentStore.Reference> references = AttachmentStore.references(noteArea.getText());
+        for (AttachmentStore.Reference reference : references) {
+            JButton chip = new JButton(reference.name);
+            chip.setFont(UNIFIED_FONT.deriveFont(12f));
+            chip.setForeground(ACCENT_COLOR);
+            chip.setFocusPainted(false);
+            chip.setCursor(Cursor.getPredefinedCursor(Cursor.HAND_CURSOR));
+            chip.setVerticalTextPosition(SwingConstants.BOTTOM);
+            chip.setHorizontalTextPosition(SwingConstants.CENTER);
+            chip.setToolTipText("Open " + reference.name);
+            chip.addActionListener(e -> openAttachment(reference));
+            if (AttachmentStore.isImage(reference.name)) {
+                chip.setIcon(thumbnails.get(reference.id, icon -> {
+                    chip.setIcon(icon);
+                    attachmentPanel.revalidate();
+                }));
+            }
+            attachmentPanel.add(chip);
+        }
+        attachmentPanel.setVisible(!references.isEmpty());
+        attachmentPanel.revalidate();
+        attachmentPanel.repaint();
+    }
+
+    /**
+     * Open an attachment with the system's default application, or save a copy if that is not possible
+     */
+    private void openAttachment(AttachmentStore.Reference reference) {
+        boolean canOpen = Desktop.isDesktopSupported() && Desktop.getDesktop().isSupported(Desktop.Action.OPEN);
+        File target;
+        if (canOpen) {
+            File dir = new File(System.getProperty("java.io.tmpdir"), "noteapp-attachments/" + reference.id);
+            target = new File(dir, new File(reference.name).getName());
+        } else {
+            JFileChooser chooser = attachChooser();
+            chooser.setSelectedFile(new File(new File(reference.name).getName()));
+            if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+            target = chooser.getSelectedFile();
+        }
+        new SwingWorker<Void, Void>() {
+            protected Void doInBackground() throws Exception {
+                AttachmentStore.Attachment attachment = attachments.get(reference.id);
+                if (attachment == null) throw new FileNotFoundException("the attachment is missing from the store");
+                if (canOpen && target.length() == attachment.size) return null; // Copied before
+                target.getParentFile().mkdirs();
+                attachments.copyTo(attachment, target);
+                return null;
+            }
+            protected void done() {
+                try {
+                    get();
+                    if (canOpen) Desktop.getDesktop().open(target);
+                    statusLabel.setText(canOpen ? "Opened " + reference.name : "Saved " + target.getName());
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    statusLabel.setText("Cannot open " + reference.name + ": " + e.getMessage());
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Show a note in the editor and select it in the sidebar if it is listed
+     */
+    private void openNote(Note note) {
+        if (notes.find(note.getTitle()) != note) return; // Deleted meanwhile
+        showInEditor(note);
+        reselectCurrentNote();
+    }
+
+    /**
+     * Report pairs of near-duplicate notes across the vault, computed in parallel
+     */
+    private void showDuplicates() {
+        statusLabel.setText("Looking for duplicate notes...");
+        new SwingWorker<List<SimilarityIndex.Match>, Void>() {
+            protected List<SimilarityIndex.Match> doInBackground() throws Exception {
+                // Queued behind indexing, so the report sees every saved change
+                return indexWorker.submit(() -> similarity.duplicates(0.8)).get();
+            }
+            protected void done() {
+                List<SimilarityIndex.Match> pairs;
+                try {
+                    pairs = get();
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    statusLabel.setText("Error looking for duplicates: " + e.getMessage());
+                    return;
+                }
+                statusLabel.setText(pairs.size() + " pairs of near-duplicate notes");
+                if (pairs.isEmpty()) {
+                    JOptionPane.showMessageDialog(NoteApp.this, "No near-duplicate notes found.");
+                    return;
+                }
+                StringBuilder report = new StringBuilder();
+                for (SimilarityIndex.Match pair : pairs.subList(0, Math.min(pairs.size(), 1000))) {
+                    report.append(String.format("%3d%%  %s  <->  %s%n", Math.round(pair.similarity * 100),
+                        pair.first.getTitle(), pair.second.getTitle()));
+                }
+                if (pairs.size() > 1000) {
+                    report.append("... and ").append(pairs.size() - 1000).append(" more\n");
+                }
+                JTextArea text = new JTextArea(report.toString(), 20, 70);
+                text.setEditable(false);
+                text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+                JOptionPane.showMessageDialog(NoteApp.this, new JScrollPane(text),
+                    "Duplicate Notes (80% similar or more)", JOptionPane.PLAIN_MESSAGE);
+            }
+        }.execute();
+    }
+
     /**
      * Loads the selected note's content into the editor
      */
     private void loadSelectedNote() {
         int selectedIndex = noteList.getSelectedIndex();
         if (selectedIndex != -1) {
-            Note note = notes.get(selectedIndex);
-            titleField.setText(note.getTitle());
-            noteArea.setText(note.getContent());
+            Note note = filteredNotes.get(selectedIndex);
+            showInEditor(note);
             dateLabel.setText(String.format("Created: %s | Last Modified: %s",
                 Note.formatDate(note.getCreationDate()),
                 Note.formatDate(note.getLastModifiedDate())));
@@ -921,66 +1958,111 @@ public class NoteApp extends JFrame {
     }
 
     /**
-     * Updates the note list display with current notes
+     * Updates the note list display with current notes, in the selected sort order.
+     * The order is maintained by the sorted index, so this never sorts.
      */
     private void updateNoteList() {
-        listModel.clear();
-        if (sidebarSearchField != null && !sidebarSearchField.getText().trim().isEmpty()) {
+        if (isSidebarFiltered()) {
             filterSidebarNotes();
         } else {
-        for (Note note : notes) {
-            listModel.addElement(note.getTitle());
-            }
+            filteredNotes = Collections.unmodifiableList(new ArrayList<>(sortedNotes.view(sortMode)));
+            listModel.setNotes(filteredNotes);
+            reselectCurrentNote();
+        }
+    }
+
+    /**
+     * Keep the note being edited selected after the list was rebuilt
+     */
+    private void reselectCurrentNote() {
+        int index = currentNote == null ? -1 : filteredNotes.indexOf(currentNote);
+        if (index != -1) {
+            noteList.setSelectedIndex(index);
+            noteList.ensureIndexIsVisible(index);
         }
     }
 
     /**
-     * Loads all existing notes from the notes directory into memory
+     * Loads all existing notes from the notes directory into memory.
+     * Unchanged notes come from the startup snapshot, only newer files are read.
      */
     private void loadNotes() {
         File notesDir = new File(NOTES_DIR);
-        notes.clear();
         if (notesDir.exists()) {
-            File[] files = notesDir.listFiles((dir, name) -> name.endsWith(".txt"));
-            if (files != null) {
-                for (File file : files) {
-                    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
-                        String title = file.getName().replace(".txt", "");
-                        StringBuilder content = new StringBuilder();
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            content.append(line).append("\n");
-                        }
-                        Note note = new Note(title, content.toString(), file.lastModified(), file.lastModified());
-                        notes.add(note);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-                updateNoteList();
+            NoteEvents.VaultLoad event = new NoteEvents.VaultLoad();
+            event.start();
+            AtomicInteger filesRead = new AtomicInteger();
+            notes.replaceAll(NoteSnapshot.load(layout, file -> {
+                filesRead.incrementAndGet();
+                return readNoteFile(file);
+            }));
+            Map<String, String> metadata = journal != null
+                ? journal.getRecoveredMetadata() : NoteJournal.readMetadata(layout.getRoot());
+            tagIndex.clear();
+            for (Note note : notes) {
+                // tags.properties wins; a note file's header covers notes missing from it
+                String stored = metadata.get(note.getTitle());
+                if (stored != null) note.setMetadata(stored);
+                tagIndex.update(note);
             }
+            sortedNotes.clear();
+            sortedNotes.updateAll(notes.notes());
+            event.notes = notes.size();
+            event.filesRead = filesRead.get();
+            event.finish();
         }
     }
 
     /**
-     * Saves a note to a text file in the notes directory
-     * @param note The note to be saved
+     * Reads a single note file's header. The body is read (and decrypted, in an
+     * encrypted vault) when the note is first opened or searched.
+     * @param file The note file
+     * @return The note, or null if the file could not be read
      */
-    private void saveToFile(Note note) {
-        File noteFile = new File(NOTES_DIR, note.getTitle() + ".txt");
-        try (PrintWriter writer = new PrintWriter(new FileWriter(noteFile))) {
-            writer.write(note.getContent());
+    private Note readNoteFile(File file) {
+        NoteEvents.FileLoad event = new NoteEvents.FileLoad();
+        event.start();
+        try {
+            return NoteFile.read(file, layout, cipher);
         } catch (IOException e) {
             e.printStackTrace();
+            return null;
+        } finally {
+            if (event.isEnabled()) {
+                event.title = VaultLayout.titleOf(file);
+                event.fileSize = file.length();
+            }
+            event.finish();
+        }
+    }
+
+    /**
+     * Gets the file chooser for import and export, creating it on first use
+     * (building a JFileChooser scans the file system, so it is kept off the startup path)
+     */
+    private JFileChooser fileChooser() {
+        if (fileChooser == null) {
+            fileChooser = new JFileChooser();
+            fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Text Files", "txt"));
+        }
+        return fileChooser;
+    }
+
+    /**
+     * Gets the chooser for attaching and saving attachments (any file type), creating it on first use
+     */
+    private JFileChooser attachChooser() {
+        if (attachChooser == null) {
+            attachChooser = new JFileChooser();
         }
+        return attachChooser;
     }
 
     /**
      * Export the current note to a text file
      */
     private void exportNote() {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Text Files", "txt"));
+        JFileChooser fileChooser = fileChooser();
         if (fileChooser.showSaveDialog(this) == JFileChooser.APPROVE_OPTION) {
             try (PrintWriter writer = new PrintWriter(fileChooser.getSelectedFile())) {
                 writer.println("Title: " + titleField.getText());
@@ -997,8 +2079,7 @@ public class NoteApp extends JFrame {
      * Import a note from a text file
      */
     private void importNote() {
-        JFileChooser fileChooser = new JFileChooser();
-        fileChooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Text Files", "txt"));
+        JFileChooser fileChooser = fileChooser();
         if (fileChooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
             try (BufferedReader reader = new BufferedReader(new FileReader(fileChooser.getSelectedFile()))) {
                 StringBuilder content = new StringBuilder();
@@ -1020,9 +2101,8 @@ public class NoteApp extends JFrame {
     private void editNote() {
         int selectedIndex = noteList.getSelectedIndex();
         if (selectedIndex != -1) {
-            Note note = notes.get(selectedIndex);
-            titleField.setText(note.getTitle());
-            noteArea.setText(note.getContent());
+            Note note = filteredNotes.get(selectedIndex);
+            showInEditor(note);
             statusLabel.setText("Editing note: " + note.getTitle());
         } else {
             statusLabel.setText("No note selected to edit.");
@@ -1036,7 +2116,7 @@ public class NoteApp extends JFrame {
         JButton button = new JButton(text);
         button.setFont(UNIFIED_FONT);
         button.setForeground(TEXT_COLOR);
-        button.setBackground(Color.WHITE);
+        button.setBackground(SURFACE_COLOR);
         button.setFocusPainted(false);
         button.setBorderPainted(true);
         button.setContentAreaFilled(true);
@@ -1051,7 +2131,7 @@ public class NoteApp extends JFrame {
                 button.setBackground(HOVER_COLOR);
             }
             public void mouseExited(java.awt.event.MouseEvent evt) {
-                button.setBackground(Color.WHITE);
+                button.setBackground(SURFACE_COLOR);
             }
         });
         button.addActionListener(listener);
@@ -1059,25 +2139,145 @@ public class NoteApp extends JFrame {
     }
 
     /**
-     * Filter notes in the sidebar based on search text
+     * @return true if a search text, category or tag filter restricts the sidebar
+     */
+    private boolean isSidebarFiltered() {
+        return sidebarSearchField != null && (!sidebarSearchField.getText().trim().isEmpty()
+            || categoryComboBox.getSelectedIndex() > 0
+            || !tagFilterField.getText().trim().isEmpty());
+    }
+
+    /**
+     * Filter notes in the sidebar based on search query, category and tag filter.
+     * Category and tags are resolved to a bitmap of note ids first, and the query
+     * (see {@link NoteQuery}) only searches among those.
      */
     private void filterSidebarNotes() {
-        String searchText = sidebarSearchField.getText().trim().toLowerCase();
-        filteredNotes.clear();
-        listModel.clear();
-        if (searchText.isEmpty()) {
-            for (Note note : notes) {
-                filteredNotes.add(note);
-                listModel.addElement(note.getTitle());
+        NoteEvents.Search event = new NoteEvents.Search();
+        event.start();
+        TagBitmap allowed = null;
+        try {
+            String tagFilter = tagFilterField.getText().trim();
+            if (!tagFilter.isEmpty()) {
+                allowed = tagIndex.evaluate(tagFilter);
             }
-        } else {
-            for (Note note : notes) {
-                if (note.getTitle().toLowerCase().contains(searchText)) {
-                    filteredNotes.add(note);
-                    listModel.addElement(note.getTitle());
-                }
+            if (categoryComboBox.getSelectedIndex() > 0) {
+                TagBitmap inCategory = tagIndex.notesWith((String) categoryComboBox.getSelectedItem());
+                allowed = allowed == null ? inCategory : allowed.and(inCategory);
+            }
+            tagFilterField.setForeground(TEXT_COLOR);
+        } catch (IllegalArgumentException e) {
+            // Keep showing the last valid result while the filter is being typed
+            tagFilterField.setForeground(Color.RED);
+            statusLabel.setText(e.getMessage());
+            return;
+        }
+        NoteQuery query;
+        try {
+            query = NoteQuery.parse(sidebarSearchField.getText());
+            sidebarSearchField.setForeground(TEXT_COLOR);
+        } catch (IllegalArgumentException e) {
+            sidebarSearchField.setForeground(Color.RED);
+            statusLabel.setText(e.getMessage());
+            return;
+        }
+        if (query != null) {
+            allowed = query.run(notes, searchIndex, sortedNotes, allowed != null ? allowed : tagIndex.allNotes());
+        }
+        lastQuery = query;
+        List<Note> matches = new ArrayList<>();
+        for (Note note : sortedNotes.view(sortMode)) {
+            if (allowed == null || allowed.contains(note.getId())) {
+                matches.add(note);
             }
         }
+        filteredNotes = Collections.unmodifiableList(matches);
+        listModel.setNotes(filteredNotes);
+        reselectCurrentNote();
+        showSearchHits();
+        if (query != null) reportUnsearched(query);
+        event.source = "sidebar";
+        event.queryLength = sidebarSearchField.getText().length();
+        event.results = matches.size();
+        event.finish();
+    }
+
+    /**
+     * Highlight the sidebar search words in the note being edited. Positions come
+     * from the search index, so the note's text is not searched again; only while
+     * the index is being built is the editor's text split for a note it has not reached.
+     */
+    private void showSearchHits() {
+        String words = lastQuery == null ? "" : lastQuery.highlightWords();
+        if (words.isEmpty() || currentNote == null) {
+            searchHighlighter.setHits(null);
+            return;
+        }
+        SearchIndex.Hits hits = searchIndex.hits(currentNote, words);
+        if (hits == null && !searchIndex.isReady()) {
+            // The index has not reached this note yet: find the words in the editor's text
+            hits = SearchIndex.hitsIn(noteArea.getText(), words);
+        }
+        searchHighlighter.setHits(hits);
+        if (hits != null && hits.size() > 0) {
+            statusLabel.setText(String.format("%,d matches in this note, F3 / Shift+F3 to step through them", hits.size()));
+        }
+    }
+
+    /**
+     * Show how the last sidebar search was planned and what each step kept
+     */
+    private void explainSearch() {
+        if (lastQuery == null) {
+            JOptionPane.showMessageDialog(this, "Type a search in the sidebar first.",
+                "Explain Search", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        JTextArea plan = new JTextArea(lastQuery.explain());
+        plan.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        plan.setEditable(false);
+        JScrollPane scrollPane = new JScrollPane(plan);
+        scrollPane.setPreferredSize(new Dimension(760, 320));
+        JOptionPane.showMessageDialog(this, scrollPane, "Explain Search", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /**
+     * Show the progress of the background integrity check and the damaged files it found
+     */
+    private void showIntegrityReport() {
+        JTextArea report = new JTextArea(scrubber.report());
+        report.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        report.setEditable(false);
+        JScrollPane scrollPane = new JScrollPane(report);
+        scrollPane.setPreferredSize(new Dimension(640, 260));
+        JOptionPane.showMessageDialog(this, scrollPane, "Integrity Report", JOptionPane.PLAIN_MESSAGE);
+    }
+
+    /**
+     * Deal with a note file the integrity check found damaged, once a copy is in quarantine:
+     * write it again if memory holds text that was read intact or edited since, otherwise
+     * keep the note and mark it damaged so the user can check its text
+     */
+    private void repairDamagedNote(VaultScrubber.Damage damage) {
+        Note note = notes.find(damage.title);
+        if (note == null) return; // Deleted meanwhile
+        if (damage.copy != null && note.isContentLoaded() && !note.isContentDamaged()) {
+            recordMutation(NoteJournal.Op.UPDATE, note.getTitle(), null, note.getContent(), note.getMetadata());
+            statusLabel.setText("\"" + damage.title + "\" was damaged on disk and was written again from memory");
+            return;
+        }
+        note.markContentDamaged();
+        noteList.repaint();
+        statusLabel.setText("\"" + damage.title + "\" is damaged on disk, check its text; see View > Integrity Report");
+    }
+
+    /**
+     * Select the next or previous search hit in the editor
+     */
+    private void jumpToMatch(boolean forward) {
+        int position = forward ? searchHighlighter.next() : searchHighlighter.previous();
+        statusLabel.setText(position == 0 ? "No matches in this note"
+            : String.format("Match %,d of %,d", position, searchHighlighter.size()));
     }
 
     /**
@@ -1085,8 +2285,11 @@ public class NoteApp extends JFrame {
      */
     public static void main(String[] args) {
         SwingUtilities.invokeLater(() -> {
+            setupModernLookAndFeel(); // Before any component exists, so nothing is styled twice
+            StartupTimer.mark("look and feel installed");
             NoteApp app = new NoteApp();
             app.setVisible(true);
+            app.finishStartup();
         });
     }
 }
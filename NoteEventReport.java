@@ -0,0 +1,179 @@
+package src;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * NoteEventReport summarizes a Flight Recorder recording of NoteApp (see
+ * NoteEvents) into a table with one row per kind of operation: how often it ran,
+ * its p50/p95/p99/max duration, the bytes it allocated, and how many runs
+ * overlapped a GC pause and for how long. Saves are split by kind and searches by
+ * where they were typed. The slowest single operations are listed below, with
+ * their thread and details.
+ *
+ *   java -cp <classes> src.NoteEventReport noteapp.jfr [--top N]
+ */
+public class NoteEventReport {
+    private static final String PREFIX = "noteapp.";
+    private static final int DEFAULT_TOP = 10;
+    // Fields every event has; the rest are shown as details
+    private static final List<String> COMMON_FIELDS = Arrays.asList("startTime", "duration", "eventThread", "stackTrace", "allocated");
+
+    /**
+     * The runs of one kind of operation
+     */
+    private static final class Group {
+        final List<Long> durations = new ArrayList<>();
+        long allocated;
+        int allocatedCount;    // Runs that know their allocation
+        int inGc;              // Runs that overlapped a GC pause
+        long gcNanos;          // Time those runs spent paused
+    }
+
+    public static void main(String[] args) throws IOException {
+        int top = DEFAULT_TOP;
+        if (args.length == 3 && args[1].equals("--top")) {
+            top = Integer.parseInt(args[2]);
+        } else if (args.length != 1) {
+            System.err.println("Usage: NoteEventReport <recording.jfr> [--top N]");
+            System.exit(2);
+        }
+        Path recording = Paths.get(args[0]);
+
+        List<RecordedEvent> operations = new ArrayList<>();
+        List<long[]> pauses = new ArrayList<>();  // {start, end} in ns since the epoch
+        try (RecordingFile file = new RecordingFile(recording)) {
+            while (file.hasMoreEvents()) {
+                RecordedEvent event = file.readEvent();
+                String name = event.getEventType().getName();
+                if (name.startsWith(PREFIX)) {
+                    operations.add(event);
+                } else if (name.equals("jdk.GCPhasePause")) {
+                    pauses.add(new long[] {nanos(event.getStartTime()), nanos(event.getEndTime())});
+                }
+            }
+        }
+        if (operations.isEmpty()) {
+            System.out.println("No NoteApp events in " + recording + "; record with the settings in noteapp.jfc");
+            return;
+        }
+        pauses.sort(Comparator.comparingLong(pause -> pause[0]));
+
+        Map<String, Group> groups = new TreeMap<>();
+        for (RecordedEvent event : operations) {
+            Group group = groups.computeIfAbsent(groupOf(event), key -> new Group());
+            group.durations.add(event.getDuration().toNanos());
+            long allocated = event.getLong("allocated");
+            if (allocated >= 0) {
+                group.allocated += allocated;
+                group.allocatedCount++;
+            }
+            long paused = pausedDuring(pauses, nanos(event.getStartTime()), nanos(event.getEndTime()));
+            if (paused > 0) {
+                group.inGc++;
+                group.gcNanos += paused;
+            }
+        }
+
+        System.out.printf("%-28s %7s %9s %9s %9s %9s %11s %11s %7s %9s%n", "operation", "count",
+            "p50 ms", "p95 ms", "p99 ms", "max ms", "alloc/op", "alloc", "in GC", "GC ms");
+        for (Map.Entry<String, Group> entry : groups.entrySet()) {
+            Group group = entry.getValue();
+            List<Long> samples = group.durations;
+            System.out.printf(Locale.ROOT, "%-28s %7d %9.2f %9.2f %9.2f %9.2f %11s %11s %7d %9.2f%n",
+                entry.getKey(), samples.size(),
+                Percentiles.percentile(samples, 50) / 1e6, Percentiles.percentile(samples, 95) / 1e6,
+                Percentiles.percentile(samples, 99) / 1e6, Collections.max(samples) / 1e6,
+                group.allocatedCount == 0 ? "-" : bytes(group.allocated / group.allocatedCount),
+                group.allocatedCount == 0 ? "-" : bytes(group.allocated),
+                group.inGc, group.gcNanos / 1e6);
+        }
+        long pausedTotal = 0;
+        long longest = 0;
+        for (long[] pause : pauses) {
+            pausedTotal += pause[1] - pause[0];
+            longest = Math.max(longest, pause[1] - pause[0]);
+        }
+        System.out.printf(Locale.ROOT, "%nGC pauses: %d, %.1f ms in total, longest %.2f ms%n",
+            pauses.size(), pausedTotal / 1e6, longest / 1e6);
+
+        operations.sort((a, b) -> b.getDuration().compareTo(a.getDuration()));
+        System.out.printf("%nSlowest operations:%n");
+        for (RecordedEvent event : operations.subList(0, Math.min(top, operations.size()))) {
+            long allocated = event.getLong("allocated");
+            RecordedThread thread = event.getThread();
+            System.out.printf(Locale.ROOT, "  %9.2f ms  %-28s %9s  %-20s %s%n",
+                event.getDuration().toNanos() / 1e6, groupOf(event),
+                allocated < 0 ? "-" : bytes(allocated),
+                thread == null ? "?" : thread.getJavaName(), details(event));
+        }
+    }
+
+    /**
+     * @return The event's label, with the kind of save or the source of a search
+     */
+    private static String groupOf(RecordedEvent event) {
+        String label = event.getEventType().getLabel();
+        if (label == null) label = event.getEventType().getName().substring(PREFIX.length());
+        if (event.hasField("kind")) return label + " (" + event.getString("kind") + ")";
+        if (event.hasField("source")) return label + " (" + event.getString("source") + ")";
+        return label;
+    }
+
+    /**
+     * @return The event's own fields, as name=value
+     */
+    private static String details(RecordedEvent event) {
+        StringBuilder out = new StringBuilder();
+        event.getFields().forEach(field -> {
+            if (COMMON_FIELDS.contains(field.getName())) return;
+            if (out.length() > 0) out.append(", ");
+            Object value = event.getValue(field.getName());
+            out.append(field.getName()).append('=').append(value);
+        });
+        return out.toString();
+    }
+
+    /**
+     * @param pauses GC pauses sorted by start
+     * @return Nanoseconds of the interval spent in GC pauses
+     */
+    private static long pausedDuring(List<long[]> pauses, long start, long end) {
+        // Pauses never overlap each other, so none starting before the one found can reach the interval
+        int low = 0;
+        int high = pauses.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (pauses.get(mid)[1] <= start) low = mid + 1;
+            else high = mid;
+        }
+        long paused = 0;
+        for (int i = low; i < pauses.size() && pauses.get(i)[0] < end; i++) {
+            paused += Math.max(0, Math.min(end, pauses.get(i)[1]) - Math.max(start, pauses.get(i)[0]));
+        }
+        return paused;
+    }
+
+    private static long nanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    private static String bytes(long bytes) {
+        if (bytes < 10 * 1024) return bytes + " B";
+        if (bytes < 10L * 1024 * 1024) return String.format(Locale.ROOT, "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.ROOT, "%.1f MB", bytes / (1024.0 * 1024));
+    }
+}
@@ -0,0 +1,163 @@
+package src;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * NoteEvents are the Java Flight Recorder events NoteApp emits for note
+ * operations, so a recording shows which operations cause latency spikes and
+ * allocation pressure. Every event has its duration and the bytes its thread
+ * allocated during the operation. Record with the settings in noteapp.jfc and
+ * summarize the recording with NoteEventReport:
+ *
+ * <pre>
+ *   java -XX:StartFlightRecording=settings=noteapp.jfc,filename=noteapp.jfr -jar NoteApp.jar
+ *   java -cp NoteApp.jar src.NoteEventReport noteapp.jfr
+ * </pre>
+ *
+ * Without a recording an event costs next to nothing: begin and commit return at
+ * once and the allocation counter is not read.
+ */
+final class NoteEvents {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private NoteEvents() {
+    }
+
+    /**
+     * Base of the events: timed from start to finish, with the bytes allocated in between
+     */
+    @Category("NoteApp")
+    @StackTrace(false)
+    abstract static class Operation extends Event {
+        @Label("Allocated")
+        @Description("Bytes allocated by the thread during the operation, -1 if the JVM cannot tell")
+        @DataAmount
+        long allocated = -1;
+
+        private transient long allocatedBefore = -1;
+
+        /**
+         * Start timing
+         */
+        void start() {
+            if (isEnabled()) allocatedBefore = allocatedBytes();
+            begin();
+        }
+
+        /**
+         * Stop timing and record the event if a recording wants it
+         */
+        void finish() {
+            end();
+            if (shouldCommit()) {
+                if (allocatedBefore >= 0) allocated = allocatedBytes() - allocatedBefore;
+                commit();
+            }
+        }
+    }
+
+    @Name("noteapp.FileLoad")
+    @Label("Note File Load")
+    @Description("Reading one note file's header while loading the vault")
+    static final class FileLoad extends Operation {
+        @Label("Title")
+        String title;
+
+        @Label("File Size")
+        @DataAmount
+        long fileSize;
+    }
+
+    @Name("noteapp.VaultLoad")
+    @Label("Vault Load")
+    @Description("Loading all notes at startup, from the snapshot and the note files")
+    static final class VaultLoad extends Operation {
+        @Label("Notes")
+        int notes;
+
+        @Label("Files Read")
+        @Description("Notes read from their files rather than the snapshot")
+        int filesRead;
+    }
+
+    @Name("noteapp.Save")
+    @Label("Note Save")
+    @Description("Saving a note: updating it in memory and the indexes and queueing it for the journal")
+    static final class Save extends Operation {
+        @Label("Title")
+        String title;
+
+        @Label("Kind")
+        @Description("create, update, rename or api")
+        String kind;
+
+        @Label("Content Length")
+        @Description("Characters of the note's text")
+        int contentLength;
+    }
+
+    @Name("noteapp.Delete")
+    @Label("Note Delete")
+    static final class Delete extends Operation {
+        @Label("Title")
+        String title;
+    }
+
+    @Name("noteapp.Search")
+    @Label("Search")
+    @Description("Running a search query and showing the matching notes")
+    static final class Search extends Operation {
+        @Label("Source")
+        @Description("sidebar, search field or api")
+        String source;
+
+        @Label("Query Length")
+        int queryLength;
+
+        @Label("Results")
+        int results;
+    }
+
+    @Name("noteapp.ListRebuild")
+    @Label("Note List Rebuild")
+    @Description("Replacing the notes shown in the sidebar list")
+    static final class ListRebuild extends Operation {
+        @Label("Rows")
+        int rows;
+    }
+
+    @Name("noteapp.ThemeSwitch")
+    @Label("Theme Switch")
+    static final class ThemeSwitch extends Operation {
+        @Label("Theme")
+        String theme;
+    }
+
+    @Name("noteapp.JournalCommit")
+    @Label("Journal Commit")
+    @Description("Appending a batch of note changes to the journal and syncing it to disk")
+    static final class JournalCommit extends Operation {
+        @Label("Records")
+        int records;
+
+        @Label("Bytes")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * @return Bytes allocated so far by the current thread, or -1 if the JVM does not count them
+     */
+    private static long allocatedBytes() {
+        if (!(THREADS instanceof com.sun.management.ThreadMXBean)) return -1;
+        return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
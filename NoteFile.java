@@ -0,0 +1,310 @@
+package src;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32;
+
+/**
+ * NoteFile reads and writes note files. A note file starts with a small binary
+ * header followed by the body, which is the note's text in UTF-8 (or, in an
+ * encrypted vault, the sealed text; see VaultCipher):
+ *
+ * <pre>
+ *   offset  size
+ *        0     4  magic 0x89 'N' 'T' 'E' (0x89 never starts UTF-8 text)
+ *        4     2  format version, currently 1
+ *        6     2  header length, including the metadata
+ *        8     8  creation date, ms since the epoch
+ *       16     8  last modified date
+ *       24     8  body length in bytes
+ *       32     4  CRC-32 of the body
+ *       36     4  CRC-32 of the rest of the header
+ *       40     2  metadata length
+ *       42     n  metadata, "category|tag1,tag2" in UTF-8
+ * </pre>
+ *
+ * All numbers are big-endian. The header can be read without touching the body,
+ * so the vault loads dates and categories from a few bytes per file and reads
+ * bodies only when needed. Readers skip header fields of newer versions they do
+ * not know, using the header length. Files without the magic are legacy notes:
+ * the whole file is the body, in the platform charset, dated by the file's
+ * modification time.
+ */
+class NoteFile {
+    static final int VERSION = 1;
+    private static final byte[] MAGIC = {(byte) 0x89, 'N', 'T', 'E'};
+    private static final int FIXED_BYTES = 42;
+    private static final int HEADER_CRC_OFFSET = 36;
+    private static final int MAX_METADATA_BYTES = 0xFFFF - FIXED_BYTES;
+
+    /**
+     * The fields of a note file header
+     */
+    static final class Header {
+        final int version;
+        final int length;          // Header bytes; the body starts here
+        final long creationDate;
+        final long lastModifiedDate;
+        final long bodyLength;
+        final int bodyCrc;
+        final String metadata;
+
+        Header(int version, int length, long creationDate, long lastModifiedDate,
+               long bodyLength, int bodyCrc, String metadata) {
+            this.version = version;
+            this.length = length;
+            this.creationDate = creationDate;
+            this.lastModifiedDate = lastModifiedDate;
+            this.bodyLength = bodyLength;
+            this.bodyCrc = bodyCrc;
+            this.metadata = metadata;
+        }
+    }
+
+    private NoteFile() {
+    }
+
+    /**
+     * Write a note file atomically and set its modification time to the note's
+     * @param cipher The vault's cipher, or null for a plaintext vault
+     * @param metadata The note's category and tags (see Note.getMetadata), or null for none
+     */
+    static void write(File file, VaultCipher cipher, String title, String content,
+                      long creationDate, long lastModifiedDate, String metadata) throws IOException {
+        byte[] body = VaultCipher.encode(cipher, title, content);
+        NoteJournal.writeAtomically(file, encode(creationDate, lastModifiedDate, metadata, body));
+        file.setLastModified(lastModifiedDate);
+    }
+
+    /**
+     * Build the bytes of a note file
+     * @param body The encoded body
+     */
+    static byte[] encode(long creationDate, long lastModifiedDate, String metadata, byte[] body) {
+        byte[] meta = (metadata == null ? "" : metadata).getBytes(StandardCharsets.UTF_8);
+        if (meta.length > MAX_METADATA_BYTES) {
+            throw new IllegalArgumentException("Category and tags are too long");
+        }
+        CRC32 bodyCrc = new CRC32();
+        bodyCrc.update(body, 0, body.length);
+        ByteBuffer out = ByteBuffer.allocate(FIXED_BYTES + meta.length + body.length);
+        out.put(MAGIC)
+            .putShort((short) VERSION)
+            .putShort((short) (FIXED_BYTES + meta.length))
+            .putLong(creationDate)
+            .putLong(lastModifiedDate)
+            .putLong(body.length)
+            .putInt((int) bodyCrc.getValue())
+            .putInt(0) // Header CRC, filled in below
+            .putShort((short) meta.length)
+            .put(meta);
+        out.putInt(HEADER_CRC_OFFSET, headerCrc(out.array(), FIXED_BYTES + meta.length));
+        out.put(body);
+        return out.array();
+    }
+
+    /**
+     * Read only the header of a note file
+     * @return The header, or null for a legacy file without one
+     * @throws IOException if the file cannot be read or its header is damaged
+     */
+    static Header readHeader(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return readHeader(channel, file);
+        }
+    }
+
+    /**
+     * Read the header from an open file
+     * @param file The file, for messages
+     * @return The header, or null for a legacy file without one
+     * @throws IOException if the file cannot be read or its header is damaged
+     */
+    static Header readHeader(FileChannel channel, File file) throws IOException {
+        ByteBuffer fixed = ByteBuffer.allocate(FIXED_BYTES);
+        readFully(channel, fixed, 0);
+        if (fixed.position() < MAGIC.length || !hasMagic(fixed.array())) return null;
+        if (fixed.hasRemaining()) throw new IOException(file + ": header is cut short");
+        fixed.flip();
+        fixed.position(MAGIC.length);
+        int version = fixed.getShort() & 0xFFFF;
+        int length = fixed.getShort() & 0xFFFF;
+        if (length < FIXED_BYTES) throw new IOException(file + ": damaged header");
+        ByteBuffer header = ByteBuffer.allocate(length);
+        readFully(channel, header, 0);
+        if (header.hasRemaining()) throw new IOException(file + ": header is cut short");
+        if (header.getInt(HEADER_CRC_OFFSET) != headerCrc(header.array(), length)) {
+            throw new IOException(file + ": damaged header (checksum mismatch)");
+        }
+        if (version < 1) throw new IOException(file + ": unknown note format version " + version);
+        header.position(8);
+        long creationDate = header.getLong();
+        long lastModifiedDate = header.getLong();
+        long bodyLength = header.getLong();
+        int bodyCrc = header.getInt();
+        header.getInt();
+        int metaLength = header.getShort() & 0xFFFF;
+        if (FIXED_BYTES + metaLength > length) throw new IOException(file + ": damaged header");
+        String metadata = new String(header.array(), FIXED_BYTES, metaLength, StandardCharsets.UTF_8);
+        return new Header(version, length, creationDate, lastModifiedDate, bodyLength, bodyCrc, metadata);
+    }
+
+    /**
+     * Read a note's body as stored: the bytes after the header, or the whole legacy file
+     * @param header The file's header, or null for a legacy file
+     * @return The body bytes
+     * @throws IOException if the file cannot be read or is shorter than its header says
+     */
+    static byte[] readBody(File file, Header header) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long start = header == null ? 0 : header.length;
+            long length = header == null ? channel.size() : header.bodyLength;
+            if (length > Integer.MAX_VALUE - 8) throw new IOException(file + " is too large");
+            ByteBuffer body = ByteBuffer.allocate((int) length);
+            readFully(channel, body, start);
+            if (body.hasRemaining()) throw new IOException(file + ": body is cut short");
+            return body.array();
+        }
+    }
+
+    /**
+     * @return true if the body matches the checksum in its header (legacy bodies always do)
+     */
+    static boolean isIntact(Header header, byte[] body) {
+        if (header == null) return true;
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, body.length);
+        return (int) crc.getValue() == header.bodyCrc && body.length == header.bodyLength;
+    }
+
+    /**
+     * Read a note's text, whatever format its file is in. A body failing its checksum
+     * is still returned, with a warning, so the text can be rescued.
+     * @param cipher The vault's cipher, or null for a plaintext vault
+     * @param title The note's title (needed to decrypt)
+     */
+    static String readContent(File file, VaultCipher cipher, String title) throws IOException {
+        return readContent(file, cipher, title, null);
+    }
+
+    /**
+     * @param note Marked damaged if the body fails its checksum, or null
+     */
+    private static String readContent(File file, VaultCipher cipher, String title, Note note) throws IOException {
+        Header header = readHeader(file);
+        byte[] body = readBody(file, header);
+        if (!isIntact(header, body)) {
+            System.err.println("Warning: " + file + " fails its checksum, the note may be damaged");
+            if (note != null) note.markContentDamaged();
+        }
+        return decodeBody(body, header != null, cipher, title, file);
+    }
+
+    /**
+     * Turn stored body bytes into the note's text
+     * @param versioned true for the body of a versioned file (UTF-8), false for a legacy file
+     */
+    static String decodeBody(byte[] body, boolean versioned, VaultCipher cipher, String title, File file) throws IOException {
+        if (cipher != null) {
+            try {
+                return cipher.decrypt(title, body);
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Cannot decrypt " + file + ": " + e.getMessage(), e);
+            }
+        }
+        if (versioned) return new String(body, StandardCharsets.UTF_8);
+        // Legacy files were read line by line, each line ending in \n
+        String text = new String(body, Charset.defaultCharset()).replace("\r\n", "\n").replace('\r', '\n');
+        return text.isEmpty() || text.endsWith("\n") ? text : text + "\n";
+    }
+
+    /**
+     * Read a note from its file, reading only the header now and the body on first access.
+     * Legacy files are dated by their modification time. A body that fails its checksum
+     * marks the note damaged when it is read. The body is read from wherever the layout
+     * has the note's file by then, so a layout migration does not strand it.
+     * @param layout The vault's layout, used to find the file when the body is read
+     * @param cipher The vault's cipher, or null for a plaintext vault
+     * @return The note; category and tags are set from the header if it has them
+     */
+    static Note read(File file, VaultLayout layout, VaultCipher cipher) throws IOException {
+        String title = VaultLayout.titleOf(file);
+        Header header = readHeader(file);
+        long creationDate = header == null ? file.lastModified() : header.creationDate;
+        long lastModifiedDate = header == null ? file.lastModified() : header.lastModifiedDate;
+        AtomicReference<Note> self = new AtomicReference<>(); // The loader marks the note it belongs to
+        Note note = new Note(title, () -> {
+            try {
+                return readContent(layout, cipher, title, self.get());
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, creationDate, lastModifiedDate);
+        self.set(note);
+        if (header != null) note.setMetadata(header.metadata);
+        return note;
+    }
+
+    /**
+     * Read a note's text from its current file
+     * @param note Marked damaged if the body fails its checksum
+     */
+    private static String readContent(VaultLayout layout, VaultCipher cipher, String title, Note note) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            File file = layout.locate(title);
+            if (file == null) throw new NoSuchFileException(title + VaultLayout.NOTE_EXTENSION);
+            try {
+                return readContent(file, cipher, title, note);
+            } catch (NoSuchFileException e) {
+                if (attempt > 0) throw e; // Moved by a migration between locate and reading: look once more
+            }
+        }
+    }
+
+    /**
+     * @return The creation date stored in a note file, its modification time for a legacy
+     *         file, or the fallback if there is no readable file
+     */
+    static long creationDateOf(File file, long fallback) {
+        if (!file.exists()) return fallback;
+        try {
+            Header header = readHeader(file);
+            return header == null ? file.lastModified() : header.creationDate;
+        } catch (IOException e) {
+            return fallback;
+        }
+    }
+
+    private static boolean hasMagic(byte[] data) {
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (data[i] != MAGIC[i]) return false;
+        }
+        return true;
+    }
+
+    /**
+     * CRC-32 of a header with its own checksum field left out
+     */
+    private static int headerCrc(byte[] header, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(header, 0, HEADER_CRC_OFFSET);
+        crc.update(header, HEADER_CRC_OFFSET + 4, length - HEADER_CRC_OFFSET - 4);
+        return (int) crc.getValue();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) break;
+            position += read;
+        }
+    }
+}
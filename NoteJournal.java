@@ -0,0 +1,507 @@
+package src;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * NoteJournal is an append-only write-ahead log of note mutations.
+ * Every create, update, rename and delete is appended to the journal and made
+ * durable with a single fsync per batch (group commit), so a burst of saves costs
+ * one sequential append instead of one full file rewrite each.
+ * Note files are brought up to date at checkpoints, which replace each changed file
+ * atomically and then truncate the journal. On startup any records left behind by
+ * a crash are replayed before the notes are loaded.
+ */
+class NoteJournal implements Closeable {
+    static final String JOURNAL_FILE = "journal.wal";
+    // Categories and tags of all notes, title -> "category|tag1,tag2"
+    static final String METADATA_FILE = "tags.properties";
+
+    // Checkpoint once the journal grows past this size and no mutations are waiting...
+    private static final long CHECKPOINT_BYTES = 4L * 1024 * 1024;
+    // ...or past this size even during a burst, which bounds replay at startup...
+    private static final long CHECKPOINT_MAX_BYTES = 64L * 1024 * 1024;
+    // ...or after this long without new mutations
+    private static final long CHECKPOINT_IDLE_MS = 5000;
+    // Upper bound of records written under one fsync
+    private static final int MAX_BATCH = 512;
+
+    /**
+     * Kinds of note mutations recorded in the journal
+     */
+    enum Op { CREATE, UPDATE, RENAME, DELETE }
+
+    /**
+     * A single journaled mutation. For RENAME, title is the old and newTitle the new title.
+     * Metadata is the note's encoded category and tags (see Note.getMetadata).
+     */
+    static final class Record {
+        final Op op;
+        final long timestamp;
+        final String title;
+        final String newTitle;
+        final String content;
+        final String metadata;
+
+        Record(Op op, long timestamp, String title, String newTitle, String content, String metadata) {
+            this.op = op;
+            this.timestamp = timestamp;
+            this.title = title;
+            this.newTitle = newTitle;
+            this.content = content;
+            this.metadata = metadata;
+        }
+    }
+
+    /**
+     * A record waiting for the writer thread, with the future completed once it is durable
+     */
+    private static final class Pending {
+        final Record record;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Pending(Record record) {
+            this.record = record;
+        }
+    }
+
+    // Marker in the dirty map for a note whose file must be removed
+    private static final String DELETED = new String("<deleted>");
+    private static final Pending SHUTDOWN = new Pending(null);
+
+    private final VaultLayout layout;
+    private final VaultCipher cipher;   // Encrypts note bodies in journal and files, null for plaintext vaults
+    private final FileChannel channel;
+    private final LinkedBlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    // Latest journaled state of every note changed since the last checkpoint (writer thread only)
+    private final Map<String, Object> dirty = new LinkedHashMap<>();
+    private final Map<String, Long> dirtyTimes = new LinkedHashMap<>();
+    // Creation dates of dirty notes whose file does not hold them yet: created or renamed notes
+    private final Map<String, Long> dirtyCreated = new HashMap<>();
+    // Metadata of every note as of the last durable record (writer thread only)
+    private final Map<String, String> metadata;
+    private final Map<String, String> recoveredMetadata;
+    private boolean metadataChanged;
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * Open the journal of a plaintext vault
+     * @param layout The layout of the vault the journal belongs to
+     */
+    NoteJournal(VaultLayout layout) throws IOException {
+        this(layout, null);
+    }
+
+    /**
+     * Open the journal in the notes directory, replaying and checkpointing any
+     * records left over from a previous run before new mutations are accepted
+     * @param layout The layout of the vault the journal belongs to
+     * @param cipher The vault's cipher, or null if the vault is not encrypted
+     */
+    NoteJournal(VaultLayout layout, VaultCipher cipher) throws IOException {
+        this.layout = layout;
+        this.cipher = cipher;
+        File notesDir = layout.getRoot();
+        notesDir.mkdirs();
+        channel = FileChannel.open(new File(notesDir, JOURNAL_FILE).toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        metadata = readMetadata(notesDir);
+        for (Record record : readRecords(channel)) {
+            track(record);
+        }
+        checkpoint();
+        recoveredMetadata = new HashMap<>(metadata);
+        writer = new Thread(this::writeLoop, "note-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Gets the category and tags of every note as recovered when the journal was opened
+     * @return Map of note title to encoded metadata
+     */
+    Map<String, String> getRecoveredMetadata() {
+        return recoveredMetadata;
+    }
+
+    /**
+     * Journal a mutation. The returned future completes once the record has been fsynced.
+     * @param timestamp The note's last modified date, which its file will carry
+     */
+    CompletableFuture<Void> append(Op op, long timestamp, String title, String newTitle, String content, String noteMetadata) {
+        Pending pending = new Pending(new Record(op, timestamp, title, newTitle, content, noteMetadata));
+        if (closed) {
+            pending.done.completeExceptionally(new IOException("Journal is closed"));
+            return pending.done;
+        }
+        queue.add(pending);
+        return pending.done;
+    }
+
+    /**
+     * Flush outstanding records, checkpoint them into the note files and stop the writer
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        queue.add(SHUTDOWN);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Writer thread: drain whatever has queued up, write it as one batch and fsync once
+     */
+    private void writeLoop() {
+        List<Pending> batch = new ArrayList<>();
+        boolean running = true;
+        while (running) {
+            try {
+                Pending first = queue.poll(CHECKPOINT_IDLE_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (!dirty.isEmpty()) checkpoint();
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                if (batch.remove(SHUTDOWN)) {
+                    running = false;
+                }
+                commit(batch);
+                // A checkpoint rewrites note files while new records wait, so not mid-burst
+                long size = channel.size();
+                if (!running || size >= CHECKPOINT_MAX_BYTES || size >= CHECKPOINT_BYTES && queue.isEmpty()) {
+                    checkpoint();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                e.printStackTrace();
+                for (Pending pending : batch) pending.done.completeExceptionally(e);
+            }
+            batch.clear();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Append a batch of records and make them durable with a single fsync
+     */
+    private void commit(List<Pending> batch) throws IOException {
+        if (batch.isEmpty()) return;
+        NoteEvents.JournalCommit event = new NoteEvents.JournalCommit();
+        event.start();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Pending pending : batch) {
+            writeRecord(out, pending.record);
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+        channel.position(channel.size());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        channel.force(false);
+        event.records = batch.size();
+        event.bytes = bytes.size();
+        event.finish();
+        for (Pending pending : batch) {
+            track(pending.record);
+            pending.done.complete(null);
+        }
+    }
+
+    /**
+     * Fold a durable record into the set of note files awaiting the next checkpoint
+     */
+    private void track(Record record) {
+        switch (record.op) {
+            case CREATE:
+                dirtyCreated.put(record.title, record.timestamp);
+                markDirty(record.title, record.content, record.timestamp);
+                if (record.metadata != null) {
+                    setMetadata(record.title, record.metadata);
+                }
+                break;
+            case UPDATE:
+                markDirty(record.title, record.content, record.timestamp);
+                if (record.metadata != null) {
+                    setMetadata(record.title, record.metadata);
+                }
+                break;
+            case RENAME:
+                // Read before the old file goes away at the checkpoint
+                dirtyCreated.put(record.newTitle, creationDate(record.title, record.timestamp));
+                markDirty(record.title, DELETED, record.timestamp);
+                markDirty(record.newTitle, record.content, record.timestamp);
+                String carried = record.metadata != null ? record.metadata : metadata.get(record.title);
+                setMetadata(record.title, null);
+                setMetadata(record.newTitle, carried);
+                break;
+            case DELETE:
+                dirtyCreated.remove(record.title);
+                markDirty(record.title, DELETED, record.timestamp);
+                setMetadata(record.title, null);
+                break;
+        }
+    }
+
+    private void setMetadata(String title, String value) {
+        String previous = value == null || value.isEmpty() ? metadata.remove(title) : metadata.put(title, value);
+        if (previous == null ? value != null && !value.isEmpty() : !previous.equals(value)) {
+            metadataChanged = true;
+        }
+    }
+
+    private void markDirty(String title, Object state, long timestamp) {
+        dirty.remove(title); // Keep insertion order = order of last change
+        dirty.put(title, state);
+        dirtyTimes.put(title, timestamp);
+    }
+
+    /**
+     * Gets a note's creation date from the journal's pending state or its file header
+     * @param fallback Used if the note has no file yet
+     */
+    private long creationDate(String title, long fallback) {
+        Long pending = dirtyCreated.get(title);
+        if (pending != null) return pending;
+        for (File file : layout.candidateFiles(title)) {
+            if (file.exists()) return NoteFile.creationDateOf(file, fallback);
+        }
+        return fallback;
+    }
+
+    /**
+     * Bring every changed note file up to date, then truncate the journal
+     */
+    private void checkpoint() throws IOException {
+        Set<File> directories = new HashSet<>();
+        for (Map.Entry<String, Object> entry : dirty.entrySet()) {
+            synchronized (layout) { // Not while a layout migration moves this note's file
+                List<File> candidates = layout.candidateFiles(entry.getKey());
+                File noteFile = candidates.get(0);
+                if (entry.getValue() != DELETED) {
+                    String title = entry.getKey();
+                    long modified = dirtyTimes.get(title);
+                    long created = creationDate(title, modified);
+                    noteFile.getParentFile().mkdirs();
+                    NoteFile.write(noteFile, cipher, title, (String) entry.getValue(), created, modified, metadata.get(title));
+                    directories.add(noteFile.getParentFile());
+                }
+                for (File stale : candidates) {
+                    if (stale.equals(noteFile) && entry.getValue() != DELETED) continue;
+                    if (Files.deleteIfExists(stale.toPath())) {
+                        directories.add(stale.getParentFile());
+                    }
+                }
+            }
+        }
+        for (File directory : directories) {
+            syncDirectory(directory);
+        }
+        if (metadataChanged) {
+            writeMetadata(layout.getRoot(), metadata);
+            metadataChanged = false;
+        }
+        dirty.clear();
+        dirtyTimes.clear();
+        dirtyCreated.clear();
+        channel.truncate(0);
+        channel.force(true);
+    }
+
+    /**
+     * Replace a file atomically with the given bytes, so a crash leaves either the
+     * old or the new version, never a torn one
+     */
+    static void writeAtomically(File noteFile, byte[] data) throws IOException {
+        Path target = noteFile.toPath();
+        Path temp = target.resolveSibling("." + noteFile.getName() + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            out.force(true);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Read the categories and tags of all notes
+     * @param root The notes directory
+     * @return Map of note title to encoded metadata, empty if none is stored
+     */
+    static Map<String, String> readMetadata(File root) {
+        Map<String, String> result = new HashMap<>();
+        File file = new File(root, METADATA_FILE);
+        if (!file.exists()) return result;
+        Properties properties = new Properties();
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        for (String title : properties.stringPropertyNames()) {
+            result.put(title, properties.getProperty(title));
+        }
+        return result;
+    }
+
+    /**
+     * Replace the stored categories and tags of all notes
+     * @param root The notes directory
+     * @param values Map of note title to encoded metadata
+     */
+    static void writeMetadata(File root, Map<String, String> values) throws IOException {
+        Properties properties = new Properties();
+        properties.putAll(values);
+        Path target = new File(root, METADATA_FILE).toPath();
+        Path temp = target.resolveSibling("." + METADATA_FILE + ".tmp");
+        try (Writer writer = new OutputStreamWriter(Files.newOutputStream(temp), StandardCharsets.UTF_8)) {
+            properties.store(writer, "Note categories and tags: title=category|tag1,tag2");
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * fsync a directory so renames and deletes in it are durable (best effort, not supported everywhere)
+     */
+    private static void syncDirectory(File dir) {
+        try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Some platforms cannot open directories; file data is already synced
+        }
+    }
+
+    /**
+     * Serialize one record as [length][crc32][payload]
+     */
+    private void writeRecord(DataOutputStream out, Record record) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream payload = new DataOutputStream(bytes);
+        payload.writeByte(record.op.ordinal());
+        payload.writeLong(record.timestamp);
+        writeString(payload, record.title);
+        writeString(payload, record.newTitle);
+        writeContent(payload, record.content);
+        writeString(payload, record.metadata);
+        byte[] data = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        out.writeInt(data.length);
+        out.writeInt((int) crc.getValue());
+        out.write(data);
+    }
+
+    /**
+     * Read all intact records of a journal. Reading stops at the first torn or
+     * corrupt record, which is where a crash interrupted the last append.
+     */
+    private List<Record> readRecords(FileChannel channel) throws IOException {
+        List<Record> records = new ArrayList<>();
+        long size = channel.size();
+        if (size == 0) return records;
+        ByteBuffer buffer = ByteBuffer.allocate((int) size);
+        channel.read(buffer, 0);
+        buffer.flip();
+        while (buffer.remaining() >= 8) {
+            int length = buffer.getInt();
+            int expectedCrc = buffer.getInt();
+            if (length < 0 || length > buffer.remaining()) break;
+            byte[] data = new byte[length];
+            buffer.get(data);
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, length);
+            if ((int) crc.getValue() != expectedCrc) break;
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            Op op = Op.values()[in.readByte()];
+            long timestamp = in.readLong();
+            String title = readString(in);
+            String newTitle = readString(in);
+            String content = readContent(in);
+            // Journals written before metadata was recorded end here
+            String noteMetadata = in.available() > 0 ? readString(in) : null;
+            records.add(new Record(op, timestamp, title, newTitle, content, noteMetadata));
+        }
+        return records;
+    }
+
+    /**
+     * Write a note body, encrypted if the vault is (the journal must not leak plaintext)
+     */
+    private void writeContent(DataOutputStream out, String content) throws IOException {
+        if (cipher == null || content == null) {
+            writeString(out, content);
+            return;
+        }
+        byte[] data = cipher.encrypt(JOURNAL_FILE, content);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private String readContent(DataInputStream in) throws IOException {
+        if (cipher == null) return readString(in);
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] data = new byte[length];
+        in.readFully(data);
+        try {
+            return cipher.decrypt(JOURNAL_FILE, data);
+        } catch (java.security.GeneralSecurityException e) {
+            throw new IOException("Cannot decrypt journal record: " + e.getMessage(), e);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] data = new byte[length];
+        in.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,256 @@
+package src;
+import javax.swing.*;
+import java.awt.*;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * NoteListCellRenderer paints a sidebar row as title, last modified date and a
+ * one-line snippet of the body; a note whose file is damaged says so in place of
+ * its date, in red. Everything shown is computed once per note and
+ * width and kept in a small LRU cache, so painting a row draws cached strings and
+ * allocates nothing. Rows have a fixed height, letting JList lay out any number
+ * of notes without measuring them.
+ *
+ * The renderer never reads a note file on the EDT: the snippet of a note whose
+ * body is not in memory is read on a background thread, without keeping the
+ * body, and the row shows a placeholder until it arrives and the list repaints.
+ */
+class NoteListCellRenderer extends JComponent implements ListCellRenderer<Note> {
+    private static final long serialVersionUID = 1L;
+    private static final int CACHE_SIZE = 2048;
+    private static final int SNIPPET_SOURCE_CHARS = 200;
+    private static final int INSET = 6;
+    private static final Color SECONDARY_COLOR = Color.GRAY;
+    private static final String LOADING = "...";
+    private static final String UNREADABLE = "(cannot be read)";
+    private static final Color DAMAGED_COLOR = new Color(0xC0392B);
+
+    /**
+     * The display strings of one row, valid for one version of a note at one width
+     */
+    private static final class Row {
+        final String title;
+        final long lastModified;
+        final int width;
+        final boolean damaged;
+        final String titleText;
+        final String dateText;
+        final String snippet;   // The snippet the row was built from, null while it is read
+        final String snippetText;
+
+        Row(String title, long lastModified, int width, boolean damaged, String snippet,
+            String titleText, String dateText, String snippetText) {
+            this.title = title;
+            this.lastModified = lastModified;
+            this.width = width;
+            this.damaged = damaged;
+            this.snippet = snippet;
+            this.titleText = titleText;
+            this.dateText = dateText;
+            this.snippetText = snippetText;
+        }
+    }
+
+    /**
+     * The start of a note's body with whitespace collapsed, for one version of the note
+     */
+    private static final class Snippet {
+        final long lastModified;
+        final String text;
+
+        Snippet(long lastModified, String text) {
+            this.lastModified = lastModified;
+            this.text = text;
+        }
+    }
+
+    private final Font titleFont;
+    private final Font detailFont;
+    private final Color selectedBackground;
+    private final Color background;
+    private final Color foreground;
+    private final FontMetrics titleMetrics;
+    private final FontMetrics detailMetrics;
+    private final int rowHeight;
+    private final Map<Integer, Row> cache = new LinkedHashMap<Integer, Row>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Row> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    // Note id -> snippet; EDT only, like the row cache
+    private final Map<Integer, Snippet> snippets = new LinkedHashMap<Integer, Snippet>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Snippet> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private final Set<Integer> reading = new HashSet<>();   // Note ids with a snippet being read
+    private final ExecutorService reader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "snippet-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // State of the row currently being painted
+    private Row row;
+    private boolean selected;
+
+    /**
+     * Create a renderer
+     * @param font Base font of the list; titles are drawn bold, details smaller
+     * @param background Row background
+     * @param foreground Title color
+     * @param selectedBackground Background of the selected row
+     */
+    NoteListCellRenderer(Font font, Color background, Color foreground, Color selectedBackground) {
+        this.titleFont = font.deriveFont(Font.BOLD);
+        this.detailFont = font.deriveFont(font.getSize2D() - 2f);
+        this.background = background;
+        this.foreground = foreground;
+        this.selectedBackground = selectedBackground;
+        this.titleMetrics = getFontMetrics(titleFont);
+        this.detailMetrics = getFontMetrics(detailFont);
+        this.rowHeight = INSET * 2 + titleMetrics.getHeight() + detailMetrics.getHeight() * 2;
+        setOpaque(true);
+    }
+
+    /**
+     * @return The height of every row, to be used as the list's fixed cell height
+     */
+    int getRowHeight() {
+        return rowHeight;
+    }
+
+    /**
+     * Drop all cached rows, e.g. after the note list was reloaded
+     */
+    void clearCache() {
+        cache.clear();
+        snippets.clear();
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends Note> list, Note note, int index,
+                                                  boolean isSelected, boolean cellHasFocus) {
+        int width = list.getFixedCellWidth() > 0 ? Math.max(list.getFixedCellWidth(), list.getWidth()) : list.getWidth();
+        String snippet = snippet(list, note);
+        Row cached = cache.get(note.getId());
+        if (cached == null || cached.lastModified != note.getLastModifiedDate() || cached.snippet != snippet
+                || cached.damaged != note.isContentDamaged() || cached.width != width || !cached.title.equals(note.getTitle())) {
+            cached = buildRow(note, width, snippet);
+            cache.put(note.getId(), cached);
+        }
+        row = cached;
+        selected = isSelected;
+        return this;
+    }
+
+    /**
+     * The snippet of the note's current version. A body in memory is used directly;
+     * otherwise the body is read in the background and the list repainted once the
+     * snippet is known.
+     * @return The snippet, or null while it is being read
+     */
+    private String snippet(JList<?> list, Note note) {
+        long lastModified = note.getLastModifiedDate();
+        Snippet known = snippets.get(note.getId());
+        if (known != null && known.lastModified == lastModified) return known.text;
+        if (note.isContentLoaded()) {
+            String text = snippetOf(note.getContent());
+            snippets.put(note.getId(), new Snippet(lastModified, text));
+            return text;
+        }
+        if (reading.add(note.getId())) {
+            reader.execute(() -> {
+                String text;
+                try {
+                    text = snippetOf(note.readContent());
+                } catch (RuntimeException e) { // UncheckedIOException from the note's file
+                    System.err.println("Cannot read \"" + note.getTitle() + "\" for the note list: " + e.getMessage());
+                    text = UNREADABLE;
+                }
+                String snippet = text;
+                SwingUtilities.invokeLater(() -> {
+                    reading.remove(note.getId());
+                    snippets.put(note.getId(), new Snippet(lastModified, snippet));
+                    list.repaint();
+                });
+            });
+        }
+        return null;
+    }
+
+    private static String snippetOf(String content) {
+        String source = content.length() > SNIPPET_SOURCE_CHARS ? content.substring(0, SNIPPET_SOURCE_CHARS) : content;
+        return source.replaceAll("\\s+", " ").trim();
+    }
+
+    /**
+     * Compute the display strings of a row for the given width
+     * @param snippet The note's snippet, or null to show a placeholder
+     */
+    private Row buildRow(Note note, int width, String snippet) {
+        int available = Math.max(20, width - INSET * 2);
+        boolean damaged = note.isContentDamaged();
+        String date = Note.formatDate(note.getLastModifiedDate());
+        return new Row(note.getTitle(), note.getLastModifiedDate(), width, damaged, snippet,
+            truncate(note.getTitle(), titleMetrics, available),
+            truncate(damaged ? "Damaged on disk - " + date : date, detailMetrics, available),
+            truncate(snippet == null ? LOADING : snippet, detailMetrics, available));
+    }
+
+    /**
+     * Shorten text with an ellipsis so it fits the given pixel width
+     */
+    static String truncate(String text, FontMetrics metrics, int width) {
+        if (metrics.stringWidth(text) <= width) return text;
+        int ellipsis = metrics.stringWidth("...");
+        int low = 0, high = text.length();
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (metrics.stringWidth(text.substring(0, mid)) + ellipsis <= width) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return text.substring(0, low) + "...";
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        g.setColor(selected ? selectedBackground : background);
+        g.fillRect(0, 0, getWidth(), getHeight());
+        if (row == null) return;
+        int y = INSET + titleMetrics.getAscent();
+        g.setFont(titleFont);
+        g.setColor(selected ? Color.WHITE : foreground);
+        g.drawString(row.titleText, INSET, y);
+        g.setFont(detailFont);
+        g.setColor(selected ? Color.WHITE : SECONDARY_COLOR);
+        y += titleMetrics.getDescent() + detailMetrics.getAscent();
+        if (row.damaged && !selected) g.setColor(DAMAGED_COLOR);
+        g.drawString(row.dateText, INSET, y);
+        g.setColor(selected ? Color.WHITE : SECONDARY_COLOR);
+        y += detailMetrics.getHeight();
+        g.drawString(row.snippetText, INSET, y);
+    }
+
+    // Renderer components are only stamped, skip the property machinery JComponent would run
+    @Override
+    public void invalidate() { }
+    @Override
+    public void validate() { }
+    @Override
+    public void revalidate() { }
+    @Override
+    public void repaint(long tm, int x, int y, int width, int height) { }
+    @Override
+    public void repaint(Rectangle r) { }
+}
@@ -0,0 +1,43 @@
+package src;
+import javax.swing.AbstractListModel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * NoteListModel backs the sidebar list with the list of notes currently shown.
+ * Replacing the contents fires a single change event instead of one per row,
+ * which matters when a vault holds tens of thousands of notes.
+ */
+class NoteListModel extends AbstractListModel<Note> {
+    private static final long serialVersionUID = 1L;
+    private List<Note> notes = new ArrayList<>();
+
+    /**
+     * Show a new list of notes. The list is used as-is and must not be modified afterwards.
+     * @param notes The notes to show, in display order
+     */
+    void setNotes(List<Note> notes) {
+        NoteEvents.ListRebuild event = new NoteEvents.ListRebuild();
+        event.start();
+        int oldSize = this.notes.size();
+        this.notes = notes;
+        if (oldSize > 0) {
+            fireIntervalRemoved(this, 0, oldSize - 1);
+        }
+        if (!notes.isEmpty()) {
+            fireIntervalAdded(this, 0, notes.size() - 1);
+        }
+        event.rows = notes.size();
+        event.finish();
+    }
+
+    @Override
+    public int getSize() {
+        return notes.size();
+    }
+
+    @Override
+    public Note getElementAt(int index) {
+        return notes.get(index);
+    }
+}
@@ -0,0 +1,827 @@
+package src;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+/**
+ * NoteQuery is a parsed sidebar search with a cost-based plan. The syntax:
+ *
+ * <pre>
+ *   meeting               the title contains it, or a word in the text starts with it
+ *   "weekly sync"         the title contains it, or the words follow each other in the text
+ *   title:draft           title:"road map"       only the title
+ *   body:meet             body:"action items"    only the text
+ *   created:2024-05-01    one day (also creationDate:)
+ *   modified:>=2024-01-01 also &gt;, &lt;, &lt;= (also lastModifiedDate:)
+ *   created:2024-01-01..2024-03-31   a range; either end may be left out
+ *   a b   a AND b   a OR b   NOT a   ( ... )
+ * </pre>
+ *
+ * AND binds tighter than OR, and AND, OR and NOT must be written in capitals so
+ * ordinary words are never taken for keywords.
+ *
+ * Each condition estimates the fraction of notes it keeps (from the word index
+ * counts, or from a sample of notes for titles and dates) and what it costs to
+ * check a number of candidates. An AND runs the cheapest, most selective
+ * conditions first and hands only their survivors to the next one, so the
+ * per-note title and phrase checks see few notes; an OR runs its cheapest
+ * branches first and skips notes already matched. Date conditions pick between
+ * a range scan of the sorted index and checking each candidate. After a run,
+ * {@link #explain()} shows the plan with its estimated and actual row counts.
+ *
+ * Until the word index is built, text conditions also search the text of the
+ * notes it has not reached yet if that text is in memory; the other notes are
+ * counted in {@link #unsearchedNotes()}.
+ */
+class NoteQuery {
+    // Relative costs, in "title checks", of the operations a plan is made of
+    private static final double BITMAP_COST = 0.02;  // Per note id combined in a bitmap
+    private static final double TITLE_COST = 1;      // Per title searched
+    private static final double DATE_COST = 0.1;     // Per date compared
+    private static final double SCAN_COST = 0.5;     // Per note read from a date range of the sorted index
+    private static final double PHRASE_COST = 20;    // Per note whose words are scanned for a phrase
+    private static final int SAMPLE_SIZE = 1000;     // Notes sampled for title and date estimates
+
+    /**
+     * What a query runs against
+     */
+    private static final class Context {
+        final NoteStore notes;
+        final SearchIndex search;
+        final SortedNoteIndex sorted;
+        final int total;
+        final List<Note> sample;
+        final boolean indexReady;  // False while the word index is still being built
+        final TagBitmap unsearched = new TagBitmap();  // Notes whose text could not be searched, see searchUnindexed
+
+        Context(NoteStore notes, SearchIndex search, SortedNoteIndex sorted) {
+            this.notes = notes;
+            this.search = search;
+            this.sorted = sorted;
+            this.indexReady = search.isReady();
+            List<Note> all = notes.notes();
+            this.total = Math.max(1, all.size());
+            int step = Math.max(1, all.size() / SAMPLE_SIZE);
+            List<Note> picked = new ArrayList<>();
+            for (int i = 0; i < all.size(); i += step) {
+                picked.add(all.get(i));
+            }
+            this.sample = picked;
+        }
+
+        /**
+         * Keep the candidates a per-note check accepts
+         */
+        TagBitmap filter(TagBitmap candidates, Predicate<Note> check) {
+            TagBitmap result = new TagBitmap();
+            candidates.forEach(id -> {
+                Note note = notes.get(id);
+                if (note != null && check.test(note)) result.add(id);
+            });
+            return result;
+        }
+
+        /**
+         * Estimate the fraction of notes a per-note check accepts from the sample
+         */
+        double sampled(Predicate<Note> check) {
+            if (sample.isEmpty()) return 1;
+            int hits = 0;
+            for (Note note : sample) {
+                if (check.test(note)) hits++;
+            }
+            // Never estimate zero from a sample: a rare match still has to be looked for
+            return Math.max(hits, 0.5) / sample.size();
+        }
+
+        /**
+         * While the word index is being built, add the candidates it has no words for
+         * yet by searching their text, if the note holds it in memory. Notes whose text
+         * would have to be read from disk are counted as unsearched instead.
+         * @param indexed The candidates matched by the index
+         * @param check Tests the lower-cased words of a note's text
+         */
+        TagBitmap searchUnindexed(TagBitmap indexed, TagBitmap candidates, Predicate<List<String>> check) {
+            if (indexReady) return indexed;
+            TagBitmap scanned = filter(candidates, note -> {
+                if (search.entry(note) != null) return false;
+                if (!note.isContentLoaded()) {
+                    unsearched.add(note.getId());
+                    return false;
+                }
+                List<String> words = new ArrayList<>();
+                SearchIndex.tokenize(note.getContent(), words);
+                return check.test(words);
+            });
+            return scanned.isEmpty() ? indexed : indexed.or(scanned);
+        }
+    }
+
+    /**
+     * A condition of the query. Estimates are filled in by {@link #estimate},
+     * the actual counts by {@link #run}.
+     */
+    private abstract static class Node {
+        double selectivity = 1;  // Estimated fraction of notes matching
+        double plannedCost;      // Estimated cost for the candidates it was planned with
+        String strategy = "";
+        long input = -1;         // Candidates actually handed in
+        long output = -1;        // Notes actually matching among them
+        double millis;
+
+        abstract void estimate(Context ctx);
+
+        /**
+         * @return Estimated cost of checking this many candidates
+         */
+        abstract double cost(Context ctx, double candidates);
+
+        /**
+         * @return The candidates that match
+         */
+        abstract TagBitmap evaluate(Context ctx, TagBitmap candidates);
+
+        abstract String label();
+
+        List<Node> children() {
+            return Collections.emptyList();
+        }
+
+        /**
+         * Collect words to highlight in the text, leaving out negated ones
+         */
+        void collectWords(List<String> words) {
+        }
+
+        final TagBitmap run(Context ctx, TagBitmap candidates) {
+            long start = System.nanoTime();
+            input = candidates.cardinality();
+            plannedCost = cost(ctx, input);
+            TagBitmap result = input == 0 ? candidates : evaluate(ctx, candidates);
+            output = result.cardinality();
+            millis = (System.nanoTime() - start) / 1e6;
+            return result;
+        }
+    }
+
+    /**
+     * Body word: a word of the text starts with it. Answered by the word index.
+     */
+    private static final class BodyWord extends Node {
+        final String prefix;
+        private long indexed;
+
+        BodyWord(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        void estimate(Context ctx) {
+            indexed = Math.min(ctx.total, ctx.search.countWithPrefix(prefix));
+            selectivity = (double) indexed / ctx.total;
+            strategy = "word index";
+        }
+
+        @Override
+        double cost(Context ctx, double candidates) {
+            return (indexed + candidates) * BITMAP_COST;
+        }
+
+        @Override
+        TagBitmap evaluate(Context ctx, TagBitmap candidates) {
+            return ctx.searchUnindexed(candidates.and(ctx.search.withPrefix(prefix)), candidates,
+                words -> words.stream().anyMatch(word -> word.startsWith(prefix)));
+        }
+
+        @Override
+        String label() {
+            return "body word \"" + prefix + "\"";
+        }
+
+        @Override
+        void collectWords(List<String> words) {
+            words.add(prefix);
+        }
+    }
+
+    /**
+     * Body phrase: words one right after the other. The word index narrows the
+     * candidates to notes having every word, whose word lists are then scanned.
+     */
+    private static final class BodyPhrase extends Node {
+        final List<String> words;
+        private long rarest;
+
+        BodyPhrase(List<String> words) {
+            this.words = words;
+        }
+
+        @Override
+        void estimate(Context ctx) {
+            rarest = ctx.total;
+            for (String word : words) {
+                rarest = Math.min(rarest, ctx.search.countWithWord(word));
+            }
+            // The words may be in the same notes without forming the phrase
+            selectivity = rarest * 0.5 / ctx.total;
+            strategy = "word index, then word positions";
+        }
+
+        @Override
+        double cost(Context ctx, double candidates) {
+            double withWords = Math.min(candidates, rarest);
+            return (rarest * words.size() + candidates) * BITMAP_COST + withWords * PHRASE_COST;
+        }
+
+        @Override
+        TagBitmap evaluate(Context ctx, TagBitmap candidates) {
+            TagBitmap result = candidates;
+            for (String word : words) {
+                result = result.and(ctx.search.withWord(word));
+                if (result.isEmpty()) break;
+            }
+            if (!result.isEmpty()) result = ctx.filter(result, note -> ctx.search.containsPhrase(note, words));
+            return ctx.searchUnindexed(result, candidates, text -> Collections.indexOfSubList(text, words) >= 0);
+        }
+
+        @Override
+        String label() {
+            return "body phrase \"" + String.join(" ", words) + "\"";
+        }
+
+        @Override
+        void collectWords(List<String> words) {
+            words.addAll(this.words);
+        }
+    }
+
+    /**
+     * Title contains a text, ignoring case. Checked note by note.
+     */
+    private static final class TitleContains extends Node {
+        final String text;
+
+        TitleContains(String text) {
+            this.text = text;
+        }
+
+        @Override
+        void estimate(Context ctx) {
+            selectivity = ctx.sampled(this::matches);
+            strategy = "check each title";
+        }
+
+        @Override
+        double cost(Context ctx, double candidates) {
+            return candidates * TITLE_COST;
+        }
+
+        @Override
+        TagBitmap evaluate(Context ctx, TagBitmap candidates) {
+            return ctx.filter(candidates, this::matches);
+        }
+
+        private boolean matches(Note note) {
+            String title = note.getTitle();
+            for (int i = 0; i + text.length() <= title.length(); i++) {
+                if (title.regionMatches(true, i, text, 0, text.length())) return true;
+            }
+            return false;
+        }
+
+        @Override
+        String label() {
+            return "title contains \"" + text + "\"";
+        }
+    }
+
+    /**
+     * Creation or modification date within a range
+     */
+    private static final class DateRange extends Node {
+        final SortedNoteIndex.SortMode field;
+        final long from;
+        final long to;
+        final String text;
+        private boolean scan;
+
+        DateRange(SortedNoteIndex.SortMode field, long from, long to, String text) {
+            this.field = field;
+            this.from = from;
+            this.to = to;
+            this.text = text;
+        }
+
+        @Override
+        void estimate(Context ctx) {
+            selectivity = ctx.sampled(this::matches);
+        }
+
+        @Override
+        double cost(Context ctx, double candidates) {
+            double check = candidates * DATE_COST;
+            double rangeScan = selectivity * ctx.total * SCAN_COST + candidates * BITMAP_COST;
+            scan = rangeScan < check;
+            strategy = scan ? "range scan of the date index" : "check each date";
+            return Math.min(check, rangeScan);
+        }
+
+        @Override
+        TagBitmap evaluate(Context ctx, TagBitmap candidates) {
+            if (!scan) return ctx.filter(candidates, this::matches);
+            TagBitmap inRange = new TagBitmap();
+            for (Note note : ctx.sorted.between(field, from, to)) {
+                inRange.add(note.getId());
+            }
+            return candidates.and(inRange);
+        }
+
+        private boolean matches(Note note) {
+            long date = field == SortedNoteIndex.SortMode.CREATED ? note.getCreationDate() : note.getLastModifiedDate();
+            return date >= from && date <= to;
+        }
+
+        @Override
+        String label() {
+            return (field == SortedNoteIndex.SortMode.CREATED ? "created " : "modified ") + text;
+        }
+    }
+
+    /**
+     * All children match. Children run in the order of cost per note removed,
+     * re-planned with the actual number of candidates.
+     */
+    private static final class And extends Node {
+        final List<Node> parts;
+        private List<Node> order;
+
+        And(List<Node> parts) {
+            this.parts = parts;
+            this.order = parts;
+        }
+
+        @Override
+        void estimate(Context ctx) {
+            selectivity = 1;
+            for (Node part : parts) {
+                part.estimate(ctx);
+                selectivity *= part.selectivity;
+            }
+            strategy = "cheapest filter first";
+        }
+
+        @Override
+        double cost(Context ctx, double candidates) {
+            // Greedy: next is the child removing the most candidates per unit of cost
+            List<Node> remaining = new ArrayList<>(parts);
+            List<Node> planned = new ArrayList<>();
+            double total = 0;
+            while (!remaining.isEmpty()) {
+                Node best = null;
+                double bestRank = Double.MAX_VALUE;
+                for (Node part : remaining) {
+                    double rank = part.cost(ctx, candidates) / Math.max(1.0 / ctx.total, 1 - part.selectivity);
+                    if (rank < bestRank) {
+                        bestRank = rank;
+                        best = part;
+                    }
+                }
+                total += best.cost(ctx, candidates);
+                candidates *= best.selectivity;
+                remaining.remove(best);
+                planned.add(best);
+            }
+            order = planned;
+            return total;
+        }
+
+        @Override
+        TagBitmap evaluate(Context ctx, TagBitmap candidates) {
+            TagBitmap result = candidates;
+            for (Node part : order) {
+                if (result.isEmpty()) break; // The remaining, costlier checks are skipped
+                result = part.run(ctx, result);
+            }
+            return result;
+        }
+
+        @Override
+        String label() {
+            return "AND";
+        }
+
+        @Override
+        List<Node> children() {
+            return order;
+        }
+
+        @Override
+        void collectWords(List<String> words) {
+            for (Node part : parts) part.collectWords(words);
+        }
+    }
+
+    /**
+     * Any child matches. Children run cheapest per match first, and each only
+     * sees the candidates not matched yet.
+     */
+    private static final class Or extends Node {
+        final List<Node> parts;
+        private List<Node> order;
+
+        Or(List<Node> parts) {
+            this.parts = parts;
+            this.order = parts;
+        }
+
+        @Override
+        void estimate(Context ctx) {
+            double none = 1;
+            for (Node part : parts) {
+                part.estimate(ctx);
+                none *= 1 - part.selectivity;
+            }
+            selectivity = 1 - none;
+            strategy = "cheapest branch first, unmatched notes only";
+        }
+
+        @Override
+        double cost(Context ctx, double candidates) {
+            List<Node> planned = new ArrayList<>(parts);
+            final double n = candidates;
+            double oneNote = 1.0 / ctx.total;
+            planned.sort((a, b) -> Double.compare(a.cost(ctx, n) / Math.max(oneNote, a.selectivity),
+                b.cost(ctx, n) / Math.max(oneNote, b.selectivity)));
+            double total = 0;
+            for (Node part : planned) {
+                total += part.cost(ctx, candidates);
+                candidates *= 1 - part.selectivity;
+            }
+            order = planned;
+            return total;
+        }
+
+        @Override
+        TagBitmap evaluate(Context ctx, TagBitmap candidates) {
+            TagBitmap result = new TagBitmap();
+            TagBitmap remaining = candidates;
+            for (Node part : order) {
+                if (remaining.isEmpty()) break; // Everything matched already
+                TagBitmap matched = part.run(ctx, remaining);
+                result = result.or(matched);
+                remaining = remaining.andNot(matched);
+            }
+            return result;
+        }
+
+        @Override
+        String label() {
+            return "OR";
+        }
+
+        @Override
+        List<Node> children() {
+            return order;
+        }
+
+        @Override
+        void collectWords(List<String> words) {
+            for (Node part : parts) part.collectWords(words);
+        }
+    }
+
+    /**
+     * The child does not match
+     */
+    private static final class Not extends Node {
+        final Node part;
+
+        Not(Node part) {
+            this.part = part;
+        }
+
+        @Override
+        void estimate(Context ctx) {
+            part.estimate(ctx);
+            selectivity = 1 - part.selectivity;
+            strategy = "candidates minus matches";
+        }
+
+        @Override
+        double cost(Context ctx, double candidates) {
+            return part.cost(ctx, candidates) + candidates * BITMAP_COST;
+        }
+
+        @Override
+        TagBitmap evaluate(Context ctx, TagBitmap candidates) {
+            return candidates.andNot(part.run(ctx, candidates));
+        }
+
+        @Override
+        String label() {
+            return "NOT";
+        }
+
+        @Override
+        List<Node> children() {
+            return Collections.singletonList(part);
+        }
+    }
+
+    private final String text;
+    private final Node root;
+    private long total = -1;
+    private int unsearched;
+    private double plannedRows;
+    private double plannedCost;
+
+    private NoteQuery(String text, Node root) {
+        this.text = text;
+        this.root = root;
+    }
+
+    /**
+     * Parse a search query
+     * @param text The query, e.g. "meeting modified:>=2024-01-01 NOT title:draft"
+     * @return The query, or null if the text is blank
+     * @throws IllegalArgumentException if the query is malformed
+     */
+    static NoteQuery parse(String text) {
+        List<String> tokens = tokenize(text);
+        if (tokens.isEmpty()) return null;
+        Parser parser = new Parser(tokens);
+        Node root = parser.parseOr();
+        if (parser.position < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(parser.position) + "' in search");
+        }
+        return new NoteQuery(text.trim(), root);
+    }
+
+    /**
+     * Plan and run the query
+     * @param notes The notes, for per-note checks and samples
+     * @param search The word index of the note texts
+     * @param sorted The date orders, for range scans
+     * @param candidates The notes to search among (e.g. those passing the tag filter)
+     * @return Ids of the candidates matching the query
+     */
+    TagBitmap run(NoteStore notes, SearchIndex search, SortedNoteIndex sorted, TagBitmap candidates) {
+        Context ctx = new Context(notes, search, sorted);
+        root.estimate(ctx);
+        total = ctx.total;
+        plannedRows = root.selectivity * candidates.cardinality();
+        plannedCost = root.cost(ctx, candidates.cardinality());
+        TagBitmap result = root.run(ctx, candidates);
+        unsearched = ctx.unsearched.cardinality();
+        return result;
+    }
+
+    /**
+     * @return Number of notes whose text the last run could not search: the word
+     *         index was still being built and had not reached them. Their text
+     *         conditions were taken as not matching.
+     */
+    int unsearchedNotes() {
+        return unsearched;
+    }
+
+    /**
+     * @return The words to highlight in a matching note's text, space separated
+     */
+    String highlightWords() {
+        List<String> words = new ArrayList<>();
+        root.collectWords(words);
+        return String.join(" ", words);
+    }
+
+    /**
+     * Describe the plan of the last run: each step in the order it ran, with the
+     * estimated and the actual number of notes it kept.
+     * @return The plan, one step per line
+     */
+    String explain() {
+        StringBuilder out = new StringBuilder();
+        out.append("Query: ").append(text).append('\n');
+        if (total < 0) {
+            out.append("(not run yet)\n");
+            return out.toString();
+        }
+        out.append(String.format("Notes: %,d   estimated %,.0f matches at cost %,.0f   actual %,d in %.2f ms%n%n",
+            total, plannedRows, plannedCost, root.output, root.millis));
+        explain(root, "", "", out);
+        return out.toString();
+    }
+
+    private static void explain(Node node, String indent, String step, StringBuilder out) {
+        out.append(indent).append(step).append(node.label());
+        if (node.input < 0) {
+            out.append("   (skipped, no candidates left)\n");
+        } else {
+            out.append(String.format("   [%s]   est %.2f%%   cost %,.0f   %,d -> %,d notes   %.2f ms%n",
+                node.strategy, node.selectivity * 100, node.plannedCost, node.input, node.output, node.millis));
+        }
+        int position = 1;
+        for (Node child : node.children()) {
+            explain(child, indent + "    ", position++ + ". ", out);
+        }
+    }
+
+    /**
+     * Recursive descent parser: or := and (OR and)*, and := unary ((AND)? unary | NOT unary)*,
+     * unary := NOT unary | ( or ) | term
+     */
+    private static final class Parser {
+        private final List<String> tokens;
+        private int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        Node parseOr() {
+            List<Node> parts = new ArrayList<>();
+            parts.add(parseAnd());
+            while (accept("OR")) {
+                parts.add(parseAnd());
+            }
+            return parts.size() == 1 ? parts.get(0) : new Or(parts);
+        }
+
+        Node parseAnd() {
+            List<Node> parts = new ArrayList<>();
+            parts.add(parseUnary());
+            while (position < tokens.size() && !peek("OR") && !peek(")")) {
+                if (accept("NOT")) {
+                    parts.add(new Not(parseUnary()));
+                } else {
+                    accept("AND");
+                    parts.add(parseUnary());
+                }
+            }
+            return parts.size() == 1 ? parts.get(0) : new And(parts);
+        }
+
+        Node parseUnary() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Search ends unexpectedly");
+            }
+            if (accept("NOT")) {
+                return new Not(parseUnary());
+            }
+            if (accept("(")) {
+                Node inner = parseOr();
+                if (!accept(")")) throw new IllegalArgumentException("Missing ')' in search");
+                return inner;
+            }
+            String token = tokens.get(position++);
+            if (token.equals(")")) throw new IllegalArgumentException("Unexpected ')' in search");
+            return term(token);
+        }
+
+        private boolean peek(String keyword) {
+            return position < tokens.size() && tokens.get(position).equals(keyword);
+        }
+
+        private boolean accept(String keyword) {
+            if (peek(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Turn a token into a condition: a field condition for a known field prefix,
+     * otherwise a word or phrase matched against title and text
+     */
+    private static Node term(String token) {
+        int colon = token.startsWith("\"") ? -1 : token.indexOf(':');
+        if (colon > 0) {
+            String field = token.substring(0, colon).toLowerCase(Locale.ROOT);
+            String value = token.substring(colon + 1);
+            boolean quoted = value.startsWith("\"");
+            if (quoted) value = value.substring(1);
+            switch (field) {
+                case "title":
+                    return new TitleContains(requireValue(field, value));
+                case "body":
+                    Node body = body(requireValue(field, value), quoted);
+                    if (body == null) throw new IllegalArgumentException("No words to search for in '" + token + "'");
+                    return body;
+                case "created":
+                case "creationdate":
+                    return dateRange(SortedNoteIndex.SortMode.CREATED, requireValue(field, value));
+                case "modified":
+                case "lastmodifieddate":
+                    return dateRange(SortedNoteIndex.SortMode.MODIFIED, requireValue(field, value));
+                default:
+                    break; // Not a field, e.g. "10:30": search for the text itself
+            }
+        }
+        boolean quoted = token.startsWith("\"");
+        String value = quoted ? token.substring(1) : token;
+        Node title = new TitleContains(value);
+        Node body = body(value, quoted);
+        return body == null ? title : new Or(Arrays.asList(title, body));
+    }
+
+    private static String requireValue(String field, String value) {
+        if (value.isEmpty()) throw new IllegalArgumentException("Missing value after '" + field + ":'");
+        return value;
+    }
+
+    /**
+     * @return A word or phrase condition on the text, or null if the value has no words
+     */
+    private static Node body(String value, boolean quoted) {
+        List<String> words = new ArrayList<>();
+        SearchIndex.tokenize(value, words);
+        if (words.isEmpty()) return null;
+        // A single unquoted word matches as a prefix, like the plain search did
+        if (words.size() == 1 && !quoted) return new BodyWord(words.get(0));
+        return new BodyPhrase(words);
+    }
+
+    /**
+     * Parse a date condition: 2024-05-01, &gt;2024-05-01, &gt;=, &lt;, &lt;=, or a..b with either end optional.
+     * Days are in the local time zone.
+     */
+    private static Node dateRange(SortedNoteIndex.SortMode field, String value) {
+        long from = 0;
+        long to = Long.MAX_VALUE;
+        int dots = value.indexOf("..");
+        if (dots >= 0) {
+            String first = value.substring(0, dots);
+            String last = value.substring(dots + 2);
+            if (!first.isEmpty()) from = startOfDay(first, 0);
+            if (!last.isEmpty()) to = startOfDay(last, 1) - 1;
+        } else if (value.startsWith(">=")) {
+            from = startOfDay(value.substring(2), 0);
+        } else if (value.startsWith("<=")) {
+            to = startOfDay(value.substring(2), 1) - 1;
+        } else if (value.startsWith(">")) {
+            from = startOfDay(value.substring(1), 1);
+        } else if (value.startsWith("<")) {
+            to = startOfDay(value.substring(1), 0) - 1;
+        } else {
+            from = startOfDay(value, 0);
+            to = startOfDay(value, 1) - 1;
+        }
+        return new DateRange(field, from, to, value);
+    }
+
+    private static long startOfDay(String date, int plusDays) {
+        try {
+            return LocalDate.parse(date).plusDays(plusDays).atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("Bad date '" + date + "', expected YYYY-MM-DD");
+        }
+    }
+
+    /**
+     * Split a query into terms, keywords and parentheses. Quoted text keeps a leading
+     * quote so it is never mistaken for a keyword; a field followed by quoted text
+     * (title:"road map") stays one token.
+     */
+    private static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < text.length()) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = text.indexOf('"', i + 1);
+                if (end < 0) end = text.length();
+                tokens.add("\"" + text.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < text.length() && !Character.isWhitespace(text.charAt(i))
+                        && "()\"".indexOf(text.charAt(i)) < 0) {
+                    i++;
+                }
+                String word = text.substring(start, i);
+                if (word.endsWith(":") && i < text.length() && text.charAt(i) == '"') {
+                    int end = text.indexOf('"', i + 1);
+                    if (end < 0) end = text.length();
+                    tokens.add(word + "\"" + text.substring(i + 1, end));
+                    i = end + 1;
+                } else {
+                    tokens.add(word);
+                }
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,366 @@
+package src;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * NoteSnapshot is a compact binary image of all notes, written on clean shutdown
+ * and periodically while the application runs. At startup the snapshot is memory
+ * mapped: titles and timestamps are decoded up front, note bodies only when first
+ * opened. Each entry records the modification time and size its note's file had
+ * when the entry was written; only files that differ from that are read from disk.
+ *
+ * Layout: magic, version, snapshot time, note count, then per note title,
+ * creation date, last modified date, file modification time, file size and
+ * content (strings length-prefixed UTF-8).
+ *
+ * The snapshot a load or write leaves mapped is kept, and the next write copies
+ * the entries of notes that have not changed since straight from it, so only
+ * changed notes are read and encoded again.
+ *
+ * Where the file system refuses to replace a file that is mapped (Windows), a new
+ * snapshot is kept beside the old one as "notes.snapshot.pending" and moved into
+ * place by the next load, before anything is mapped.
+ */
+class NoteSnapshot {
+    static final String SNAPSHOT_FILE = "notes.snapshot";
+    private static final String PENDING_SUFFIX = ".pending";
+    private static final int MAGIC = 0x4E534E50; // "NSNP"
+    private static final int VERSION = 2;
+    private static final long NO_FILE = -1;  // File time and size of a note without a file
+
+    /**
+     * A note's entry and where it sits inside the mapped snapshot
+     */
+    private static final class Entry {
+        final String title;
+        final long creationDate;
+        final long lastModifiedDate;
+        final long fileModified;   // The note file's modification time when the entry was written
+        final long fileSize;
+        final int recordOffset;    // The whole entry, for copying it
+        final int recordLength;
+        final int contentOffset;
+        final int contentLength;
+
+        Entry(String title, long creationDate, long lastModifiedDate, long fileModified, long fileSize,
+              int recordOffset, int recordLength, int contentOffset, int contentLength) {
+            this.title = title;
+            this.creationDate = creationDate;
+            this.lastModifiedDate = lastModifiedDate;
+            this.fileModified = fileModified;
+            this.fileSize = fileSize;
+            this.recordOffset = recordOffset;
+            this.recordLength = recordLength;
+            this.contentOffset = contentOffset;
+            this.contentLength = contentLength;
+        }
+
+        /**
+         * @return true if the file still has the time and size the entry was written with
+         */
+        boolean matches(File file) {
+            long[] stat = stat(file);
+            return stat[0] == fileModified && stat[1] == fileSize;
+        }
+
+        /**
+         * @return true if the note still is what the entry holds; every change of a
+         *         note's title or content moves its last modified date. Should a note
+         *         read from a changed file pass, the copied entry keeps the old file's
+         *         time and size, so the next load reads the file again.
+         */
+        boolean isCurrent(Note note) {
+            return note.getLastModifiedDate() == lastModifiedDate && note.getCreationDate() == creationDate
+                && note.getTitle().equals(title);
+        }
+
+        /**
+         * @return This entry at another offset
+         */
+        Entry movedTo(int offset) {
+            return new Entry(title, creationDate, lastModifiedDate, fileModified, fileSize,
+                offset, recordLength, offset + contentOffset - recordOffset, contentLength);
+        }
+    }
+
+    /**
+     * A mapped snapshot and its entries by title
+     */
+    private static final class Mapped {
+        final File root;
+        final ByteBuffer buffer;
+        final Map<String, Entry> entries;
+
+        Mapped(File root, ByteBuffer buffer, Map<String, Entry> entries) {
+            this.root = root;
+            this.buffer = buffer;
+            this.entries = entries;
+        }
+    }
+
+    // The snapshot last loaded or written, for the next write to copy from; guarded by the class
+    private static Mapped mapped;
+
+    private NoteSnapshot() {
+    }
+
+    /**
+     * Load the notes of a vault, taking unchanged notes from the snapshot and
+     * reading only new or modified files
+     * @param layout The vault layout used to list note files
+     * @param readFile Reads a note from its file, returning null on failure
+     * @return The notes of the vault
+     */
+    static List<Note> load(VaultLayout layout, Function<File, Note> readFile) {
+        List<File> files = layout.listNoteFiles();
+        File snapshotFile = new File(layout.getRoot(), SNAPSHOT_FILE);
+        applyPending(snapshotFile.toPath());
+        ByteBuffer snapshot = null;
+        Map<String, Entry> entries = new HashMap<>();
+        if (snapshotFile.exists()) {
+            try {
+                snapshot = map(snapshotFile);
+                readEntries(snapshot, entries);
+            } catch (IOException | RuntimeException e) {
+                // A damaged snapshot only costs speed: fall back to reading every file
+                System.err.println("Ignoring unreadable note snapshot: " + e);
+                snapshot = null;
+                entries.clear();
+            }
+        }
+
+        final ByteBuffer buffer = snapshot;
+        List<Note> notes = new ArrayList<>(files.parallelStream().map(file -> {
+            String title = VaultLayout.titleOf(file);
+            Entry entry = entries.get(title);
+            if (entry != null && entry.matches(file)) {
+                return new Note(title, () -> decode(buffer, entry), entry.creationDate, entry.lastModifiedDate);
+            }
+            return readFile.apply(file);
+        }).filter(note -> note != null).collect(Collectors.toList()));
+        synchronized (NoteSnapshot.class) {
+            mapped = buffer == null ? null : new Mapped(layout.getRoot(), buffer, entries);
+        }
+        return notes;
+    }
+
+    /**
+     * Write a snapshot of the given notes, replacing the previous one atomically,
+     * or leaving it pending if the previous one cannot be replaced while mapped.
+     * Entries of notes unchanged since the mapped snapshot are copied from it; other
+     * bodies are read, without being kept if they are not in memory. Writers take
+     * turns, as they share the temporary file and the mapped snapshot.
+     * @param layout The vault layout, to find the notes' files
+     * @param notes The notes to store
+     */
+    static synchronized void write(VaultLayout layout, Collection<Note> notes) throws IOException {
+        File root = layout.getRoot();
+        Mapped previous;
+        synchronized (NoteSnapshot.class) {
+            previous = mapped != null && mapped.root.equals(root) ? mapped : null;
+        }
+        long takenAt = System.currentTimeMillis();
+        Path target = new File(root, SNAPSHOT_FILE).toPath();
+        Path temp = target.resolveSibling("." + SNAPSHOT_FILE + ".tmp");
+        Path pending = target.resolveSibling(SNAPSHOT_FILE + PENDING_SUFFIX);
+        Map<String, Entry> written = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(takenAt);
+            out.writeInt(notes.size());
+            // Copied entries go to the channel directly, in runs of entries adjacent in the mapped snapshot
+            int copied = 0;
+            int runStart = 0;
+            int runEnd = 0;
+            for (Note note : notes) {
+                Entry origin = previous == null ? null : previous.entries.get(note.getTitle());
+                if (origin != null && origin.isCurrent(note)) {
+                    if (origin.recordOffset != runEnd) {
+                        copied += copy(previous, runStart, runEnd, out, channel);
+                        runStart = origin.recordOffset;
+                    }
+                    runEnd = origin.recordOffset + origin.recordLength;
+                    written.put(origin.title, origin.movedTo(out.size() + copied + runEnd - runStart - origin.recordLength));
+                    continue;
+                }
+                copied += copy(previous, runStart, runEnd, out, channel);
+                runStart = runEnd = 0;
+                int offset = out.size() + copied;
+                String title = note.getTitle();
+                File file = layout.locate(title);
+                // The file before the content: a save in between then shows as a changed file
+                long[] stat = file == null ? new long[] {NO_FILE, NO_FILE} : stat(file);
+                writeString(out, title);
+                out.writeLong(note.getCreationDate());
+                out.writeLong(note.getLastModifiedDate());
+                out.writeLong(stat[0]);
+                out.writeLong(stat[1]);
+                int contentOffset = out.size() + copied + 4;
+                int contentLength = writeString(out, note.readContent());
+                written.put(title, new Entry(title, note.getCreationDate(), note.getLastModifiedDate(), stat[0], stat[1],
+                    offset, out.size() + copied - offset, contentOffset, contentLength));
+            }
+            copy(previous, runStart, runEnd, out, channel);
+        }
+        try {
+            replace(temp, target);
+        } catch (FileSystemException e) {
+            // The old snapshot is mapped and this file system will not replace it
+            replace(temp, pending);
+            return;
+        }
+        Files.deleteIfExists(pending); // Older than the snapshot just written
+        ByteBuffer buffer;
+        try {
+            buffer = map(target.toFile());
+        } catch (IOException e) {
+            buffer = null; // The next write reads every note
+        }
+        synchronized (NoteSnapshot.class) {
+            mapped = buffer == null ? null : new Mapped(root, buffer, written);
+        }
+    }
+
+    /**
+     * Delete a vault's snapshot, including one left pending, e.g. when its notes
+     * were changed by a tool that does not keep it up to date
+     * @param root The notes directory
+     */
+    static void delete(File root) {
+        new File(root, SNAPSHOT_FILE).delete();
+        new File(root, SNAPSHOT_FILE + PENDING_SUFFIX).delete();
+        synchronized (NoteSnapshot.class) {
+            if (mapped != null && mapped.root.equals(root)) mapped = null;
+        }
+    }
+
+    /**
+     * Move a snapshot left pending by write into place. Nothing is mapped yet, so
+     * it can replace the old one; if it still cannot, the old one is used.
+     */
+    private static void applyPending(Path target) {
+        Path pending = target.resolveSibling(SNAPSHOT_FILE + PENDING_SUFFIX);
+        if (!Files.exists(pending)) return;
+        try {
+            replace(pending, target);
+        } catch (IOException e) {
+            System.err.println("Cannot apply the pending note snapshot: " + e);
+        }
+    }
+
+    private static void replace(Path source, Path target) throws IOException {
+        try {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Map the snapshot read-only. On POSIX systems the mapping stays valid after the
+     * file is replaced; Windows refuses to replace a mapped file (see write).
+     */
+    private static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Decode titles, timestamps and file details, skipping over the note bodies
+     * @return The time the snapshot was taken
+     */
+    private static long readEntries(ByteBuffer buffer, Map<String, Entry> entries) throws IOException {
+        if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+            throw new IOException("Unsupported snapshot format");
+        }
+        long takenAt = buffer.getLong();
+        int count = buffer.getInt();
+        for (int i = 0; i < count; i++) {
+            int recordOffset = buffer.position();
+            String title = readString(buffer);
+            long creationDate = buffer.getLong();
+            long lastModifiedDate = buffer.getLong();
+            long fileModified = buffer.getLong();
+            long fileSize = buffer.getLong();
+            int length = buffer.getInt();
+            int offset = buffer.position();
+            buffer.position(offset + length);
+            entries.put(title, new Entry(title, creationDate, lastModifiedDate, fileModified, fileSize,
+                recordOffset, buffer.position() - recordOffset, offset, length));
+        }
+        return takenAt;
+    }
+
+    /**
+     * @return A file's modification time and size, in one call, or NO_FILE for both if it cannot be read
+     */
+    private static long[] stat(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+            return new long[] {attributes.lastModifiedTime().toMillis(), attributes.size()};
+        } catch (IOException e) {
+            return new long[] {NO_FILE, NO_FILE};
+        }
+    }
+
+    /**
+     * Copy a range of the mapped snapshot to the file, after what the stream holds
+     * @return The number of bytes copied
+     */
+    private static int copy(Mapped from, int start, int end, DataOutputStream out, FileChannel channel) throws IOException {
+        if (start == end) return 0;
+        out.flush();
+        ByteBuffer source = from.buffer.duplicate();
+        source.position(start);
+        source.limit(end);
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+        return end - start;
+    }
+
+    /**
+     * Decode a note body straight out of the mapped snapshot
+     */
+    private static String decode(ByteBuffer buffer, Entry entry) {
+        ByteBuffer slice = buffer.duplicate();
+        slice.position(entry.contentOffset);
+        slice.limit(entry.contentOffset + entry.contentLength);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    /**
+     * @return The number of bytes of the string, after its length
+     */
+    private static int writeString(DataOutputStream out, String value) throws IOException {
+        byte[] data = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(data.length);
+        out.write(data);
+        return data.length;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        ByteBuffer slice = buffer.duplicate();
+        slice.limit(slice.position() + length);
+        buffer.position(buffer.position() + length);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+}
@@ -0,0 +1,222 @@
+package src;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * NoteStore holds the notes of the vault and may be used from any thread.
+ * Readers never lock: they take an immutable snapshot of the note list, which
+ * stays valid and consistent however the store changes afterwards. Writers are
+ * serialized by a StampedLock and publish a new snapshot when done (copy on
+ * write), so background loaders, indexers and persisters can run alongside the
+ * UI without ever blocking the EDT on a reader.
+ *
+ * Membership changes copy the list, so bulk changes should go through
+ * addAll / replaceAll. Edits to a note's content do not touch the store at all.
+ */
+class NoteStore implements Iterable<Note> {
+    private static final Note[] EMPTY = new Note[0];
+
+    /**
+     * An immutable view of the store at one point in time
+     */
+    static final class Snapshot {
+        private final Note[] notes;
+        private final long version;
+
+        private Snapshot(Note[] notes, long version) {
+            this.notes = notes;
+            this.version = version;
+        }
+
+        /**
+         * @return The notes, as an unmodifiable list
+         */
+        List<Note> notes() {
+            return Collections.unmodifiableList(Arrays.asList(notes));
+        }
+
+        /**
+         * @return The store version this snapshot was taken at, incremented by every change
+         */
+        long version() {
+            return version;
+        }
+    }
+
+    private final StampedLock writeLock = new StampedLock();
+    private volatile Snapshot current = new Snapshot(EMPTY, 0);
+    // Title and id lookups, maintained by the writers
+    private final Map<String, Note> byTitle = new ConcurrentHashMap<>();
+    private final Map<Integer, Note> byId = new ConcurrentHashMap<>();
+
+    /**
+     * @return The current contents of the store; never changes once returned
+     */
+    Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * @return The notes currently in the store, as an unmodifiable list
+     */
+    List<Note> notes() {
+        return current.notes();
+    }
+
+    /**
+     * Iterate over a snapshot; safe while other threads modify the store
+     */
+    @Override
+    public Iterator<Note> iterator() {
+        return current.notes().iterator();
+    }
+
+    /**
+     * @return The number of notes
+     */
+    int size() {
+        return current.notes.length;
+    }
+
+    /**
+     * Find a note by title
+     * @return The note, or null if no note has that title
+     */
+    Note find(String title) {
+        return byTitle.get(title);
+    }
+
+    /**
+     * Find a note by id
+     * @return The note, or null if no note has that id
+     */
+    Note get(int id) {
+        return byId.get(id);
+    }
+
+    /**
+     * Add a note
+     * @param note The note to add
+     * @throws IllegalArgumentException if another note already has its title
+     */
+    void add(Note note) {
+        addAll(Collections.singletonList(note));
+    }
+
+    /**
+     * Add several notes with a single copy of the list
+     * @param added The notes to add
+     * @throws IllegalArgumentException if a title is taken or appears twice; nothing is added then
+     */
+    void addAll(Collection<Note> added) {
+        if (added.isEmpty()) return;
+        long stamp = writeLock.writeLock();
+        try {
+            Set<String> titles = new HashSet<>();
+            for (Note note : added) {
+                if (byTitle.containsKey(note.getTitle()) || !titles.add(note.getTitle())) {
+                    throw new IllegalArgumentException("A note titled \"" + note.getTitle() + "\" already exists");
+                }
+            }
+            Note[] notes = current.notes;
+            Note[] updated = Arrays.copyOf(notes, notes.length + added.size());
+            int index = notes.length;
+            for (Note note : added) {
+                updated[index++] = note;
+                byTitle.put(note.getTitle(), note);
+                byId.put(note.getId(), note);
+            }
+            publish(updated);
+        } finally {
+            writeLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Remove a note
+     * @param note The note to remove
+     * @return false if the note was not in the store
+     */
+    boolean remove(Note note) {
+        long stamp = writeLock.writeLock();
+        try {
+            Note[] notes = current.notes;
+            for (int i = 0; i < notes.length; i++) {
+                if (notes[i] == note) {
+                    Note[] updated = new Note[notes.length - 1];
+                    System.arraycopy(notes, 0, updated, 0, i);
+                    System.arraycopy(notes, i + 1, updated, i, notes.length - i - 1);
+                    byTitle.remove(note.getTitle(), note);
+                    byId.remove(note.getId());
+                    publish(updated);
+                    return true;
+                }
+            }
+            return false;
+        } finally {
+            writeLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Rename a note, keeping the title lookup in step
+     * @param note The note to rename
+     * @param newTitle Its new title
+     * @throws IllegalArgumentException if another note already has the new title
+     */
+    void rename(Note note, String newTitle) {
+        long stamp = writeLock.writeLock();
+        try {
+            Note existing = byTitle.get(newTitle);
+            if (existing != null && existing != note) {
+                throw new IllegalArgumentException("A note titled \"" + newTitle + "\" already exists");
+            }
+            byTitle.remove(note.getTitle(), note);
+            note.setTitle(newTitle);
+            byTitle.put(newTitle, note);
+            publish(current.notes); // Same notes, but readers keyed on the version see the change
+        } finally {
+            writeLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Replace the whole contents of the store (e.g. after loading the vault)
+     * @param notes The new notes
+     */
+    void replaceAll(Collection<Note> notes) {
+        Map<String, Note> titles = new HashMap<>();
+        Map<Integer, Note> ids = new HashMap<>();
+        for (Note note : notes) {
+            titles.put(note.getTitle(), note);
+            ids.put(note.getId(), note);
+        }
+        long stamp = writeLock.writeLock();
+        try {
+            // Add the new entries before dropping stale ones, so readers never miss a note kept in the store
+            byTitle.putAll(titles);
+            byId.putAll(ids);
+            byTitle.entrySet().removeIf(entry -> titles.get(entry.getKey()) != entry.getValue());
+            byId.entrySet().removeIf(entry -> ids.get(entry.getKey()) != entry.getValue());
+            publish(notes.toArray(EMPTY));
+        } finally {
+            writeLock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Make a new list visible to readers; caller holds the write lock
+     */
+    private void publish(Note[] notes) {
+        current = new Snapshot(notes, current.version + 1);
+    }
+}
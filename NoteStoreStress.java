@@ -0,0 +1,201 @@
+package src;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * NoteStoreStress hammers a NoteStore from many threads and checks that readers
+ * always see a consistent store. Writer threads add, rename and remove notes of
+ * their own and now and then reload the whole store with replaceAll, as loading
+ * the vault does; reader threads meanwhile take snapshots, iterate and look notes
+ * up. A set of stable notes is never touched by the writers, so every snapshot
+ * must contain each of them exactly once and find and get must always return them.
+ * Titles are never reused, so a lookup by a title seen in a snapshot returns that
+ * note or nothing.
+ *
+ * Checked while running: snapshot versions never go backwards for a reader, a
+ * snapshot holds no note twice, stable notes are always present and found by
+ * title and id, and find never returns a different note than the one that had
+ * the title. Checked at the end: the store holds exactly the notes the writers
+ * left in it, each found by its title and id.
+ *
+ *   java -cp <classes> src.NoteStoreStress --readers 8 --writers 4 --seconds 10
+ * Exits with status 1 if any check failed.
+ */
+public class NoteStoreStress {
+    private static final int STABLE_NOTES = 1000;
+    private static final int MAX_REPORTED = 10;   // Failures printed per check
+
+    private final NoteStore store = new NoteStore();
+    private final List<Note> stable = new ArrayList<>();
+    // Writers share it, a reload takes it alone: reloading a list while notes are added would drop them
+    private final ReentrantReadWriteLock reloading = new ReentrantReadWriteLock();
+    private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+    private final AtomicBoolean stopped = new AtomicBoolean();
+    private final AtomicLong reads = new AtomicLong();
+    private final AtomicLong writes = new AtomicLong();
+    private int next;   // Title counter, so titles are never reused
+
+    public static void main(String[] args) throws InterruptedException {
+        Map<String, String> options = parseOptions(args);
+        int readers = Integer.parseInt(options.getOrDefault("readers", "8"));
+        int writers = Integer.parseInt(options.getOrDefault("writers", "4"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        System.exit(new NoteStoreStress().run(readers, writers, seconds) ? 0 : 1);
+    }
+
+    private boolean run(int readerCount, int writerCount, int seconds) throws InterruptedException {
+        for (int i = 0; i < STABLE_NOTES; i++) {
+            stable.add(new Note("Stable " + i, "content " + i));
+        }
+        store.addAll(stable);
+
+        List<Thread> threads = new ArrayList<>();
+        List<Set<Note>> owned = new ArrayList<>();
+        for (int w = 0; w < writerCount; w++) {
+            Set<Note> notes = new HashSet<>();
+            owned.add(notes);
+            int writer = w;
+            threads.add(new Thread(() -> write(writer, notes, new Random(writer)), "writer-" + w));
+        }
+        for (int r = 0; r < readerCount; r++) {
+            int reader = r;
+            threads.add(new Thread(() -> read(new Random(1000 + reader)), "reader-" + r));
+        }
+        threads.forEach(Thread::start);
+        Thread.sleep(seconds * 1000L);
+        stopped.set(true);
+        for (Thread thread : threads) thread.join();
+
+        // Every writer has finished, so the store must hold exactly what they left
+        Set<Note> expected = Collections.newSetFromMap(new IdentityHashMap<>());
+        expected.addAll(stable);
+        owned.forEach(expected::addAll);
+        List<Note> left = store.notes();
+        Set<Note> actual = Collections.newSetFromMap(new IdentityHashMap<>());
+        actual.addAll(left);
+        check(left.size() == actual.size(), "final: a note is in the store twice");
+        check(actual.equals(expected), "final: store holds " + actual.size() + " notes, writers left " + expected.size());
+        for (Note note : left) {
+            check(store.find(note.getTitle()) == note, "final: not found by title: " + note.getTitle());
+            check(store.get(note.getId()) == note, "final: not found by id: " + note.getTitle());
+        }
+
+        System.out.printf("%d readers, %d writers, %d s: %,d reads, %,d writes, %d notes left%n",
+            readerCount, writerCount, seconds, reads.get(), writes.get(), left.size());
+        if (failures.isEmpty()) {
+            System.out.println("All checks passed");
+            return true;
+        }
+        failures.forEach((check, count) -> System.out.println("FAILED " + count.get() + "x: " + check));
+        return false;
+    }
+
+    /**
+     * Add, rename and remove notes titled after this writer, now and then reloading the store
+     */
+    private void write(int writer, Set<Note> notes, Random random) {
+        List<Note> mine = new ArrayList<>();
+        while (!stopped.get()) {
+            int roll = random.nextInt(100);
+            if (roll == 99) {
+                reloading.writeLock().lock();
+                try {
+                    store.replaceAll(store.notes());
+                } finally {
+                    reloading.writeLock().unlock();
+                }
+                writes.incrementAndGet();
+                continue;
+            }
+            reloading.readLock().lock();
+            try {
+                change(writer, mine, random, roll);
+            } finally {
+                reloading.readLock().unlock();
+            }
+            writes.incrementAndGet();
+        }
+        notes.addAll(mine);
+    }
+
+    /**
+     * Add a few notes, rename one or remove one of this writer's notes
+     */
+    private void change(int writer, List<Note> mine, Random random, int roll) {
+        if (roll < 45 || mine.isEmpty()) {
+            List<Note> added = new ArrayList<>();
+            int count = 1 + random.nextInt(roll < 5 ? 50 : 1);
+            for (int i = 0; i < count; i++) {
+                added.add(new Note(title(writer), "content"));
+            }
+            store.addAll(added);
+            mine.addAll(added);
+        } else if (roll < 70) {
+            store.rename(mine.get(random.nextInt(mine.size())), title(writer));
+        } else {
+            Note note = mine.remove(random.nextInt(mine.size()));
+            check(store.remove(note), "remove: note of writer " + writer + " was not in the store");
+        }
+    }
+
+    private synchronized String title(int writer) {
+        return "Writer " + writer + " note " + next++;
+    }
+
+    /**
+     * Take snapshots and look notes up, checking what is seen
+     */
+    private void read(Random random) {
+        long lastVersion = -1;
+        while (!stopped.get()) {
+            NoteStore.Snapshot snapshot = store.snapshot();
+            check(snapshot.version() >= lastVersion, "snapshot version went from " + lastVersion + " to " + snapshot.version());
+            lastVersion = snapshot.version();
+
+            if (random.nextInt(20) == 0) {
+                // A full pass now and then: no note twice, every stable note present
+                Set<Note> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+                int stableSeen = 0;
+                for (Note note : snapshot.notes()) {
+                    check(seen.add(note), "snapshot " + snapshot.version() + " holds a note twice");
+                    if (note.getTitle().startsWith("Stable ")) stableSeen++;
+                }
+                check(stableSeen == STABLE_NOTES, "snapshot " + snapshot.version() + " holds " + stableSeen + " stable notes");
+            }
+
+            Note expected = stable.get(random.nextInt(STABLE_NOTES));
+            check(store.find(expected.getTitle()) == expected, "find missed stable note " + expected.getTitle());
+            check(store.get(expected.getId()) == expected, "get missed stable note " + expected.getTitle());
+
+            List<Note> notes = snapshot.notes();
+            Note any = notes.get(random.nextInt(notes.size()));
+            String title = any.getTitle();
+            Note found = store.find(title);
+            check(found == null || found == any, "find(\"" + title + "\") returned another note");
+            reads.incrementAndGet();
+        }
+    }
+
+    private void check(boolean ok, String failure) {
+        if (ok) return;
+        // Count by the message without its numbers, print the first few in full
+        String check = failure.replaceAll("\\d+", "N");
+        long count = failures.computeIfAbsent(check, key -> new AtomicLong()).incrementAndGet();
+        if (count <= MAX_REPORTED) System.err.println(Thread.currentThread().getName() + ": " + failure);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.err.println("Usage: NoteStoreStress [--readers N] [--writers N] [--seconds N]");
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
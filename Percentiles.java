@@ -0,0 +1,24 @@
+package src;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Percentiles summarizes latency samples for the reports and harnesses.
+ */
+final class Percentiles {
+    private Percentiles() {
+    }
+
+    /**
+     * Nearest-rank percentile
+     * @param samples The samples, in any order; not modified
+     * @param percent 1 to 100
+     */
+    static long percentile(List<Long> samples, int percent) {
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+}
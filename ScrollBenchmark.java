@@ -0,0 +1,185 @@
+package src;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+import java.util.List;
+
+/**
+ * ScrollBenchmark measures how long the sidebar note list takes to paint a frame
+ * while it is scrolled. It fills a JList with generated notes, puts it in a scroll
+ * pane of the sidebar's size and, on the EDT, moves the viewport and paints the
+ * whole scroll pane into an image once per frame. The figures are paint and
+ * layout time only, without the cost of putting pixels on a screen.
+ *
+ * Two scroll patterns are timed: wheel scrolling, a few rows per frame from the
+ * top down, and dragging the scroll bar thumb, a jump to a random position every
+ * frame. The first frame, which includes laying out the list, is reported apart.
+ *
+ * --renderer cached uses NoteListCellRenderer with the list's fixed cell height,
+ * as the app does; --renderer label uses a DefaultListCellRenderer that shortens
+ * the title, sets its tooltip and font on every paint and leaves JList to measure
+ * every row, for comparison.
+ *
+ *   java -Djava.awt.headless=true -cp <classes> src.ScrollBenchmark --notes 100000 --frames 2000 --renderer cached
+ */
+public class ScrollBenchmark {
+    private static final Font FONT = new Font("Segoe UI", Font.PLAIN, 14);
+    private static final long FRAME_BUDGET_NS = 16_666_667L; // 60 frames per second
+
+    public static void main(String[] args) throws InterruptedException, InvocationTargetException {
+        Map<String, String> options = parseOptions(args);
+        int count = Integer.parseInt(options.getOrDefault("notes", "100000"));
+        int frames = Integer.parseInt(options.getOrDefault("frames", "2000"));
+        int step = Integer.parseInt(options.getOrDefault("step", "3"));
+        int width = Integer.parseInt(options.getOrDefault("width", "150"));
+        int height = Integer.parseInt(options.getOrDefault("height", "700"));
+        String renderer = options.getOrDefault("renderer", "cached");
+        Random random = new Random(Long.parseLong(options.getOrDefault("seed", "1")));
+        if (!renderer.equals("cached") && !renderer.equals("label")) usage();
+
+        // Untimed pass over a small list first, so class loading, fonts and the JIT are not counted
+        SwingUtilities.invokeAndWait(() -> run(generate(1000, new Random(0)), 500, step, width, height, renderer, new Random(0), false));
+        List<Note> notes = generate(count, random);
+        SwingUtilities.invokeAndWait(() -> run(notes, frames, step, width, height, renderer, random, true));
+    }
+
+    /**
+     * EDT: build the list and scroll it, first wheel-style, then by jumps
+     */
+    private static void run(List<Note> notes, int frames, int step, int width, int height, String renderer,
+                            Random random, boolean print) {
+        DefaultListModel<Note> model = new DefaultListModel<>();
+        for (Note note : notes) model.addElement(note);
+        JList<Note> list = new JList<>(model);
+        list.setFont(FONT);
+        list.setFixedCellWidth(140);
+        if (renderer.equals("cached")) {
+            NoteListCellRenderer cells = new NoteListCellRenderer(FONT, ThemeColor.of(Theme.Role.SURFACE),
+                ThemeColor.of(Theme.Role.TEXT), ThemeColor.of(Theme.Role.ACCENT));
+            list.setCellRenderer(cells);
+            list.setFixedCellHeight(cells.getRowHeight());
+        } else {
+            list.setCellRenderer(labelRenderer());
+        }
+        JScrollPane scrollPane = new JScrollPane(list);
+        scrollPane.setSize(width, height);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            // Collect the generated notes now rather than in the middle of the timed frames
+            System.gc();
+            long start = System.nanoTime();
+            layOut(scrollPane);
+            scrollPane.paint(g);
+            long first = System.nanoTime() - start;
+
+            JViewport viewport = scrollPane.getViewport();
+            int rowHeight = list.getCellBounds(0, 0).height;
+            int bottom = Math.max(0, list.getHeight() - viewport.getHeight());
+            List<Long> wheel = new ArrayList<>();
+            int y = 0;
+            for (int i = 0; i < frames; i++) {
+                y = y + step * rowHeight > bottom ? 0 : y + step * rowHeight;
+                wheel.add(frame(scrollPane, viewport, g, y));
+            }
+            List<Long> drag = new ArrayList<>();
+            for (int i = 0; i < frames; i++) {
+                drag.add(frame(scrollPane, viewport, g, random.nextInt(bottom + 1)));
+            }
+            if (!print) return;
+            System.out.printf("%,d notes, %s renderer, %dx%d viewport, first frame %.1f ms%n",
+                notes.size(), renderer, width, height, first / 1e6);
+            report("wheel", wheel);
+            report("drag", drag);
+        } finally {
+            g.dispose();
+        }
+    }
+
+    /**
+     * Scroll to a position and paint the scroll pane
+     * @return Nanoseconds taken
+     */
+    private static long frame(JScrollPane scrollPane, JViewport viewport, Graphics2D g, int y) {
+        long start = System.nanoTime();
+        viewport.setViewPosition(new Point(0, y));
+        layOut(scrollPane);
+        scrollPane.paint(g);
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Lay out the scroll pane and size the list as a window would; validate()
+     * does nothing for components that were never shown
+     */
+    private static void layOut(JScrollPane scrollPane) {
+        scrollPane.doLayout();
+        scrollPane.getViewport().doLayout();
+    }
+
+    private static void report(String pattern, List<Long> frames) {
+        long over = frames.stream().filter(t -> t > FRAME_BUDGET_NS).count();
+        System.out.printf("  %-5s frames %,d  p50 %.3f ms  p99 %.3f ms  max %.3f ms  over 16.7 ms %,d%n", pattern,
+            frames.size(), Percentiles.percentile(frames, 50) / 1e6, Percentiles.percentile(frames, 99) / 1e6,
+            Collections.max(frames) / 1e6, over);
+    }
+
+    /**
+     * Notes with titles of mixed length and bodies in memory
+     */
+    private static List<Note> generate(int count, Random random) {
+        List<Note> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder title = new StringBuilder("Note ").append(i);
+            for (int words = random.nextInt(6); words > 0; words--) title.append(" topic").append(random.nextInt(1000));
+            long date = 1_600_000_000_000L + random.nextInt(1_000_000_000);
+            String content = "First line of note " + i + "\nMore text " + random.nextInt(1_000_000) + " follows here.\n";
+            notes.add(new Note(title.toString(), content, date, date));
+        }
+        return notes;
+    }
+
+    /**
+     * A renderer that shortens the title, sets the tooltip and the font on every
+     * paint and gives JList no fixed height, for comparison
+     */
+    private static ListCellRenderer<Object> labelRenderer() {
+        return new DefaultListCellRenderer() {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+                                                          boolean isSelected, boolean cellHasFocus) {
+                JLabel label = (JLabel) super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+                String title = ((Note) value).getTitle();
+                int maxLen = 16;
+                if (title.length() > maxLen) {
+                    label.setText(title.substring(0, maxLen - 3) + "...");
+                    label.setToolTipText(title);
+                } else {
+                    label.setText(title);
+                    label.setToolTipText(null);
+                }
+                label.setFont(FONT);
+                return label;
+            }
+        };
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) usage();
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+
+    private static void usage() {
+        System.err.println("Usage: ScrollBenchmark [--notes N] [--frames N] [--step rows] [--width px] [--height px]"
+            + " [--renderer cached|label] [--seed N]");
+        System.exit(2);
+    }
+}
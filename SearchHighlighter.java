@@ -0,0 +1,153 @@
+package src;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * SearchHighlighter marks search hits in a text component and moves between
+ * them. All hits share one highlight spanning the document, whose painter looks
+ * up the hits inside the clip with a binary search and paints only those, so a
+ * note with tens of thousands of hits costs no more to paint than the visible
+ * ones. Hits are plain offsets; any edit of the text clears them.
+ */
+@SuppressWarnings("deprecation") // modelToView/viewToModel keep Java 8 support
+class SearchHighlighter implements DocumentListener {
+    private static final Color HIT_COLOR = new Color(255, 213, 79, 140);
+    private static final Color CURRENT_COLOR = new Color(255, 152, 0, 200);
+
+    private final JTextComponent text;
+    private SearchIndex.Hits hits;
+    private int current = -1;
+    private Object highlight;
+
+    private final Highlighter.HighlightPainter painter = new Highlighter.HighlightPainter() {
+        @Override
+        public void paint(Graphics g, int p0, int p1, Shape bounds, JTextComponent c) {
+            paintVisibleHits(g);
+        }
+    };
+
+    /**
+     * @param text The component showing the searched note
+     */
+    SearchHighlighter(JTextComponent text) {
+        this.text = text;
+        text.getDocument().addDocumentListener(this);
+    }
+
+    /**
+     * Show new hits, replacing the previous ones
+     * @param hits The hits, or null to clear
+     */
+    void setHits(SearchIndex.Hits hits) {
+        if (highlight != null) {
+            text.getHighlighter().removeHighlight(highlight);
+            highlight = null;
+        }
+        this.hits = hits == null || hits.size() == 0 ? null : hits;
+        current = -1;
+        if (this.hits != null) {
+            try {
+                highlight = text.getHighlighter().addHighlight(0, text.getDocument().getLength(), painter);
+            } catch (BadLocationException e) {
+                this.hits = null;
+            }
+        }
+    }
+
+    /**
+     * @return Number of hits shown
+     */
+    int size() {
+        return hits == null ? 0 : hits.size();
+    }
+
+    /**
+     * Select the next hit after the caret, wrapping around
+     * @return The position of the selected hit (1-based), or 0 if there are no hits
+     */
+    int next() {
+        if (hits == null) return 0;
+        int caret = text.getSelectionEnd();
+        int index = current >= 0 && hits.ends[current] == caret ? current + 1 : firstStartAtOrAfter(caret);
+        return select(index >= hits.size() ? 0 : index);
+    }
+
+    /**
+     * Select the hit before the caret, wrapping around
+     * @return The position of the selected hit (1-based), or 0 if there are no hits
+     */
+    int previous() {
+        if (hits == null) return 0;
+        int caret = text.getSelectionStart();
+        int index = current >= 0 && hits.starts[current] == caret ? current - 1 : firstStartAtOrAfter(caret) - 1;
+        return select(index < 0 ? hits.size() - 1 : index);
+    }
+
+    private int select(int index) {
+        current = index;
+        text.select(hits.starts[index], hits.ends[index]);
+        try {
+            Rectangle area = text.modelToView(hits.starts[index]);
+            if (area != null) text.scrollRectToVisible(area);
+        } catch (BadLocationException e) {
+            // Offsets are checked against the document when painting
+        }
+        text.repaint();
+        return index + 1;
+    }
+
+    private int firstStartAtOrAfter(int offset) {
+        int index = Arrays.binarySearch(hits.starts, offset);
+        return index >= 0 ? index : -index - 1;
+    }
+
+    private void paintVisibleHits(Graphics g) {
+        if (hits == null) return;
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) clip = text.getVisibleRect();
+        int first = text.viewToModel(new Point(clip.x, clip.y));
+        int last = text.viewToModel(new Point(clip.x + clip.width, clip.y + clip.height));
+        int length = text.getDocument().getLength();
+        // A hit may start before the first visible offset and still reach into view
+        for (int i = Math.max(0, firstStartAtOrAfter(first) - 1); i < hits.size() && hits.starts[i] <= last; i++) {
+            if (hits.ends[i] > length) break;
+            try {
+                Rectangle start = text.modelToView(hits.starts[i]);
+                Rectangle end = text.modelToView(hits.ends[i]);
+                g.setColor(i == current ? CURRENT_COLOR : HIT_COLOR);
+                if (start.y == end.y) {
+                    g.fillRect(start.x, start.y, end.x - start.x, start.height);
+                } else {
+                    // A word never spans lines, but a wrapped line can split it
+                    g.fillRect(start.x, start.y, text.getWidth() - start.x, start.height);
+                    g.fillRect(0, end.y, end.x, end.height);
+                }
+            } catch (BadLocationException e) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        clearAfterEdit();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        clearAfterEdit();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    private void clearAfterEdit() {
+        if (hits != null) setHits(null);
+    }
+}
@@ -0,0 +1,413 @@
+package src;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * SearchIndex is an in-memory positional word index over note contents. Every
+ * distinct lower-cased word gets a term id with a bitmap of the notes containing
+ * it, used to find matching notes; every note keeps its words as term ids with
+ * their character offsets, used to locate the matches inside a note without
+ * reading its text again.
+ *
+ * Query words match as prefixes ("meet" finds "meeting") and a note matches when
+ * it contains all query words. Words are runs of letters and digits. Term ids are
+ * never reused, so the dictionary only grows. All methods are thread-safe.
+ *
+ * A SegmentIndex can store the entries on disk and load them back at startup,
+ * so the notes do not have to be read and split into words again.
+ */
+class SearchIndex {
+    /**
+     * Words of one note in order, with the last modified date of the content they
+     * were taken from and, if the note holds it in memory, that content
+     */
+    static final class Entry {
+        final String content;   // Null for an entry loaded from disk or from content not kept
+        final long modified;
+        final int[] terms;
+        final int[] offsets;
+
+        Entry(String content, long modified, int[] terms, int[] offsets) {
+            this.content = content;
+            this.modified = modified;
+            this.terms = terms;
+            this.offsets = offsets;
+        }
+
+        /**
+         * @return true if the note still has the content the words were taken from
+         */
+        boolean isCurrent(Note note) {
+            return content != null ? content == note.getContent() : modified == note.getLastModifiedDate();
+        }
+    }
+
+    /**
+     * Match positions inside a note, sorted by start offset
+     */
+    static final class Hits {
+        final int[] starts;
+        final int[] ends;
+
+        Hits(int[] starts, int[] ends) {
+            this.starts = starts;
+            this.ends = ends;
+        }
+
+        int size() {
+            return starts.length;
+        }
+    }
+
+    private final Map<String, Integer> termIds = new HashMap<>();
+    private final NavigableMap<String, Integer> sortedTerms = new TreeMap<>();  // For prefix lookups
+    private final List<TagBitmap> postings = new ArrayList<>();    // Term id -> notes containing it
+    private final List<String> termNames = new ArrayList<>();      // Term id -> word
+    private final Map<Integer, Entry> entries = new HashMap<>();   // Note id -> its words
+    private volatile boolean ready;
+
+    /**
+     * Drop every note and word, until the index is built again
+     */
+    synchronized void clear() {
+        termIds.clear();
+        sortedTerms.clear();
+        postings.clear();
+        termNames.clear();
+        entries.clear();
+        ready = false;
+    }
+
+    /**
+     * @return true once the first full build has finished
+     */
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Mark the first full build as finished, for indexes filled by restore
+     */
+    void markReady() {
+        ready = true;
+    }
+
+    /**
+     * Index a note's current content, replacing what it was indexed under before
+     */
+    void update(Note note) {
+        // Read the date first: an edit in between then makes the entry look outdated, never current
+        long modified = note.getLastModifiedDate();
+        String content = note.getContent();
+        index(note, content, content, modified);
+    }
+
+    /**
+     * Index content read for a note without it being kept in the note (see
+     * Note.readContent); the entry is matched to the note by date
+     * @param modified The note's last modified date, read before the content
+     */
+    void update(Note note, String content, long modified) {
+        index(note, content, null, modified);
+    }
+
+    private void index(Note note, String content, String kept, long modified) {
+        List<String> words = new ArrayList<>();
+        int[] offsets = tokenize(content, words);
+        synchronized (this) {
+            int[] ids = new int[words.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = termId(words.get(i));
+            }
+            put(note.getId(), new Entry(kept, modified, ids, offsets));
+        }
+    }
+
+    /**
+     * Index notes under stored words instead of reading their content
+     * @param stored Entries without content, their terms as ids from intern
+     */
+    void restore(Map<Note, Entry> stored) {
+        // In note id order, so every posting add appends
+        List<Note> notes = new ArrayList<>(stored.keySet());
+        notes.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        for (Note note : notes) {
+            synchronized (this) { // Per note, so searches are not held up
+                put(note.getId(), stored.get(note));
+            }
+        }
+    }
+
+    private void put(int noteId, Entry entry) {
+        unindex(noteId);
+        BitSet added = new BitSet();
+        for (int term : entry.terms) {
+            if (!added.get(term)) {
+                added.set(term);
+                postings.get(term).add(noteId);
+            }
+        }
+        entries.put(noteId, entry);
+    }
+
+    /**
+     * @return What a note is indexed under, or null if it is not indexed
+     */
+    synchronized Entry entry(Note note) {
+        return entries.get(note.getId());
+    }
+
+    /**
+     * @param words Lower-cased words
+     * @return The term id of each word, adding the words not seen before
+     */
+    synchronized int[] intern(String[] words) {
+        int[] ids = new int[words.length];
+        for (int i = 0; i < words.length; i++) {
+            ids[i] = termId(words[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * @param ids Term ids
+     * @return The words of the ids, in increasing id order
+     */
+    synchronized String[] words(BitSet ids) {
+        String[] words = new String[ids.cardinality()];
+        int i = 0;
+        for (int id = ids.nextSetBit(0); id >= 0; id = ids.nextSetBit(id + 1)) {
+            words[i++] = termNames.get(id);
+        }
+        return words;
+    }
+
+    /**
+     * Remove a deleted note
+     */
+    synchronized void remove(Note note) {
+        unindex(note.getId());
+    }
+
+    private void unindex(int noteId) {
+        Entry old = entries.remove(noteId);
+        if (old == null) return;
+        BitSet removed = new BitSet();
+        for (int term : old.terms) {
+            if (!removed.get(term)) {
+                removed.set(term);
+                postings.get(term).remove(noteId);
+            }
+        }
+    }
+
+    private int termId(String word) {
+        Integer id = termIds.get(word);
+        if (id == null) {
+            id = postings.size();
+            termIds.put(word, id);
+            sortedTerms.put(word, id);
+            postings.add(new TagBitmap());
+            termNames.add(word);
+        }
+        return id;
+    }
+
+    /**
+     * Find the notes containing every word of a query
+     * @param query Words to look for; each matches as a prefix
+     * @return Ids of the matching notes, or null if the query has no words
+     */
+    synchronized TagBitmap search(String query) {
+        List<String> words = new ArrayList<>();
+        tokenize(query, words);
+        TagBitmap result = null;
+        for (String word : words) {
+            TagBitmap withWord = withPrefix(word);
+            result = result == null ? withWord : result.and(withWord);
+            if (result.isEmpty()) break;
+        }
+        return result;
+    }
+
+    /**
+     * @param prefix A lower-cased word prefix
+     * @return Ids of the notes containing a word starting with the prefix
+     */
+    synchronized TagBitmap withPrefix(String prefix) {
+        Collection<Integer> terms = prefixRange(prefix).values();
+        if (terms.size() == 1) return postings.get(terms.iterator().next()).copy();
+        // A short prefix can match thousands of words: collect them in one pass, not one OR each
+        BitSet notes = new BitSet();
+        for (int term : terms) {
+            postings.get(term).forEach(notes::set);
+        }
+        TagBitmap result = new TagBitmap();
+        notes.stream().forEach(result::add); // Ascending, so every add appends
+        return result;
+    }
+
+    /**
+     * Estimate the notes containing a word starting with a prefix, without combining bitmaps
+     * @param prefix A lower-cased word prefix
+     * @return An upper bound: the sum of the counts of the matching words
+     */
+    synchronized long countWithPrefix(String prefix) {
+        long count = 0;
+        for (int term : prefixRange(prefix).values()) {
+            count += postings.get(term).cardinality();
+        }
+        return count;
+    }
+
+    /**
+     * @param word A lower-cased word
+     * @return Ids of the notes containing exactly that word
+     */
+    synchronized TagBitmap withWord(String word) {
+        Integer term = termIds.get(word);
+        return term == null ? new TagBitmap() : postings.get(term).copy();
+    }
+
+    /**
+     * @param word A lower-cased word
+     * @return Number of notes containing exactly that word
+     */
+    synchronized int countWithWord(String word) {
+        Integer term = termIds.get(word);
+        return term == null ? 0 : postings.get(term).cardinality();
+    }
+
+    /**
+     * Check whether a note contains words one right after the other, from its indexed words
+     * @param note The note
+     * @param words Lower-cased words of the phrase, matched exactly
+     * @return true if the note contains the phrase
+     */
+    boolean containsPhrase(Note note, List<String> words) {
+        Entry entry;
+        int[] phrase = new int[words.size()];
+        synchronized (this) {
+            entry = entries.get(note.getId());
+            if (entry == null) return false;
+            for (int i = 0; i < phrase.length; i++) {
+                Integer term = termIds.get(words.get(i));
+                if (term == null) return false;
+                phrase[i] = term;
+            }
+        }
+        int[] terms = entry.terms;
+        for (int start = 0; start + phrase.length <= terms.length; start++) {
+            int i = 0;
+            while (i < phrase.length && terms[start + i] == phrase[i]) i++;
+            if (i == phrase.length) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Locate the words of a query in a note, from the note's indexed words
+     * @param note The note
+     * @param query Words to look for; each matches as a prefix
+     * @return The matches, or null if the note's content changed since it was indexed
+     */
+    Hits hits(Note note, String query) {
+        List<String> words = new ArrayList<>();
+        tokenize(query, words);
+        Entry entry;
+        BitSet wanted = new BitSet();
+        Map<Integer, Integer> lengths = new HashMap<>();
+        synchronized (this) {
+            entry = entries.get(note.getId());
+            if (entry == null || !entry.isCurrent(note)) return null;
+            for (String word : words) {
+                for (Map.Entry<String, Integer> term : prefixRange(word).entrySet()) {
+                    wanted.set(term.getValue());
+                    lengths.put(term.getValue(), term.getKey().length());
+                }
+            }
+        }
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count = 0;
+        for (int i = 0; i < entry.terms.length; i++) {
+            int term = entry.terms[i];
+            if (wanted.get(term)) {
+                if (count == starts.length) {
+                    starts = Arrays.copyOf(starts, count * 2);
+                    ends = Arrays.copyOf(ends, count * 2);
+                }
+                starts[count] = entry.offsets[i];
+                ends[count] = entry.offsets[i] + lengths.get(term);
+                count++;
+            }
+        }
+        return new Hits(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    /**
+     * Locate the words of a query in a text by splitting it, for a note the index
+     * has no words for yet
+     * @param text The text, e.g. the editor's
+     * @param query Words to look for; each matches as a prefix
+     * @return The matches
+     */
+    static Hits hitsIn(String text, String query) {
+        List<String> prefixes = new ArrayList<>();
+        tokenize(query, prefixes);
+        List<String> words = new ArrayList<>();
+        int[] offsets = tokenize(text, words);
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int count = 0;
+        for (int i = 0; i < offsets.length; i++) {
+            String word = words.get(i);
+            if (prefixes.stream().noneMatch(word::startsWith)) continue;
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, count * 2);
+                ends = Arrays.copyOf(ends, count * 2);
+            }
+            starts[count] = offsets[i];
+            ends[count] = offsets[i] + word.length();
+            count++;
+        }
+        return new Hits(Arrays.copyOf(starts, count), Arrays.copyOf(ends, count));
+    }
+
+    private NavigableMap<String, Integer> prefixRange(String prefix) {
+        return sortedTerms.subMap(prefix, true, prefix + Character.MAX_VALUE, false);
+    }
+
+    /**
+     * Split text into lower-cased words (same length as in the text)
+     * @param words Receives the words
+     * @return The offset of each word
+     */
+    static int[] tokenize(String text, List<String> words) {
+        int[] offsets = new int[16];
+        char[] buffer = new char[32];
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i == length) break;
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                if (i - start == buffer.length) buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                buffer[i - start] = Character.toLowerCase(text.charAt(i));
+                i++;
+            }
+            if (words.size() == offsets.length) offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            offsets[words.size()] = start;
+            words.add(new String(buffer, 0, i - start));
+        }
+        return Arrays.copyOf(offsets, words.size());
+    }
+}
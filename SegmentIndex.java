@@ -0,0 +1,666 @@
+package src;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32;
+
+/**
+ * SegmentIndex keeps the SearchIndex on disk, in "search-index" inside the notes
+ * directory, so search works as soon as the notes are loaded instead of after
+ * every note has been read and split into words again. It also keeps each note's
+ * SimilarityIndex signature and VaultStats counts, so related notes and vault
+ * totals need no reading either. The index
+ * is a list of immutable segment files, oldest first, named by a manifest:
+ *
+ * <pre>
+ *   search-index/segments   names of the live segments, one per line, oldest first
+ *   search-index/seg-12     a segment
+ * </pre>
+ *
+ * A segment holds the words of some notes: the words it uses, then each note's
+ * title, last modified date and words in order, as numbers into the word list
+ * with their character offsets, its signature and its counts. All numbers are
+ * big-endian:
+ *
+ * <pre>
+ *   int magic "NSEG", int version, int note count, int word count
+ *   per word:  int length, UTF-8 bytes
+ *   per note:  int length, UTF-8 title, long last modified date (Long.MIN_VALUE: deleted),
+ *              int n, n word numbers, n offsets,
+ *              int h, h signature hashes (0 for a note without words or a deleted one),
+ *              int c, c counts: words, lines, characters (0 for a deleted note)
+ *   int CRC-32 of everything before
+ * </pre>
+ *
+ * Saved and deleted notes are buffered and written as a new small segment a few
+ * seconds later, or at once when many pile up. A newer segment overrides the
+ * older ones for the notes it holds. After each write a background thread merges
+ * the newest segments once they add up to half the size of the one before, so
+ * there are few segments and a note is rewritten a logarithmic number of times.
+ * Segments and the manifest are written under temporary names and moved into
+ * place; files the manifest does not list are deleted at startup.
+ *
+ * At startup the segments are memory mapped and loaded into the SearchIndex,
+ * SimilarityIndex and VaultStats from the newest down. A note is read from its file only if the
+ * index lacks it or stored a different last modified date; segments of an older
+ * version are discarded like damaged ones. Encrypted vaults keep no SegmentIndex,
+ * as it would hold their words in plaintext.
+ */
+class SegmentIndex {
+    static final String DIRECTORY = "search-index";
+    private static final String MANIFEST = "segments";
+    private static final String PREFIX = "seg-";
+    private static final int MAGIC = 0x4E534547; // "NSEG"
+    private static final int VERSION = 3;
+    private static final long DELETED = Long.MIN_VALUE;
+    // Write buffered notes this long after the first change...
+    private static final long FLUSH_DELAY_MS = 3000;
+    // ...or as soon as this many are buffered
+    private static final int MAX_BUFFERED = 4096;
+    // Merge the newest segments once they are at least 1/MERGE_FACTOR of the one before
+    private static final int MERGE_FACTOR = 2;
+
+    /**
+     * A note's words, signature and counts waiting to be written, or its deletion (no terms)
+     */
+    private static final class Pending {
+        final String title;
+        final long modified;
+        final int[] terms;     // SearchIndex term ids
+        final int[] offsets;
+        final int[] signature; // Null if the note has none
+        final long[] counts;   // VaultStats counts, null for a deletion
+
+        Pending(String title, long modified, int[] terms, int[] offsets, int[] signature, long[] counts) {
+            this.title = title;
+            this.modified = modified;
+            this.terms = terms;
+            this.offsets = offsets;
+            this.signature = signature;
+            this.counts = counts;
+        }
+    }
+
+    private final File dir;
+    private final SearchIndex index;
+    private final SimilarityIndex similarity;
+    private final VaultStats stats;
+    private final List<String> segments = new ArrayList<>();           // Live segment names, oldest first
+    private long nextSegment;
+    private final Map<String, Pending> pending = new LinkedHashMap<>();  // Title -> latest change
+    private final Map<Integer, String> titles = new HashMap<>();         // Note id -> title stored under; indexer thread only
+    private boolean flushScheduled;
+    private volatile boolean closed;
+    // Writes and merges segments; delayed flushes are dropped on close, which flushes itself
+    private final ScheduledThreadPoolExecutor writer = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread thread = new Thread(r, "search-index");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * @param root The notes directory; the index directory is created when first written
+     * @param index The in-memory word index to load into and store from
+     * @param similarity The signatures to load into and store from
+     * @param stats The counts to load into and store from
+     */
+    SegmentIndex(File root, SearchIndex index, SimilarityIndex similarity, VaultStats stats) {
+        this.dir = new File(root, DIRECTORY);
+        this.index = index;
+        this.similarity = similarity;
+        this.stats = stats;
+        writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+    }
+
+    /**
+     * Delete a vault's stored index
+     * @param root The notes directory
+     */
+    static void delete(File root) {
+        File[] files = new File(root, DIRECTORY).listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            file.delete();
+        }
+        new File(root, DIRECTORY).delete();
+    }
+
+    /**
+     * Fill the SearchIndex, SimilarityIndex and VaultStats from disk, replacing what they held.
+     * Notes the stored index lacks or has outdated are handed to the reader, in
+     * parallel, and stored once it has indexed them; stored notes that no longer
+     * exist are dropped. The SearchIndex is then marked ready, also if restoring
+     * fails. Call on the thread that calls update and remove, before either.
+     * @param notes All notes of the vault
+     * @param reader Reads a note and indexes and counts it; false if it could not be read
+     * @return The number of notes handed to the reader
+     */
+    int restore(Collection<Note> notes, Predicate<Note> reader) {
+        try {
+            return load(notes, reader);
+        } finally {
+            index.markReady();
+        }
+    }
+
+    private int load(Collection<Note> notes, Predicate<Note> reader) {
+        Map<String, Note> byTitle = new HashMap<>();
+        for (Note note : notes) {
+            byTitle.put(note.getTitle(), note);
+        }
+        index.clear();
+        similarity.clear();
+        stats.clear();
+        Map<Note, SearchIndex.Entry> restored = new HashMap<>();
+        Map<Note, int[]> signatures = new HashMap<>();
+        Map<Note, long[]> counts = new HashMap<>();
+        List<String> orphans = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        try {
+            names = readManifest();
+            Set<String> seen = new HashSet<>();
+            for (int i = names.size() - 1; i >= 0; i--) {
+                Segment segment = Segment.open(new File(dir, names.get(i)), true);
+                int[] termIds = index.intern(segment.words);
+                while (segment.next()) {
+                    if (!seen.add(segment.title) || segment.modified == DELETED) continue;
+                    Note note = byTitle.get(segment.title);
+                    if (note == null) {
+                        orphans.add(segment.title);
+                    } else if (note.getLastModifiedDate() == segment.modified && segment.counts != null) {
+                        int[] terms = segment.terms;
+                        for (int k = 0; k < terms.length; k++) {
+                            terms[k] = termIds[terms[k]];
+                        }
+                        restored.put(note, new SearchIndex.Entry(null, segment.modified, terms, segment.offsets));
+                        signatures.put(note, segment.signature);
+                        counts.put(note, segment.counts);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Search index is damaged or outdated, rebuilding it: " + e.getMessage());
+            index.clear();
+            restored.clear();
+            signatures.clear();
+            counts.clear();
+            orphans.clear();
+            names = new ArrayList<>();
+            delete(dir.getParentFile());
+        }
+        index.restore(restored);
+        signatures.forEach(similarity::put);
+        counts.forEach(stats::put);
+        synchronized (this) {
+            segments.clear();
+            segments.addAll(names);
+            nextSegment = 0;
+            for (String name : names) {
+                nextSegment = Math.max(nextSegment, Long.parseLong(name.substring(PREFIX.length())) + 1);
+            }
+            deleteUnlisted();
+        }
+        for (String title : orphans) {
+            record(new Pending(title, DELETED, null, null, null, null));
+        }
+        List<Note> stale = new ArrayList<>();
+        for (Note note : notes) {
+            if (restored.containsKey(note)) {
+                titles.put(note.getId(), note.getTitle());
+            } else {
+                stale.add(note);
+            }
+        }
+        // Read in parallel, but store on this thread, which owns titles
+        stale.parallelStream().filter(reader).collect(Collectors.toList()).forEach(this::update);
+        return stale.size();
+    }
+
+    /**
+     * Store a note's words, signature and counts as the indexes have them now. Call
+     * after SearchIndex.update, SimilarityIndex.update and VaultStats.update.
+     */
+    void update(Note note) {
+        SearchIndex.Entry entry = index.entry(note);
+        if (entry == null) return;
+        String old = titles.put(note.getId(), note.getTitle());
+        if (old != null && !old.equals(note.getTitle())) {
+            record(new Pending(old, DELETED, null, null, null, null)); // Renamed
+        }
+        record(new Pending(note.getTitle(), entry.modified, entry.terms, entry.offsets,
+            similarity.signatureOf(note), stats.countsOf(note)));
+    }
+
+    /**
+     * Store that a note was deleted
+     */
+    void remove(Note note) {
+        String title = titles.remove(note.getId());
+        record(new Pending(title != null ? title : note.getTitle(), DELETED, null, null, null, null));
+    }
+
+    private synchronized void record(Pending change) {
+        if (closed) return;
+        pending.remove(change.title); // Keep the buffer in order of the latest change
+        pending.put(change.title, change);
+        if (pending.size() == MAX_BUFFERED) {
+            writer.execute(this::flush);
+        } else if (!flushScheduled) {
+            flushScheduled = true;
+            writer.schedule(this::flush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Write the buffered changes and stop the background thread, waiting briefly for it
+     */
+    void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true; // Also stops a merge in progress
+        }
+        writer.execute(this::flush);
+        writer.shutdown();
+        try {
+            writer.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write the buffered changes as a new segment, then merge if it is due. Writer thread only.
+     */
+    private void flush() {
+        List<Pending> batch;
+        synchronized (this) {
+            flushScheduled = false;
+            if (pending.isEmpty()) return;
+            batch = new ArrayList<>(pending.values());
+            pending.clear();
+        }
+        try {
+            BitSet used = new BitSet();
+            for (Pending change : batch) {
+                if (change.terms == null) continue;
+                for (int term : change.terms) {
+                    used.set(term);
+                }
+            }
+            // Number the words used in increasing term id order
+            int[] numbers = new int[used.length()];
+            int next = 0;
+            for (int id = used.nextSetBit(0); id >= 0; id = used.nextSetBit(id + 1)) {
+                numbers[id] = next++;
+            }
+            String name = newSegmentName();
+            try (SegmentWriter out = new SegmentWriter(new File(dir, name), index.words(used), batch.size())) {
+                for (Pending change : batch) {
+                    out.add(change.title, change.modified, change.terms, change.offsets, numbers, change.signature, change.counts);
+                }
+                out.commit();
+            }
+            synchronized (this) {
+                segments.add(name);
+                writeManifest();
+            }
+            merge();
+        } catch (IOException e) {
+            System.err.println("Cannot write the search index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Merge the newest segments while they add up to a large enough part of the one before
+     */
+    private void merge() throws IOException {
+        while (!closed) {
+            List<String> run;
+            boolean oldest;
+            synchronized (this) {
+                int from = segments.size() - 1;
+                if (from < 1) return;
+                long newer = new File(dir, segments.get(from)).length();
+                while (from > 0 && newer * MERGE_FACTOR >= new File(dir, segments.get(from - 1)).length()) {
+                    from--;
+                    newer += new File(dir, segments.get(from)).length();
+                }
+                if (from == segments.size() - 1) return;
+                run = new ArrayList<>(segments.subList(from, segments.size()));
+                oldest = from == 0;
+            }
+            if (!merge(run, oldest)) return;
+        }
+    }
+
+    /**
+     * Replace consecutive segments with one holding the newest entry of each note
+     * @param run Segment names, oldest first
+     * @param oldest true if the run starts at the oldest segment, so deletions can be dropped
+     * @return false if the merge was stopped by close
+     */
+    private boolean merge(List<String> run, boolean oldest) throws IOException {
+        // First pass: pick the entries to keep and number the words they use
+        Map<String, Integer> words = new LinkedHashMap<>();
+        int[][] numbers = new int[run.size()][];
+        int count = 0;
+        Set<String> seen = new HashSet<>();
+        for (int i = run.size() - 1; i >= 0; i--) {
+            Segment segment = Segment.open(new File(dir, run.get(i)), true);
+            int[] map = new int[segment.words.length];
+            Arrays.fill(map, -1);
+            while (segment.next()) {
+                if (!seen.add(segment.title) || oldest && segment.modified == DELETED) continue;
+                count++;
+                for (int term : segment.terms) {
+                    if (map[term] < 0) map[term] = words.computeIfAbsent(segment.words[term], w -> words.size());
+                }
+            }
+            numbers[i] = map;
+        }
+        // Second pass: copy them
+        String name = newSegmentName();
+        File target = new File(dir, name);
+        try (SegmentWriter out = new SegmentWriter(target, words.keySet().toArray(new String[0]), count)) {
+            seen.clear();
+            for (int i = run.size() - 1; i >= 0; i--) {
+                Segment segment = Segment.open(new File(dir, run.get(i)), false);
+                while (segment.next()) {
+                    if (closed) return false;
+                    if (!seen.add(segment.title) || oldest && segment.modified == DELETED) continue;
+                    out.add(segment.title, segment.modified, segment.terms, segment.offsets, numbers[i], segment.signature, segment.counts);
+                }
+            }
+            out.commit();
+        }
+        synchronized (this) {
+            int at = segments.indexOf(run.get(0));
+            segments.subList(at, at + run.size()).clear();
+            segments.add(at, name);
+            writeManifest();
+        }
+        for (String merged : run) {
+            new File(dir, merged).delete(); // May fail while still mapped (Windows); removed at next start then
+        }
+        return true;
+    }
+
+    private synchronized String newSegmentName() {
+        return PREFIX + nextSegment++;
+    }
+
+    private List<String> readManifest() throws IOException {
+        File manifest = new File(dir, MANIFEST);
+        List<String> names = new ArrayList<>();
+        if (!manifest.exists()) return names;
+        for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.matches(PREFIX + "[0-9]{1,18}")) throw new IOException("Bad segment list entry: " + line);
+            names.add(line);
+        }
+        return names;
+    }
+
+    private void writeManifest() throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (String name : segments) {
+            out.append(name).append('\n');
+        }
+        NoteJournal.writeAtomically(new File(dir, MANIFEST), out.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Delete merged segments that could not be deleted and leftovers of interrupted writes
+     */
+    private void deleteUnlisted() {
+        File[] files = dir.listFiles();
+        if (files == null) return;
+        for (File file : files) {
+            if (!file.getName().equals(MANIFEST) && !segments.contains(file.getName())) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Reads the notes of a memory-mapped segment one at a time
+     */
+    private static final class Segment {
+        final String[] words;
+        private final ByteBuffer data;
+        private int remaining;
+        // The current note
+        String title;
+        long modified;
+        int[] terms;
+        int[] offsets;
+        int[] signature;
+        long[] counts;
+
+        private Segment(ByteBuffer data) throws IOException {
+            this.data = data;
+            if (data.getInt() != MAGIC) throw new IOException("not a search index segment");
+            int version = data.getInt();
+            if (version != VERSION) throw new IOException("unknown segment version " + version);
+            remaining = data.getInt();
+            words = new String[data.getInt()];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = readString();
+            }
+        }
+
+        /**
+         * Map a segment file. The mapping stays valid after the channel is closed.
+         * @param verify Check the file's checksum first
+         */
+        static Segment open(File file, boolean verify) throws IOException {
+            MappedByteBuffer data;
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                if (channel.size() < 20 || channel.size() > Integer.MAX_VALUE) {
+                    throw new IOException(file + " has a bad size");
+                }
+                data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            int end = data.limit() - 4;
+            if (verify && checksum(data, end) != data.getInt(end)) {
+                throw new IOException(file + " fails its checksum");
+            }
+            data.limit(end);
+            try {
+                return new Segment(data);
+            } catch (RuntimeException e) {
+                throw new IOException(file + " is damaged", e);
+            }
+        }
+
+        /**
+         * Move to the next note
+         * @return false after the last
+         */
+        boolean next() {
+            if (remaining == 0) return false;
+            remaining--;
+            title = readString();
+            modified = data.getLong();
+            int length = data.getInt();
+            terms = new int[length];
+            offsets = new int[length];
+            data.asIntBuffer().get(terms);
+            data.position(data.position() + 4 * length);
+            data.asIntBuffer().get(offsets);
+            data.position(data.position() + 4 * length);
+            int hashes = data.getInt();
+            signature = hashes == 0 ? null : new int[hashes];
+            if (signature != null) {
+                data.asIntBuffer().get(signature);
+                data.position(data.position() + 4 * hashes);
+            }
+            int kinds = data.getInt();
+            counts = kinds == 0 ? null : new long[kinds];
+            for (int i = 0; i < kinds; i++) {
+                counts[i] = data.getLong();
+            }
+            return true;
+        }
+
+        private String readString() {
+            byte[] bytes = new byte[data.getInt()];
+            data.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static int checksum(ByteBuffer data, int length) {
+            CRC32 crc = new CRC32();
+            byte[] chunk = new byte[1 << 16];
+            ByteBuffer view = data.duplicate();
+            view.position(0);
+            view.limit(length);
+            while (view.hasRemaining()) {
+                int n = Math.min(chunk.length, view.remaining());
+                view.get(chunk, 0, n);
+                crc.update(chunk, 0, n);
+            }
+            return (int) crc.getValue();
+        }
+    }
+
+    /**
+     * Writes a segment under a temporary name; commit moves it into place
+     */
+    private final class SegmentWriter implements AutoCloseable {
+        private final File target;
+        private final File temp;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final CRC32 crc = new CRC32();
+        private int remaining;
+
+        /**
+         * @param words The words the notes use, by number
+         * @param count The number of notes that will be added
+         */
+        SegmentWriter(File target, String[] words, int count) throws IOException {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("Cannot create " + dir);
+            }
+            this.target = target;
+            this.temp = new File(dir, target.getName() + ".tmp");
+            this.channel = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.remaining = count;
+            putInt(MAGIC);
+            putInt(VERSION);
+            putInt(count);
+            putInt(words.length);
+            for (String word : words) {
+                putString(word);
+            }
+        }
+
+        /**
+         * Add a note
+         * @param terms Word ids, mapped to this segment's numbers by numbers; null for a deleted note
+         * @param signature The note's signature, or null if it has none
+         * @param counts The note's words, lines and characters; null for a deleted note
+         */
+        void add(String title, long modified, int[] terms, int[] offsets, int[] numbers, int[] signature, long[] counts)
+                throws IOException {
+            remaining--;
+            putString(title);
+            room(8);
+            buffer.putLong(modified);
+            int length = terms == null ? 0 : terms.length;
+            putInt(length);
+            for (int i = 0; i < length; i++) {
+                putInt(numbers[terms[i]]);
+            }
+            for (int i = 0; i < length; i++) {
+                putInt(offsets[i]);
+            }
+            int hashes = signature == null ? 0 : signature.length;
+            putInt(hashes);
+            for (int i = 0; i < hashes; i++) {
+                putInt(signature[i]);
+            }
+            int kinds = counts == null ? 0 : counts.length;
+            putInt(kinds);
+            for (int i = 0; i < kinds; i++) {
+                room(8);
+                buffer.putLong(counts[i]);
+            }
+        }
+
+        /**
+         * Finish the file, sync it and move it into place
+         */
+        void commit() throws IOException {
+            if (remaining != 0) throw new IllegalStateException(remaining + " notes missing from segment");
+            drain();
+            buffer.putInt((int) crc.getValue());
+            drain();
+            channel.force(true);
+            channel.close();
+            try {
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), target.toPath());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+            Files.deleteIfExists(temp.toPath());
+        }
+
+        private void putInt(int value) throws IOException {
+            room(4);
+            buffer.putInt(value);
+        }
+
+        private void putString(String value) throws IOException {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putInt(bytes.length);
+            for (int at = 0; at < bytes.length; ) {
+                room(1);
+                int n = Math.min(bytes.length - at, buffer.remaining());
+                buffer.put(bytes, at, n);
+                at += n;
+            }
+        }
+
+        private void room(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) drain();
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+package src;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+/**
+ * SimilarityIndex finds notes with similar text without comparing every pair.
+ * Each note is reduced to a MinHash signature of its word 3-grams (shingles);
+ * the fraction of equal signature entries of two notes estimates the Jaccard
+ * similarity of their shingle sets. Signatures are split into bands, and notes
+ * sharing a band land in the same locality-sensitive hashing bucket, so the
+ * candidates for a note are only the notes in its buckets.
+ *
+ * With 16 bands of 4 rows, pairs of about 50% similarity are found half of the
+ * time and pairs above 75% almost always. Signatures are reproducible, so a
+ * SegmentIndex stores them on disk and only changed notes are read at startup.
+ * All methods are thread-safe.
+ */
+class SimilarityIndex {
+    private static final int ROWS = 4;
+    private static final int BANDS = 16;
+    private static final int HASHES = ROWS * BANDS;
+    private static final int SHINGLE_WORDS = 3;
+    // Multipliers and offsets of the hash functions, fixed so signatures are reproducible
+    private static final long[] MULTIPLIERS = new long[HASHES];
+    private static final long[] OFFSETS = new long[HASHES];
+
+    static {
+        SplittableRandom random = new SplittableRandom(0x5EED);
+        for (int i = 0; i < HASHES; i++) {
+            MULTIPLIERS[i] = random.nextLong() | 1;
+            OFFSETS[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * A note and its estimated similarity to another note (or a pair of notes)
+     */
+    static final class Match {
+        final Note first;
+        final Note second;
+        final double similarity;
+
+        Match(Note first, Note second, double similarity) {
+            this.first = first;
+            this.second = second;
+            this.similarity = similarity;
+        }
+    }
+
+    private final Map<Note, int[]> signatures = new ConcurrentHashMap<>();
+    private final Map<Long, Set<Note>> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * Drop every note, until the index is filled again
+     */
+    synchronized void clear() {
+        signatures.clear();
+        buckets.clear();
+    }
+
+    /**
+     * Index a note after its content changed, replacing its previous signature
+     * @param note The note to index
+     */
+    void update(Note note) {
+        put(note, signature(note.getContent()));
+    }
+
+    /**
+     * Index content read for a note without it being kept in the note (see Note.readContent)
+     */
+    void update(Note note, String content) {
+        put(note, signature(content));
+    }
+
+    /**
+     * Index a note under a known signature, e.g. one stored on disk
+     * @param signature The signature, or null if the note has no words
+     * @throws IllegalArgumentException if the signature has the wrong length
+     */
+    void put(Note note, int[] signature) {
+        if (signature != null && signature.length != HASHES) {
+            throw new IllegalArgumentException("Signature of " + signature.length + " hashes, expected " + HASHES);
+        }
+        synchronized (this) {
+            int[] old = signature == null ? signatures.remove(note) : signatures.put(note, signature);
+            if (old != null) {
+                for (int band = 0; band < BANDS; band++) {
+                    leaveBucket(bandKey(old, band), note);
+                }
+            }
+            if (signature != null) {
+                for (int band = 0; band < BANDS; band++) {
+                    buckets.computeIfAbsent(bandKey(signature, band), k -> ConcurrentHashMap.newKeySet()).add(note);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove a note from the index
+     * @param note The note to remove
+     */
+    synchronized void remove(Note note) {
+        int[] old = signatures.remove(note);
+        if (old == null) return;
+        for (int band = 0; band < BANDS; band++) {
+            leaveBucket(bandKey(old, band), note);
+        }
+    }
+
+    private void leaveBucket(long key, Note note) {
+        Set<Note> bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.remove(note);
+            if (bucket.isEmpty()) buckets.remove(key);
+        }
+    }
+
+    /**
+     * Find the notes most similar to a note, looking only at its buckets
+     * @param note The note to compare against
+     * @param limit Maximum number of matches
+     * @param minSimilarity Matches below this estimated similarity (0..1) are left out
+     * @return Matches with the similar note as second, most similar first
+     */
+    List<Match> related(Note note, int limit, double minSimilarity) {
+        int[] signature = signatures.get(note);
+        if (signature == null) return Collections.emptyList();
+        List<Match> matches = new ArrayList<>();
+        for (Note candidate : candidates(note, signature)) {
+            double similarity = similarity(signature, signatures.get(candidate));
+            if (similarity >= minSimilarity) {
+                matches.add(new Match(note, candidate, similarity));
+            }
+        }
+        matches.sort(Comparator.comparingDouble((Match m) -> -m.similarity));
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * Find all pairs of near-duplicate notes in the vault, in parallel
+     * @param minSimilarity Pairs below this estimated similarity (0..1) are left out
+     * @return Each pair once, most similar first
+     */
+    List<Match> duplicates(double minSimilarity) {
+        return signatures.entrySet().parallelStream()
+            .flatMap(entry -> candidates(entry.getKey(), entry.getValue()).stream()
+                // Report each pair from its lower id only
+                .filter(candidate -> candidate.getId() > entry.getKey().getId())
+                .map(candidate -> new Match(entry.getKey(), candidate,
+                    similarity(entry.getValue(), signatures.get(candidate))))
+                .filter(match -> match.similarity >= minSimilarity))
+            .sorted(Comparator.comparingDouble((Match m) -> -m.similarity))
+            .collect(Collectors.toList());
+    }
+
+    /**
+     * @return The note's signature, or null if it has none
+     */
+    int[] signatureOf(Note note) {
+        return signatures.get(note);
+    }
+
+    /**
+     * @return Number of notes with a signature
+     */
+    int size() {
+        return signatures.size();
+    }
+
+    private Set<Note> candidates(Note note, int[] signature) {
+        Set<Note> candidates = new HashSet<>();
+        for (int band = 0; band < BANDS; band++) {
+            Set<Note> bucket = buckets.get(bandKey(signature, band));
+            if (bucket != null) candidates.addAll(bucket);
+        }
+        candidates.remove(note);
+        return candidates;
+    }
+
+    /**
+     * Estimated Jaccard similarity: the fraction of equal signature entries
+     */
+    private static double similarity(int[] a, int[] b) {
+        if (b == null) return 0; // Removed concurrently
+        int equal = 0;
+        for (int i = 0; i < HASHES; i++) {
+            if (a[i] == b[i]) equal++;
+        }
+        return (double) equal / HASHES;
+    }
+
+    private static long bandKey(int[] signature, int band) {
+        long key = band;
+        for (int row = band * ROWS; row < (band + 1) * ROWS; row++) {
+            key = mix(key * 0x9E3779B97F4A7C15L + signature[row]);
+        }
+        return key;
+    }
+
+    /**
+     * Compute the MinHash signature of a text's word 3-grams, without building strings
+     * @return The signature, or null if the text has no words
+     */
+    static int[] signature(String text) {
+        int[] minimums = new int[HASHES];
+        Arrays.fill(minimums, Integer.MAX_VALUE);
+        long[] window = new long[SHINGLE_WORDS]; // Hashes of the last words
+        int words = 0;
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(text.charAt(i))) i++;
+            if (i == length) break;
+            long word = 0;
+            while (i < length && Character.isLetterOrDigit(text.charAt(i))) {
+                word = word * 31 + Character.toLowerCase(text.charAt(i++));
+            }
+            window[words++ % SHINGLE_WORDS] = word;
+            if (words >= SHINGLE_WORDS) {
+                long shingle = 0;
+                for (int w = words - SHINGLE_WORDS; w < words; w++) {
+                    shingle = mix(shingle ^ window[w % SHINGLE_WORDS]);
+                }
+                addShingle(minimums, shingle);
+            }
+        }
+        if (words == 0) return null;
+        if (words < SHINGLE_WORDS) {
+            // Too short for a 3-gram: use its words as one shingle
+            long shingle = 0;
+            for (int w = 0; w < words; w++) shingle = mix(shingle ^ window[w]);
+            addShingle(minimums, shingle);
+        }
+        return minimums;
+    }
+
+    private static void addShingle(int[] minimums, long shingle) {
+        for (int h = 0; h < HASHES; h++) {
+            int value = (int) ((shingle * MULTIPLIERS[h] + OFFSETS[h]) >>> 32);
+            if (value < minimums[h]) minimums[h] = value;
+        }
+    }
+
+    /**
+     * 64-bit finalizer from SplitMix64
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
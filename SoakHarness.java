@@ -0,0 +1,409 @@
+package src;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.InputEvent;
+import java.awt.event.KeyEvent;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * SoakHarness runs the real NoteApp on a (virtual) display and drives it with
+ * injected input to catch EDT regressions that microbenchmarks miss. It creates a
+ * synthetic vault, then repeats a random mix of typing in the sidebar search,
+ * selecting notes, editing and saving, deleting and switching the theme, and
+ * reports p50/p99 input-to-paint latency per action and heap use over time.
+ *
+ * Input-to-paint is the time from injecting an event until the last repaint the
+ * EDT performed before going idle; debounced background work (autosave, the
+ * Markdown preview) is not included.
+ *
+ * Every run works on a fresh copy of the vault in a temporary directory, deleted
+ * afterwards, so the saves and deletes of one run never skew the next. With --dir
+ * the vault is generated there once and copied for each run; the app never opens
+ * it directly.
+ *
+ * Run it with soak.sh, which starts Xvfb on a plain Linux box:
+ *   java -cp <classes> src.SoakHarness --notes 20000 --ops 2000 --dir /tmp/soak-template
+ * Exits with status 1 if --max-p99 is given and any action's p99 exceeds it.
+ */
+public class SoakHarness {
+    private static final String[] WORDS = {
+        "alpha", "budget", "meeting", "draft", "idea", "travel", "recipe", "review", "sprint", "garden",
+        "invoice", "lecture", "kernel", "poem", "release", "summary", "todo", "backup", "design", "journal"
+    };
+    private static final String[] ACTIONS = {"search", "select", "save", "delete", "theme"};
+    // Relative frequency of each action
+    private static final int[] WEIGHTS = {35, 35, 20, 5, 5};
+
+    private final Random random;
+    private final Robot robot;
+    private final NoteApp app;
+    private final JTextField searchField;
+    private final JList<?> noteList;
+    private final JTextArea noteArea;
+    private final Map<String, List<Long>> latencies = new LinkedHashMap<>();
+
+    /**
+     * Records when the EDT last finished painting
+     */
+    private static final class TimingRepaintManager extends RepaintManager {
+        volatile long lastPaint;
+
+        @Override
+        public void paintDirtyRegions() {
+            super.paintDirtyRegions();
+            lastPaint = System.nanoTime();
+        }
+    }
+
+    private static final TimingRepaintManager PAINTS = new TimingRepaintManager();
+
+    private SoakHarness(NoteApp app, long seed) throws AWTException {
+        this.app = app;
+        this.random = new Random(seed);
+        this.robot = new Robot();
+        robot.setAutoDelay(0);
+        searchField = find(app, "sidebarSearch", JTextField.class);
+        noteList = find(app, "noteList", JList.class);
+        noteArea = find(app, "noteArea", JTextArea.class);
+        for (String action : ACTIONS) {
+            latencies.put(action, new ArrayList<>());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        int noteCount = Integer.parseInt(options.getOrDefault("notes", "5000"));
+        int ops = Integer.parseInt(options.getOrDefault("ops", "1000"));
+        long seed = Long.parseLong(options.getOrDefault("seed", "42"));
+        long maxP99 = Long.parseLong(options.getOrDefault("max-p99", "0"));
+        File template = options.containsKey("dir") ? new File(options.get("dir")) : null;
+        String csv = options.get("csv");
+
+        if (GraphicsEnvironment.isHeadless()) {
+            System.err.println("SoakHarness needs a display; run it under Xvfb (see soak.sh)");
+            System.exit(2);
+        }
+        File dir = Files.createTempDirectory("soak-vault").toFile();
+        boolean passed = false;
+        try {
+            long start = System.nanoTime();
+            if (template == null) {
+                generateVault(dir, noteCount, seed);
+                System.out.printf("Generated %d notes in %s (%d ms)%n", noteCount, dir, (System.nanoTime() - start) / 1_000_000);
+            } else {
+                if (!template.isDirectory() || new VaultLayout(template).listNoteFiles().isEmpty()) {
+                    generateVault(template, noteCount, seed);
+                    System.out.printf("Generated %d notes in %s%n", noteCount, template);
+                }
+                copyVault(template, dir);
+                System.out.printf("Copied %s to %s (%d ms)%n", template, dir, (System.nanoTime() - start) / 1_000_000);
+            }
+
+            int existing = new VaultLayout(dir).listNoteFiles().size();
+            System.setProperty("noteapp.dir", dir.getPath());
+            SwingUtilities.invokeAndWait(() -> RepaintManager.setCurrentManager(PAINTS));
+            NoteApp.main(new String[0]);
+            NoteApp app = waitForApp(existing);
+            SoakHarness harness = new SoakHarness(app, seed);
+            passed = harness.run(ops, csv, maxP99);
+        } finally {
+            deleteVault(dir);
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    /**
+     * Copy a vault, keeping file dates so notes sort and load as in the original
+     */
+    private static void copyVault(File from, File to) throws IOException {
+        Path source = from.toPath();
+        try (Stream<Path> paths = Files.walk(source)) {
+            for (Path path : (Iterable<Path>) paths::iterator) {
+                Path target = to.toPath().resolve(source.relativize(path).toString());
+                if (Files.isDirectory(path)) {
+                    Files.createDirectories(target);
+                } else {
+                    Files.copy(path, target, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete a temporary vault; the app is still running, so anything it writes meanwhile is reported
+     */
+    private static void deleteVault(File dir) {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (dir.exists()) System.err.println("Could not delete all of " + dir);
+    }
+
+    /**
+     * Write a vault of plaintext notes of varying length
+     */
+    static void generateVault(File dir, int count, long seed) throws IOException {
+        Random random = new Random(seed);
+        VaultLayout layout = new VaultLayout(dir);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            String title = String.format("Note %06d %s", i, WORDS[random.nextInt(WORDS.length)]);
+            // Mostly short notes with a long tail, like a real vault
+            int words = 20 + (int) Math.min(20_000, -Math.log(1 - random.nextDouble()) * 300);
+            StringBuilder content = new StringBuilder(words * 8);
+            for (int w = 0; w < words; w++) {
+                content.append(WORDS[random.nextInt(WORDS.length)]);
+                content.append(w % 12 == 11 ? '\n' : ' ');
+            }
+            File file = layout.fileFor(title);
+            file.getParentFile().mkdirs();
+            Files.write(file.toPath(), content.toString().getBytes(Charset.defaultCharset()));
+            file.setLastModified(now - random.nextInt(365 * 24 * 3600) * 1000L);
+        }
+    }
+
+    /**
+     * Wait until the NoteApp window is showing and its notes are listed
+     */
+    private static NoteApp waitForApp(int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + 120_000;
+        while (System.currentTimeMillis() < deadline) {
+            AtomicReference<NoteApp> found = new AtomicReference<>();
+            SwingUtilities.invokeAndWait(() -> {
+                for (Frame frame : Frame.getFrames()) {
+                    if (frame instanceof NoteApp && frame.isShowing() && ((NoteApp) frame).getJMenuBar() != null) {
+                        JList<?> list = find(frame, "noteList", JList.class);
+                        if (list != null && list.getModel().getSize() >= expected) {
+                            found.set((NoteApp) frame);
+                        }
+                    }
+                }
+            });
+            if (found.get() != null) return found.get();
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("NoteApp did not load the vault within two minutes");
+    }
+
+    private boolean run(int ops, String csv, long maxP99) throws Exception {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        long start = System.nanoTime();
+        PrintWriter heapLog = csv == null ? null : new PrintWriter(new FileWriter(csv));
+        if (heapLog != null) heapLog.println("op,seconds,heap_used_mb,heap_committed_mb");
+        robot.waitForIdle();
+        for (int op = 0; op < ops; op++) {
+            String action = pickAction();
+            switch (action) {
+                case "search": search(); break;
+                case "select": select(); break;
+                case "save": save(); break;
+                case "delete": delete(); break;
+                default: toggleTheme();
+            }
+            if (op % 100 == 99 || op == ops - 1) {
+                long used = memory.getHeapMemoryUsage().getUsed() >> 20;
+                long committed = memory.getHeapMemoryUsage().getCommitted() >> 20;
+                double seconds = (System.nanoTime() - start) / 1e9;
+                System.out.printf("[heap] op %d at %.1f s: %d MB used, %d MB committed%n", op + 1, seconds, used, committed);
+                if (heapLog != null) heapLog.printf(Locale.ROOT, "%d,%.1f,%d,%d%n", op + 1, seconds, used, committed);
+            }
+        }
+        if (heapLog != null) heapLog.close();
+        return report(maxP99);
+    }
+
+    private String pickAction() {
+        int total = Arrays.stream(WEIGHTS).sum();
+        int roll = random.nextInt(total);
+        for (int i = 0; i < ACTIONS.length; i++) {
+            roll -= WEIGHTS[i];
+            if (roll < 0) return ACTIONS[i];
+        }
+        return ACTIONS[0];
+    }
+
+    /**
+     * Type a word into the sidebar search one key at a time, then clear it
+     */
+    private void search() throws Exception {
+        click(searchField, null);
+        String word = WORDS[random.nextInt(WORDS.length)].substring(0, 2 + random.nextInt(3));
+        for (char c : word.toCharArray()) {
+            int key = KeyEvent.getExtendedKeyCodeForChar(c);
+            measure("search", () -> type(key));
+        }
+        robot.keyPress(KeyEvent.VK_CONTROL);
+        type(KeyEvent.VK_A);
+        robot.keyRelease(KeyEvent.VK_CONTROL);
+        measure("search", () -> type(KeyEvent.VK_BACK_SPACE));
+    }
+
+    /**
+     * Click a random visible row of the note list
+     */
+    private void select() throws Exception {
+        Rectangle row = randomRow();
+        if (row != null) {
+            measure("select", () -> click(noteList, row));
+        }
+    }
+
+    /**
+     * Select a note, type at the end of its content and press Ctrl+S
+     */
+    private void save() throws Exception {
+        select();
+        click(noteArea, null);
+        robot.keyPress(KeyEvent.VK_CONTROL);
+        type(KeyEvent.VK_END);
+        robot.keyRelease(KeyEvent.VK_CONTROL);
+        type(KeyEvent.VK_SPACE);
+        type(KeyEvent.getExtendedKeyCodeForChar('x'));
+        measure("save", () -> {
+            robot.keyPress(KeyEvent.VK_CONTROL);
+            type(KeyEvent.VK_S);
+            robot.keyRelease(KeyEvent.VK_CONTROL);
+        });
+    }
+
+    /**
+     * Select a note and press Ctrl+D
+     */
+    private void delete() throws Exception {
+        select();
+        measure("delete", () -> {
+            robot.keyPress(KeyEvent.VK_CONTROL);
+            type(KeyEvent.VK_D);
+            robot.keyRelease(KeyEvent.VK_CONTROL);
+        });
+    }
+
+    /**
+     * Switch between the light and dark theme; the Settings dialog is modal, so this calls the app directly
+     */
+    private void toggleTheme() throws Exception {
+        measure("theme", () -> SwingUtilities.invokeLater(() -> app.setDarkMode(!app.isDarkMode())));
+    }
+
+    private void type(int keyCode) {
+        robot.keyPress(keyCode);
+        robot.keyRelease(keyCode);
+    }
+
+    /**
+     * Inject input and record the time until the EDT has painted its response and gone idle
+     */
+    private void measure(String action, Runnable input) {
+        long start = System.nanoTime();
+        input.run();
+        robot.waitForIdle();
+        long painted = PAINTS.lastPaint;
+        long end = painted > start ? painted : System.nanoTime();
+        latencies.get(action).add(end - start);
+    }
+
+    /**
+     * Click inside a component, at the given area or its centre
+     */
+    private void click(JComponent component, Rectangle area) {
+        AtomicReference<Point> target = new AtomicReference<>();
+        onEdt(() -> {
+            Rectangle bounds = area != null ? area : new Rectangle(0, 0, component.getWidth(), component.getHeight());
+            Point point = new Point(bounds.x + bounds.width / 2, bounds.y + bounds.height / 2);
+            SwingUtilities.convertPointToScreen(point, component);
+            target.set(point);
+        });
+        robot.mouseMove(target.get().x, target.get().y);
+        robot.mousePress(InputEvent.BUTTON1_DOWN_MASK);
+        robot.mouseRelease(InputEvent.BUTTON1_DOWN_MASK);
+    }
+
+    private Rectangle randomRow() {
+        AtomicReference<Rectangle> row = new AtomicReference<>();
+        onEdt(() -> {
+            int first = noteList.getFirstVisibleIndex();
+            int last = noteList.getLastVisibleIndex();
+            if (first >= 0) {
+                int index = first + random.nextInt(last - first + 1);
+                row.set(noteList.getCellBounds(index, index).intersection(noteList.getVisibleRect()));
+            }
+        });
+        Rectangle bounds = row.get();
+        return bounds == null || bounds.isEmpty() ? null : bounds;
+    }
+
+    private boolean report(long maxP99) {
+        boolean passed = true;
+        System.out.println();
+        System.out.printf("%-8s %7s %9s %9s %9s%n", "action", "count", "p50 ms", "p99 ms", "max ms");
+        List<Long> all = new ArrayList<>();
+        for (Map.Entry<String, List<Long>> entry : latencies.entrySet()) {
+            List<Long> samples = entry.getValue();
+            all.addAll(samples);
+            if (samples.isEmpty()) continue;
+            long p99 = Percentiles.percentile(samples, 99);
+            System.out.printf(Locale.ROOT, "%-8s %7d %9.1f %9.1f %9.1f%n", entry.getKey(), samples.size(),
+                Percentiles.percentile(samples, 50) / 1e6, p99 / 1e6, Collections.max(samples) / 1e6);
+            if (maxP99 > 0 && p99 / 1_000_000 > maxP99) {
+                System.out.println("  p99 of " + entry.getKey() + " exceeds " + maxP99 + " ms");
+                passed = false;
+            }
+        }
+        if (!all.isEmpty()) {
+            System.out.printf(Locale.ROOT, "%-8s %7d %9.1f %9.1f %9.1f%n", "all", all.size(),
+                Percentiles.percentile(all, 50) / 1e6, Percentiles.percentile(all, 99) / 1e6, Collections.max(all) / 1e6);
+        }
+        return passed;
+    }
+
+    private static <T extends Component> T find(Container root, String name, Class<T> type) {
+        for (Component child : root.getComponents()) {
+            if (name.equals(child.getName()) && type.isInstance(child)) {
+                return type.cast(child);
+            }
+            if (child instanceof Container) {
+                T found = find((Container) child, name, type);
+                if (found != null) return found;
+            }
+        }
+        return null;
+    }
+
+    private static void onEdt(Runnable task) {
+        try {
+            SwingUtilities.invokeAndWait(task);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Parse --name value pairs
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                System.err.println("Usage: SoakHarness [--notes N] [--ops N] [--dir template] [--seed N] [--csv heap.csv] [--max-p99 ms]");
+                System.exit(2);
+            }
+            options.put(args[i].substring(2), args[++i]);
+        }
+        return options;
+    }
+}
@@ -0,0 +1,149 @@
+package src;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * SortedNoteIndex keeps the notes ordered by last modified date, creation date
+ * and title at all times. Each order is a skip list, so adding, updating or
+ * removing a note costs O(log n) and switching the sidebar's sort order is a plain
+ * iteration instead of a re-sort.
+ */
+class SortedNoteIndex {
+
+    /**
+     * Orders the sidebar can show notes in
+     */
+    enum SortMode {
+        MODIFIED("Last modified"),
+        CREATED("Date created"),
+        TITLE("Title");
+
+        private final String label;
+
+        SortMode(String label) {
+            this.label = label;
+        }
+
+        /**
+         * @return The name shown in the sort selector
+         */
+        String getLabel() {
+            return label;
+        }
+    }
+
+    /**
+     * Sort key captured when a note is indexed. Keeping the key (rather than
+     * comparing the live note) lets the entry be found again after the note changed.
+     */
+    private static final class Key implements Comparable<Key> {
+        final long order;    // Newest first for the date orders, 0 for title order
+        final String text;   // Case-folded title, null for the date orders
+        final int id;        // Note id, makes keys unique
+
+        Key(long order, String text, int id) {
+            this.order = order;
+            this.text = text;
+            this.id = id;
+        }
+
+        @Override
+        public int compareTo(Key other) {
+            int result = Long.compare(order, other.order);
+            if (result == 0 && text != null) {
+                result = text.compareTo(other.text);
+            }
+            return result != 0 ? result : Integer.compare(id, other.id);
+        }
+    }
+
+    private final Map<SortMode, ConcurrentSkipListMap<Key, Note>> views = new ConcurrentHashMap<>();
+    // Keys each note is currently indexed under, in SortMode order
+    private final Map<Integer, Key[]> keys = new ConcurrentHashMap<>();
+
+    /**
+     * Create an empty index
+     */
+    SortedNoteIndex() {
+        for (SortMode mode : SortMode.values()) {
+            views.put(mode, new ConcurrentSkipListMap<>());
+        }
+    }
+
+    /**
+     * Index a new note, or re-position one whose title or dates changed.
+     * Writers are serialized; readers iterate the views without locking.
+     * @param note The note to index
+     */
+    synchronized void update(Note note) {
+        remove(note);
+        Key[] noteKeys = new Key[] {
+            new Key(-note.getLastModifiedDate(), null, note.getId()),
+            new Key(-note.getCreationDate(), null, note.getId()),
+            new Key(0, note.getTitle().toLowerCase(Locale.ROOT), note.getId())
+        };
+        keys.put(note.getId(), noteKeys);
+        for (SortMode mode : SortMode.values()) {
+            views.get(mode).put(noteKeys[mode.ordinal()], note);
+        }
+    }
+
+    /**
+     * Index several notes at once
+     */
+    void updateAll(Collection<Note> notes) {
+        for (Note note : notes) {
+            update(note);
+        }
+    }
+
+    /**
+     * Remove a note from all orders
+     * @param note The note to remove
+     */
+    synchronized void remove(Note note) {
+        Key[] noteKeys = keys.remove(note.getId());
+        if (noteKeys == null) return;
+        for (SortMode mode : SortMode.values()) {
+            views.get(mode).remove(noteKeys[mode.ordinal()]);
+        }
+    }
+
+    /**
+     * Remove all notes
+     */
+    synchronized void clear() {
+        keys.clear();
+        for (ConcurrentSkipListMap<Key, Note> view : views.values()) {
+            view.clear();
+        }
+    }
+
+    /**
+     * Gets the notes in the given order. The view is live and safe to iterate while notes change.
+     * @param mode The sort order
+     * @return The notes, sorted
+     */
+    Collection<Note> view(SortMode mode) {
+        return views.get(mode).values();
+    }
+
+    /**
+     * Gets the notes whose date falls in a range, newest first, without looking at the others
+     * @param mode MODIFIED or CREATED
+     * @param from First matching time (inclusive)
+     * @param to Last matching time (inclusive)
+     * @return The notes in the range; a live view like {@link #view}
+     */
+    Collection<Note> between(SortMode mode, long from, long to) {
+        if (mode == SortMode.TITLE) throw new IllegalArgumentException("Not a date order: " + mode);
+        if (from > to) return Collections.emptyList();
+        // Date keys are negated, so the newest note of the range comes first
+        return views.get(mode).subMap(new Key(-to, null, Integer.MIN_VALUE), true,
+            new Key(-Math.max(from, -Long.MAX_VALUE), null, Integer.MAX_VALUE), true).values();
+    }
+}
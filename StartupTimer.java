@@ -0,0 +1,25 @@
+package src;
+import java.lang.management.ManagementFactory;
+
+/**
+ * StartupTimer logs how long each startup phase took, measured from JVM start,
+ * so time to first paint and time to interactive can be tracked across changes.
+ * Lines look like "[startup] first paint at 412 ms (+38 ms)".
+ */
+final class StartupTimer {
+    private static final long JVM_START = ManagementFactory.getRuntimeMXBean().getStartTime();
+    private static long lastMark = JVM_START;
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Log the end of a startup phase
+     * @param phase What just finished
+     */
+    static synchronized void mark(String phase) {
+        long now = System.currentTimeMillis();
+        System.err.println("[startup] " + phase + " at " + (now - JVM_START) + " ms (+" + (now - lastMark) + " ms)");
+        lastMark = now;
+    }
+}
@@ -0,0 +1,363 @@
+package src;
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * TagBitmap is a compressed set of note ids in the style of a Roaring bitmap.
+ * Ids are split into 65536-wide chunks; sparse chunks store their members as a
+ * sorted array, dense chunks (more than 4096 members) as a plain bitset. AND, OR
+ * and AND NOT work chunk by chunk and skip chunks missing from either side, so
+ * combining tags over a million notes touches only a few kilobytes.
+ */
+class TagBitmap {
+    // Chunks with more members than this are stored as a bitset
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITSET_WORDS = 65536 / 64;
+
+    /**
+     * The members of one 65536-wide chunk, as sorted array or as bitset
+     */
+    private static final class Chunk {
+        char[] values;   // Sorted low 16 bits when in array form
+        long[] bits;     // Bitset when dense, null in array form
+        int cardinality;
+
+        Chunk() {
+            values = new char[4];
+        }
+
+        boolean contains(char low) {
+            if (bits != null) {
+                return (bits[low >>> 6] & (1L << low)) != 0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, low) >= 0;
+        }
+
+        void add(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before | (1L << low);
+                if (before != bits[low >>> 6]) cardinality++;
+                return;
+            }
+            // Ids mostly arrive in ascending order, append without searching
+            int index = cardinality > 0 && low > values[cardinality - 1]
+                ? -cardinality - 1 : Arrays.binarySearch(values, 0, cardinality, low);
+            if (index >= 0) return;
+            if (cardinality == ARRAY_LIMIT) {
+                toBitset();
+                add(low);
+                return;
+            }
+            index = -index - 1;
+            if (cardinality == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, values.length * 2));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = low;
+            cardinality++;
+        }
+
+        void remove(char low) {
+            if (bits != null) {
+                long before = bits[low >>> 6];
+                bits[low >>> 6] = before & ~(1L << low);
+                if (before != bits[low >>> 6]) cardinality--;
+                if (cardinality <= ARRAY_LIMIT / 2) toArray();
+                return;
+            }
+            int index = Arrays.binarySearch(values, 0, cardinality, low);
+            if (index < 0) return;
+            System.arraycopy(values, index + 1, values, index, cardinality - index - 1);
+            cardinality--;
+        }
+
+        private void toBitset() {
+            bits = new long[BITSET_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            values = null;
+        }
+
+        private void toArray() {
+            char[] array = new char[Math.max(4, cardinality)];
+            int count = 0;
+            for (int word = 0; word < BITSET_WORDS; word++) {
+                long w = bits[word];
+                while (w != 0) {
+                    array[count++] = (char) ((word << 6) + Long.numberOfTrailingZeros(w));
+                    w &= w - 1;
+                }
+            }
+            values = array;
+            bits = null;
+        }
+
+        /**
+         * Build a chunk from a bitset, choosing the compact form for the result
+         */
+        static Chunk fromBits(long[] bits) {
+            Chunk chunk = new Chunk();
+            chunk.bits = bits;
+            chunk.values = null;
+            int cardinality = 0;
+            for (long word : bits) cardinality += Long.bitCount(word);
+            chunk.cardinality = cardinality;
+            if (cardinality <= ARRAY_LIMIT) chunk.toArray();
+            return chunk;
+        }
+
+        /**
+         * @return The members as a bitset (a copy, safe to modify)
+         */
+        long[] bitsCopy() {
+            if (bits != null) return bits.clone();
+            long[] result = new long[BITSET_WORDS];
+            for (int i = 0; i < cardinality; i++) {
+                result[values[i] >>> 6] |= 1L << values[i];
+            }
+            return result;
+        }
+
+        Chunk copy() {
+            Chunk chunk = new Chunk();
+            chunk.cardinality = cardinality;
+            chunk.values = values == null ? null : values.clone();
+            chunk.bits = bits == null ? null : bits.clone();
+            return chunk;
+        }
+
+        void forEach(int high, IntConsumer action) {
+            if (bits == null) {
+                for (int i = 0; i < cardinality; i++) action.accept(high | values[i]);
+                return;
+            }
+            for (int word = 0; word < BITSET_WORDS; word++) {
+                long w = bits[word];
+                while (w != 0) {
+                    action.accept(high | ((word << 6) + Long.numberOfTrailingZeros(w)));
+                    w &= w - 1;
+                }
+            }
+        }
+    }
+
+    // Chunk keys (high 16 bits of the ids), sorted, with their chunks
+    private char[] keys = new char[4];
+    private Chunk[] chunks = new Chunk[4];
+    private int size;
+
+    /**
+     * Add a note id
+     */
+    void add(int id) {
+        char high = (char) (id >>> 16);
+        int index = Arrays.binarySearch(keys, 0, size, high);
+        if (index < 0) {
+            index = -index - 1;
+            insertChunk(index, high, new Chunk());
+        }
+        chunks[index].add((char) id);
+    }
+
+    /**
+     * Remove a note id
+     */
+    void remove(int id) {
+        int index = Arrays.binarySearch(keys, 0, size, (char) (id >>> 16));
+        if (index < 0) return;
+        chunks[index].remove((char) id);
+        if (chunks[index].cardinality == 0) {
+            System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+            System.arraycopy(chunks, index + 1, chunks, index, size - index - 1);
+            size--;
+            chunks[size] = null;
+        }
+    }
+
+    /**
+     * @return true if the id is in the set
+     */
+    boolean contains(int id) {
+        int index = Arrays.binarySearch(keys, 0, size, (char) (id >>> 16));
+        return index >= 0 && chunks[index].contains((char) id);
+    }
+
+    /**
+     * @return The number of ids in the set
+     */
+    int cardinality() {
+        int total = 0;
+        for (int i = 0; i < size; i++) total += chunks[i].cardinality;
+        return total;
+    }
+
+    /**
+     * @return true if the set has no members
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Call the action for every id, in ascending order
+     */
+    void forEach(IntConsumer action) {
+        for (int i = 0; i < size; i++) {
+            chunks[i].forEach(keys[i] << 16, action);
+        }
+    }
+
+    /**
+     * @return An independent copy of this set
+     */
+    TagBitmap copy() {
+        TagBitmap result = new TagBitmap();
+        result.keys = Arrays.copyOf(keys, Math.max(4, size));
+        result.chunks = new Chunk[result.keys.length];
+        for (int i = 0; i < size; i++) result.chunks[i] = chunks[i].copy();
+        result.size = size;
+        return result;
+    }
+
+    /**
+     * @return A new set with the ids in both sets
+     */
+    TagBitmap and(TagBitmap other) {
+        TagBitmap result = new TagBitmap();
+        int i = 0, j = 0;
+        while (i < size && j < other.size) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Chunk chunk = combine(chunks[i], other.chunks[j], Op.AND);
+                if (chunk.cardinality > 0) result.appendChunk(keys[i], chunk);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A new set with the ids in either set
+     */
+    TagBitmap or(TagBitmap other) {
+        TagBitmap result = new TagBitmap();
+        int i = 0, j = 0;
+        while (i < size || j < other.size) {
+            if (j >= other.size || (i < size && keys[i] < other.keys[j])) {
+                result.appendChunk(keys[i], chunks[i].copy());
+                i++;
+            } else if (i >= size || keys[i] > other.keys[j]) {
+                result.appendChunk(other.keys[j], other.chunks[j].copy());
+                j++;
+            } else {
+                result.appendChunk(keys[i], combine(chunks[i], other.chunks[j], Op.OR));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return A new set with the ids of this set that are not in the other
+     */
+    TagBitmap andNot(TagBitmap other) {
+        TagBitmap result = new TagBitmap();
+        int j = 0;
+        for (int i = 0; i < size; i++) {
+            while (j < other.size && other.keys[j] < keys[i]) j++;
+            if (j < other.size && other.keys[j] == keys[i]) {
+                Chunk chunk = combine(chunks[i], other.chunks[j], Op.AND_NOT);
+                if (chunk.cardinality > 0) result.appendChunk(keys[i], chunk);
+            } else {
+                result.appendChunk(keys[i], chunks[i].copy());
+            }
+        }
+        return result;
+    }
+
+    private enum Op { AND, OR, AND_NOT }
+
+    /**
+     * Combine two chunks with the same key. Two sparse chunks are merged as sorted
+     * arrays; as soon as one side is dense the work is done word by word on bitsets.
+     */
+    private static Chunk combine(Chunk a, Chunk b, Op op) {
+        if (a.bits == null && b.bits == null) {
+            return mergeArrays(a, b, op);
+        }
+        if (op == Op.AND && (a.bits == null || b.bits == null)) {
+            // Probe the sparse side against the dense one
+            Chunk sparse = a.bits == null ? a : b;
+            Chunk dense = a.bits == null ? b : a;
+            Chunk result = new Chunk();
+            for (int i = 0; i < sparse.cardinality; i++) {
+                if (dense.contains(sparse.values[i])) result.add(sparse.values[i]);
+            }
+            return result;
+        }
+        long[] left = a.bitsCopy();
+        long[] right = b.bits != null ? b.bits : b.bitsCopy();
+        for (int w = 0; w < BITSET_WORDS; w++) {
+            switch (op) {
+                case AND: left[w] &= right[w]; break;
+                case OR: left[w] |= right[w]; break;
+                default: left[w] &= ~right[w]; break;
+            }
+        }
+        return Chunk.fromBits(left);
+    }
+
+    private static Chunk mergeArrays(Chunk a, Chunk b, Op op) {
+        char[] out = new char[op == Op.OR ? a.cardinality + b.cardinality : a.cardinality];
+        int i = 0, j = 0, n = 0;
+        while (i < a.cardinality && j < b.cardinality) {
+            char x = a.values[i], y = b.values[j];
+            if (x < y) {
+                if (op != Op.AND) out[n++] = x;
+                i++;
+            } else if (x > y) {
+                if (op == Op.OR) out[n++] = y;
+                j++;
+            } else {
+                if (op != Op.AND_NOT) out[n++] = x;
+                i++;
+                j++;
+            }
+        }
+        if (op != Op.AND) while (i < a.cardinality) out[n++] = a.values[i++];
+        if (op == Op.OR) while (j < b.cardinality) out[n++] = b.values[j++];
+        Chunk result = new Chunk();
+        if (n > ARRAY_LIMIT) {
+            result.values = out;
+            result.cardinality = n;
+            result.toBitset();
+        } else {
+            result.values = n == 0 ? new char[4] : Arrays.copyOf(out, n);
+            result.cardinality = n;
+        }
+        return result;
+    }
+
+    private void insertChunk(int index, char key, Chunk chunk) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(chunks, index, chunks, index + 1, size - index);
+        keys[index] = key;
+        chunks[index] = chunk;
+        size++;
+    }
+
+    private void appendChunk(char key, Chunk chunk) {
+        insertChunk(size, key, chunk);
+    }
+}
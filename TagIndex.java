@@ -0,0 +1,231 @@
+package src;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * TagIndex maps every category and tag to a compressed bitmap of the ids of the
+ * notes carrying it. Tag filters such as "Work AND Tasks NOT Ideas" are evaluated
+ * with bitmap AND / OR / AND NOT operations instead of looking at the notes.
+ * Tags are matched case-insensitively.
+ *
+ * Filter syntax: tags combined with AND, OR and NOT (AND binds tighter than OR,
+ * adjacent tags are ANDed), parentheses for grouping and "quotes" for tags with spaces.
+ */
+class TagIndex {
+    private final Map<String, TagBitmap> bitmaps = new HashMap<>();
+    private TagBitmap allNotes = new TagBitmap();
+    // Tags each note is currently indexed under, needed to unindex it
+    private final Map<Integer, Set<String>> noteTags = new HashMap<>();
+
+    /**
+     * Index a note under its category and tags, replacing what it was indexed under before
+     * @param note The note to index
+     */
+    synchronized void update(Note note) {
+        remove(note);
+        Set<String> tags = new LinkedHashSet<>();
+        if (note.getCategory() != null) {
+            tags.add(fold(note.getCategory()));
+        }
+        for (String tag : note.getTags()) {
+            tags.add(fold(tag));
+        }
+        allNotes.add(note.getId());
+        noteTags.put(note.getId(), tags);
+        for (String tag : tags) {
+            bitmaps.computeIfAbsent(tag, t -> new TagBitmap()).add(note.getId());
+        }
+    }
+
+    /**
+     * Remove a note from the index
+     * @param note The note to remove
+     */
+    synchronized void remove(Note note) {
+        Set<String> tags = noteTags.remove(note.getId());
+        allNotes.remove(note.getId());
+        if (tags == null) return;
+        for (String tag : tags) {
+            TagBitmap bitmap = bitmaps.get(tag);
+            bitmap.remove(note.getId());
+            if (bitmap.isEmpty()) bitmaps.remove(tag);
+        }
+    }
+
+    /**
+     * Remove all notes
+     */
+    synchronized void clear() {
+        bitmaps.clear();
+        noteTags.clear();
+        allNotes = new TagBitmap();
+    }
+
+    /**
+     * Gets the ids of the notes carrying a tag
+     * @param tag The tag or category (any case)
+     * @return A copy of the tag's bitmap, empty if no note has the tag
+     */
+    synchronized TagBitmap notesWith(String tag) {
+        TagBitmap bitmap = bitmaps.get(fold(tag));
+        return bitmap == null ? new TagBitmap() : bitmap.copy();
+    }
+
+    /**
+     * @return A copy of the bitmap of all indexed notes
+     */
+    synchronized TagBitmap allNotes() {
+        return allNotes.copy();
+    }
+
+    /**
+     * @return The number of notes carrying a tag, without copying its bitmap
+     */
+    synchronized int count(String tag) {
+        TagBitmap bitmap = bitmaps.get(fold(tag));
+        return bitmap == null ? 0 : bitmap.cardinality();
+    }
+
+    /**
+     * Evaluate a tag filter expression
+     * @param expression E.g. "Work AND Tasks NOT Ideas"; blank matches every note
+     * @return The ids of the matching notes
+     * @throws IllegalArgumentException if the expression is malformed
+     */
+    synchronized TagBitmap evaluate(String expression) {
+        List<String> tokens = tokenize(expression);
+        if (tokens.isEmpty()) return allNotes.copy();
+        Parser parser = new Parser(tokens);
+        TagBitmap result = parser.parseOr();
+        if (parser.position < tokens.size()) {
+            throw new IllegalArgumentException("Unexpected '" + tokens.get(parser.position) + "' in tag filter");
+        }
+        // A single tag evaluates to the live bitmap, never hand that out
+        return result.copy();
+    }
+
+    /**
+     * Recursive descent evaluator: or := and (OR and)*, and := unary ((AND)? unary | NOT unary)*,
+     * unary := NOT unary | ( or ) | tag
+     */
+    private final class Parser {
+        private final List<String> tokens;
+        private int position;
+
+        Parser(List<String> tokens) {
+            this.tokens = tokens;
+        }
+
+        TagBitmap parseOr() {
+            TagBitmap result = parseAnd();
+            while (accept("OR")) {
+                result = result.or(parseAnd());
+            }
+            return result;
+        }
+
+        TagBitmap parseAnd() {
+            TagBitmap result = parseUnary();
+            while (position < tokens.size() && !peek("OR") && !peek(")")) {
+                if (accept("NOT")) {
+                    result = result.andNot(parseUnary());
+                } else {
+                    accept("AND");
+                    result = result.and(parseUnary());
+                }
+            }
+            return result;
+        }
+
+        TagBitmap parseUnary() {
+            if (position >= tokens.size()) {
+                throw new IllegalArgumentException("Tag filter ends unexpectedly");
+            }
+            if (accept("NOT")) {
+                return allNotes.andNot(parseUnary());
+            }
+            if (accept("(")) {
+                TagBitmap inner = parseOr();
+                if (!accept(")")) throw new IllegalArgumentException("Missing ')' in tag filter");
+                return inner;
+            }
+            String tag = tokens.get(position++);
+            if (tag.equals(")")) throw new IllegalArgumentException("Unexpected ')' in tag filter");
+            if (tag.startsWith("\"")) tag = tag.substring(1);
+            TagBitmap bitmap = bitmaps.get(fold(tag));
+            return bitmap == null ? new TagBitmap() : bitmap;
+        }
+
+        private boolean peek(String keyword) {
+            return position < tokens.size() && tokens.get(position).equals(keyword);
+        }
+
+        private boolean accept(String keyword) {
+            if (peek(keyword)) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Split a filter into tags, keywords and parentheses. Quoted tags keep a leading
+     * quote so they are never mistaken for keywords.
+     */
+    private static List<String> tokenize(String expression) {
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < expression.length()) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c) || c == ',') {
+                i++;
+            } else if (c == '(' || c == ')') {
+                tokens.add(String.valueOf(c));
+                i++;
+            } else if (c == '"') {
+                int end = expression.indexOf('"', i + 1);
+                if (end < 0) end = expression.length();
+                tokens.add("\"" + expression.substring(i + 1, end));
+                i = end + 1;
+            } else {
+                int start = i;
+                while (i < expression.length() && !Character.isWhitespace(expression.charAt(i))
+                        && "(),\"".indexOf(expression.charAt(i)) < 0) {
+                    i++;
+                }
+                String word = expression.substring(start, i);
+                String upper = word.toUpperCase(Locale.ROOT);
+                boolean keyword = upper.equals("AND") || upper.equals("OR") || upper.equals("NOT");
+                tokens.add(keyword ? upper : word);
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Case-fold a tag for indexing and lookup
+     */
+    static String fold(String tag) {
+        return tag.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Parse a comma separated tag list as typed by the user
+     * @return The distinct, trimmed tags in input order
+     */
+    static Set<String> parseTagList(String text) {
+        Set<String> tags = new LinkedHashSet<>();
+        for (String tag : text.split(",")) {
+            String trimmed = tag.trim().replace("|", "");
+            if (!trimmed.isEmpty()) tags.add(trimmed);
+        }
+        return tags.isEmpty() ? Collections.<String>emptySet() : tags;
+    }
+}
@@ -0,0 +1,129 @@
+package src;
+import javax.swing.JRootPane;
+import javax.swing.RootPaneContainer;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import java.awt.Color;
+import java.awt.Window;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Theme is an immutable, precomputed color palette. Components are never recolored
+ * one by one: they are styled with ThemeColor instances, which resolve against the
+ * active theme whenever they are painted. Switching themes therefore only swaps the
+ * active palette and repaints the open windows.
+ */
+final class Theme {
+
+    /**
+     * The colors a palette defines
+     */
+    enum Role {
+        BACKGROUND,  // Window and panel background
+        SURFACE,     // Background of inputs, lists and buttons
+        TEXT,
+        BORDER,
+        ACCENT,
+        HOVER
+    }
+
+    static final Theme LIGHT = new Theme("Light",
+        new Color(250, 250, 250), Color.WHITE, new Color(44, 62, 80),
+        new Color(236, 240, 241), new Color(41, 128, 185), new Color(236, 240, 241));
+    static final Theme DARK = new Theme("Dark",
+        new Color(34, 34, 34), new Color(34, 34, 34), new Color(220, 220, 220),
+        new Color(60, 60, 60), new Color(41, 128, 185), new Color(44, 62, 80));
+
+    // UIDefaults keys that follow the active theme, by role
+    private static final String[][] DEFAULTS_KEYS = {
+        {"Panel.background", "Viewport.background", "ScrollPane.background", "OptionPane.background",
+            "MenuBar.background", "Menu.background", "MenuItem.background", "PopupMenu.background",
+            "CheckBox.background", "Label.background"},
+        {"Button.background", "ComboBox.background", "List.background", "TextField.background",
+            "TextArea.background", "EditorPane.background", "PasswordField.background", "Spinner.background"},
+        {"Button.foreground", "ComboBox.foreground", "List.foreground", "TextField.foreground",
+            "TextArea.foreground", "EditorPane.foreground", "Label.foreground", "CheckBox.foreground",
+            "Menu.foreground", "MenuItem.foreground", "OptionPane.messageForeground", "PasswordField.foreground"},
+        {},
+        {"ComboBox.selectionBackground", "List.selectionBackground", "TextField.caretForeground",
+            "TextArea.caretForeground"},
+        {"Button.select", "Menu.selectionBackground", "MenuItem.selectionBackground"}
+    };
+
+    private static volatile Theme active = LIGHT;
+
+    private final String name;
+    private final Map<Role, Color> colors = new EnumMap<>(Role.class);
+
+    private Theme(String name, Color background, Color surface, Color text,
+                  Color border, Color accent, Color hover) {
+        this.name = name;
+        colors.put(Role.BACKGROUND, background);
+        colors.put(Role.SURFACE, surface);
+        colors.put(Role.TEXT, text);
+        colors.put(Role.BORDER, border);
+        colors.put(Role.ACCENT, accent);
+        colors.put(Role.HOVER, hover);
+    }
+
+    /**
+     * @return The display name of the theme
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the concrete color this palette uses for a role
+     */
+    Color get(Role role) {
+        return colors.get(role);
+    }
+
+    /**
+     * @return The theme components are currently painted with
+     */
+    static Theme active() {
+        return active;
+    }
+
+    /**
+     * Register the theme-following colors in UIDefaults, so components that are not
+     * styled explicitly (menus, dialogs, option panes) follow the active theme too.
+     * Must be called after the look and feel is set and before components are created.
+     */
+    static void installDefaults() {
+        for (Role role : Role.values()) {
+            ThemeColor color = ThemeColor.of(role);
+            UIManager.put("NoteApp." + role.name().toLowerCase(), color);
+            for (String key : DEFAULTS_KEYS[role.ordinal()]) {
+                UIManager.put(key, color);
+            }
+        }
+    }
+
+    /**
+     * Make a theme the active one; windows show it once repainted (see repaintWindows)
+     * @param theme The theme to activate
+     */
+    static void activate(Theme theme) {
+        active = theme;
+    }
+
+    /**
+     * Repaint every showing window in the active theme. On the EDT the windows are
+     * painted before this returns, so the caller can time a switch including its paint.
+     */
+    static void repaintWindows() {
+        for (Window window : Window.getWindows()) {
+            if (!window.isShowing()) continue;
+            if (SwingUtilities.isEventDispatchThread() && window instanceof RootPaneContainer) {
+                JRootPane root = ((RootPaneContainer) window).getRootPane();
+                root.paintImmediately(0, 0, root.getWidth(), root.getHeight());
+            } else {
+                SwingUtilities.invokeLater(window::repaint);
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package src;
+import java.awt.Color;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * ThemeColor is a color that stands for a role in the palette rather than a fixed
+ * value: every read of its RGB value resolves against the active Theme. Because
+ * Swing and Java2D obtain colors through getRGB() when painting, a component styled
+ * with a ThemeColor follows theme switches without being touched.
+ *
+ * Equality is Color's: by the current RGB value, so a ThemeColor and a plain Color
+ * agree on whether they are equal. As the value follows the theme, so do equality
+ * and the hash code; whether a color is a palette role is answered by roleOf, which
+ * goes by identity.
+ */
+final class ThemeColor extends Color {
+    private static final long serialVersionUID = 1L;
+    private static final ThemeColor[] BY_ROLE = new ThemeColor[Theme.Role.values().length];
+    // The shared instances, by identity: equality changes with the theme
+    private static final Map<Color, Theme.Role> ROLES = new IdentityHashMap<>();
+
+    static {
+        for (Theme.Role role : Theme.Role.values()) {
+            BY_ROLE[role.ordinal()] = new ThemeColor(role);
+            ROLES.put(BY_ROLE[role.ordinal()], role);
+        }
+    }
+
+    private final Theme.Role role;
+
+    private ThemeColor(Theme.Role role) {
+        super(0, true);
+        this.role = role;
+    }
+
+    /**
+     * Gets the shared color standing for a palette role
+     */
+    static ThemeColor of(Theme.Role role) {
+        return BY_ROLE[role.ordinal()];
+    }
+
+    /**
+     * @return The palette role a color stands for, or null for a plain color
+     */
+    static Theme.Role roleOf(Color color) {
+        return ROLES.get(color);
+    }
+
+    @Override
+    public int getRGB() {
+        return Theme.active().get(role).getRGB();
+    }
+
+    @Override
+    public float[] getRGBComponents(float[] components) {
+        return Theme.active().get(role).getRGBComponents(components);
+    }
+
+    @Override
+    public float[] getRGBColorComponents(float[] components) {
+        return Theme.active().get(role).getRGBColorComponents(components);
+    }
+
+    @Override
+    public float[] getComponents(float[] components) {
+        return Theme.active().get(role).getComponents(components);
+    }
+
+    @Override
+    public float[] getColorComponents(float[] components) {
+        return Theme.active().get(role).getColorComponents(components);
+    }
+
+    @Override
+    public int hashCode() {
+        return getRGB(); // Color's hash is its value field, which a ThemeColor does not use
+    }
+
+    @Override
+    public String toString() {
+        return getClass().getName() + "[" + role + "=" + Theme.active().get(role) + "]";
+    }
+}
@@ -0,0 +1,141 @@
+package src;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * ThumbnailCache makes small previews of image attachments on a low-priority
+ * background thread and keeps the most recently used ones, up to a total number
+ * of pixel bytes. Large images are decoded with subsampling, so a photo of many
+ * megapixels is never held at full size. Asking for a thumbnail never blocks:
+ * a cache miss returns null and the caller is handed the thumbnail on the EDT
+ * once it is ready.
+ */
+class ThumbnailCache {
+    static final int SIZE = 64;  // Longest side of a thumbnail, in pixels
+
+    private final AttachmentStore store;
+    private final long maxBytes;
+    private long bytes;
+    // Attachment id -> thumbnail, least recently used first
+    private final LinkedHashMap<String, ImageIcon> thumbnails = new LinkedHashMap<>(16, 0.75f, true);
+    private final Set<String> pending = new HashSet<>();
+    private final ExecutorService worker = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "thumbnails");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * @param store Where the attachments are read from
+     * @param maxBytes Budget for the cached thumbnails, counted as 4 bytes per pixel
+     */
+    ThumbnailCache(AttachmentStore store, long maxBytes) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Get a thumbnail, starting to make it if it is not cached. The attachment is
+     * looked up and read on the background thread.
+     * @param id The id of an image attachment
+     * @param onReady Called on the EDT with the thumbnail once made, if this returned null;
+     *                not called if the image is missing or cannot be read
+     * @return The cached thumbnail, or null if it is being made
+     */
+    synchronized ImageIcon get(String id, Consumer<ImageIcon> onReady) {
+        ImageIcon cached = thumbnails.get(id);
+        if (cached != null || !pending.add(id)) return cached;
+        worker.execute(() -> {
+            ImageIcon thumbnail = null;
+            try {
+                AttachmentStore.Attachment attachment = store.get(id);
+                BufferedImage image = attachment == null ? null : read(attachment);
+                if (image != null) thumbnail = new ImageIcon(image);
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Cannot make a thumbnail of attachment " + id + ": " + e.getMessage());
+            }
+            ImageIcon made = thumbnail;
+            synchronized (this) {
+                pending.remove(id);
+                if (made != null) put(id, made);
+            }
+            if (made != null) SwingUtilities.invokeLater(() -> onReady.accept(made));
+        });
+        return null;
+    }
+
+    /**
+     * @return Bytes held by the cached thumbnails
+     */
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    private void put(String id, ImageIcon thumbnail) {
+        ImageIcon old = thumbnails.put(id, thumbnail);
+        if (old != null) bytes -= sizeOf(old);
+        bytes += sizeOf(thumbnail);
+        Iterator<ImageIcon> eldest = thumbnails.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= sizeOf(eldest.next());
+            eldest.remove();
+        }
+    }
+
+    private static long sizeOf(ImageIcon icon) {
+        return 4L * icon.getIconWidth() * icon.getIconHeight();
+    }
+
+    /**
+     * Decode an image scaled down to the thumbnail size, reading only every n-th pixel of large images
+     * @return The thumbnail, or null if no reader understands the file
+     */
+    private BufferedImage read(AttachmentStore.Attachment attachment) throws IOException {
+        try (InputStream in = store.open(attachment);
+             // Not ImageIO.createImageInputStream, which may copy the stream to a temporary file
+             ImageInputStream input = new MemoryCacheImageInputStream(in)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) return null;
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true); // Seeking forward only lets the stream drop what was read
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                ImageReadParam param = reader.getDefaultReadParam();
+                int step = Math.max(1, Math.max(width, height) / (SIZE * 2));
+                param.setSourceSubsampling(step, step, 0, 0);
+                return scale(reader.read(0, param));
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage scale(BufferedImage image) {
+        double factor = Math.min(1.0, (double) SIZE / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * factor));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * factor));
+        BufferedImage thumbnail = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = thumbnail.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, width, height, null);
+        g.dispose();
+        return thumbnail;
+    }
+}
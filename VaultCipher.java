@@ -0,0 +1,237 @@
+package src;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+/**
+ * VaultCipher encrypts note bodies with AES-256-GCM for vaults in encrypted mode
+ * (marked by a vault.crypto file holding the key derivation salt). The key is
+ * derived from the password with PBKDF2 once per session and kept in this object;
+ * each note is sealed with a fresh random IV and its title as associated data, so
+ * a body cannot be swapped into another note unnoticed.
+ *
+ * Titles (file names), categories and tags are not encrypted. Decrypted bodies
+ * only ever live in memory: an encrypted vault writes no startup snapshot.
+ *
+ * Encrypted note body: "NENC", version byte, 12-byte IV, ciphertext with GCM tag.
+ * It follows the NoteFile header, or makes up the whole file of older notes.
+ */
+class VaultCipher {
+    static final String KEY_FILE = "vault.crypto";
+    private static final int KEY_FILE_MAGIC = 0x4E564C54; // "NVLT"
+    private static final byte[] NOTE_MAGIC = {'N', 'E', 'N', 'C'};
+    private static final int VERSION = 1;
+    private static final int ITERATIONS = 210_000;
+    private static final int SALT_BYTES = 16;
+    private static final int IV_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int HEADER_BYTES = NOTE_MAGIC.length + 1 + IV_BYTES;
+    // Encrypted with the key in vault.crypto, used to check the password
+    private static final String CHECK_TEXT = "NoteApp vault key check";
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private final SecretKey key;
+    // Cipher.getInstance is costly, keep one per thread
+    private final ThreadLocal<Cipher> ciphers = ThreadLocal.withInitial(() -> {
+        try {
+            return Cipher.getInstance("AES/GCM/NoPadding");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private VaultCipher(SecretKey key) {
+        this.key = key;
+    }
+
+    /**
+     * @return true if the vault in the given directory is encrypted
+     */
+    static boolean isEnabled(File root) {
+        return new File(root, KEY_FILE).exists();
+    }
+
+    /**
+     * Derive the key of an encrypted vault from its password
+     * @param root The notes directory
+     * @param password The vault password
+     * @return The cipher for the session
+     * @throws GeneralSecurityException if the password is wrong
+     */
+    static VaultCipher unlock(File root, char[] password) throws IOException, GeneralSecurityException {
+        try (DataInputStream in = new DataInputStream(new FileInputStream(new File(root, KEY_FILE)))) {
+            if (in.readInt() != KEY_FILE_MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unsupported " + KEY_FILE);
+            }
+            int iterations = in.readInt();
+            byte[] salt = new byte[SALT_BYTES];
+            in.readFully(salt);
+            byte[] check = new byte[in.readInt()];
+            in.readFully(check);
+            VaultCipher cipher = new VaultCipher(deriveKey(password, salt, iterations));
+            cipher.decrypt(KEY_FILE, check); // Fails with AEADBadTagException for a wrong password
+            return cipher;
+        }
+    }
+
+    /**
+     * Turn on encryption for a vault: write vault.crypto with a new salt.
+     * Existing note files are not touched (see main for converting a vault).
+     * @return The cipher for the new key
+     */
+    static VaultCipher create(File root, char[] password) throws IOException, GeneralSecurityException {
+        byte[] salt = new byte[SALT_BYTES];
+        RANDOM.nextBytes(salt);
+        VaultCipher cipher = new VaultCipher(deriveKey(password, salt, ITERATIONS));
+        byte[] check = cipher.encrypt(KEY_FILE, CHECK_TEXT);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(KEY_FILE_MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(ITERATIONS);
+        out.write(salt);
+        out.writeInt(check.length);
+        out.write(check);
+        NoteJournal.writeAtomically(new File(root, KEY_FILE), bytes.toByteArray());
+        return cipher;
+    }
+
+    private static SecretKey deriveKey(char[] password, byte[] salt, int iterations) throws GeneralSecurityException {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, 256);
+        try {
+            byte[] raw = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256").generateSecret(spec).getEncoded();
+            return new SecretKeySpec(raw, "AES");
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Encrypt a note body
+     * @param title The note's title, bound to the ciphertext
+     * @param content The plaintext body
+     * @return The encrypted file contents
+     */
+    byte[] encrypt(String title, String content) {
+        byte[] iv = new byte[IV_BYTES];
+        RANDOM.nextBytes(iv);
+        try {
+            Cipher cipher = ciphers.get();
+            cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+            cipher.updateAAD(title.getBytes(StandardCharsets.UTF_8));
+            byte[] plain = content.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + cipher.getOutputSize(plain.length));
+            out.put(NOTE_MAGIC).put((byte) VERSION).put(iv);
+            cipher.doFinal(ByteBuffer.wrap(plain), out);
+            return out.array();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Could not encrypt " + title, e);
+        }
+    }
+
+    /**
+     * Decrypt a note body
+     * @param title The note's title, as used when encrypting
+     * @param data The encrypted file contents
+     * @return The plaintext body
+     * @throws GeneralSecurityException if the data was tampered with or belongs to another note
+     */
+    String decrypt(String title, byte[] data) throws GeneralSecurityException {
+        if (!isEncrypted(data)) {
+            throw new GeneralSecurityException(title + " is not encrypted");
+        }
+        Cipher cipher = ciphers.get();
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, NOTE_MAGIC.length + 1, IV_BYTES));
+        cipher.updateAAD(title.getBytes(StandardCharsets.UTF_8));
+        byte[] plain = cipher.doFinal(data, HEADER_BYTES, data.length - HEADER_BYTES);
+        return new String(plain, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Read and decrypt a note file, with or without a NoteFile header
+     */
+    String readNote(File file, String title) throws IOException {
+        return NoteFile.readContent(file, this, title);
+    }
+
+    /**
+     * @return true if the bytes are an encrypted note
+     */
+    static boolean isEncrypted(byte[] data) {
+        return data.length >= HEADER_BYTES && Arrays.equals(Arrays.copyOf(data, NOTE_MAGIC.length), NOTE_MAGIC);
+    }
+
+    /**
+     * Encode a note body the way the vault stores it after the NoteFile header
+     * @param cipher The vault's cipher, or null for a plaintext vault
+     */
+    static byte[] encode(VaultCipher cipher, String title, String content) {
+        return cipher == null ? content.getBytes(StandardCharsets.UTF_8) : cipher.encrypt(title, content);
+    }
+
+    /**
+     * Command line conversion: java -cp NoteApp.jar src.VaultCipher encrypt|decrypt notes
+     * Asks for the password on the console. Close NoteApp on the vault first.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 || !args[0].equals("encrypt") && !args[0].equals("decrypt")) {
+            System.err.println("Usage: VaultCipher encrypt|decrypt <notes directory>");
+            System.exit(2);
+        }
+        File root = new File(args[1]);
+        if (new File(root, NoteJournal.JOURNAL_FILE).length() > 0) {
+            System.err.println(root + " has unsaved journal entries; open and close NoteApp on it first");
+            System.exit(1);
+        }
+        boolean encrypt = args[0].equals("encrypt");
+        if (!encrypt && !isEnabled(root)) {
+            System.err.println(root + " is not encrypted");
+            System.exit(1);
+        }
+        Console console = System.console();
+        if (console == null) {
+            System.err.println("No console to read the password from");
+            System.exit(1);
+        }
+        char[] password = console.readPassword("Vault password: ");
+        if (encrypt && !isEnabled(root) && !Arrays.equals(password, console.readPassword("Repeat password: "))) {
+            System.err.println("Passwords do not match");
+            System.exit(1);
+        }
+        // An existing key file means an earlier encrypt run was interrupted: resume it
+        VaultCipher cipher = isEnabled(root) ? unlock(root, password) : create(root, password);
+        Arrays.fill(password, '\0');
+        int converted = 0;
+        for (File file : new VaultLayout(root).listNoteFiles()) {
+            String title = VaultLayout.titleOf(file);
+            NoteFile.Header header = NoteFile.readHeader(file);
+            byte[] data = NoteFile.readBody(file, header);
+            if (encrypt == isEncrypted(data)) continue; // Already converted by an interrupted run
+            String content = NoteFile.decodeBody(data, header != null, encrypt ? null : cipher, title, file);
+            long modified = header == null ? file.lastModified() : header.lastModifiedDate;
+            long created = header == null ? modified : header.creationDate;
+            // Legacy files are converted to the versioned format on the way
+            NoteFile.write(file, encrypt ? cipher : null, title, content, created, modified,
+                header == null ? null : header.metadata);
+            converted++;
+        }
+        // The snapshot holds plaintext bodies and the search index plaintext words: neither may outlive encryption
+        NoteSnapshot.delete(root);
+        SegmentIndex.delete(root);
+        if (!encrypt) {
+            Files.delete(new File(root, KEY_FILE).toPath());
+        }
+        System.out.println((encrypt ? "Encrypted " : "Decrypted ") + converted + " notes");
+    }
+}
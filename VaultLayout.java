@@ -0,0 +1,271 @@
+package src;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * VaultLayout decides where a note's file lives inside the notes directory.
+ * The flat layout keeps every note directly in the notes directory. The sharded
+ * layout spreads notes over two levels of 256 hash-prefixed subdirectories
+ * (e.g. notes/3f/a2/Title.txt) so no directory grows past a few hundred entries.
+ * Lookups and listings always consider both places, which lets a vault be
+ * migrated between layouts while the application is using it. Code that writes
+ * or deletes note files holds this layout's monitor while doing so, so a
+ * migration never moves an old copy over a file written meanwhile.
+ */
+class VaultLayout {
+    static final String LAYOUT_FILE = "vault.layout";
+    static final String NOTE_EXTENSION = ".txt";
+
+    /**
+     * Where newly written notes are placed
+     */
+    enum Mode { FLAT, SHARDED }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File root;
+    private volatile Mode mode;
+
+    /**
+     * Create a layout for the given notes directory, reading its configured mode
+     * @param root The notes directory
+     */
+    VaultLayout(File root) {
+        this.root = root;
+        this.mode = readMode(root);
+    }
+
+    /**
+     * @return The notes directory
+     */
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * @return The layout new note files are written in
+     */
+    Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Gets the file a note with this title is written to under the current layout
+     * @param title The note title
+     * @return The note file (its parent directory may not exist yet)
+     */
+    File fileFor(String title) {
+        return fileFor(title, mode);
+    }
+
+    private File fileFor(String title, Mode layoutMode) {
+        String name = title + NOTE_EXTENSION;
+        if (layoutMode == Mode.FLAT) {
+            return new File(root, name);
+        }
+        int h = spread(title.hashCode());
+        File shard = new File(new File(root, hex(h >>> 24)), hex(h >>> 16));
+        return new File(shard, name);
+    }
+
+    /**
+     * Gets every file a note with this title may currently be stored in,
+     * preferred location first (both layouts are checked while a migration runs)
+     */
+    List<File> candidateFiles(String title) {
+        Mode other = mode == Mode.FLAT ? Mode.SHARDED : Mode.FLAT;
+        return Arrays.asList(fileFor(title, mode), fileFor(title, other));
+    }
+
+    /**
+     * Finds the existing file of a note
+     * @return The file, or null if the note has no file
+     */
+    File locate(String title) {
+        for (File file : candidateFiles(title)) {
+            if (file.exists()) return file;
+        }
+        return null;
+    }
+
+    /**
+     * Lists all note files in the vault. Shard directories are walked in parallel.
+     */
+    List<File> listNoteFiles() {
+        File[] entries = root.listFiles();
+        if (entries == null) return new ArrayList<>();
+        List<File> files = new ArrayList<>();
+        List<File> shards = new ArrayList<>();
+        for (File entry : entries) {
+            if (isShardDirectory(entry)) {
+                shards.add(entry);
+            } else if (isNoteFile(entry.getName())) {
+                files.add(entry);
+            }
+        }
+        if (!shards.isEmpty()) {
+            files.addAll(shards.parallelStream()
+                .flatMap(shard -> listShard(shard).stream())
+                .collect(Collectors.toList()));
+        }
+        return files;
+    }
+
+    /**
+     * List the note files below one top-level shard directory
+     */
+    private static List<File> listShard(File shard) {
+        List<File> files = new ArrayList<>();
+        File[] subShards = shard.listFiles();
+        if (subShards == null) return files;
+        for (File subShard : subShards) {
+            if (!isShardDirectory(subShard)) continue;
+            File[] notes = subShard.listFiles((dir, name) -> isNoteFile(name));
+            if (notes != null) {
+                files.addAll(Arrays.asList(notes));
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Gets the note title stored in a note file
+     */
+    static String titleOf(File file) {
+        String name = file.getName();
+        return name.substring(0, name.length() - NOTE_EXTENSION.length());
+    }
+
+    /**
+     * Check that a title can name a note file inside the vault
+     * @throws IllegalArgumentException if the title is blank, contains a path separator,
+     *         ".." or a control character, or starts with a dot (hidden, and ignored by listings)
+     */
+    static void checkTitle(String title) {
+        if (title.trim().isEmpty()) {
+            throw new IllegalArgumentException("Title must not be empty");
+        }
+        if (title.indexOf('/') >= 0 || title.indexOf('\\') >= 0 || title.contains("..")
+                || title.startsWith(".") || title.chars().anyMatch(c -> c < 0x20)) {
+            throw new IllegalArgumentException("Title must not contain / \\ .. or control characters, or start with a dot");
+        }
+    }
+
+    /**
+     * Switch the vault to another layout while it stays usable: new writes go to the
+     * target layout right away, then existing files are moved over one at a time.
+     * @param target The layout to migrate to
+     * @return The number of files moved
+     */
+    int migrate(Mode target) throws IOException {
+        mode = target;
+        writeMode(root, target);
+        int moved = 0;
+        for (File file : listNoteFiles()) {
+            File destination = fileFor(titleOf(file), target);
+            if (destination.equals(file)) continue;
+            destination.getParentFile().mkdirs();
+            // One file at a time, so writers are held up for a single move only
+            synchronized (this) {
+                if (!file.exists()) continue; // Deleted or renamed while the migration was running
+                if (destination.exists()) {
+                    // A newer copy was already written in the target layout
+                    Files.delete(file.toPath());
+                    continue;
+                }
+                // A rename replaces an existing target on most systems, which the check above rules out
+                try {
+                    Files.move(file.toPath(), destination.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(file.toPath(), destination.toPath());
+                }
+            }
+            moved++;
+        }
+        if (target == Mode.FLAT) {
+            removeEmptyShards();
+        }
+        return moved;
+    }
+
+    /**
+     * Remove shard directories left empty after migrating back to the flat layout
+     */
+    private void removeEmptyShards() {
+        File[] entries = root.listFiles();
+        if (entries == null) return;
+        for (File shard : entries) {
+            if (!isShardDirectory(shard)) continue;
+            File[] subShards = shard.listFiles();
+            if (subShards != null) {
+                for (File subShard : subShards) {
+                    subShard.delete(); // Only succeeds when empty
+                }
+            }
+            shard.delete();
+        }
+    }
+
+    private static boolean isNoteFile(String name) {
+        return name.endsWith(NOTE_EXTENSION) && !name.startsWith(".");
+    }
+
+    private static boolean isShardDirectory(File file) {
+        String name = file.getName();
+        return name.length() == 2 && Character.digit(name.charAt(0), 16) >= 0
+            && Character.digit(name.charAt(1), 16) >= 0 && file.isDirectory();
+    }
+
+    private static String hex(int value) {
+        return new String(new char[] {HEX[(value >>> 4) & 0xF], HEX[value & 0xF]});
+    }
+
+    /**
+     * Finalizer of MurmurHash3, spreads String.hashCode over all bits
+     */
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private static Mode readMode(File root) {
+        File file = new File(root, LAYOUT_FILE);
+        if (!file.exists()) return Mode.FLAT;
+        try {
+            String value = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+            return Mode.valueOf(value.toUpperCase());
+        } catch (IOException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return Mode.FLAT;
+        }
+    }
+
+    private static void writeMode(File root, Mode mode) throws IOException {
+        root.mkdirs();
+        Files.write(new File(root, LAYOUT_FILE).toPath(),
+            mode.name().toLowerCase().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Command line migration tool: java -cp NoteApp.jar src.VaultLayout notes sharded|flat
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: VaultLayout <notes directory> flat|sharded");
+            System.exit(2);
+        }
+        VaultLayout layout = new VaultLayout(new File(args[0]));
+        long start = System.currentTimeMillis();
+        int moved = layout.migrate(Mode.valueOf(args[1].toUpperCase()));
+        System.out.println("Moved " + moved + " notes in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
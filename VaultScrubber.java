@@ -0,0 +1,326 @@
+package src;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * VaultScrubber checks note files against the checksums in their headers (see
+ * NoteFile) in the background, so a file damaged on disk is found before someone
+ * opens the note. It reads the vault in path order on one minimum-priority thread,
+ * at most a set number of bytes per second (each file counts as at least 4 KB,
+ * for the cost of opening it), and remembers where it stopped, so the next start
+ * continues the pass instead of beginning again. After a full pass it rests for
+ * a day. A damaged file is copied to "quarantine" in the notes directory and
+ * reported. Legacy files have no checksum and are only counted, until they are
+ * saved in the new format. Settings and progress are kept in "scrub.properties".
+ */
+class VaultScrubber {
+    static final String QUARANTINE_DIRECTORY = "quarantine";
+    static final String SETTINGS_FILE = "scrub.properties";
+    static final long DEFAULT_BYTES_PER_SECOND = 1 << 20;
+    private static final long MIN_FILE_BYTES = 4096;
+    private static final long PASS_INTERVAL_MS = 24L * 60 * 60 * 1000;
+    private static final long START_DELAY_MS = 30_000;   // Leave startup alone
+    private static final int SAVE_EVERY = 200;           // Files checked between progress saves
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    /**
+     * A damaged note file
+     */
+    static final class Damage {
+        final String title;
+        final File file;
+        final String problem;
+        final File copy;   // The copy in quarantine
+
+        Damage(String title, File file, String problem, File copy) {
+            this.title = title;
+            this.file = file;
+            this.problem = problem;
+            this.copy = copy;
+        }
+    }
+
+    private final VaultLayout layout;
+    private final Consumer<Damage> onDamage;
+    private volatile boolean enabled = true;
+    private volatile long bytesPerSecond = DEFAULT_BYTES_PER_SECOND;
+    private volatile boolean closed;
+    // Progress, saved in the settings file
+    private String cursor;       // Path of the last file checked in this pass, null before the first
+    private long lastPass;       // When the last full pass finished, 0 if none has
+    // For the report
+    private int passChecked;
+    private int passTotal;
+    private int passLegacy;
+    private final List<Damage> found = new ArrayList<>();
+    private long nextRead;       // Throttle: System.nanoTime() before which nothing more may be read
+    private ScheduledFuture<?> scheduled;
+    private long startedAt;      // When start() was called, 0 before
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "vault-scrubber");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    /**
+     * @param layout The vault to check
+     * @param onDamage Called on the scrubber thread for each damaged file, after it was copied to quarantine
+     */
+    VaultScrubber(VaultLayout layout, Consumer<Damage> onDamage) {
+        this.layout = layout;
+        this.onDamage = onDamage;
+        loadSettings();
+    }
+
+    /**
+     * Start checking shortly, if enabled
+     */
+    synchronized void start() {
+        startedAt = System.currentTimeMillis();
+        schedule(START_DELAY_MS);
+    }
+
+    /**
+     * Stop checking and save the progress
+     */
+    void close() {
+        closed = true;
+        worker.shutdownNow(); // Interrupts the throttle's sleep
+        saveSettings();
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Change the settings, which are saved with the vault. A new rate applies to the
+     * running pass; checking is only rescheduled when it is switched on or off.
+     * @param bytesPerSecond Most bytes to read per second
+     */
+    synchronized void configure(boolean enabled, long bytesPerSecond) {
+        bytesPerSecond = Math.max(1, bytesPerSecond);
+        if (enabled == this.enabled && bytesPerSecond == this.bytesPerSecond) return;
+        boolean switched = enabled != this.enabled;
+        this.enabled = enabled;
+        this.bytesPerSecond = bytesPerSecond;
+        saveSettings();
+        // Before start() there is nothing to reschedule; switched on, still leave startup alone
+        if (switched && startedAt != 0) {
+            schedule(Math.max(0, startedAt + START_DELAY_MS - System.currentTimeMillis()));
+        }
+    }
+
+    private synchronized void schedule(long delayMs) {
+        if (scheduled != null) scheduled.cancel(false);
+        scheduled = enabled && !closed ? worker.schedule(this::run, delayMs, TimeUnit.MILLISECONDS) : null;
+    }
+
+    /**
+     * Continue the current pass, or start one if the last is a day old
+     */
+    private void run() {
+        long wait;
+        synchronized (this) {
+            wait = cursor == null ? lastPass + PASS_INTERVAL_MS - System.currentTimeMillis() : 0;
+        }
+        if (wait > 0) {
+            schedule(wait);
+            return;
+        }
+        List<File> files = layout.listNoteFiles();
+        files.sort(Comparator.comparing(File::getPath));
+        int start = 0;
+        synchronized (this) {
+            if (cursor == null) passLegacy = 0;
+            while (start < files.size() && cursor != null && files.get(start).getPath().compareTo(cursor) <= 0) start++;
+            passChecked = start;
+            passTotal = files.size();
+        }
+        try {
+            for (int i = start; i < files.size(); i++) {
+                if (!enabled || closed) return;
+                checkFile(files.get(i));
+                synchronized (this) {
+                    cursor = files.get(i).getPath();
+                    passChecked = i + 1;
+                }
+                if ((i + 1) % SAVE_EVERY == 0) saveSettings();
+            }
+        } catch (InterruptedException e) {
+            return; // Closed
+        } finally {
+            saveSettings();
+        }
+        synchronized (this) {
+            cursor = null;
+            lastPass = System.currentTimeMillis();
+        }
+        saveSettings();
+        schedule(PASS_INTERVAL_MS);
+    }
+
+    /**
+     * Check one file, and copy it to quarantine and report it if it is damaged
+     */
+    private void checkFile(File file) throws InterruptedException {
+        String problem;
+        try {
+            problem = verify(file);
+        } catch (NoSuchFileException e) {
+            return; // Deleted or moved since the listing
+        } catch (IOException e) {
+            problem = file + " cannot be read: " + e.getMessage();
+        }
+        if (problem == null) return;
+        System.err.println("Damaged note file: " + problem);
+        File copy = null;
+        try {
+            copy = quarantine(file);
+        } catch (IOException e) {
+            System.err.println("Cannot copy " + file + " to quarantine: " + e.getMessage());
+        }
+        Damage damage = new Damage(VaultLayout.titleOf(file), file, problem, copy);
+        synchronized (this) {
+            found.add(damage);
+        }
+        onDamage.accept(damage);
+    }
+
+    /**
+     * Read a file within the rate limit and compare it with its header
+     * @return What is wrong with the file, or null if it is intact or has no header
+     */
+    private String verify(File file) throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            throttle(MIN_FILE_BYTES);
+            NoteFile.Header header;
+            try {
+                header = NoteFile.readHeader(channel, file);
+            } catch (IOException e) {
+                return e.getMessage();
+            }
+            if (header == null) {
+                synchronized (this) {
+                    passLegacy++;
+                }
+                return null;
+            }
+            long size = channel.size();
+            if (size != header.length + header.bodyLength) {
+                return file + " has " + size + " bytes, its header says " + (header.length + header.bodyLength);
+            }
+            CRC32 crc = new CRC32();
+            ByteBuffer buffer = ByteBuffer.allocate(CHUNK_BYTES);
+            for (long position = header.length; position < size; ) {
+                buffer.clear();
+                int read = channel.read(buffer, position);
+                if (read < 0) return file + " is cut short";
+                throttle(read);
+                crc.update(buffer.array(), 0, read);
+                position += read;
+            }
+            return (int) crc.getValue() == header.bodyCrc ? null : file + ": the text fails its checksum";
+        }
+    }
+
+    /**
+     * Wait until reading more bytes keeps within the rate limit
+     */
+    private void throttle(long bytes) throws InterruptedException {
+        long now = System.nanoTime();
+        nextRead = Math.max(nextRead, now) + bytes * 1_000_000_000L / bytesPerSecond;
+        if (nextRead > now) TimeUnit.NANOSECONDS.sleep(nextRead - now);
+    }
+
+    private File quarantine(File file) throws IOException {
+        File dir = new File(layout.getRoot(), QUARANTINE_DIRECTORY);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Cannot create " + dir);
+        }
+        File copy = new File(dir, file.getName() + "." + System.currentTimeMillis());
+        Files.copy(file.toPath(), copy.toPath(), StandardCopyOption.COPY_ATTRIBUTES);
+        return copy;
+    }
+
+    /**
+     * @return A description of the settings, the progress and the damaged files found
+     */
+    synchronized String report() {
+        StringBuilder out = new StringBuilder();
+        out.append(enabled ? String.format("Background check is on, reading at most %,d KB/s%n", bytesPerSecond / 1024)
+            : String.format("Background check is off%n"));
+        if (cursor != null || passTotal > 0 && passChecked < passTotal) {
+            out.append(String.format("Current pass: %,d of %,d files checked%n", passChecked, passTotal));
+        }
+        out.append(lastPass == 0 ? String.format("No pass finished yet%n")
+            : String.format("Last full pass finished %s%n", DateFormat.getDateTimeInstance().format(new Date(lastPass))));
+        if (passLegacy > 0) {
+            out.append(String.format("Files without a checksum (older format, until saved): %,d%n", passLegacy));
+        }
+        out.append(String.format("%nDamaged files found this session: %d%n", found.size()));
+        for (Damage damage : found) {
+            out.append(String.format("  %s%n    %s%n    copy: %s%n", damage.title, damage.problem,
+                damage.copy == null ? "none" : damage.copy));
+        }
+        return out.toString();
+    }
+
+    private synchronized void loadSettings() {
+        File file = new File(layout.getRoot(), SETTINGS_FILE);
+        if (!file.exists()) return;
+        Properties settings = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            settings.load(in);
+            enabled = Boolean.parseBoolean(settings.getProperty("enabled", "true"));
+            bytesPerSecond = Math.max(1, Long.parseLong(settings.getProperty("bytesPerSecond", Long.toString(DEFAULT_BYTES_PER_SECOND))));
+            cursor = settings.getProperty("cursor");
+            lastPass = Long.parseLong(settings.getProperty("lastPass", "0"));
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void saveSettings() {
+        Properties settings = new Properties();
+        settings.setProperty("enabled", Boolean.toString(enabled));
+        settings.setProperty("bytesPerSecond", Long.toString(bytesPerSecond));
+        if (cursor != null) settings.setProperty("cursor", cursor);
+        settings.setProperty("lastPass", Long.toString(lastPass));
+        File root = layout.getRoot();
+        if (!root.isDirectory()) return;
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            settings.store(out, "NoteApp background integrity check");
+            NoteJournal.writeAtomically(new File(root, SETTINGS_FILE), out.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package src;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * VaultStats keeps word, line and character totals over all notes. Each note's
+ * counts are remembered, so a save or delete adjusts the totals by the
+ * difference instead of rescanning the vault. A SegmentIndex stores the counts
+ * on disk, so only changed notes are counted at startup. All methods are
+ * thread-safe.
+ */
+class VaultStats {
+    private final Map<Integer, long[]> counts = new HashMap<>(); // Note id -> words, lines, characters
+    private long words;
+    private long lines;
+    private long characters;
+
+    /**
+     * Drop every note, until the totals are filled again
+     */
+    synchronized void clear() {
+        counts.clear();
+        words = lines = characters = 0;
+    }
+
+    /**
+     * Update a note's counts by counting its content
+     */
+    void update(Note note) {
+        update(note, note.getContent());
+    }
+
+    /**
+     * Count content read for a note without it being kept in the note (see Note.readContent)
+     */
+    void update(Note note, String content) {
+        long[] noteCounts = count(content);
+        synchronized (this) {
+            replace(note.getId(), noteCounts);
+        }
+    }
+
+    /**
+     * Update a note's counts with counts already known (from the editor)
+     */
+    synchronized void update(Note note, long words, long lines, long characters) {
+        replace(note.getId(), new long[] {words, lines, characters});
+    }
+
+    /**
+     * Set a note's counts to ones stored on disk
+     * @param noteCounts Words, lines and characters
+     * @throws IllegalArgumentException if there are not three counts
+     */
+    synchronized void put(Note note, long[] noteCounts) {
+        if (noteCounts.length != 3) {
+            throw new IllegalArgumentException(noteCounts.length + " counts, expected 3");
+        }
+        replace(note.getId(), noteCounts.clone());
+    }
+
+    /**
+     * @return The note's words, lines and characters, or null if it is not counted
+     */
+    synchronized long[] countsOf(Note note) {
+        long[] noteCounts = counts.get(note.getId());
+        return noteCounts == null ? null : noteCounts.clone();
+    }
+
+    /**
+     * Remove a deleted note from the totals
+     */
+    synchronized void remove(Note note) {
+        long[] old = counts.remove(note.getId());
+        if (old != null) add(old, -1);
+    }
+
+    private void replace(int id, long[] noteCounts) {
+        long[] old = counts.put(id, noteCounts);
+        if (old != null) add(old, -1);
+        add(noteCounts, 1);
+    }
+
+    private void add(long[] noteCounts, int sign) {
+        words += sign * noteCounts[0];
+        lines += sign * noteCounts[1];
+        characters += sign * noteCounts[2];
+    }
+
+    private static long[] count(String content) {
+        return new long[] {DocumentStats.countWords(content), DocumentStats.countLines(content), content.length()};
+    }
+
+    synchronized int getNotes() {
+        return counts.size();
+    }
+
+    synchronized long getWords() {
+        return words;
+    }
+
+    synchronized long getLines() {
+        return lines;
+    }
+
+    synchronized long getCharacters() {
+        return characters;
+    }
+}
@@ -0,0 +1,454 @@
+package src;
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+/**
+ * VaultSync brings two vault directories (e.g. a laptop and a shared drive) into
+ * the same state without copying whole vaults. Each side builds a Merkle tree:
+ * notes are bucketed by a hash of their title, each bucket hashes its notes'
+ * titles, contents and categories/tags, and each inner node hashes its sixteen
+ * children. Comparing the trees from the root down only visits subtrees whose
+ * hashes differ, so finding k changes among n notes costs O(k log n), and only
+ * the changed notes are transferred.
+ *
+ * Content hashes are cached per vault in sync.index (keyed by file size and
+ * modification time), so unchanged files are not read again. The state of the
+ * last sync is kept in sync.base in both vaults; it tells a note deleted on one
+ * side from a note created on the other. When both sides changed a note, the
+ * one modified last wins.
+ *
+ * Sync vaults while NoteApp is not running on them.
+ */
+class VaultSync {
+    static final String INDEX_FILE = "sync.index";
+    static final String BASE_FILE = "sync.base";
+    private static final int FANOUT = 16;
+    private static final int BUCKET_TARGET = 8;   // Average notes per leaf bucket
+    private static final int MAX_DEPTH = 6;
+
+    /**
+     * What a sync did
+     */
+    static final class Result {
+        int copiedToA;
+        int copiedToB;
+        int deletedFromA;
+        int deletedFromB;
+        int conflicts;
+        int bucketsCompared;
+
+        @Override
+        public String toString() {
+            return String.format("%d copied to A, %d copied to B, %d deleted from A, %d deleted from B, "
+                + "%d conflicts resolved (%d buckets compared)",
+                copiedToA, copiedToB, deletedFromA, deletedFromB, conflicts, bucketsCompared);
+        }
+    }
+
+    /**
+     * One note as seen by the sync
+     */
+    private static final class Entry {
+        final String title;
+        final File file;
+        final long size;
+        final long modified;
+        final long contentHash;
+        final String metadata;
+
+        Entry(String title, File file, long size, long modified, long contentHash, String metadata) {
+            this.title = title;
+            this.file = file;
+            this.size = size;
+            this.modified = modified;
+            this.contentHash = contentHash;
+            this.metadata = metadata;
+        }
+
+        /**
+         * Hash of everything that is synced: content plus category and tags
+         */
+        long hash() {
+            return mix(contentHash, metadata);
+        }
+    }
+
+    /**
+     * A vault with its notes bucketed into the leaves of a Merkle tree
+     */
+    private static final class Tree {
+        final VaultLayout layout;
+        final Map<String, String> metadata;
+        final Map<String, Entry> entries = new HashMap<>();
+        final Map<Integer, List<Entry>> buckets = new HashMap<>();  // Bucket number -> notes, absent if empty
+        final long[][] levels;  // levels[0] is the root, levels[depth] the buckets
+
+        Tree(VaultLayout layout, Map<String, String> metadata, Collection<Entry> notes, int depth) {
+            this.layout = layout;
+            this.metadata = metadata;
+            int leaves = 1 << (4 * depth);
+            for (Entry entry : notes) {
+                entries.put(entry.title, entry);
+                int bucket = bucketOf(entry.title, depth);
+                buckets.computeIfAbsent(bucket, b -> new ArrayList<>()).add(entry);
+            }
+            levels = new long[depth + 1][];
+            levels[depth] = new long[leaves];
+            for (int i = 0; i < leaves; i++) {
+                levels[depth][i] = hashBucket(buckets.get(i));
+            }
+            for (int level = depth - 1; level >= 0; level--) {
+                long[] children = levels[level + 1];
+                long[] nodes = new long[children.length / FANOUT];
+                for (int i = 0; i < nodes.length; i++) {
+                    long h = 0xcbf29ce484222325L;
+                    for (int c = 0; c < FANOUT; c++) {
+                        h = (h ^ children[i * FANOUT + c]) * 0x100000001b3L;
+                    }
+                    nodes[i] = h;
+                }
+                levels[level] = nodes;
+            }
+        }
+
+        private static long hashBucket(List<Entry> bucket) {
+            if (bucket == null) return 0;
+            bucket.sort(Comparator.comparing(entry -> entry.title));
+            long h = 0xcbf29ce484222325L;
+            for (Entry entry : bucket) {
+                h = mix(h, entry.title);
+                h = (h ^ entry.hash()) * 0x100000001b3L;
+            }
+            return h;
+        }
+    }
+
+    private VaultSync() {
+    }
+
+    /**
+     * Synchronize two vaults in both directions
+     * @param a The first notes directory
+     * @param b The second notes directory
+     * @return What was done
+     * @throws IOException if a vault has unapplied journal entries or cannot be read or written
+     */
+    static Result sync(File a, File b) throws IOException {
+        VaultLayout layoutA = new VaultLayout(a);
+        VaultLayout layoutB = new VaultLayout(b);
+        requireCheckpointed(a);
+        requireCheckpointed(b);
+        matchEncryption(layoutA, layoutB);
+        Map<String, String> metadataA = NoteJournal.readMetadata(a);
+        Map<String, String> metadataB = NoteJournal.readMetadata(b);
+        List<Entry> notesA = scan(layoutA, metadataA);
+        List<Entry> notesB = scan(layoutB, metadataB);
+        int depth = depthFor(Math.max(notesA.size(), notesB.size()));
+        Tree treeA = new Tree(layoutA, metadataA, notesA, depth);
+        Tree treeB = new Tree(layoutB, metadataB, notesB, depth);
+        Map<String, Long> base = readBase(a);
+
+        Result result = new Result();
+        List<Integer> changedBuckets = new ArrayList<>();
+        diff(treeA, treeB, 0, 0, changedBuckets, result);
+        for (int bucket : changedBuckets) {
+            Set<String> titles = new TreeSet<>();
+            treeA.buckets.getOrDefault(bucket, Collections.emptyList()).forEach(entry -> titles.add(entry.title));
+            treeB.buckets.getOrDefault(bucket, Collections.emptyList()).forEach(entry -> titles.add(entry.title));
+            for (String title : titles) {
+                reconcile(title, treeA, treeB, base.get(title), result);
+            }
+        }
+
+        if (!changedBuckets.isEmpty()) {
+            NoteJournal.writeMetadata(a, treeA.metadata);
+            NoteJournal.writeMetadata(b, treeB.metadata);
+            // The snapshots, including any left pending, no longer describe the synced files
+            NoteSnapshot.delete(a);
+            NoteSnapshot.delete(b);
+        }
+        if (!changedBuckets.isEmpty() || base.size() != treeA.entries.size()) {
+            Map<String, Long> synced = new HashMap<>();
+            for (Entry entry : treeA.entries.values()) {
+                synced.put(entry.title, entry.hash());
+            }
+            writeBase(a, synced);
+            writeBase(b, synced);
+        }
+        writeIndex(a, treeA.entries.values());
+        writeIndex(b, treeB.entries.values());
+        return result;
+    }
+
+    /**
+     * Walk both trees from a node down, collecting the leaf buckets whose hashes differ
+     */
+    private static void diff(Tree a, Tree b, int level, int node, List<Integer> changed, Result result) {
+        if (a.levels[level][node] == b.levels[level][node]) return;
+        if (level == a.levels.length - 1) {
+            result.bucketsCompared++;
+            changed.add(node);
+            return;
+        }
+        for (int c = 0; c < FANOUT; c++) {
+            diff(a, b, level + 1, node * FANOUT + c, changed, result);
+        }
+    }
+
+    /**
+     * Bring one note into the same state on both sides, using the last synced
+     * hash to tell which side changed
+     */
+    private static void reconcile(String title, Tree a, Tree b, Long baseHash, Result result) throws IOException {
+        Entry inA = a.entries.get(title);
+        Entry inB = b.entries.get(title);
+        if (inA != null && inB != null) {
+            if (inA.hash() == inB.hash()) return;
+            boolean changedA = baseHash == null || inA.hash() != baseHash;
+            boolean changedB = baseHash == null || inB.hash() != baseHash;
+            if (changedA && changedB) {
+                result.conflicts++;
+            }
+            boolean aWins = changedA && (!changedB || inA.modified > inB.modified
+                || inA.modified == inB.modified && inA.hash() > inB.hash());
+            if (aWins) {
+                copy(inA, a, b);
+                result.copiedToB++;
+            } else {
+                copy(inB, b, a);
+                result.copiedToA++;
+            }
+        } else if (inA != null) {
+            if (baseHash != null && inA.hash() == baseHash) {
+                delete(inA, a);   // Deleted on B since the last sync
+                result.deletedFromA++;
+            } else {
+                copy(inA, a, b);  // New on A, or changed on A after B deleted it
+                result.copiedToB++;
+            }
+        } else if (inB != null) {
+            if (baseHash != null && inB.hash() == baseHash) {
+                delete(inB, b);
+                result.deletedFromB++;
+            } else {
+                copy(inB, b, a);
+                result.copiedToA++;
+            }
+        }
+    }
+
+    /**
+     * Copy a note's file and metadata to the other vault, keeping its modification time
+     */
+    private static void copy(Entry entry, Tree from, Tree to) throws IOException {
+        Entry existing = to.entries.get(entry.title);
+        File target = existing != null ? existing.file : to.layout.fileFor(entry.title);
+        target.getParentFile().mkdirs();
+        Path temp = target.toPath().resolveSibling("." + target.getName() + ".tmp");
+        Files.copy(entry.file.toPath(), temp, StandardCopyOption.REPLACE_EXISTING);
+        try {
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        target.setLastModified(entry.modified);
+        if (entry.metadata.isEmpty()) {
+            to.metadata.remove(entry.title);
+        } else {
+            to.metadata.put(entry.title, entry.metadata);
+        }
+        Entry copied = new Entry(entry.title, target, entry.size, target.lastModified(), entry.contentHash, entry.metadata);
+        to.entries.put(entry.title, copied);
+    }
+
+    private static void delete(Entry entry, Tree tree) throws IOException {
+        Files.deleteIfExists(entry.file.toPath());
+        tree.metadata.remove(entry.title);
+        tree.entries.remove(entry.title);
+    }
+
+    /**
+     * List a vault's notes, hashing only files whose size or modification time
+     * changed since the last sync
+     */
+    private static List<Entry> scan(VaultLayout layout, Map<String, String> metadata) throws IOException {
+        Map<String, Entry> cached = readIndex(layout.getRoot());
+        List<Entry> entries = new ArrayList<>();
+        for (File file : layout.listNoteFiles()) {
+            String title = VaultLayout.titleOf(file);
+            long size = file.length();
+            long modified = file.lastModified();
+            Entry previous = cached.get(title);
+            long contentHash = previous != null && previous.size == size && previous.modified == modified
+                ? previous.contentHash : hashFile(file);
+            entries.add(new Entry(title, file, size, modified, contentHash, metadata.getOrDefault(title, "")));
+        }
+        return entries;
+    }
+
+    /**
+     * Refuse to touch a vault whose journal still holds edits not yet written to the note files
+     */
+    private static void requireCheckpointed(File root) throws IOException {
+        File journal = new File(root, NoteJournal.JOURNAL_FILE);
+        if (journal.length() > 0) {
+            throw new IOException(root + " has unsaved journal entries; open and close NoteApp on it first");
+        }
+    }
+
+    /**
+     * Both vaults must use the same key, since notes are copied as stored. An
+     * empty vault takes on the key file of the other one.
+     */
+    private static void matchEncryption(VaultLayout a, VaultLayout b) throws IOException {
+        File keyA = new File(a.getRoot(), VaultCipher.KEY_FILE);
+        File keyB = new File(b.getRoot(), VaultCipher.KEY_FILE);
+        if (!keyA.exists() && !keyB.exists()) return;
+        if (keyA.exists() && keyB.exists()
+                && Arrays.equals(Files.readAllBytes(keyA.toPath()), Files.readAllBytes(keyB.toPath()))) {
+            return;
+        }
+        if (keyA.exists() && !keyB.exists() && b.listNoteFiles().isEmpty()) {
+            Files.copy(keyA.toPath(), keyB.toPath());
+        } else if (keyB.exists() && !keyA.exists() && a.listNoteFiles().isEmpty()) {
+            Files.copy(keyB.toPath(), keyA.toPath());
+        } else {
+            throw new IOException("The vaults are not encrypted with the same key");
+        }
+    }
+
+    /**
+     * Tree depth giving about BUCKET_TARGET notes per leaf
+     */
+    private static int depthFor(int notes) {
+        int depth = 1;
+        while (depth < MAX_DEPTH && (long) BUCKET_TARGET << (4 * depth) < notes) depth++;
+        return depth;
+    }
+
+    private static int bucketOf(String title, int depth) {
+        return (int) (mix(0xcbf29ce484222325L, title) >>> (64 - 4 * depth));
+    }
+
+    /**
+     * First 64 bits of the SHA-256 of a file
+     */
+    private static long hashFile(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[1 << 16];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+        byte[] hash = digest.digest();
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (hash[i] & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * FNV-1a step over the characters of a string
+     */
+    private static long mix(long h, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Read the hash cache: title, size, modification time and content hash per line
+     */
+    private static Map<String, Entry> readIndex(File root) {
+        Map<String, Entry> index = new HashMap<>();
+        File file = new File(root, INDEX_FILE);
+        if (!file.exists()) return index;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split("\t");
+                if (fields.length != 4) continue;
+                index.put(fields[0], new Entry(fields[0], null, Long.parseLong(fields[1]),
+                    Long.parseLong(fields[2]), Long.parseUnsignedLong(fields[3], 16), ""));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // The cache only saves time; rebuild it from the files
+            index.clear();
+        }
+        return index;
+    }
+
+    private static void writeIndex(File root, Collection<Entry> entries) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (Entry entry : entries) {
+            out.append(entry.title).append('\t').append(entry.size).append('\t')
+                .append(entry.file.lastModified()).append('\t')
+                .append(Long.toHexString(entry.contentHash)).append('\n');
+        }
+        writeFile(new File(root, INDEX_FILE), out.toString());
+    }
+
+    /**
+     * Read the state of the last sync: title and synced hash per line
+     */
+    private static Map<String, Long> readBase(File root) {
+        Map<String, Long> base = new HashMap<>();
+        File file = new File(root, BASE_FILE);
+        if (!file.exists()) return base;
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.lastIndexOf('\t');
+                if (tab > 0) base.put(line.substring(0, tab), Long.parseUnsignedLong(line.substring(tab + 1), 16));
+            }
+        } catch (IOException | NumberFormatException e) {
+            // Without a base every difference is treated as a conflict, nothing is deleted
+            base.clear();
+        }
+        return base;
+    }
+
+    private static void writeBase(File root, Map<String, Long> base) throws IOException {
+        StringBuilder out = new StringBuilder();
+        for (Map.Entry<String, Long> entry : base.entrySet()) {
+            out.append(entry.getKey()).append('\t').append(Long.toHexString(entry.getValue())).append('\n');
+        }
+        writeFile(new File(root, BASE_FILE), out.toString());
+    }
+
+    private static void writeFile(File file, String content) throws IOException {
+        Path temp = file.toPath().resolveSibling("." + file.getName() + ".tmp");
+        Files.write(temp, content.getBytes(StandardCharsets.UTF_8));
+        try {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Command line sync: java -cp NoteApp.jar src.VaultSync notes /mnt/share/notes
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: VaultSync <notes directory> <other notes directory>");
+            System.exit(2);
+        }
+        long start = System.currentTimeMillis();
+        Result result = sync(new File(args[0]), new File(args[1]));
+        System.out.println(result + " in " + (System.currentTimeMillis() - start) + " ms");
+    }
+}
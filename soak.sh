@@ -0,0 +1,14 @@
+#!/bin/sh
+# Soak NoteApp under a virtual display and report input-to-paint latency and heap.
+# Needs a JDK and Xvfb (Debian/Ubuntu: apt install xvfb).
+# Each run uses a fresh temporary copy of the vault; --dir keeps the generated vault as a template.
+# Usage: ./soak.sh [--notes 20000] [--ops 2000] [--dir /tmp/soak-template] [--csv heap.csv] [--max-p99 ms]
+set -e
+SRC=$(cd "$(dirname "$0")" && pwd)
+BUILD=${BUILD:-$(mktemp -d)}
+javac -d "$BUILD" "$SRC"/*.java
+JAVA_OPTS=${JAVA_OPTS:--Xmx1g}
+if [ -n "$DISPLAY" ]; then
+    exec java $JAVA_OPTS -cp "$BUILD" src.SoakHarness "$@"
+fi
+exec xvfb-run -a -s "-screen 0 1600x1000x24" java $JAVA_OPTS -cp "$BUILD" src.SoakHarness "$@"